@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.jaxb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+/**
+ * Process wide cache of {@link JAXBContext}s together with a small pool of
+ * {@link Marshaller}s for each of them.
+ * <p>
+ * Creating a JAXB context is expensive as it requires reflection on all model
+ * classes. The context itself is thread-safe and is created only once per
+ * context path. Marshallers are not thread-safe, so they are handed out
+ * exclusively via {@link #acquire()} and should be handed back via
+ * {@link #release(Marshaller)} when done. Marshallers keep the properties set
+ * by previous users, so callers have to set all properties they rely on after
+ * acquiring a marshaller.
+ * </p>
+ * 
+ * @author Mark Michaelis
+ */
+public final class MarshallerPool {
+    /**
+     * Maximum number of idle marshallers kept per context.
+     */
+    private static final int MAX_IDLE = 4;
+    /**
+     * The pools created so far mapped by their context path.
+     */
+    private static final Map<String, MarshallerPool> POOLS = new HashMap<String, MarshallerPool>();
+
+    /**
+     * The context path this pool has been created for.
+     */
+    private final String contextPath;
+    /**
+     * The JAXB context; created on first use.
+     */
+    private JAXBContext context = null;
+    /**
+     * Marshallers which are currently not in use.
+     */
+    private final BlockingQueue<Marshaller> idle = new ArrayBlockingQueue<Marshaller>(MAX_IDLE);
+
+    /**
+     * Constructor.
+     * 
+     * @param contextPath
+     *            the context path to create the JAXB context for
+     */
+    private MarshallerPool(final String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    /**
+     * Get the pool for the given context path.
+     * 
+     * @param contextPath
+     *            list of colon separated java package names which contain
+     *            the JAXB model classes
+     * @return the pool; the same instance for the same context path
+     */
+    public static MarshallerPool getInstance(final String contextPath) {
+        synchronized (POOLS) {
+            MarshallerPool pool = POOLS.get(contextPath);
+            if (pool == null) {
+                pool = new MarshallerPool(contextPath);
+                POOLS.put(contextPath, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * @return the JAXB context of this pool; will be created on first call
+     * @throws JAXBException
+     *             if the context could not be created
+     */
+    public synchronized JAXBContext getContext() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(contextPath);
+        }
+        return context;
+    }
+
+    /**
+     * Take a marshaller from the pool. If none is available a new one is
+     * created.
+     * 
+     * @return a marshaller for exclusive use by the caller
+     * @throws JAXBException
+     *             if a new marshaller could not be created
+     */
+    public Marshaller acquire() throws JAXBException {
+        final Marshaller marshaller = idle.poll();
+        if (marshaller != null) {
+            return marshaller;
+        }
+        return getContext().createMarshaller();
+    }
+
+    /**
+     * Hand back a marshaller which has been acquired before. If the pool is
+     * full the marshaller is dropped.
+     * 
+     * @param marshaller
+     *            the marshaller which is not used anymore by the caller
+     */
+    public void release(final Marshaller marshaller) {
+        if (marshaller != null) {
+            idle.offer(marshaller);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.arctic.io.ChannelWriter;
+import org.arctic.io.JsonLinesWriter;
+
+/**
+ * Rolls the output of {@link EchoFiles} into numbered chunks, each complete
+ * in itself, and writes an index of the chunks next to the output file.
+ *
+ * @author Mark Michaelis
+ */
+class ChunkWriter implements ListingSink {
+    /**
+     * Encoding of the index.
+     */
+    private static final String FILE_ENCODING = "UTF-8";
+    /**
+     * Suffix appended to the output file to get the index of the chunks.
+     */
+    private static final String INDEX_FILE_SUFFIX = ".index";
+    /**
+     * Field of the chunk index holding the file name of a chunk.
+     */
+    private static final String INDEX_FILE_FIELD = "file";
+    /**
+     * Field of the chunk index holding the number of resources of a chunk.
+     */
+    private static final String INDEX_ENTRIES_FIELD = "entries";
+    /**
+     * Field of the chunk index holding the first resource of a chunk.
+     */
+    private static final String INDEX_FIRST_FIELD = "first";
+    /**
+     * Field of the chunk index holding the last resource of a chunk.
+     */
+    private static final String INDEX_LAST_FIELD = "last";
+
+    /**
+     * The task to log with.
+     */
+    private final Task owner;
+    /**
+     * Writer of the output file, to derive the writers of the chunks from.
+     */
+    private final ListingWriter prototype;
+    /**
+     * Maximum size of a chunk in bytes; 0 for no limit.
+     */
+    private final long maxBytes;
+    /**
+     * Maximum number of resources of a chunk; 0 for no limit.
+     */
+    private final long maxLines;
+
+    /**
+     * Constructor.
+     *
+     * @param owner
+     *            the task to log with
+     * @param prototype
+     *            writer of the output file, which must not be
+     *            {@link System#out}
+     * @param maxBytes
+     *            maximum size of a chunk in bytes; 0 for no limit
+     * @param maxLines
+     *            maximum number of resources of a chunk; 0 for no limit
+     */
+    ChunkWriter(final Task owner, final ListingWriter prototype, final long maxBytes, final long maxLines) {
+        this.owner = owner;
+        this.prototype = prototype;
+        this.maxBytes = maxBytes;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Rolls the resources into numbered chunks, each written as complete
+     * output of the type of the prototype, and writes the index of the
+     * chunks, see {@link #writeIndex(List)}.
+     *
+     * @param entries
+     *            the resources to write
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    public void write(final Iterable<ResourceEntry> entries) throws BuildException {
+        final String file = prototype.getTarget().getFile();
+        final Iterator<ResourceEntry> remaining = entries.iterator();
+        final List<Chunk> chunks = new ArrayList<Chunk>();
+        do {
+            final String chunkFile = OutputTarget.getNumberedFile(file, chunks.size());
+            final ListingWriter writer = prototype.derive(chunkFile, prototype.getType());
+            final Chunk chunk = new Chunk(new File(chunkFile).getName(), remaining, writer);
+            writer.write(chunk);
+            chunks.add(chunk);
+            owner.log("Wrote " + chunk.count + " resources to chunk \"" + chunkFile + "\".",
+                    Project.MSG_VERBOSE);
+        }
+        while (remaining.hasNext());
+        writeIndex(chunks);
+    }
+
+    /**
+     * Writes the index of the chunks as JSON Lines next to the output file,
+     * named after it with suffix <code>.index</code>. For each chunk it holds
+     * the file name, the number of resources and the first and last
+     * resource, so that readers of sorted output can pick the chunk holding
+     * a resource without scanning the chunks:
+     *
+     * <pre>
+     *   {"file":"files-0.txt","entries":2,"first":"/a/b","last":"/a/c"}
+     * </pre>
+     *
+     * @param chunks
+     *            the chunks written
+     * @throws BuildException
+     *             if the index cannot be written
+     */
+    private void writeIndex(final List<Chunk> chunks) throws BuildException {
+        final File indexFile = new File(prototype.getTarget().getFile() + INDEX_FILE_SUFFIX);
+        try {
+            final JsonLinesWriter writer =
+                    new JsonLinesWriter(new ChannelWriter(new FileOutputStream(indexFile).getChannel(),
+                            FILE_ENCODING));
+            try {
+                for (final Chunk chunk : chunks) {
+                    writer.startObject();
+                    writer.writeField(INDEX_FILE_FIELD, chunk.fileName);
+                    writer.writeField(INDEX_ENTRIES_FIELD, chunk.count);
+                    if (chunk.first != null) {
+                        writer.writeField(INDEX_FIRST_FIELD, chunk.first);
+                        writer.writeField(INDEX_LAST_FIELD, chunk.last);
+                    }
+                    writer.endObject();
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (final IOException e) {
+            throw new BuildException("Unable to write chunk index \"" + indexFile.getAbsolutePath() + "\".",
+                    e);
+        }
+    }
+
+    /**
+     * One chunk of rolling output: the resources up to the limits, taken from
+     * the resources remaining. Records the number of resources and the names
+     * of the first and last one for the index.
+     */
+    private final class Chunk implements Iterable<ResourceEntry> {
+        /**
+         * Name of the file the chunk is written to.
+         */
+        private final String fileName;
+        /**
+         * The resources not written yet, shared by all chunks.
+         */
+        private final Iterator<ResourceEntry> remaining;
+        /**
+         * The writer of the chunk, to tell its size.
+         */
+        private final ListingWriter writer;
+        /**
+         * Number of resources of the chunk.
+         */
+        private long count = 0;
+        /**
+         * The name of the first resource of the chunk.
+         */
+        private String first = null;
+        /**
+         * The name of the last resource of the chunk.
+         */
+        private String last = null;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName
+         *            name of the file the chunk is written to
+         * @param remaining
+         *            the resources not written yet
+         * @param writer
+         *            the writer of the chunk
+         */
+        Chunk(final String fileName, final Iterator<ResourceEntry> remaining, final ListingWriter writer) {
+            this.fileName = fileName;
+            this.remaining = remaining;
+            this.writer = writer;
+        }
+
+        /**
+         * @return <code>true</code> if the chunk cannot take another
+         *         resource; a chunk takes at least one resource
+         */
+        private boolean isFull() {
+            if (count == 0) {
+                return false;
+            }
+            if (maxLines > 0 && count >= maxLines) {
+                return true;
+            }
+            try {
+                return maxBytes > 0 && writer.getBytesWritten() >= maxBytes;
+            }
+            catch (final IOException e) {
+                throw new BuildException("Unable to determine size of chunk \"" + fileName + "\".", e);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public Iterator<ResourceEntry> iterator() {
+            return new Iterator<ResourceEntry>() {
+                public boolean hasNext() {
+                    return !isFull() && remaining.hasNext();
+                }
+
+                public ResourceEntry next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final ResourceEntry entry = remaining.next();
+                    last = entry.getName();
+                    if (first == null) {
+                        first = last;
+                    }
+                    count++;
+                    return entry;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
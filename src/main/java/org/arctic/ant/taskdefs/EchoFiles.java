@@ -15,21 +15,23 @@
  */
 package org.arctic.ant.taskdefs;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
@@ -38,11 +40,18 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Resource;
 import org.apache.tools.ant.types.ResourceCollection;
 import org.apache.tools.ant.types.resources.FileResource;
-import org.apache.tools.ant.types.resources.URLResource;
+import org.arctic.io.BinaryListingWriter;
+import org.arctic.io.CompressingChannel;
+import org.arctic.io.FileDigester;
+import org.arctic.io.JsonLinesWriter;
+import org.arctic.io.ListingState;
+import org.arctic.io.PathTreeWriter;
 import org.arctic.text.Strings;
+import org.arctic.util.ExternalSorter;
+import org.arctic.util.PathPattern;
+import org.arctic.util.PathSet;
+import org.arctic.util.Pipe;
 
-import org.arctic.ant.jaxb.model.ObjectFactory;
-import org.arctic.ant.jaxb.model.Resources;
 
 /**
  * This task takes a fileset and outputs all files addressed by this fileset.
@@ -58,23 +67,94 @@ import org.arctic.ant.jaxb.model.Resources;
  * </pre>
  * 
  * The latter one might be used with XSL transformation to process all files
- * e.&nbsp;g. for merging them.
+ * e.&nbsp;g. for merging them. Format "binary" writes the files sorted in the
+ * compact format read by {@link org.arctic.io.BinaryListingReader}. Format
+ * "xml-tree" writes the files sorted as tree of nested directory elements,
+ * see {@link PathTreeWriter}. Format "jsonl" writes one JSON object per
+ * line and file, see {@link JsonLinesWriter}. With
+ * attribute <code>checksum</code> each resource is written with the checksum
+ * of its content, with attribute <code>metadata</code> with its size,
+ * modification time or permissions. As text these details are additional
+ * columns, separated by a tab by default; as XML they are attributes of the
+ * resource element; as JSON they are fields of the object.
+ * <p>
+ * Instead of to one file the resources may be written to several nested
+ * <code>output</code> elements, each with its own file, type and filter
+ * patterns. The resources are then scanned only once and all outputs are
+ * written concurrently:
+ * </p>
+ * 
+ * <pre>
+ *   &lt;echofiles&gt;
+ *     &lt;fileset dir="src"/&gt;
+ *     &lt;output file="all.txt"/&gt;
+ *     &lt;output file="java.xml" type="xml" filter="**&#47;*.java"/&gt;
+ *   &lt;/echofiles&gt;
+ * </pre>
+ * <p>
+ * With attribute <code>shards</code> the resources are partitioned by a
+ * stable hash of their names into several files of about equal size, which
+ * are written concurrently as well, e.&nbsp;g. for parallel downstream
+ * consumers.
+ * </p>
+ * <p>
+ * With attributes <code>maxBytes</code> or <code>maxLines</code> the output
+ * is rolled into numbered chunks, each complete in itself, plus an index of
+ * the chunks with their first and last resource.
+ * </p>
+ * <p>
+ * In incremental mode only the changes since the previous run are written,
+ * in the sections <code>added</code>, <code>removed</code> and
+ * <code>changed</code>. As text each section starts with its name in square
+ * brackets, as XML the sections are nested into a <code>delta</code>
+ * element:
+ * </p>
+ * 
+ * <pre>
+ *   &lt;delta&gt;
+ *     &lt;added&gt;&lt;resource&gt;File 1&lt;/resource&gt;&lt;/added&gt;
+ *     &lt;removed/&gt;
+ *     &lt;changed&gt;&lt;resource&gt;File 2&lt;/resource&gt;&lt;/changed&gt;
+ *   &lt;/delta&gt;
+ * </pre>
  * 
  * @author Mark Michaelis
  */
 public class EchoFiles extends Task {
     /**
-     * Line Separator to output text files.
+     * Default delimiter of the columns in text output.
+     */
+    private static final String DEFAULT_DELIMITER = "\t";
+    /**
+     * Name of the root element of the XML output in incremental mode.
+     */
+    private static final String DELTA_ELEMENT = "delta";
+    /**
+     * Section of the resources added since the previous run.
+     */
+    private static final String SECTION_ADDED = "added";
+    /**
+     * Section of the resources removed since the previous run.
+     */
+    private static final String SECTION_REMOVED = "removed";
+    /**
+     * Section of the resources whose modification time or size changed since
+     * the previous run.
+     */
+    private static final String SECTION_CHANGED = "changed";
+    /**
+     * Suffix appended to the output file to get the default state file.
      */
-    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final String STATE_FILE_SUFFIX = ".state";
     /**
-     * (Standard-)Encoding for file outputs.
+     * Default capacity of the queue between scanner and writer in pipeline
+     * mode.
      */
-    private static final String FILE_ENCODING = "UTF-8";
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
     /**
-     * Description for default output target.
+     * Default memory budget in bytes for sorting.
      */
-    private static final String DEFAULT_FILE_DESC = "System.out";
+    private static final long DEFAULT_SORT_MEMORY = 64L * 1024L * 1024L;
     /**
      * Output type "text". Will print the files found line by line.
      */
@@ -83,15 +163,66 @@ public class EchoFiles extends Task {
      * Output type "xml". Will print the files found in XML format.
      */
     public static final String TYPE_XML = "xml";
+    /**
+     * Output type "binary". Will write the files sorted and front-coded, see
+     * {@link BinaryListingWriter}.
+     */
+    public static final String TYPE_BINARY = "binary";
+    /**
+     * Output type "xml-tree". Will write the files sorted in XML format as
+     * tree of nested directories, see {@link PathTreeWriter}.
+     */
+    public static final String TYPE_XML_TREE = "xml-tree";
+    /**
+     * Output type "jsonl". Will print one JSON object per file, see
+     * {@link JsonLinesWriter}.
+     */
+    public static final String TYPE_JSONL = "jsonl";
+    /**
+     * Deduplication "hash". Uses a {@link HashSet} of the resource names.
+     */
+    public static final String DEDUP_HASH = "hash";
+    /**
+     * Deduplication "compact". Uses a {@link PathSet} which stores common
+     * prefixes of the resource names only once.
+     */
+    public static final String DEDUP_COMPACT = "compact";
+    /**
+     * Compress the output in GZIP file format.
+     */
+    public static final String COMPRESS_GZIP = "gzip";
+    /**
+     * Compress the output in ZLIB format.
+     */
+    public static final String COMPRESS_DEFLATE = "deflate";
+    /**
+     * Metadata column holding the size in bytes.
+     */
+    public static final String METADATA_SIZE = "size";
+    /**
+     * Metadata column holding the modification time in milliseconds since
+     * the epoch.
+     */
+    public static final String METADATA_MTIME = "mtime";
+    /**
+     * Metadata column holding the read and write permissions of the current
+     * user.
+     */
+    public static final String METADATA_PERMISSIONS = "permissions";
+    /**
+     * Highest compression level.
+     */
+    private static final int MAX_COMPRESS_LEVEL = 9;
+    /**
+     * Highest number of shards. Each shard is written by a thread of its
+     * own, fed by a pipe of {@link #getQueueSize()} resources.
+     */
+    private static final int MAX_SHARDS = 64;
 
     /**
      * Where to write the output to. Defaults to {@link System#out}.
      */
     private String file = null;
-    /**
-     * Description of the file on Log-Output.
-     */
-    private String fileDescription = DEFAULT_FILE_DESC;
     /**
      * The type of output. Might be text or XML. text will output the files one
      * by line. Format XML will output the files embedded in XML tags.
@@ -101,6 +232,92 @@ public class EchoFiles extends Task {
      * Collections of resources to echo.
      */
     private final AbstractCollection<ResourceCollection> rcs = new ArrayList<ResourceCollection>();
+    /**
+     * If set, scanning and writing run concurrently and resource names are
+     * handed over to the writer via a bounded queue.
+     */
+    private boolean pipeline = false;
+    /**
+     * Capacity of the queue between scanner and writer in pipeline mode.
+     */
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    /**
+     * How to remove duplicate resource names.
+     */
+    private String dedup = DEDUP_HASH;
+    /**
+     * If set, the output is sorted.
+     */
+    private boolean sort = false;
+    /**
+     * Memory budget in bytes for sorting in memory.
+     */
+    private long sortMemory = DEFAULT_SORT_MEMORY;
+    /**
+     * If set, the resource collections are scanned concurrently.
+     */
+    private boolean parallel = false;
+    /**
+     * Number of threads for concurrent scanning; 0 for one per processor.
+     */
+    private int threads = 0;
+    /**
+     * If set, files found by the directory scanner of a file set are not
+     * checked for existence again.
+     */
+    private boolean trustScanner = true;
+    /**
+     * If set, every resource added is logged at debug level.
+     */
+    private boolean logResources = false;
+    /**
+     * If set, only the changes since the previous run are written.
+     */
+    private boolean incremental = false;
+    /**
+     * Where to keep the state of the previous run in incremental mode.
+     */
+    private String stateFile = null;
+    /**
+     * How to compress the output; <code>null</code> for no compression.
+     */
+    private String compress = null;
+    /**
+     * The compression level.
+     */
+    private int compressLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * Size of the buffers used for compression.
+     */
+    private int compressBufferSize = CompressingChannel.DEFAULT_BUFFER_SIZE;
+    /**
+     * Checksum algorithm; <code>null</code> for no checksums.
+     */
+    private String checksum = null;
+    /**
+     * Comma separated metadata columns; <code>null</code> for none.
+     */
+    private String metadata = null;
+    /**
+     * Delimiter of the columns in text output.
+     */
+    private String delimiter = DEFAULT_DELIMITER;
+    /**
+     * Maximum size of a chunk in bytes; 0 for no limit.
+     */
+    private long maxBytes = 0;
+    /**
+     * Maximum number of resources of a chunk; 0 for no limit.
+     */
+    private long maxLines = 0;
+    /**
+     * Number of files to partition the output into.
+     */
+    private int shards = 1;
+    /**
+     * Nested outputs, all fed by one scan.
+     */
+    private final List<Output> outputs = new ArrayList<Output>();
 
     /**
      * Constructor.
@@ -109,6 +326,88 @@ public class EchoFiles extends Task {
         // nothing to do
     }
 
+    /**
+     * @return maximum size of a chunk in bytes; 0 for no limit
+     */
+    public final long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Rolls the output into numbered chunks of about the given size. A chunk
+     * is closed at the first resource boundary after it reached the size, so
+     * that each chunk is complete in itself, e.&nbsp;g. well-formed XML.
+     * The size is counted before compression. With checksums or metadata a
+     * chunk may exceed the size by the resources whose details have been
+     * computed ahead.
+     * 
+     * @param maxBytes
+     *            maximum size of a chunk in bytes; 0 for no limit
+     */
+    public final void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return maximum number of resources of a chunk; 0 for no limit
+     */
+    public final long getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Rolls the output into numbered chunks of at most the given number of
+     * resources.
+     * 
+     * @param maxLines
+     *            maximum number of resources of a chunk; 0 for no limit
+     */
+    public final void setMaxLines(final long maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * @return <code>true</code> if the output is rolled into chunks
+     */
+    private boolean isRolling() {
+        return getMaxBytes() > 0 || getMaxLines() > 0;
+    }
+
+    /**
+     * @return number of files to partition the output into
+     */
+    public final int getShards() {
+        return shards;
+    }
+
+    /**
+     * Partitions the output into the given number of files, written
+     * concurrently in a single scan. Each resource is written to exactly one
+     * shard, chosen by a stable hash of its name, so that the shards are of
+     * about equal size. The shards are named after {@link #getFile()} with
+     * the number of the shard inserted before the extension. As each shard
+     * is written by a thread of its own, there are at most 64 shards.
+     * 
+     * @param shards
+     *            number of files; 1 for a single output file
+     */
+    public final void setShards(final int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Adds a nested output. If there are nested outputs, the resources are
+     * scanned once and written to all of them concurrently, instead of to
+     * {@link #getFile()}.
+     * 
+     * @return the output to configure
+     */
+    public final Output createOutput() {
+        final Output output = new Output();
+        outputs.add(output);
+        return output;
+    }
+
     /**
      * Add a collection of files to echo.
      * 
@@ -150,14 +449,18 @@ public class EchoFiles extends Task {
     }
 
     /**
-     * @return the output-type; either {@link #TYPE_TEXT} or {@link #TYPE_XML}.
+     * @return the output-type; either {@link #TYPE_TEXT}, {@link #TYPE_XML},
+     *         {@link #TYPE_XML_TREE}, {@link #TYPE_JSONL} or
+     *         {@link #TYPE_BINARY}.
      */
     public final String getType() {
         return type;
     }
 
     /**
-     * Sets the output type to either {@link #TYPE_TEXT} OR {@link #TYPE_XML}.
+     * Sets the output type to either {@link #TYPE_TEXT}, {@link #TYPE_XML},
+     * {@link #TYPE_XML_TREE}, {@link #TYPE_JSONL} or {@link #TYPE_BINARY}.
+     * XML tree and binary output are always sorted.
      * 
      * @param type
      *            the type to set
@@ -167,26 +470,434 @@ public class EchoFiles extends Task {
     }
 
     /**
-     * Evaluates the writer to use for output.
+     * @return <code>true</code> if scanning and writing run concurrently
+     */
+    public final boolean isPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * If set to <code>true</code> the resources are written by a separate
+     * thread while scanning is still in progress. Resource names are handed
+     * over via a bounded queue, so a slow writer slows down scanning instead of
+     * piling up names in memory.
+     * 
+     * @param pipeline
+     *            the pipeline to set
+     */
+    public final void setPipeline(final boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @return capacity of the queue between scanner and writer in pipeline
+     *         mode
+     */
+    public final int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the capacity of the queue between scanner and writer in pipeline
+     * mode. Defaults to {@value #DEFAULT_QUEUE_SIZE}.
+     * 
+     * @param queueSize
+     *            the queueSize to set
+     */
+    public final void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return how to remove duplicate resource names; either
+     *         {@link #DEDUP_HASH} or {@link #DEDUP_COMPACT}
+     */
+    public final String getDedup() {
+        return dedup;
+    }
+
+    /**
+     * Sets how to remove duplicate resource names. {@link #DEDUP_HASH} (the
+     * default) is fastest, {@link #DEDUP_COMPACT} needs considerably less
+     * memory for large numbers of files sharing long directory prefixes.
+     * 
+     * @param dedup
+     *            the dedup to set
+     */
+    public final void setDedup(final String dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * @return <code>true</code> if the output is sorted
+     */
+    public final boolean isSort() {
+        return sort;
+    }
+
+    /**
+     * If set to <code>true</code> the resources are written sorted by name.
+     * Sorting also removes duplicates, independent of {@link #getDedup()}. If
+     * the names do not fit into the memory budget given by
+     * {@link #getSortMemory()}, sorted runs are written to temporary files and
+     * merged afterwards. Cannot be combined with {@link #isPipeline()} as no
+     * resource can be written before scanning is complete.
+     * 
+     * @param sort
+     *            the sort to set
+     */
+    public final void setSort(final boolean sort) {
+        this.sort = sort;
+    }
+
+    /**
+     * @return memory budget in bytes for sorting in memory
+     */
+    public final long getSortMemory() {
+        return sortMemory;
+    }
+
+    /**
+     * Sets the memory budget in bytes for sorting in memory. Defaults to 64
+     * MB.
+     * 
+     * @param sortMemory
+     *            the sortMemory to set
+     */
+    public final void setSortMemory(final long sortMemory) {
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * @return <code>true</code> if the resource collections are scanned
+     *         concurrently
+     */
+    public final boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * If set to <code>true</code> the nested resource collections are scanned
+     * concurrently, which pays off if they reside on different disks or
+     * mounts. The output is the same as for sequential scanning.
+     * 
+     * @param parallel
+     *            the parallel to set
+     */
+    public final void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return number of threads for concurrent scanning; 0 for one per
+     *         processor
+     */
+    public final int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads for concurrent scanning and for computing
+     * checksums. Defaults to one thread per available processor. Only used
+     * for scanning if {@link #isParallel()}.
+     * 
+     * @param threads
+     *            the threads to set
+     */
+    public final void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return <code>true</code> if files found by the directory scanner of a
+     *         file set are trusted to exist
+     */
+    public final boolean isTrustScanner() {
+        return trustScanner;
+    }
+
+    /**
+     * If set to <code>false</code> the existence of every resource is
+     * checked, also of the files which the directory scanner of a file set
+     * has just found. Only needed if files may be deleted while scanning.
+     * Defaults to <code>true</code>, which saves one file system access per
+     * file.
+     * 
+     * @param trustScanner
+     *            the trustScanner to set
+     */
+    public final void setTrustScanner(final boolean trustScanner) {
+        this.trustScanner = trustScanner;
+    }
+
+    /**
+     * @return <code>true</code> if every resource added is logged
+     */
+    public final boolean isLogResources() {
+        return logResources;
+    }
+
+    /**
+     * If set every resource added to the result set is logged at debug
+     * level. Defaults to <code>false</code>, as Ant builds the message for
+     * every resource even if no listener shows it.
+     * 
+     * @param logResources
+     *            the logResources to set
+     */
+    public final void setLogResources(final boolean logResources) {
+        this.logResources = logResources;
+    }
+
+    /**
+     * @return <code>true</code> if only the changes since the previous run
+     *         are written
+     */
+    public final boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * If set to <code>true</code> only the resources added, removed or changed
+     * (in modification time or size) since the previous run are written. The
+     * state of the run is kept in {@link #getStateFile()}; without a state
+     * file all resources are reported as added. Directories which did not
+     * change since the previous run are not listed again. Cannot be combined
+     * with {@link #isPipeline()} as removed resources are only known after
+     * scanning is complete. The delta is written as a single file in the
+     * order found, so sorting, deduplication other than "hash", checksums,
+     * metadata, parallel or untrusted scanning, shards, chunks and nested
+     * outputs are rejected as well.
+     * 
+     * @param incremental
+     *            the incremental to set
+     */
+    public final void setIncremental(final boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return where to keep the state of the previous run in incremental
+     *         mode; <code>null</code> for the output file with suffix
+     *         <code>.state</code>
+     */
+    public final String getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * Sets where to keep the state of the previous run in incremental mode.
+     * Defaults to the output file with suffix <code>.state</code>; required
+     * when writing to {@link System#out}.
+     * 
+     * @param stateFile
+     *            the stateFile to set
+     */
+    public final void setStateFile(final String stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @return how to compress the output; <code>null</code> for no
+     *         compression
+     */
+    public final String getCompress() {
+        return compress;
+    }
+
+    /**
+     * Sets how to compress the text or XML output: "gzip" or "deflate".
+     * Compression runs on a separate thread, overlapping with scanning and
+     * writing. Cannot be combined with type "binary", as binary listings are
+     * read by random access.
+     * 
+     * @param compress
+     *            the compress to set
+     */
+    public final void setCompress(final String compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @return the compression level; -1 for the default level
+     */
+    public final int getCompressLevel() {
+        return compressLevel;
+    }
+
+    /**
+     * Sets the compression level from 0 (no compression) to 9 (best
+     * compression). Defaults to the default level of {@link Deflater}.
+     * 
+     * @param compressLevel
+     *            the compressLevel to set
+     */
+    public final void setCompressLevel(final int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+
+    /**
+     * @return size of the buffers used for compression in bytes
+     */
+    public final int getCompressBufferSize() {
+        return compressBufferSize;
+    }
+
+    /**
+     * Sets the size of the buffers used for compression in bytes.
+     * 
+     * @param compressBufferSize
+     *            the compressBufferSize to set
+     */
+    public final void setCompressBufferSize(final int compressBufferSize) {
+        this.compressBufferSize = compressBufferSize;
+    }
+
+    /**
+     * @return the checksum algorithm; <code>null</code> for no checksums
+     */
+    public final String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Sets the algorithm of the checksums to add to each resource:
+     * <code>CRC32</code> or a message digest such as <code>SHA-256</code> or
+     * <code>MD5</code>. The checksums are computed by {@link #getThreads()}
+     * threads ahead of writing. As text the checksum follows the name of the
+     * resource, separated by a tab; as XML it is the attribute
+     * <code>checksum</code> of the resource element. Cannot be combined
+     * with type "binary" or {@link #isIncremental()}.
+     * 
+     * @param checksum
+     *            the checksum to set
+     */
+    public final void setChecksum(final String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return comma separated metadata columns; <code>null</code> for none
+     */
+    public final String getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Sets the metadata to add to each resource, as comma separated list of
+     * "size" (in bytes), "mtime" (modification time in milliseconds since
+     * the epoch) and "permissions" (<code>r</code> or <code>-</code>
+     * followed by <code>w</code> or <code>-</code>, for the current user).
+     * The metadata is read by {@link #getThreads()} threads ahead of
+     * writing. As text each value is an additional column in the given
+     * order, after the checksum if any; as XML each value is an attribute of
+     * the resource element. Cannot be combined with type "binary" or
+     * {@link #isIncremental()}.
+     * 
+     * @param metadata
+     *            the metadata to set
+     */
+    public final void setMetadata(final String metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return delimiter of the columns in text output
+     */
+    public final String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Sets the delimiter of the columns in text output. Defaults to a tab.
+     * 
+     * @param delimiter
+     *            the delimiter to set
+     */
+    public final void setDelimiter(final String delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * @return the metadata columns requested via {@link #getMetadata()}
+     */
+    private List<String> getMetadataColumns() {
+        final List<String> columns = new ArrayList<String>();
+        if (!Strings.getInstance().isEmpty(getMetadata())) {
+            for (final String column : getMetadata().split(",")) {
+                if (column.trim().length() > 0) {
+                    columns.add(column.trim());
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return <code>true</code> if the output is compressed
+     */
+    private boolean isCompressed() {
+        return !Strings.getInstance().isEmpty(getCompress());
+    }
+
+    /**
+     * Evaluates the writer to use for output. The writer encodes into a large
+     * buffer which is written to the channel of the target stream in big
+     * chunks, compressed according to {@link #getCompress()}.
      * 
      * @return the writer to use for output
      * @throws IOException
      *             in case there occurred an error while creating the writer.
      */
     protected Writer getWriter() throws IOException {
-        final Writer baseWriter;
-        if (Strings.getInstance().isEmpty(getFile())) {
-            baseWriter = new OutputStreamWriter(System.out, System.getProperty("file.encoding"));
-            fileDescription = DEFAULT_FILE_DESC;
-        }
-        else {
-            final File fileHandle = new File(getFile());
-            baseWriter = new OutputStreamWriter(new FileOutputStream(fileHandle), FILE_ENCODING);
-            fileDescription = fileHandle.getAbsolutePath();
-        }
-        return new BufferedWriter(baseWriter);
+        return createTarget(getFile()).createWriter(getOutputStream());
+    }
+
+    /**
+     * Evaluates the stream to use for binary output.
+     * 
+     * @return the stream to use for output
+     * @throws IOException
+     *             in case there occurred an error while creating the stream.
+     */
+    protected OutputStream getOutputStream() throws IOException {
+        return createTarget(getFile()).getOutputStream();
+    }
+
+    /**
+     * Creates the target of an output, compressed according to
+     * {@link #getCompress()}.
+     * 
+     * @param targetFile
+     *            the file to write to; <code>null</code> for
+     *            {@link System#out}
+     * @return the target
+     */
+    private OutputTarget createTarget(final String targetFile) {
+        return new OutputTarget(targetFile, getCompress(), getCompressLevel(), getCompressBufferSize());
+    }
+
+    /**
+     * Creates the target of the output file, which is opened via
+     * {@link #getWriter()} and {@link #getOutputStream()}.
+     * 
+     * @return the target
+     */
+    private OutputTarget createMainTarget() {
+        return new OutputTarget(getFile(), getCompress(), getCompressLevel(), getCompressBufferSize()) {
+            @Override
+            Writer getWriter() throws IOException {
+                return EchoFiles.this.getWriter();
+            }
+
+            @Override
+            OutputStream getOutputStream() throws IOException {
+                return EchoFiles.this.getOutputStream();
+            }
+        };
     }
 
+
     /**
      * Ensure we have a consistent and legal set of attributes.
      * 
@@ -194,95 +905,555 @@ public class EchoFiles extends Task {
      *             if an error occurs.
      */
     protected final void validate() throws BuildException {
-        final boolean isValidType = TYPE_TEXT.equals(getType()) || TYPE_XML.equals(getType());
-        if (!isValidType) {
-            throw new BuildException("Type \"" + getType()
-                    + "\" is invalid. Choose either \"xml\" or \"text\".");
-        }
+        validateType(getType());
         if (rcs.isEmpty()) {
             throw new BuildException("Specify at least one resource collection.");
         }
+        if (getQueueSize() < 1) {
+            throw new BuildException("Queue size must be at least 1.");
+        }
+        final boolean isValidDedup = DEDUP_HASH.equals(getDedup()) || DEDUP_COMPACT.equals(getDedup());
+        if (!isValidDedup) {
+            throw new BuildException("Deduplication \"" + getDedup()
+                    + "\" is invalid. Choose either \"hash\" or \"compact\".");
+        }
+        if (getThreads() < 0) {
+            throw new BuildException("Number of threads must not be negative.");
+        }
+        if (isSort() && isPipeline()) {
+            throw new BuildException("Attribute \"sort\" cannot be combined with \"pipeline\".");
+        }
+        if (getSortMemory() < 1) {
+            throw new BuildException("Sort memory must be at least 1 byte.");
+        }
+        if (isSortedType() && isPipeline()) {
+            throw new BuildException("Type \"" + getType() + "\" cannot be combined with \"pipeline\".");
+        }
+        final boolean isValidCompress =
+                COMPRESS_GZIP.equals(getCompress()) || COMPRESS_DEFLATE.equals(getCompress());
+        if (isCompressed() && !isValidCompress) {
+            throw new BuildException("Compression \"" + getCompress()
+                    + "\" is invalid. Choose either \"gzip\" or \"deflate\".");
+        }
+        if (getCompressLevel() != Deflater.DEFAULT_COMPRESSION
+                && (getCompressLevel() < 0 || getCompressLevel() > MAX_COMPRESS_LEVEL)) {
+            throw new BuildException(
+                    "Compression level must be between 0 and 9, or -1 for the default level.");
+        }
+        if (getCompressBufferSize() < 1) {
+            throw new BuildException("Compression buffer size must be at least 1 byte.");
+        }
+        if (!Strings.getInstance().isEmpty(getChecksum())) {
+            try {
+                new FileDigester(getChecksum());
+            }
+            catch (final NoSuchAlgorithmException e) {
+                throw new BuildException("Checksum algorithm \"" + getChecksum() + "\" is not supported.");
+            }
+        }
+        final List<String> columns = getMetadataColumns();
+        for (final String column : columns) {
+            if (!METADATA_SIZE.equals(column) && !METADATA_MTIME.equals(column)
+                    && !METADATA_PERMISSIONS.equals(column)) {
+                throw new BuildException("Metadata \"" + column
+                        + "\" is invalid. Choose from \"size\", \"mtime\" and \"permissions\".");
+            }
+        }
+        if (getDelimiter() == null || getDelimiter().length() == 0) {
+            throw new BuildException("Delimiter must not be empty.");
+        }
+        validateOutputs();
+        if (isIncremental()) {
+            validateIncremental();
+        }
     }
 
     /**
-     * Writes the files found as text format.
+     * Ensures that incremental output is not combined with attributes it
+     * does not support: the delta is written as it is and the resources are
+     * listed sequentially, directory by directory.
      * 
-     * @param resourceNames
-     *            the files found to be written to the output
      * @throws BuildException
-     *             in case an error occurs during writing - cause will be
-     *             embedded into the exception.
+     *             if an unsupported attribute is set
      */
-    private void writeText(final Iterable<String> resourceNames) throws BuildException {
-        Writer writer;
-        try {
-            writer = getWriter();
+    private void validateIncremental() throws BuildException {
+        if (isSortedType()) {
+            throw new BuildException("Type \"" + getType() + "\" cannot be combined with \"incremental\".");
+        }
+        if (!Strings.getInstance().isEmpty(getChecksum())) {
+            throw new BuildException("Attribute \"checksum\" cannot be combined with \"incremental\".");
+        }
+        if (!getMetadataColumns().isEmpty()) {
+            throw new BuildException("Attribute \"metadata\" cannot be combined with \"incremental\".");
+        }
+        if (isPipeline()) {
+            throw new BuildException("Attribute \"incremental\" cannot be combined with \"pipeline\".");
+        }
+        if (isSort()) {
+            throw new BuildException("Attribute \"sort\" cannot be combined with \"incremental\".");
+        }
+        if (!DEDUP_HASH.equals(getDedup())) {
+            throw new BuildException("Deduplication \"" + getDedup()
+                    + "\" cannot be combined with \"incremental\".");
+        }
+        if (isParallel()) {
+            throw new BuildException("Attribute \"parallel\" cannot be combined with \"incremental\".");
         }
-        catch (final Exception e) {
-            throw new BuildException("Error while opening stream to \"" + fileDescription
-                    + "\" for writing text output.", e);
+        if (!isTrustScanner()) {
+            throw new BuildException("Attribute \"trustscanner\" cannot be combined with \"incremental\".");
         }
+        if (Strings.getInstance().isEmpty(getStateFile()) && Strings.getInstance().isEmpty(getFile())) {
+            throw new BuildException("Specify a state file for incremental output to System.out.");
+        }
+    }
+
+    /**
+     * Ensures that the given output type is valid and can be combined with
+     * the other attributes.
+     * 
+     * @param outputType
+     *            the type to check
+     * @throws BuildException
+     *             if the type is invalid
+     */
+    private void validateType(final String outputType) throws BuildException {
+        final boolean isValidType =
+                TYPE_TEXT.equals(outputType) || TYPE_XML.equals(outputType) || TYPE_JSONL.equals(outputType)
+                        || TYPE_XML_TREE.equals(outputType) || TYPE_BINARY.equals(outputType);
+        if (!isValidType) {
+            throw new BuildException("Type \"" + outputType + "\" is invalid."
+                    + " Choose either \"xml\", \"xml-tree\", \"text\", \"jsonl\" or \"binary\".");
+        }
+        if (TYPE_BINARY.equals(outputType) && isCompressed()) {
+            throw new BuildException("Type \"binary\" cannot be combined with \"compress\".");
+        }
+        if (TYPE_BINARY.equals(outputType) && !Strings.getInstance().isEmpty(getChecksum())) {
+            throw new BuildException("Type \"binary\" cannot be combined with \"checksum\".");
+        }
+        if (TYPE_BINARY.equals(outputType) && !getMetadataColumns().isEmpty()) {
+            throw new BuildException("Type \"binary\" cannot be combined with \"metadata\".");
+        }
+    }
 
+    /**
+     * Ensures the nested outputs, shards and chunks are consistent.
+     * 
+     * @throws BuildException
+     *             if an output is invalid
+     */
+    private void validateOutputs() throws BuildException {
+        if (getShards() < 1) {
+            throw new BuildException("Number of shards must be at least 1.");
+        }
+        if (getShards() > MAX_SHARDS) {
+            throw new BuildException("Number of shards must be at most " + MAX_SHARDS + ".");
+        }
+        if (getShards() > 1) {
+            if (!outputs.isEmpty()) {
+                throw new BuildException("Attribute \"shards\" cannot be combined with nested outputs.");
+            }
+            if (isIncremental()) {
+                throw new BuildException("Attribute \"shards\" cannot be combined with \"incremental\".");
+            }
+            if (Strings.getInstance().isEmpty(getFile())) {
+                throw new BuildException("Specify a file for sharded output.");
+            }
+        }
+        if (getMaxBytes() < 0 || getMaxLines() < 0) {
+            throw new BuildException("Maximum chunk size must not be negative.");
+        }
+        if (isRolling()) {
+            if (getShards() > 1) {
+                throw new BuildException("Rolling output cannot be combined with \"shards\".");
+            }
+            if (!outputs.isEmpty()) {
+                throw new BuildException("Rolling output cannot be combined with nested outputs.");
+            }
+            if (isIncremental()) {
+                throw new BuildException("Rolling output cannot be combined with \"incremental\".");
+            }
+            if (Strings.getInstance().isEmpty(getFile())) {
+                throw new BuildException("Specify a file for rolling output.");
+            }
+        }
+        if (outputs.isEmpty()) {
+            return;
+        }
+        if (!Strings.getInstance().isEmpty(getFile())) {
+            throw new BuildException("Attribute \"file\" cannot be combined with nested outputs.");
+        }
+        if (isIncremental()) {
+            throw new BuildException("Attribute \"incremental\" cannot be combined with nested outputs.");
+        }
+        final Set<File> outputFiles = new HashSet<File>();
+        for (final Output output : outputs) {
+            if (Strings.getInstance().isEmpty(output.getFile())) {
+                throw new BuildException("Specify a file for each nested output.");
+            }
+            if (!outputFiles.add(new File(output.getFile()).getAbsoluteFile())) {
+                throw new BuildException("File \"" + output.getFile() + "\" is used by several outputs.");
+            }
+            validateType(getOutputType(output));
+            if (!Strings.getInstance().isEmpty(output.getFilter())) {
+                try {
+                    PathPattern.compile(output.getFilter(), output.isCaseSensitive());
+                }
+                catch (final IllegalArgumentException e) {
+                    throw new BuildException("Filter \"" + output.getFilter() + "\" is invalid.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param output
+     *            a nested output
+     * @return the type of the output, defaulting to {@link #getType()}
+     */
+    private String getOutputType(final Output output) {
+        if (output.getType() == null) {
+            return getType();
+        }
+        return output.getType();
+    }
+
+    /**
+     * @return <code>true</code> if the type requires sorted output
+     */
+    private boolean isSortedType() {
+        return TYPE_BINARY.equals(getType()) || TYPE_XML_TREE.equals(getType());
+    }
+
+    /**
+     * @return number of threads to use, resolving 0 to the number of
+     *         available processors
+     */
+    private int getEffectiveThreads() {
+        if (getThreads() == 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return getThreads();
+    }
+
+    /**
+     * Creates the set to remove duplicate resource names with, according to
+     * {@link #getDedup()}.
+     * 
+     * @return an empty set
+     */
+    private Set<String> createResultSet() {
+        if (DEDUP_COMPACT.equals(getDedup())) {
+            return new PathSet();
+        }
+        return new HashSet<String>();
+    }
+
+    /**
+     * Scans all resource collections and hands over the names of all existing
+     * resources to the given handler.
+     * 
+     * @param describer
+     *            remembers the resources which are no files
+     * @param handler
+     *            receives the resource names
+     * @throws InterruptedException
+     *             if interrupted while handing over a resource name
+     */
+    private void scan(final ResourceDescriber describer, final ResourceNameHandler handler)
+            throws InterruptedException {
+        final ResourceScanner scanner = new ResourceScanner(isParallel() ? getThreads() : 1);
+        scanner.setTrustScanner(isTrustScanner());
+        final boolean streamDetails = describer.isEnabled();
+        scanner.scan(rcs, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) throws InterruptedException {
+                final String resourceName = ResourceScanner.getName(resource);
+                if (streamDetails && !(resource instanceof FileResource)) {
+                    describer.remember(resourceName, resource);
+                }
+                if (!handler.handle(resourceName)) {
+                    return false;
+                }
+                if (logResources) {
+                    log("Added resource \"" + resourceName + "\" of type " + resource.getClass().getName()
+                            + " to result set.", Project.MSG_DEBUG);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Scans all resources, compares them to the state of the previous run and
+     * writes the changes. The new state is saved only after the changes have
+     * been written successfully.
+     * 
+     * @param describer
+     *            turns the names of the changed resources into entries
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    private void executeIncremental(final ResourceDescriber describer) throws BuildException {
+        final File stateFileHandle;
+        if (Strings.getInstance().isEmpty(getStateFile())) {
+            stateFileHandle = new File(getFile() + STATE_FILE_SUFFIX);
+        }
+        else {
+            stateFileHandle = new File(getStateFile());
+        }
+        final ListingState previous = readState(stateFileHandle);
+        final IncrementalScanner scanner = new IncrementalScanner(getProject(), previous);
+        final ListingState current;
         try {
-            for (final String resource : resourceNames) {
-                writer.write(resource);
-                writer.write(LINE_SEPARATOR);
+            current = scanner.scan(rcs);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning resources.", e);
+        }
+        log("Reused " + scanner.getReusedDirectories() + " unchanged directory listings, listed "
+                + scanner.getListedDirectories() + " directories.", Project.MSG_VERBOSE);
+
+        final List<String> added = new ArrayList<String>();
+        final List<String> removed = new ArrayList<String>();
+        final List<String> changed = new ArrayList<String>();
+        for (final String name : current.getFileNames()) {
+            final ListingState.Entry before = previous.getFile(name);
+            if (before == null) {
+                added.add(name);
+            }
+            else if (!before.equals(current.getFile(name))) {
+                changed.add(name);
             }
-            writer.close();
         }
-        catch (final Exception e) {
-            try {
-                writer.close();
+        for (final String name : previous.getFileNames()) {
+            if (current.getFile(name) == null) {
+                removed.add(name);
             }
-            catch (final IOException e1) {
-                log("Ignoring error during closing writer bound to \"" + fileDescription + "\".", e1,
-                        Project.MSG_DEBUG);
+        }
+        log(added.size() + " added, " + removed.size() + " removed, " + changed.size()
+                + " changed resources.", Project.MSG_VERBOSE);
+
+        final Map<String, Iterable<ResourceEntry>> sections =
+                new LinkedHashMap<String, Iterable<ResourceEntry>>();
+        sections.put(SECTION_ADDED, describer.describe(added));
+        sections.put(SECTION_REMOVED, describer.describe(removed));
+        sections.put(SECTION_CHANGED, describer.describe(changed));
+        createWriter(createMainTarget(), getType(), describer).writeSections(DELTA_ELEMENT, sections);
+
+        try {
+            current.write(stateFileHandle);
+        }
+        catch (final IOException e) {
+            throw new BuildException("Unable to write state file \"" + stateFileHandle.getAbsolutePath()
+                    + "\".", e);
+        }
+    }
+
+    /**
+     * Reads the state of the previous run. A missing or unreadable state file
+     * results in an empty state, i.&nbsp;e. all resources are reported as
+     * added.
+     * 
+     * @param stateFileHandle
+     *            the state file
+     * @return the state of the previous run
+     */
+    private ListingState readState(final File stateFileHandle) {
+        if (!stateFileHandle.isFile()) {
+            log("No state file \"" + stateFileHandle.getAbsolutePath()
+                    + "\" found. Reporting all resources as added.", Project.MSG_VERBOSE);
+            return new ListingState();
+        }
+        try {
+            return ListingState.read(stateFileHandle);
+        }
+        catch (final IOException e) {
+            log("Ignoring unreadable state file \"" + stateFileHandle.getAbsolutePath() + "\": "
+                    + e.getMessage(), Project.MSG_WARN);
+            return new ListingState();
+        }
+    }
+
+    /**
+     * Creates the writer of one output.
+     * 
+     * @param target
+     *            where to write to
+     * @param outputType
+     *            the type of output
+     * @param describer
+     *            computes the details to write
+     * @return the writer
+     */
+    private ListingWriter createWriter(final OutputTarget target, final String outputType,
+            final ResourceDescriber describer) {
+        return new ListingWriter(this, target, outputType, getDelimiter(), describer.getMetadataColumns());
+    }
+
+    /**
+     * Creates where the resources go: the output file, its chunks, its shards
+     * or the nested outputs.
+     * 
+     * @param describer
+     *            computes the details to write
+     * @param sorted
+     *            if set, the resources are handed over sorted already
+     * @return the sink
+     */
+    private ListingSink createSink(final ResourceDescriber describer, final boolean sorted) {
+        if (!outputs.isEmpty()) {
+            final FanOut fanOut = new FanOut(this, getQueueSize(), getSortMemory(), false);
+            for (final Output output : outputs) {
+                final ListingWriter writer =
+                        createWriter(createTarget(output.getFile()), getOutputType(output), describer);
+                Pattern filter = null;
+                if (!Strings.getInstance().isEmpty(output.getFilter())) {
+                    filter = PathPattern.compile(output.getFilter(), output.isCaseSensitive());
+                }
+                fanOut.addOutput(writer, filter, !sorted && writer.isSortedType());
+            }
+            return fanOut;
+        }
+        final ListingWriter writer = createWriter(createMainTarget(), getType(), describer);
+        if (getShards() > 1) {
+            final FanOut fanOut = new FanOut(this, getQueueSize(), getSortMemory(), true);
+            for (int shard = 0; shard < getShards(); shard++) {
+                final String shardFile = OutputTarget.getNumberedFile(getFile(), shard);
+                fanOut.addOutput(writer.derive(shardFile, getType()), null, false);
             }
-            throw new BuildException("Error while writing text to \"" + fileDescription + "\".", e);
+            return fanOut;
         }
+        if (isRolling()) {
+            return new ChunkWriter(this, writer, getMaxBytes(), getMaxLines());
+        }
+        return writer;
+    }
+
+    /**
+     * Scans all resources first and writes them afterwards.
+     * 
+     * @param describer
+     *            computes the details to write
+     * @param sink
+     *            where the resources go
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    private void executeSequential(final ResourceDescriber describer, final ListingSink sink)
+            throws BuildException {
+        final Set<String> result = createResultSet();
+        try {
+            scan(describer, new ResourceNameHandler() {
+                public boolean handle(final String resourceName) {
+                    result.add(resourceName);
+                    return true;
+                }
+            });
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning resources.", e);
+        }
+        sink.write(describer.describe(result));
     }
 
     /**
-     * Writes the files found as XML format.
+     * Scans all resources into an external sorter and writes them sorted and
+     * deduplicated afterwards.
      * 
-     * @param resourceNames
-     *            the files found to be written to the output
+     * @param describer
+     *            computes the details to write
+     * @param sink
+     *            where the resources go
      * @throws BuildException
-     *             in case an error occurs during writing - cause will be
-     *             embedded into the exception.
+     *             if an error occurs.
      */
-    private void writeXml(final Iterable<String> resourceNames) throws BuildException {
-        Writer writer;
+    private void executeSorted(final ResourceDescriber describer, final ListingSink sink)
+            throws BuildException {
+        final ExternalSorter sorter = new ExternalSorter(getSortMemory(), null);
         try {
-            writer = getWriter();
+            scan(describer, new ResourceNameHandler() {
+                public boolean handle(final String resourceName) {
+                    try {
+                        sorter.add(resourceName);
+                    }
+                    catch (final IOException e) {
+                        throw new BuildException("Unable to write sorted run to temporary file.", e);
+                    }
+                    return true;
+                }
+            });
+            log("Sorted resources using " + sorter.getRunCount() + " temporary runs.", Project.MSG_DEBUG);
+            sink.write(describer.describe(sorter));
         }
-        catch (final Exception e) {
-            throw new BuildException("Error while opening stream to \"" + fileDescription
-                    + "\" for writing text output.", e);
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning resources.", e);
         }
+        finally {
+            sorter.close();
+        }
+    }
 
-        final ObjectFactory jaxbFactory = new ObjectFactory();
-        final Resources resources = jaxbFactory.createResources();
-        final List<String> resource = resources.getResource();
-        for (final String resourceName : resourceNames) {
-            resource.add(resourceName);
+    /**
+     * Scans the resources and hands them over to a writer thread via a
+     * bounded pipe, so that scanning and writing overlap.
+     * 
+     * @param describer
+     *            computes the details to write
+     * @param sink
+     *            where the resources go
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    private void executePipelined(final ResourceDescriber describer, final ListingSink sink)
+            throws BuildException {
+        final Pipe<String> pipe = new Pipe<String>(getQueueSize());
+        final ExecutorService writerService = Executors.newSingleThreadExecutor();
+        final Future<?> writerResult;
+        try {
+            writerResult = writerService.submit(new Runnable() {
+                public void run() {
+                    try {
+                        sink.write(describer.describe(pipe));
+                    }
+                    finally {
+                        pipe.cancel();
+                    }
+                }
+            });
+        }
+        finally {
+            writerService.shutdown();
         }
+
+        final OutputTarget target = createTarget(getFile());
         try {
-            final Marshaller marshaller = JAXBContext.newInstance("org.arctic.ant.jaxb.model")
-                    .createMarshaller();
-            marshaller.marshal(resources, writer);
-            writer.close();
+            final Set<String> seen = createResultSet();
+            scan(describer, new ResourceNameHandler() {
+                public boolean handle(final String resourceName) throws InterruptedException {
+                    return !seen.add(resourceName) || pipe.put(resourceName);
+                }
+            });
+            pipe.close();
         }
-        catch (final Exception e) {
+        catch (final InterruptedException e) {
+            pipe.cancel();
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning resources.", e);
+        }
+        catch (final RuntimeException e) {
             try {
-                writer.close();
+                pipe.fail(e);
             }
-            catch (final IOException e1) {
-                log("Ignoring error during closing writer bound to \"" + fileDescription + "\".", e1,
-                        Project.MSG_DEBUG);
+            catch (final InterruptedException e1) {
+                pipe.cancel();
+                Thread.currentThread().interrupt();
             }
-            throw new BuildException("Unable to marshal XML output.", e);
+            FanOut.awaitQuietly(this, target, writerResult);
+            throw e;
         }
+        FanOut.await(target, writerResult);
     }
 
     /**
@@ -291,43 +1462,149 @@ public class EchoFiles extends Task {
      * @throws BuildException
      *             if an error occurs.
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final void execute() throws BuildException {
         // make sure we don't have an illegal set of options
         validate();
 
-        final Collection<String> result = new HashSet<String>();
-
-        for (final ResourceCollection rc : rcs) {
-            final Iterator<Resource> resources = rc.iterator();
-            while (resources.hasNext()) {
-                final Resource resource = resources.next();
-                if (!resource.isExists()) {
-                    continue;
-                }
-                final String resourceName;
-                if (resource instanceof FileResource) {
-                    final FileResource fileResource = (FileResource) resource;
-                    resourceName = fileResource.getFile().getAbsolutePath();
-                }
-                else if (resource instanceof URLResource) {
-                    final URLResource urlResource = (URLResource) resource;
-                    resourceName = urlResource.getURL().toExternalForm();
-                }
-                else {
-                    resourceName = resource.getName();
-                }
-                result.add(resourceName);
-                log("Added resource \"" + resourceName + "\" of type " + resource.getClass().getName()
-                        + " to result set.", Project.MSG_DEBUG);
+        FileDigester digester = null;
+        if (!Strings.getInstance().isEmpty(getChecksum())) {
+            try {
+                digester = new FileDigester(getChecksum());
+            }
+            catch (final NoSuchAlgorithmException e) {
+                throw new BuildException("Checksum algorithm \"" + getChecksum() + "\" is not supported.", e);
+            }
+        }
+        // the details are computed once, however many outputs they are written to
+        final ResourceDescriber describer =
+                new ResourceDescriber(digester, getMetadataColumns(), getEffectiveThreads());
+        try {
+            if (isIncremental()) {
+                executeIncremental(describer);
+                return;
+            }
+            // nested outputs sort on their own, depending on their type
+            final boolean sorted = isSort() || (outputs.isEmpty() && isSortedType());
+            final ListingSink sink = createSink(describer, sorted);
+            if (sorted) {
+                executeSorted(describer, sink);
+            }
+            else if (isPipeline() || sink instanceof FanOut) {
+                executePipelined(describer, sink);
+            }
+            else {
+                executeSequential(describer, sink);
             }
         }
-        if (TYPE_TEXT.equals(getType())) {
-            writeText(result);
+        finally {
+            describer.close();
         }
-        else if (TYPE_XML.equals(getType())) {
-            writeXml(result);
+    }
+
+    /**
+     * Receives the names of the resources found while scanning.
+     */
+    private interface ResourceNameHandler {
+        /**
+         * Handle one resource name.
+         * 
+         * @param resourceName
+         *            the name of the resource
+         * @return <code>true</code> to continue scanning; <code>false</code>
+         *         to stop scanning
+         * @throws InterruptedException
+         *             if interrupted while handling the name
+         */
+        boolean handle(String resourceName) throws InterruptedException;
+    }
+
+    /**
+     * A nested output: where to write to, in which format and which
+     * resources.
+     */
+    public static class Output {
+        /**
+         * Where to write the output to.
+         */
+        private String file = null;
+        /**
+         * The type of output; <code>null</code> for the type of the task.
+         */
+        private String type = null;
+        /**
+         * Patterns the resources to write have to match; <code>null</code> to
+         * write all resources.
+         */
+        private String filter = null;
+        /**
+         * If set, the filter patterns are case sensitive.
+         */
+        private boolean caseSensitive = true;
+
+        /**
+         * @return where to write the output to
+         */
+        public final String getFile() {
+            return file;
+        }
+
+        /**
+         * @param file
+         *            the file to write the output to
+         */
+        public final void setFile(final String file) {
+            this.file = file;
+        }
+
+        /**
+         * @return the output type; <code>null</code> for the type of the task
+         */
+        public final String getType() {
+            return type;
+        }
+
+        /**
+         * @param type
+         *            the output type, see {@link EchoFiles#setType(String)}
+         */
+        public final void setType(final String type) {
+            this.type = type;
+        }
+
+        /**
+         * @return patterns the resources to write have to match;
+         *         <code>null</code> to write all resources
+         */
+        public final String getFilter() {
+            return filter;
+        }
+
+        /**
+         * Sets the patterns the resources to write have to match, such as
+         * <code>**&#47;*.java</code>, separated by commas or spaces. See
+         * {@link PathPattern} for the syntax.
+         * 
+         * @param filter
+         *            the patterns
+         */
+        public final void setFilter(final String filter) {
+            this.filter = filter;
+        }
+
+        /**
+         * @return <code>true</code> if the filter patterns are case sensitive
+         */
+        public final boolean isCaseSensitive() {
+            return caseSensitive;
+        }
+
+        /**
+         * @param caseSensitive
+         *            <code>false</code> to ignore case when filtering
+         */
+        public final void setCaseSensitive(final boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
         }
     }
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.arctic.util.ExternalSorter;
+import org.arctic.util.Pipe;
+
+/**
+ * Writes the resources listed by {@link EchoFiles} to several outputs
+ * concurrently, one writer thread per output, fed via bounded pipes. Either
+ * each resource is written to all outputs whose filter it matches, or to
+ * exactly one shard, chosen by a stable hash of its name, see
+ * {@link #getShard(String, int)}.
+ *
+ * @author Mark Michaelis
+ */
+class FanOut implements ListingSink {
+    /**
+     * First shift of the hash mixing function, see
+     * {@link #getShard(String, int)}.
+     */
+    private static final int HASH_SHIFT_1 = 16;
+    /**
+     * Second shift of the hash mixing function.
+     */
+    private static final int HASH_SHIFT_2 = 13;
+    /**
+     * First multiplier of the hash mixing function.
+     */
+    private static final int HASH_MULTIPLIER_1 = 0x85ebca6b;
+    /**
+     * Second multiplier of the hash mixing function.
+     */
+    private static final int HASH_MULTIPLIER_2 = 0xc2b2ae35;
+    /**
+     * Separates the name and the details of a resource while sorting. No
+     * path contains it and it sorts before any other character, so the
+     * encoded resources sort by name.
+     */
+    private static final char FIELD_SEPARATOR = '\0';
+    /**
+     * Marks a detail present while sorting, to tell an empty detail from a
+     * missing one.
+     */
+    private static final char PRESENT_MARKER = '+';
+
+    /**
+     * The task to log with.
+     */
+    private final Task owner;
+    /**
+     * Capacity of the pipe to each writer.
+     */
+    private final int queueSize;
+    /**
+     * Memory budget in bytes for sorting in memory, per output.
+     */
+    private final long sortMemory;
+    /**
+     * If set, each resource is written to its shard only.
+     */
+    private final boolean sharded;
+    /**
+     * The outputs.
+     */
+    private final List<ListingWriter> writers = new ArrayList<ListingWriter>();
+    /**
+     * The filter of each output; <code>null</code> for none.
+     */
+    private final List<Pattern> filters = new ArrayList<Pattern>();
+    /**
+     * Whether each output sorts its resources.
+     */
+    private final List<Boolean> sorts = new ArrayList<Boolean>();
+
+    /**
+     * Constructor.
+     *
+     * @param owner
+     *            the task to log with
+     * @param queueSize
+     *            capacity of the pipe to each writer
+     * @param sortMemory
+     *            memory budget in bytes for sorting in memory, per output
+     * @param sharded
+     *            if set, each resource is written to the output of its shard
+     *            only; otherwise to all outputs
+     */
+    FanOut(final Task owner, final int queueSize, final long sortMemory, final boolean sharded) {
+        this.owner = owner;
+        this.queueSize = queueSize;
+        this.sortMemory = sortMemory;
+        this.sharded = sharded;
+    }
+
+    /**
+     * Adds an output. With shards, the outputs are the shards in the order
+     * added.
+     *
+     * @param writer
+     *            writes the output
+     * @param filter
+     *            the pattern the names of the resources to write match
+     *            completely; <code>null</code> to write all resources
+     * @param sort
+     *            if set, the resources are sorted by name before writing
+     */
+    void addOutput(final ListingWriter writer, final Pattern filter, final boolean sort) {
+        writers.add(writer);
+        filters.add(filter);
+        sorts.add(Boolean.valueOf(sort));
+    }
+
+    /**
+     * Hands the resources over to one writer thread per output via bounded
+     * pipes.
+     *
+     * @param entries
+     *            the resources with their details
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    public void write(final Iterable<ResourceEntry> entries) throws BuildException {
+        final List<Pipe<ResourceEntry>> pipes = new ArrayList<Pipe<ResourceEntry>>(writers.size());
+        final List<Future<?>> writerResults = new ArrayList<Future<?>>(writers.size());
+        final ExecutorService writerService = Executors.newFixedThreadPool(writers.size());
+        try {
+            for (int i = 0; i < writers.size(); i++) {
+                final ListingWriter writer = writers.get(i);
+                final Pattern filter = filters.get(i);
+                final boolean sort = sorts.get(i).booleanValue();
+                final Pipe<ResourceEntry> pipe = new Pipe<ResourceEntry>(queueSize);
+                pipes.add(pipe);
+                writerResults.add(writerService.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            final Iterable<ResourceEntry> filtered =
+                                    filter == null ? pipe : filter(pipe, filter);
+                            if (sort) {
+                                writeSorted(writer, filtered);
+                            }
+                            else {
+                                writer.write(filtered);
+                            }
+                        }
+                        finally {
+                            pipe.cancel();
+                        }
+                    }
+                }));
+            }
+        }
+        finally {
+            writerService.shutdown();
+        }
+
+        final int[] counts = new int[writers.size()];
+        try {
+            distribute(entries, pipes, counts);
+            for (final Pipe<ResourceEntry> pipe : pipes) {
+                pipe.close();
+            }
+        }
+        catch (final InterruptedException e) {
+            for (final Pipe<ResourceEntry> pipe : pipes) {
+                pipe.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while handing over resources.", e);
+        }
+        catch (final RuntimeException e) {
+            try {
+                for (final Pipe<ResourceEntry> pipe : pipes) {
+                    pipe.fail(e);
+                }
+            }
+            catch (final InterruptedException e1) {
+                for (final Pipe<ResourceEntry> pipe : pipes) {
+                    pipe.cancel();
+                }
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < writerResults.size(); i++) {
+                awaitQuietly(owner, writers.get(i).getTarget(), writerResults.get(i));
+            }
+            throw e;
+        }
+        for (int i = 0; i < writerResults.size(); i++) {
+            await(writers.get(i).getTarget(), writerResults.get(i));
+        }
+        if (sharded) {
+            for (int shard = 0; shard < counts.length; shard++) {
+                owner.log("Wrote " + counts[shard] + " resources to shard " + shard + ".",
+                        Project.MSG_VERBOSE);
+            }
+        }
+    }
+
+    /**
+     * Hands each resource over to the pipes of its outputs. Stops as soon as
+     * any writer stopped reading, which it only does if writing its output
+     * failed; the failure is reported when awaiting the writers.
+     *
+     * @param entries
+     *            the resources
+     * @param pipes
+     *            the pipe to each writer
+     * @param counts
+     *            receives the number of resources per output
+     * @throws InterruptedException
+     *             if interrupted while handing over a resource
+     */
+    private void distribute(final Iterable<ResourceEntry> entries, final List<Pipe<ResourceEntry>> pipes,
+            final int[] counts) throws InterruptedException {
+        for (final ResourceEntry entry : entries) {
+            if (sharded) {
+                final int shard = getShard(entry.getName(), pipes.size());
+                counts[shard]++;
+                if (!pipes.get(shard).put(entry)) {
+                    return;
+                }
+            }
+            else {
+                for (final Pipe<ResourceEntry> pipe : pipes) {
+                    if (!pipe.put(entry)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the shard of a resource. The shard is stable across runs and
+     * platforms, as it is derived from {@link String#hashCode()} which is
+     * specified. The hash is mixed first, as the lowest bits of string hashes
+     * of similar paths are poorly distributed.
+     *
+     * @param resourceName
+     *            the name of the resource
+     * @param shards
+     *            the number of shards
+     * @return the shard of the resource, between 0 and
+     *         <code>shards - 1</code>
+     */
+    static int getShard(final String resourceName, final int shards) {
+        int hash = resourceName.hashCode();
+        hash ^= hash >>> HASH_SHIFT_1;
+        hash *= HASH_MULTIPLIER_1;
+        hash ^= hash >>> HASH_SHIFT_2;
+        hash *= HASH_MULTIPLIER_2;
+        hash ^= hash >>> HASH_SHIFT_1;
+        return (hash & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * Writes the resources of one output sorted by name. The resources are
+     * sorted with their details, encoded as strings, so that the details do
+     * not have to be computed again.
+     *
+     * @param writer
+     *            writes the output
+     * @param entries
+     *            the resources for the output
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    private void writeSorted(final ListingWriter writer, final Iterable<ResourceEntry> entries)
+            throws BuildException {
+        final ExternalSorter sorter = new ExternalSorter(sortMemory, null);
+        try {
+            for (final ResourceEntry entry : entries) {
+                sorter.add(encode(entry));
+            }
+            writer.write(decode(sorter));
+        }
+        catch (final IOException e) {
+            throw new BuildException("Unable to write sorted run to temporary file.", e);
+        }
+        finally {
+            sorter.close();
+        }
+    }
+
+    /**
+     * Encodes a resource with its details as string which sorts by the name
+     * of the resource.
+     *
+     * @param entry
+     *            the resource
+     * @return the encoded resource
+     */
+    private static String encode(final ResourceEntry entry) {
+        final StringBuilder encoded = new StringBuilder(entry.getName());
+        encodeField(encoded, entry.getChecksum());
+        encodeField(encoded, entry.getSize());
+        encodeField(encoded, entry.getLastModified());
+        encodeField(encoded, entry.getPermissions());
+        return encoded.toString();
+    }
+
+    /**
+     * Appends a detail to an encoded resource.
+     *
+     * @param encoded
+     *            the encoded resource
+     * @param value
+     *            the detail; <code>null</code> if missing
+     */
+    private static void encodeField(final StringBuilder encoded, final Object value) {
+        encoded.append(FIELD_SEPARATOR);
+        if (value != null) {
+            encoded.append(PRESENT_MARKER).append(value);
+        }
+    }
+
+    /**
+     * Decodes resources lazily, see {@link #encode(ResourceEntry)}.
+     *
+     * @param encoded
+     *            the encoded resources
+     * @return the resources with their details
+     */
+    private static Iterable<ResourceEntry> decode(final Iterable<String> encoded) {
+        return new Iterable<ResourceEntry>() {
+            public Iterator<ResourceEntry> iterator() {
+                final Iterator<String> lines = encoded.iterator();
+                return new Iterator<ResourceEntry>() {
+                    public boolean hasNext() {
+                        return lines.hasNext();
+                    }
+
+                    public ResourceEntry next() {
+                        final String[] fields = lines.next().split(String.valueOf(FIELD_SEPARATOR), -1);
+                        final ResourceEntry entry = new ResourceEntry(fields[0]);
+                        entry.setChecksum(decodeField(fields[1]));
+                        final String size = decodeField(fields[2]);
+                        entry.setSize(size == null ? null : Long.valueOf(size));
+                        final String lastModified = decodeField(fields[3]);
+                        entry.setLastModified(lastModified == null ? null : Long.valueOf(lastModified));
+                        entry.setPermissions(decodeField(fields[4]));
+                        return entry;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Decodes a detail of an encoded resource.
+     *
+     * @param field
+     *            the encoded detail
+     * @return the detail; <code>null</code> if missing
+     */
+    private static String decodeField(final String field) {
+        if (field.length() == 0) {
+            return null;
+        }
+        return field.substring(1);
+    }
+
+    /**
+     * Filters resources lazily by name.
+     *
+     * @param entries
+     *            the resources to filter
+     * @param filter
+     *            the pattern the names to keep match completely
+     * @return the matching resources; may be iterated only once as a single
+     *         matcher is reused
+     */
+    private static Iterable<ResourceEntry> filter(final Iterable<ResourceEntry> entries,
+            final Pattern filter) {
+        return new Iterable<ResourceEntry>() {
+            public Iterator<ResourceEntry> iterator() {
+                final Iterator<ResourceEntry> all = entries.iterator();
+                final Matcher matcher = filter.matcher("");
+                return new Iterator<ResourceEntry>() {
+                    /**
+                     * The next matching resource; <code>null</code> if not
+                     * looked up yet.
+                     */
+                    private ResourceEntry next = null;
+
+                    public boolean hasNext() {
+                        while (next == null && all.hasNext()) {
+                            final ResourceEntry entry = all.next();
+                            if (matcher.reset(entry.getName()).matches()) {
+                                next = entry;
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    public ResourceEntry next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final ResourceEntry result = next;
+                        next = null;
+                        return result;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Waits for a writer to finish and rethrows its failure if any.
+     *
+     * @param target
+     *            where the writer writes to, for the message
+     * @param writerResult
+     *            result of the writer
+     * @throws BuildException
+     *             if the writer failed or waiting got interrupted
+     */
+    static void await(final OutputTarget target, final Future<?> writerResult) throws BuildException {
+        try {
+            writerResult.get();
+        }
+        catch (final InterruptedException e) {
+            writerResult.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while waiting for writer to finish.", e);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BuildException) {
+                throw (BuildException) cause;
+            }
+            throw new BuildException("Error while writing to \"" + target.getDescription() + "\".", cause);
+        }
+    }
+
+    /**
+     * Waits for a writer to finish, ignoring any of its failures as there is
+     * already a failure to report.
+     *
+     * @param owner
+     *            the task to log the ignored failure with
+     * @param target
+     *            where the writer writes to
+     * @param writerResult
+     *            result of the writer
+     */
+    static void awaitQuietly(final Task owner, final OutputTarget target, final Future<?> writerResult) {
+        try {
+            await(target, writerResult);
+        }
+        catch (final BuildException e) {
+            owner.log("Ignoring writer failure after scanning failed: " + e.getMessage(), Project.MSG_DEBUG);
+        }
+    }
+}
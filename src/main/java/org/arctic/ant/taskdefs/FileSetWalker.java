@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.ArchiveFileSet;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.apache.tools.ant.util.FileUtils;
+import org.arctic.io.DirectoryListing;
+
+/**
+ * Walks the directory tree of a file set and hands over the matching files
+ * one by one, instead of collecting all of them first as the
+ * {@link DirectoryScanner} does.
+ * <p>
+ * Include and exclude patterns (including the default excludes), case
+ * sensitivity and the handling of symbolic links are taken from the file set
+ * and evaluated by a {@link DirectoryScanner} configured by the file set
+ * itself, so the files found are the same. Directories which cannot contain
+ * any included file are not entered. File sets with selectors are not
+ * supported, see {@link #isSupported(ResourceCollection, Project)}.
+ * </p>
+ * <p>
+ * Directories are listed via a {@link Lister}, which allows to reuse
+ * listings of directories which did not change.
+ * </p>
+ * <p>
+ * If requested via {@link #setLiteralLookup(boolean)}, file sets whose
+ * include patterns are all literal paths, such as those defined by the
+ * <code>file</code> attribute, are not walked at all: the included files
+ * are looked up directly.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class FileSetWalker {
+    /**
+     * Receives the matching files.
+     */
+    public interface Visitor {
+        /**
+         * Handle one matching file.
+         *
+         * @param file
+         *            the file
+         * @param relativePath
+         *            path of the file relative to the base directory of the
+         *            file set
+         * @return <code>true</code> to continue walking; <code>false</code> to
+         *         stop
+         * @throws InterruptedException
+         *             if interrupted while handling the file
+         */
+        boolean visit(File file, String relativePath) throws InterruptedException;
+    }
+
+    /**
+     * Lists directories while walking.
+     */
+    public interface Lister {
+        /**
+         * List a directory.
+         *
+         * @param dir
+         *            the directory to list
+         * @return the listing
+         * @throws IOException
+         *             if the directory cannot be listed
+         */
+        DirectoryListing list(File dir) throws IOException;
+    }
+
+    /**
+     * Lister which always reads the directory.
+     */
+    public static final Lister DIRECT_LISTER = new Lister() {
+        public DirectoryListing list(final File dir) throws IOException {
+            return DirectoryListing.read(dir);
+        }
+    };
+
+    /**
+     * Utilities to detect symbolic links.
+     */
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+    /**
+     * The base directory of the file set.
+     */
+    private final File baseDir;
+    /**
+     * Evaluates the patterns of the file set.
+     */
+    private final Matcher matcher;
+    /**
+     * Whether to follow symbolic links.
+     */
+    private final boolean followSymlinks;
+    /**
+     * Lists the directories.
+     */
+    private Lister lister = DIRECT_LISTER;
+    /**
+     * If set, literal include patterns are looked up instead of walked.
+     */
+    private boolean literalLookup = false;
+
+    /**
+     * Constructor.
+     *
+     * @param fileSet
+     *            the file set to walk; must be supported according to
+     *            {@link #isSupported(ResourceCollection, Project)}
+     * @param project
+     *            the project to resolve the file set in
+     */
+    public FileSetWalker(final FileSet fileSet, final Project project) {
+        baseDir = fileSet.getDir(project);
+        followSymlinks = fileSet.isFollowSymlinks();
+        matcher = new Matcher();
+        fileSet.setupDirectoryScanner(matcher, project);
+        matcher.prepare();
+    }
+
+    /**
+     * Checks if a resource collection can be walked. Only file sets without
+     * selectors whose base directory exists are supported, not archive file
+     * sets. Other resource
+     * collections have to be iterated.
+     *
+     * @param rc
+     *            the resource collection to check
+     * @param project
+     *            the project to resolve the file set in
+     * @return <code>true</code> if the collection can be walked
+     */
+    public static boolean isSupported(final ResourceCollection rc, final Project project) {
+        if (!(rc instanceof FileSet) || rc instanceof ArchiveFileSet) {
+            return false;
+        }
+        final FileSet fileSet = (FileSet) rc;
+        final File dir = fileSet.getDir(project);
+        return !fileSet.hasSelectors() && dir != null && dir.isDirectory();
+    }
+
+    /**
+     * @return the base directory of the file set
+     */
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    /**
+     * @return <code>true</code> if symbolic links are followed
+     */
+    public boolean isFollowSymlinks() {
+        return followSymlinks;
+    }
+
+    /**
+     * @return <code>true</code> if the patterns are case sensitive
+     */
+    public boolean isCaseSensitive() {
+        return matcher.isCaseSensitiveMatching();
+    }
+
+    /**
+     * @return the include patterns, using the platform's separator
+     */
+    public String[] getIncludes() {
+        return matcher.getIncludes();
+    }
+
+    /**
+     * Checks a file against the patterns of the file set, without accessing
+     * the file system.
+     * 
+     * @param relativePath
+     *            path of a file relative to the base directory, using the
+     *            platform's separator
+     * @return <code>true</code> if the file is included and not excluded
+     */
+    public boolean isIncluded(final String relativePath) {
+        return matcher.isIncludedFile(relativePath);
+    }
+
+    /**
+     * Describes the files the walk may find in a normalized form: the base
+     * directory, the include and exclude patterns (including the default
+     * excludes) in sorted order, case sensitivity and the handling of
+     * symbolic links. Two file sets with the same definition find the same
+     * files.
+     * 
+     * @return the definition of the file set
+     */
+    public String getDefinition() {
+        final StringBuilder definition = new StringBuilder();
+        definition.append("dir=").append(baseDir.getAbsolutePath());
+        definition.append(";followsymlinks=").append(followSymlinks);
+        matcher.appendDefinition(definition);
+        return definition.toString();
+    }
+
+    /**
+     * Sets the lister to list directories with. Defaults to
+     * {@link #DIRECT_LISTER}.
+     *
+     * @param lister
+     *            the lister to set
+     */
+    public void setLister(final Lister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * If set to <code>true</code>, file sets whose include patterns are all
+     * literal paths are not walked: each included file is looked up
+     * directly, so no directory is listed. Only applies to case sensitive
+     * file sets. Defaults to <code>false</code>, as then the lister does not
+     * see any directory.
+     * 
+     * @param literalLookup
+     *            the literalLookup to set
+     */
+    public void setLiteralLookup(final boolean literalLookup) {
+        this.literalLookup = literalLookup;
+    }
+
+    /**
+     * Walks the file set.
+     *
+     * @param visitor
+     *            receives the matching files
+     * @return <code>false</code> if the visitor stopped walking
+     * @throws InterruptedException
+     *             if interrupted while handling a file
+     * @throws BuildException
+     *             if a directory cannot be listed
+     */
+    public boolean walk(final Visitor visitor) throws InterruptedException {
+        if (literalLookup) {
+            final Set<String> literalIncludes = matcher.getLiteralIncludes();
+            if (literalIncludes != null) {
+                return lookUp(literalIncludes, visitor);
+            }
+        }
+        return walk(baseDir, "", visitor);
+    }
+
+    /**
+     * Hands over the files denoted by literal include patterns, if they exist
+     * and are not excluded.
+     *
+     * @param literalIncludes
+     *            the include patterns, relative paths without wildcards
+     * @param visitor
+     *            receives the matching files
+     * @return <code>false</code> if the visitor stopped walking
+     * @throws InterruptedException
+     *             if interrupted while handling a file
+     */
+    private boolean lookUp(final Set<String> literalIncludes, final Visitor visitor)
+            throws InterruptedException {
+        for (final String relativePath : literalIncludes) {
+            final File file = new File(baseDir, relativePath);
+            final boolean found =
+                    matcher.isIncludedFile(relativePath) && file.isFile()
+                            && (followSymlinks || !hasSymbolicLink(relativePath));
+            if (found && !visitor.visit(file, relativePath)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param relativePath
+     *            path relative to the base directory
+     * @return <code>true</code> if the path passes a symbolic link, which a
+     *         walk would not follow
+     */
+    private boolean hasSymbolicLink(final String relativePath) {
+        File dir = baseDir;
+        for (final String name : relativePath.split(Pattern.quote(File.separator))) {
+            if (name.length() > 0) {
+                if (isSymbolicLink(dir, name)) {
+                    return true;
+                }
+                dir = new File(dir, name);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks a directory and its subdirectories.
+     *
+     * @param dir
+     *            the directory to walk
+     * @param relativeDir
+     *            path of the directory relative to the base directory,
+     *            either empty or ending with a separator
+     * @param visitor
+     *            receives the matching files
+     * @return <code>false</code> if the visitor stopped walking
+     * @throws InterruptedException
+     *             if interrupted while handling a file
+     */
+    private boolean walk(final File dir, final String relativeDir, final Visitor visitor)
+            throws InterruptedException {
+        final DirectoryListing listing;
+        try {
+            listing = lister.list(dir);
+        }
+        catch (final IOException e) {
+            throw new BuildException(e.getMessage(), e);
+        }
+        for (int i = 0; i < listing.size(); i++) {
+            final String name = listing.getName(i);
+            if (!followSymlinks && isSymbolicLink(dir, name)) {
+                continue;
+            }
+            final String relativePath = relativeDir + name;
+            if (listing.isDirectory(i)) {
+                if (matcher.couldContainIncluded(relativePath)
+                        && !walk(new File(dir, name), relativePath + File.separator, visitor)) {
+                    return false;
+                }
+            }
+            else if (matcher.isIncludedFile(relativePath)
+                    && !visitor.visit(new File(dir, name), relativePath)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param dir
+     *            the parent directory
+     * @param name
+     *            name of the entry
+     * @return <code>true</code> if the entry is a symbolic link
+     */
+    private static boolean isSymbolicLink(final File dir, final String name) {
+        try {
+            return FILE_UTILS.isSymbolicLink(dir, name);
+        }
+        catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Directory scanner only used to evaluate the patterns configured by the
+     * file set.
+     */
+    private static class Matcher extends DirectoryScanner {
+        /**
+         * Applies the defaults {@link DirectoryScanner#scan()} would apply to
+         * missing patterns and prepares the patterns for matching.
+         */
+        void prepare() {
+            if (includes == null) {
+                setIncludes(new String[] {"**" });
+            }
+            if (excludes == null) {
+                setExcludes(new String[0]);
+            }
+            // some versions of Ant only prepare the pattern caches used by
+            // couldHoldIncluded() when a path is matched for the first time
+            isIncluded("");
+        }
+
+        /**
+         * @return <code>true</code> if the patterns are case sensitive
+         */
+        boolean isCaseSensitiveMatching() {
+            return isCaseSensitive;
+        }
+
+        /**
+         * @return the include patterns
+         */
+        String[] getIncludes() {
+            return includes.clone();
+        }
+
+        /**
+         * Appends the patterns and the case sensitivity in a normalized form.
+         * 
+         * @param definition
+         *            where to append to
+         */
+        void appendDefinition(final StringBuilder definition) {
+            final String[] sortedIncludes = includes.clone();
+            Arrays.sort(sortedIncludes);
+            final String[] sortedExcludes = excludes.clone();
+            Arrays.sort(sortedExcludes);
+            definition.append(";casesensitive=").append(isCaseSensitive);
+            definition.append(";includes=").append(Arrays.asList(sortedIncludes));
+            definition.append(";excludes=").append(Arrays.asList(sortedExcludes));
+        }
+
+        /**
+         * @return the include patterns if all of them are literal paths
+         *         and matching is case sensitive; <code>null</code> otherwise
+         */
+        Set<String> getLiteralIncludes() {
+            if (!isCaseSensitive) {
+                return null;
+            }
+            final Set<String> literalIncludes = new LinkedHashSet<String>();
+            for (final String include : includes) {
+                if (SelectorUtils.hasWildcards(include)) {
+                    return null;
+                }
+                literalIncludes.add(include);
+            }
+            return literalIncludes;
+        }
+
+        /**
+         * @param relativePath
+         *            relative path of a file
+         * @return <code>true</code> if the file is included and not excluded
+         */
+        boolean isIncludedFile(final String relativePath) {
+            return isIncluded(relativePath) && !isExcluded(relativePath);
+        }
+
+        /**
+         * @param relativePath
+         *            relative path of a directory
+         * @return <code>true</code> if the directory may contain included
+         *         files
+         */
+        boolean couldContainIncluded(final String relativePath) {
+            return couldHoldIncluded(relativePath) && !isContentExcluded(relativePath);
+        }
+
+        /**
+         * @param relativePath
+         *            relative path of a directory
+         * @return <code>true</code> if an exclude pattern ending with
+         *         <code>**</code> excludes everything within the directory
+         */
+        private boolean isContentExcluded(final String relativePath) {
+            final String dirPath = relativePath + File.separator;
+            for (final String exclude : excludes) {
+                if (exclude.endsWith("**")
+                        && SelectorUtils.matchPath(exclude.substring(0, exclude.length() - 2), dirPath,
+                                isCaseSensitive)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -15,9 +15,16 @@
  */
 package org.arctic.ant.taskdefs;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.AbstractCollection;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.regex.Matcher;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
@@ -25,9 +32,12 @@ import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Resource;
 import org.apache.tools.ant.types.ResourceCollection;
-import org.apache.tools.ant.types.resources.FileResource;
-import org.apache.tools.ant.types.resources.URLResource;
+import org.arctic.io.DirectoryListing;
+import org.arctic.io.PathIndexReader;
+import org.arctic.io.ResolutionCache;
 import org.arctic.text.Strings;
+import org.arctic.util.PathPattern;
+import org.arctic.util.Version;
 
 
 /**
@@ -44,15 +54,80 @@ import org.arctic.text.Strings;
  * <li>property &ndash; the property to set</li>
  * <li>type &ndash; file, dir (or directory) or all; what will be a valid result
  * </li>
+ * <li>parallel &ndash; scan the nested resource collections concurrently</li>
+ * <li>threads &ndash; number of threads for concurrent scanning</li>
+ * <li>trustscanner &ndash; skip existence checks of files found by a file
+ * set's directory scanner; defaults to true</li>
+ * <li>logresources &ndash; log every resource found at debug level; defaults
+ * to false</li>
+ * <li>cache &ndash; file to keep the results in across builds</li>
+ * <li>index &ndash; index written by <code>indexfiles</code> to search
+ * instead of walking file sets</li>
+ * <li>select &ndash; newest, oldest, largest, highest-version or first;
+ * which of several matching resources to choose instead of failing</li>
  * </ul>
  * <p>
  * If no matching file is found (especially when the resource collection is
  * empty) the property won't be set. No error is raised.
  * </p>
+ * <p>
+ * With the <code>select</code> attribute several matching resources are no
+ * error: the resource to choose is determined while scanning, keeping only
+ * the best resource so far. <code>select="first"</code> stops scanning at
+ * the first resource found.
+ * </p>
+ * <p>
+ * Instead of the <code>property</code> attribute there may be several
+ * nested <code>find</code> elements, each with a property and a pattern.
+ * The resources are then scanned only once and matched against all
+ * patterns, each property being set to the only resource matching its
+ * pattern:
+ * </p>
+ * 
+ * <pre>
+ *   &lt;findfile&gt;
+ *     &lt;fileset dir="lib"/&gt;
+ *     &lt;find property="junit.jar" pattern="**&#47;junit-*.jar"/&gt;
+ *     &lt;find property="ant.jar" pattern="**&#47;ant-1.*.jar"/&gt;
+ *   &lt;/findfile&gt;
+ * </pre>
+ * <p>
+ * File sets without selectors are walked lazily: scanning stops as soon as
+ * a second file has been found, directories which cannot contain any
+ * included file are not entered and file sets which only include literal
+ * paths, e.&nbsp;g. via the <code>file</code> attribute, are not walked at
+ * all.
+ * </p>
+ * <p>
+ * With the <code>cache</code> attribute the results are kept in a file
+ * across builds. They are keyed by the normalized definitions of the file
+ * sets &ndash; base directory, include and exclude patterns, case
+ * sensitivity and handling of symbolic links &ndash; together with the
+ * patterns of the nested finds, and record the modification times of all
+ * directories listed while scanning. As creating, deleting or renaming a
+ * file changes the modification time of its directory, a result is reused
+ * as long as none of these directories changed, which is checked without
+ * listing any of them. The cache file is read once per build and only
+ * written again if results have been added or removed. Hits and misses are
+ * counted per build and logged in verbose mode.
+ * </p>
+ * <p>
+ * With the <code>index</code> attribute file sets are looked up in an index
+ * written by <code>indexfiles</code> instead of walking them. The index is
+ * sorted, so the literal prefix of the include patterns narrows the paths
+ * to check by binary search. The index is only used if it is fresh for
+ * the directory of that prefix; otherwise the file set is walked.
+ * </p>
  * 
  * @author Mark Michaelis
  */
 public class FindFile extends Task {
+    /**
+     * Prefix of the project references holding the resolution caches read,
+     * followed by the absolute path of the cache file.
+     */
+    private static final String CACHE_REFERENCE_PREFIX = "org.arctic.findfile.cache:";
+
     /**
      * The name of the property which shall contain the resulting file.
      */
@@ -61,6 +136,42 @@ public class FindFile extends Task {
      * Resource Collections to scan for a matching file.
      */
     private final AbstractCollection<ResourceCollection> rcs = new Vector<ResourceCollection>();
+    /**
+     * If set, the resource collections are scanned concurrently.
+     */
+    private boolean parallel = false;
+    /**
+     * Number of threads for concurrent scanning; 0 for one per processor.
+     */
+    private int threads = 0;
+    /**
+     * If set, files found by the directory scanner of a file set are not
+     * checked for existence again.
+     */
+    private boolean trustScanner = true;
+    /**
+     * If set, every resource found is logged at debug level.
+     */
+    private boolean logResources = false;
+    /**
+     * Nested finds; if there are any, {@link #property} is not used.
+     */
+    private final List<Find> finds = new ArrayList<Find>();
+    /**
+     * Where to keep the results across builds; <code>null</code> for no
+     * caching.
+     */
+    private File cache = null;
+    /**
+     * How to select one of several matching resources; <code>null</code> to
+     * fail instead.
+     */
+    private String select = null;
+    /**
+     * Index to search instead of walking file sets; <code>null</code> to
+     * walk.
+     */
+    private File index = null;
 
     /**
      * Constructor.
@@ -84,6 +195,18 @@ public class FindFile extends Task {
         this.property = property;
     }
 
+    /**
+     * Adds a nested find. If there are nested finds, the resources are
+     * scanned once for all of them, instead of for {@link #getProperty()}.
+     * 
+     * @return the find to configure
+     */
+    public final Find createFind() {
+        final Find find = new Find();
+        finds.add(find);
+        return find;
+    }
+
     /**
      * Add a collection of files to scan.
      * 
@@ -104,54 +227,496 @@ public class FindFile extends Task {
         add(set);
     }
 
+    /**
+     * @return <code>true</code> if the resource collections are scanned
+     *         concurrently
+     */
+    public final boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * If set to <code>true</code> the nested resource collections are scanned
+     * concurrently. Scanning stops as soon as a second matching resource has
+     * been found by any of the threads.
+     * 
+     * @param parallel
+     *            the parallel to set
+     */
+    public final void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return number of threads for concurrent scanning; 0 for one per
+     *         processor
+     */
+    public final int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads for concurrent scanning. Defaults to one
+     * thread per available processor. Only used if {@link #isParallel()}.
+     * 
+     * @param threads
+     *            the threads to set
+     */
+    public final void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return <code>true</code> if files found by the directory scanner of a
+     *         file set are trusted to exist
+     */
+    public final boolean isTrustScanner() {
+        return trustScanner;
+    }
+
+    /**
+     * If set to <code>false</code> the existence of every resource is
+     * checked, also of the files which the directory scanner of a file set
+     * has just found. Only needed if files may be deleted while scanning.
+     * Defaults to <code>true</code>, which saves one file system access per
+     * file.
+     * 
+     * @param trustScanner
+     *            the trustScanner to set
+     */
+    public final void setTrustScanner(final boolean trustScanner) {
+        this.trustScanner = trustScanner;
+    }
+
+    /**
+     * @return <code>true</code> if every resource found is logged
+     */
+    public final boolean isLogResources() {
+        return logResources;
+    }
+
+    /**
+     * If set every resource found is logged at debug level. Defaults to
+     * <code>false</code>, as Ant builds the message for every resource even
+     * if no listener shows it. The resources of an ambiguous pattern are
+     * logged in any case.
+     * 
+     * @param logResources
+     *            the logResources to set
+     */
+    public final void setLogResources(final boolean logResources) {
+        this.logResources = logResources;
+    }
+
+    /**
+     * @return where to keep the results across builds; <code>null</code> for
+     *         no caching
+     */
+    public final File getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets a file to keep the results in across builds. A result is reused
+     * as long as the definitions of the file sets and the patterns of the
+     * nested finds are the same and none of the directories listed to find
+     * it has been modified since. Only used if all resource collections are
+     * file sets without selectors.
+     * 
+     * @param cache
+     *            the cache to set
+     */
+    public final void setCache(final File cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return how to select one of several matching resources;
+     *         <code>null</code> to fail instead
+     */
+    public final String getSelect() {
+        return select;
+    }
+
+    /**
+     * Sets how to select one of several matching resources instead of
+     * failing: <code>newest</code> or <code>oldest</code> by modification
+     * time, <code>largest</code> by size, <code>highest-version</code> by
+     * the version in the file name (see {@link Version}) or
+     * <code>first</code>, which stops scanning at the first resource found.
+     * The selection is made while scanning; only the best resource so far is
+     * kept. Also applies to nested finds without a selection of their own.
+     * 
+     * @param select
+     *            the select to set
+     */
+    public final void setSelect(final String select) {
+        this.select = select;
+    }
+
+    /**
+     * @return index to search instead of walking file sets;
+     *         <code>null</code> to walk
+     */
+    public final File getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets an index written by {@link IndexFiles} to search instead of
+     * walking file sets whose base directory is the indexed directory or
+     * below. A file set is still walked if any directory its files may be
+     * in has been modified since the index was written, if it does not
+     * follow symbolic links or if the index cannot be read.
+     * 
+     * @param index
+     *            the index to set
+     */
+    public final void setIndex(final File index) {
+        this.index = index;
+    }
+
     /**
      * Perform the findfile operation.
      * 
      * @throws BuildException
      *             if an error occurs.
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final void execute() throws BuildException {
         // make sure we don't have an illegal set of options
         validate();
 
-        String result = null;
+        final String key = getCacheKey();
+        final ResolutionCache resolutionCache = key == null ? null : getResolutionCache();
+        if (resolutionCache != null) {
+            final ResolutionCache.Entry entry;
+            synchronized (resolutionCache) {
+                entry = resolutionCache.lookUp(key);
+                log("Resolution cache " + (entry == null ? "miss" : "hit") + " (" + resolutionCache.getHits()
+                        + " hits, " + resolutionCache.getMisses() + " misses).", Project.MSG_VERBOSE);
+            }
+            if (entry != null) {
+                setProperties(entry.getResults());
+                return;
+            }
+        }
 
-        for (final ResourceCollection rc : rcs) {
-            final Iterator<Resource> resources = rc.iterator();
-            boolean fail = false;
-            while (resources.hasNext()) {
-                final Resource resource = resources.next();
-                if (!resource.isExists()) {
-                    continue;
+        final ResourceScanner scanner = new ResourceScanner(isParallel() ? getThreads() : 1);
+        scanner.setTrustScanner(isTrustScanner());
+        scanner.setWalkFileSets(getProject());
+        final Map<String, Long> directories = new TreeMap<String, Long>();
+        if (resolutionCache != null) {
+            scanner.setLister(new FileSetWalker.Lister() {
+                public DirectoryListing list(final File dir) throws IOException {
+                    final DirectoryListing listing = DirectoryListing.read(dir);
+                    synchronized (directories) {
+                        directories.put(dir.getAbsolutePath(), listing.getLastModified());
+                    }
+                    return listing;
                 }
-                if (result != null) {
-                    // delayed failure for easier debugging of the resource
-                    // pattern.
-                    fail = true;
+            });
+        }
+        final long scanStart = System.currentTimeMillis();
+        final String[] results;
+        try {
+            final Collection<ResourceCollection> collections = getIndex() == null ? rcs : searchIndex();
+            results = finds.isEmpty() ? scan(scanner, collections) : scanFinds(scanner, collections);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning resources.", e);
+        }
+        if (resolutionCache != null) {
+            synchronized (resolutionCache) {
+                if (isSettled(directories, scanStart)) {
+                    resolutionCache.put(key, new ResolutionCache.Entry(results, directories));
                 }
-                if (resource instanceof FileResource) {
-                    final FileResource fileResource = (FileResource) resource;
-                    result = fileResource.getFile().getAbsolutePath();
+                if (resolutionCache.isModified()) {
+                    writeCache(resolutionCache);
                 }
-                else if (resource instanceof URLResource) {
-                    final URLResource urlResource = (URLResource) resource;
-                    result = urlResource.getURL().toExternalForm();
+            }
+        }
+        setProperties(results);
+    }
+
+    /**
+     * Scans the resources for the only one to set {@link #getProperty()} to.
+     * 
+     * @param scanner
+     *            the scanner to use
+     * @param collections
+     *            the resource collections to scan
+     * @return the resource found or a <code>null</code> element
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     */
+    private String[] scan(final ResourceScanner scanner, final Collection<ResourceCollection> collections)
+            throws InterruptedException {
+        if (getSelect() != null) {
+            return new String[] {scanSelect(scanner, collections) };
+        }
+        final String[] result = new String[1];
+        // a second match is enough to detect ambiguity, so do not scan
+        // file sets completely up front
+        scanner.setLimit(2);
+        scanner.scan(collections, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) {
+                // delayed failure for easier debugging of the resource
+                // pattern.
+                final boolean fail = result[0] != null;
+                if (fail && !logResources) {
+                    log("Found resource \"" + result[0] + "\".", Project.MSG_DEBUG);
                 }
-                else {
-                    result = resource.getName();
+                result[0] = ResourceScanner.getName(resource);
+                if (fail || logResources) {
+                    log("Found resource \"" + result[0] + "\" of type " + resource.getClass().getName()
+                            + ".", Project.MSG_DEBUG);
                 }
-                log("Found resource \"" + result + "\" of type " + resource.getClass().getName() + ".",
-                        Project.MSG_DEBUG);
                 if (fail) {
                     throw new BuildException("Ambiguous resource pattern: Matches more than one resource. "
                             + "Run in debug mode for more details.");
                 }
+                return true;
             }
+        });
+        return result;
+    }
+
+    /**
+     * Scans the resources for the one to set {@link #getProperty()} to
+     * according to {@link #getSelect()}.
+     * 
+     * @param scanner
+     *            the scanner to use
+     * @param collections
+     *            the resource collections to scan
+     * @return the resource selected; <code>null</code> if none found
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     */
+    private String scanSelect(final ResourceScanner scanner, final Collection<ResourceCollection> collections)
+            throws InterruptedException {
+        final Selection selection = new Selection(getSelect());
+        if (Selection.FIRST.equals(getSelect())) {
+            scanner.setLimit(1);
         }
-        getProject().setNewProperty(property, result);
-        log(property + " := " + result, Project.MSG_DEBUG);
+        scanner.scan(collections, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) {
+                final String name = ResourceScanner.getName(resource);
+                final boolean selected = selection.offer(resource, name);
+                if (logResources) {
+                    log("Found resource \"" + name + "\"" + (selected ? " (selected)." : "."),
+                            Project.MSG_DEBUG);
+                }
+                return !selection.isComplete();
+            }
+        });
+        return selection.getSelected();
+    }
+
+    /**
+     * Replaces the file sets covered by a fresh {@link #getIndex()} by the
+     * files found in the index. Other file sets are walked, as are all file
+     * sets if the index cannot be read.
+     * 
+     * @return the resource collections to scan
+     */
+    private Collection<ResourceCollection> searchIndex() {
+        final PathIndexReader reader;
+        try {
+            reader = new PathIndexReader(getIndex());
+        }
+        catch (final IOException e) {
+            log("Ignoring unreadable index \"" + getIndex().getAbsolutePath() + "\": " + e.getMessage(),
+                    Project.MSG_WARN);
+            return rcs;
+        }
+        try {
+            final List<ResourceCollection> collections = new ArrayList<ResourceCollection>(rcs.size());
+            for (final ResourceCollection rc : rcs) {
+                collections.add(searchIndex(reader, rc));
+            }
+            return collections;
+        }
+        finally {
+            try {
+                // the mapping of the index stays valid
+                reader.close();
+            }
+            catch (final IOException e) {
+                log("Unable to close index: " + e.getMessage(), Project.MSG_DEBUG);
+            }
+        }
+    }
+
+    /**
+     * Looks up the files of a file set in an index.
+     * 
+     * @param reader
+     *            the index
+     * @param rc
+     *            a resource collection
+     * @return the files found in the index; the collection itself if it
+     *         is no file set covered by the fresh index
+     */
+    private ResourceCollection searchIndex(final PathIndexReader reader, final ResourceCollection rc) {
+        if (!FileSetWalker.isSupported(rc, getProject())) {
+            return rc;
+        }
+        final FileSetWalker walker = new FileSetWalker((FileSet) rc, getProject());
+        final IndexedFiles files = IndexedFiles.create(reader, walker);
+        final String dir = walker.getBaseDir().getAbsolutePath();
+        if (files == null) {
+            log("Index does not cover \"" + dir + "\", walking instead.", Project.MSG_VERBOSE);
+            return rc;
+        }
+        if (!files.isFresh()) {
+            log("Index is stale for \"" + dir + "\", walking instead.", Project.MSG_VERBOSE);
+            return rc;
+        }
+        log("Searching index for \"" + dir + "\".", Project.MSG_VERBOSE);
+        return files;
+    }
+
+    /**
+     * Sets the properties to the resources found.
+     * 
+     * @param results
+     *            the resources found, one per property; <code>null</code>
+     *            elements for properties not to set
+     */
+    private void setProperties(final String[] results) {
+        for (int i = 0; i < results.length; i++) {
+            final String name = finds.isEmpty() ? property : finds.get(i).getProperty();
+            getProject().setNewProperty(name, results[i]);
+            log(name + " := " + results[i], Project.MSG_DEBUG);
+        }
+    }
+
+    /**
+     * Builds the key of this lookup in the resolution cache from the
+     * definitions of the file sets and the patterns of the nested finds.
+     * 
+     * @return the key; <code>null</code> if no cache is configured or a
+     *         resource collection is not a file set which can be cached
+     */
+    private String getCacheKey() {
+        if (getCache() == null) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder();
+        if (finds.isEmpty()) {
+            key.append("select=").append(getSelect()).append('\n');
+            if (!isCacheable(getSelect())) {
+                return null;
+            }
+        }
+        for (final Find find : finds) {
+            key.append("find=").append(find.getPattern()).append(";casesensitive=").append(
+                    find.isCaseSensitive()).append(";select=").append(getSelect(find)).append('\n');
+            if (!isCacheable(getSelect(find))) {
+                return null;
+            }
+        }
+        for (final ResourceCollection rc : rcs) {
+            if (!FileSetWalker.isSupported(rc, getProject())) {
+                log("Resolution cache not used: only file sets without selectors can be cached.",
+                        Project.MSG_VERBOSE);
+                return null;
+            }
+            key.append(new FileSetWalker((FileSet) rc, getProject()).getDefinition()).append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param policy
+     *            a selection policy; <code>null</code> for none
+     * @return <code>true</code> if results selected by the policy can be
+     *         cached, i.&nbsp;e. they only depend on the names of the files
+     */
+    private boolean isCacheable(final String policy) {
+        if (policy == null || Selection.isByName(policy)) {
+            return true;
+        }
+        log("Resolution cache not used: selecting the " + policy + " file depends on more than names.",
+                Project.MSG_VERBOSE);
+        return false;
+    }
+
+    /**
+     * Returns the resolution cache of {@link #getCache()}. It is read only
+     * once per build and shared by all tasks of the project using the same
+     * cache file, so that a hit costs no more than checking the directories.
+     * 
+     * @return the resolution cache
+     */
+    private ResolutionCache getResolutionCache() {
+        final String reference = CACHE_REFERENCE_PREFIX + getCache().getAbsolutePath();
+        synchronized (getProject()) {
+            ResolutionCache resolutionCache = (ResolutionCache) getProject().getReference(reference);
+            if (resolutionCache == null) {
+                resolutionCache = readCache();
+                getProject().addReference(reference, resolutionCache);
+            }
+            return resolutionCache;
+        }
+    }
+
+    /**
+     * @return the resolution cache read from {@link #getCache()}; an empty
+     *         cache if there is none or it cannot be read
+     */
+    private ResolutionCache readCache() {
+        if (!getCache().isFile()) {
+            log("No resolution cache \"" + getCache().getAbsolutePath() + "\" yet.", Project.MSG_VERBOSE);
+            return new ResolutionCache();
+        }
+        try {
+            return ResolutionCache.read(getCache());
+        }
+        catch (final IOException e) {
+            log("Ignoring unreadable resolution cache \"" + getCache().getAbsolutePath() + "\": "
+                    + e.getMessage(), Project.MSG_WARN);
+            return new ResolutionCache();
+        }
+    }
+
+    /**
+     * Writes the resolution cache to {@link #getCache()}.
+     * 
+     * @param resolutionCache
+     *            the cache to write
+     */
+    private void writeCache(final ResolutionCache resolutionCache) {
+        try {
+            resolutionCache.write(getCache());
+        }
+        catch (final IOException e) {
+            throw new BuildException("Unable to write resolution cache \"" + getCache().getAbsolutePath()
+                    + "\": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks that no directory has been modified shortly before scanning, as
+     * a modification within the granularity of the file system's timestamps
+     * might go unnoticed otherwise.
+     * 
+     * @param directories
+     *            modification times of the directories listed
+     * @param scanStart
+     *            when scanning started
+     * @return <code>true</code> if the result may be cached
+     */
+    private static boolean isSettled(final Map<String, Long> directories, final long scanStart) {
+        for (final long lastModified : directories.values()) {
+            if (lastModified >= scanStart - DirectoryListing.MODIFICATION_GRANULARITY) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -161,12 +726,268 @@ public class FindFile extends Task {
      *             if an error occurs.
      */
     protected final void validate() throws BuildException {
-        if (Strings.getInstance().isEmpty(getProperty())) {
+        if (finds.isEmpty() && Strings.getInstance().isEmpty(getProperty())) {
             throw new BuildException("Please specify a property to set the filename to.");
         }
+        if (!finds.isEmpty() && !Strings.getInstance().isEmpty(getProperty())) {
+            throw new BuildException("Attribute \"property\" cannot be combined with nested finds.");
+        }
+        if (getIndex() != null && getCache() != null) {
+            throw new BuildException("Attribute \"index\" cannot be combined with \"cache\".");
+        }
+        validateSelect(getSelect());
+        for (final Find find : finds) {
+            validateSelect(find.getSelect());
+            if (Strings.getInstance().isEmpty(find.getProperty())
+                    || Strings.getInstance().isEmpty(find.getPattern())) {
+                throw new BuildException("Specify a property and a pattern for each nested find.");
+            }
+            try {
+                PathPattern.compile(find.getPattern(), find.isCaseSensitive());
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BuildException("Pattern \"" + find.getPattern() + "\" is invalid.", e);
+            }
+        }
         if (rcs.isEmpty()) {
             throw new BuildException("Specify at least one resource collection.");
         }
+        if (getThreads() < 0) {
+            throw new BuildException("Number of threads must not be negative.");
+        }
+    }
+
+    /**
+     * Ensures a selection policy is known.
+     * 
+     * @param policy
+     *            the policy; <code>null</code> for none
+     * @throws BuildException
+     *             if the policy is unknown
+     */
+    private static void validateSelect(final String policy) throws BuildException {
+        if (policy != null && !Selection.isPolicy(policy)) {
+            throw new BuildException("Unknown selection \"" + policy + "\": Choose either \""
+                    + Selection.NEWEST + "\", \"" + Selection.OLDEST + "\", \"" + Selection.LARGEST + "\", \""
+                    + Selection.HIGHEST_VERSION + "\" or \"" + Selection.FIRST + "\".");
+        }
     }
 
+    /**
+     * @param find
+     *            a nested find
+     * @return the selection policy of the find; the one of the task if the
+     *         find has none
+     */
+    private String getSelect(final Find find) {
+        return find.getSelect() == null ? getSelect() : find.getSelect();
+    }
+
+    /**
+     * Scans the resources once and matches each against the patterns of all
+     * nested finds. Fails as soon as a pattern matches a second resource;
+     * otherwise returns the resources found.
+     * 
+     * @param scanner
+     *            the scanner to use
+     * @param collections
+     *            the resource collections to scan
+     * @return the resources found, one per find; <code>null</code> elements
+     *         for finds which did not match any resource
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     */
+    private String[] scanFinds(final ResourceScanner scanner,
+            final Collection<ResourceCollection> collections) throws InterruptedException {
+        final List<Matcher> matchers = new ArrayList<Matcher>(finds.size());
+        for (final Find find : finds) {
+            matchers.add(PathPattern.compile(find.getPattern(), find.isCaseSensitive()).matcher(""));
+        }
+        final String[] results = new String[finds.size()];
+        // finds selecting a resource; null elements for finds failing on ambiguity
+        final Selection[] selections = new Selection[finds.size()];
+        boolean allFirst = true;
+        for (int i = 0; i < finds.size(); i++) {
+            final String policy = getSelect(finds.get(i));
+            if (policy != null) {
+                selections[i] = new Selection(policy);
+            }
+            allFirst &= Selection.FIRST.equals(policy);
+        }
+        final boolean stopWhenComplete = allFirst;
+        scanner.scan(collections, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) {
+                final String name = resource.getName();
+                for (int i = 0; i < matchers.size(); i++) {
+                    if (matchers.get(i).reset(name).matches()) {
+                        if (selections[i] == null) {
+                            found(i, ResourceScanner.getName(resource));
+                        }
+                        else {
+                            select(i, resource);
+                        }
+                    }
+                }
+                return !stopWhenComplete || !isComplete();
+            }
+
+            /**
+             * Offers a match to the selection of a find.
+             * 
+             * @param find
+             *            index of the find
+             * @param resource
+             *            the resource matched
+             */
+            private void select(final int find, final Resource resource) {
+                final String resourceName = ResourceScanner.getName(resource);
+                final boolean selected = selections[find].offer(resource, resourceName);
+                if (logResources) {
+                    log("Found resource \"" + resourceName + "\" for property "
+                            + finds.get(find).getProperty() + (selected ? " (selected)." : "."),
+                            Project.MSG_DEBUG);
+                }
+            }
+
+            /**
+             * @return <code>true</code> if all selections are complete
+             */
+            private boolean isComplete() {
+                for (final Selection selection : selections) {
+                    if (!selection.isComplete()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Records a match of a find.
+             * 
+             * @param find
+             *            index of the find
+             * @param resourceName
+             *            name of the resource matched
+             */
+            private void found(final int find, final String resourceName) {
+                final String property = finds.get(find).getProperty();
+                final boolean fail = results[find] != null;
+                if (fail && !logResources) {
+                    log("Found resource \"" + results[find] + "\" for property " + property + ".",
+                            Project.MSG_DEBUG);
+                }
+                if (fail || logResources) {
+                    log("Found resource \"" + resourceName + "\" for property " + property + ".",
+                            Project.MSG_DEBUG);
+                }
+                if (fail) {
+                    throw new BuildException("Ambiguous resource pattern for property " + property
+                            + ": Matches more than one resource. Run in debug mode for more details.");
+                }
+                results[find] = resourceName;
+            }
+        });
+        for (int i = 0; i < selections.length; i++) {
+            if (selections[i] != null) {
+                results[i] = selections[i].getSelected();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A nested find: a property to set to the only resource matching a
+     * pattern.
+     */
+    public static class Find {
+        /**
+         * The name of the property to set.
+         */
+        private String property = null;
+        /**
+         * Patterns the resource has to match.
+         */
+        private String pattern = null;
+        /**
+         * If set, the patterns are case sensitive.
+         */
+        private boolean caseSensitive = true;
+        /**
+         * How to select one of several matching resources; <code>null</code>
+         * for the selection of the task.
+         */
+        private String select = null;
+
+        /**
+         * @return the name of the property to set
+         */
+        public final String getProperty() {
+            return property;
+        }
+
+        /**
+         * @param property
+         *            the name of the property to set
+         */
+        public final void setProperty(final String property) {
+            this.property = property;
+        }
+
+        /**
+         * @return patterns the resource has to match
+         */
+        public final String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Sets the patterns the resource has to match, such as
+         * <code>**&#47;junit-*.jar</code>, separated by commas or spaces. See
+         * {@link PathPattern} for the syntax. The patterns are matched
+         * against the name of the resource within its collection, e.&nbsp;g.
+         * the path relative to the base directory of a file set.
+         * 
+         * @param pattern
+         *            the patterns to set
+         */
+        public final void setPattern(final String pattern) {
+            this.pattern = pattern;
+        }
+
+        /**
+         * @return <code>true</code> if the patterns are case sensitive
+         */
+        public final boolean isCaseSensitive() {
+            return caseSensitive;
+        }
+
+        /**
+         * @param caseSensitive
+         *            <code>false</code> to ignore case in the patterns;
+         *            defaults to <code>true</code>
+         */
+        public final void setCaseSensitive(final boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+        }
+
+        /**
+         * @return how to select one of several matching resources;
+         *         <code>null</code> for the selection of the task
+         */
+        public final String getSelect() {
+            return select;
+        }
+
+        /**
+         * Sets how to select one of several matching resources instead of
+         * failing, see {@link FindFile#setSelect(String)}. Defaults to the
+         * selection of the task.
+         * 
+         * @param select
+         *            the select to set
+         */
+        public final void setSelect(final String select) {
+            this.select = select;
+        }
+    }
 }
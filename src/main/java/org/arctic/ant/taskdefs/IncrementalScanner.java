@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.arctic.io.DirectoryListing;
+import org.arctic.io.ListingState;
+
+/**
+ * Scans resource collections into a {@link ListingState}, reusing the
+ * directory listings of a previous state where possible.
+ * <p>
+ * File sets supported by {@link FileSetWalker} are walked directly. A
+ * directory whose modification time equals the one recorded in the previous
+ * state is not listed again; its recorded entries are used instead. Only the
+ * modification time and size of the matching files are read. All other
+ * resource collections are iterated completely.
+ * </p>
+ * <p>
+ * Listings of directories modified shortly before scanning are not recorded,
+ * as a modification within the granularity of the file system's timestamps
+ * might go unnoticed otherwise.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class IncrementalScanner {
+    /**
+     * The project to resolve file sets in.
+     */
+    private final Project project;
+    /**
+     * The state of the previous scan.
+     */
+    private final ListingState previous;
+    /**
+     * The state of this scan.
+     */
+    private final ListingState current = new ListingState();
+    /**
+     * Directory listings newer than this are not recorded.
+     */
+    private long recordBefore = 0;
+    /**
+     * Number of directories whose previous listing has been reused.
+     */
+    private int reusedDirectories = 0;
+    /**
+     * Number of directories which have been listed.
+     */
+    private int listedDirectories = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param project
+     *            the project to resolve file sets in
+     * @param previous
+     *            the state of the previous scan; an empty state if there is
+     *            none
+     */
+    public IncrementalScanner(final Project project, final ListingState previous) {
+        this.project = project;
+        this.previous = previous;
+    }
+
+    /**
+     * Scans the resource collections.
+     *
+     * @param rcs
+     *            the collections to scan
+     * @return the state containing all existing resources and the
+     *         directory listings to reuse next time
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     * @throws BuildException
+     *             if scanning a collection failed
+     */
+    public ListingState scan(final Collection<ResourceCollection> rcs) throws InterruptedException {
+        recordBefore = System.currentTimeMillis() - DirectoryListing.MODIFICATION_GRANULARITY;
+        final ResourceScanner scanner = new ResourceScanner(1);
+        for (final ResourceCollection rc : rcs) {
+            if (FileSetWalker.isSupported(rc, project)) {
+                walk((FileSet) rc);
+            }
+            else {
+                scanner.scan(Collections.singleton(rc), new ResourceScanner.Handler() {
+                    public boolean handle(final Resource resource) {
+                        current.putFile(ResourceScanner.getName(resource), resource.getLastModified(),
+                                resource.getSize());
+                        return true;
+                    }
+                });
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Walks a file set, reusing unchanged directory listings.
+     *
+     * @param fileSet
+     *            the file set to walk
+     * @throws InterruptedException
+     *             if interrupted while walking
+     */
+    private void walk(final FileSet fileSet) throws InterruptedException {
+        final FileSetWalker walker = new FileSetWalker(fileSet, project);
+        walker.setLister(new FileSetWalker.Lister() {
+            public DirectoryListing list(final File dir) throws IOException {
+                return listDirectory(dir);
+            }
+        });
+        walker.walk(new FileSetWalker.Visitor() {
+            public boolean visit(final File file, final String relativePath) {
+                current.putFile(file.getAbsolutePath(), file.lastModified(), file.length());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Lists a directory or reuses its previous listing if the directory did
+     * not change.
+     *
+     * @param dir
+     *            the directory to list
+     * @return the listing
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    private DirectoryListing listDirectory(final File dir) throws IOException {
+        final String path = dir.getAbsolutePath();
+        final DirectoryListing recorded = previous.getDirectory(path);
+        if (recorded != null && recorded.getLastModified() == dir.lastModified()) {
+            reusedDirectories++;
+            current.putDirectory(path, recorded);
+            return recorded;
+        }
+        final DirectoryListing listing = DirectoryListing.read(dir);
+        listedDirectories++;
+        if (listing.getLastModified() < recordBefore) {
+            current.putDirectory(path, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * @return number of directories whose previous listing has been reused
+     */
+    public int getReusedDirectories() {
+        return reusedDirectories;
+    }
+
+    /**
+     * @return number of directories which have been listed
+     */
+    public int getListedDirectories() {
+        return listedDirectories;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.arctic.io.DirectoryListing;
+import org.arctic.io.FileReplacement;
+import org.arctic.io.PathIndexWriter;
+import org.arctic.util.ExternalSorter;
+
+/**
+ * Writes a sorted index of all files below a directory, which
+ * {@link FindFile} can search instead of walking the directory tree, see
+ * {@link FindFile#setIndex(File)}.
+ *
+ * <pre>
+ *   &lt;indexfiles dir="repository" file="repository.index"/&gt;
+ * </pre>
+ * <p>
+ * The index holds the relative paths of all files, including those usually
+ * excluded by default, and the modification times of all directories, so
+ * that searching can tell whether the index is still fresh. Symbolic links
+ * are followed. The paths are sorted within the memory budget of
+ * <code>sortmemory</code>, using temporary files if required.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class IndexFiles extends Task {
+    /**
+     * Default memory budget in bytes for sorting.
+     */
+    private static final long DEFAULT_SORT_MEMORY = 64L * 1024L * 1024L;
+
+    /**
+     * The directory to index.
+     */
+    private File dir = null;
+    /**
+     * The file to write the index to.
+     */
+    private File file = null;
+    /**
+     * Memory budget in bytes for sorting in memory.
+     */
+    private long sortMemory = DEFAULT_SORT_MEMORY;
+
+    /**
+     * @return the directory to index
+     */
+    public final File getDir() {
+        return dir;
+    }
+
+    /**
+     * @param dir
+     *            the directory to index
+     */
+    public final void setDir(final File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the file to write the index to
+     */
+    public final File getFile() {
+        return file;
+    }
+
+    /**
+     * @param file
+     *            the file to write the index to
+     */
+    public final void setFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return memory budget in bytes for sorting in memory
+     */
+    public final long getSortMemory() {
+        return sortMemory;
+    }
+
+    /**
+     * Sets the memory budget in bytes for sorting in memory. Defaults to 64
+     * MB.
+     *
+     * @param sortMemory
+     *            the sortMemory to set
+     */
+    public final void setSortMemory(final long sortMemory) {
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    @Override
+    public final void execute() throws BuildException {
+        validate();
+
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(getProject());
+        fileSet.setDir(getDir());
+        fileSet.setDefaultexcludes(false);
+        final FileSetWalker walker = new FileSetWalker(fileSet, getProject());
+        final String basePath = walker.getBaseDir().getAbsolutePath();
+        final Map<String, Long> directories = new TreeMap<String, Long>();
+        walker.setLister(new FileSetWalker.Lister() {
+            public DirectoryListing list(final File listed) throws IOException {
+                final DirectoryListing listing = DirectoryListing.read(listed);
+                final String path = listed.getAbsolutePath();
+                directories.put(path.length() == basePath.length() ? "" : toIndexPath(path
+                        .substring(basePath.length() + 1)), listing.getLastModified());
+                return listing;
+            }
+        });
+        final ExternalSorter sorter = new ExternalSorter(getSortMemory(), null);
+        try {
+            final long scanned = System.currentTimeMillis();
+            walker.walk(new FileSetWalker.Visitor() {
+                public boolean visit(final File visited, final String relativePath) {
+                    try {
+                        sorter.add(toIndexPath(relativePath));
+                    }
+                    catch (final IOException e) {
+                        throw new BuildException("Unable to write sorted run to temporary file.", e);
+                    }
+                    return true;
+                }
+            });
+            log("Sorted paths using " + sorter.getRunCount() + " temporary runs.", Project.MSG_DEBUG);
+            final int count = writeIndex(basePath, scanned, directories, sorter);
+            log("Indexed " + count + " files in " + directories.size() + " directories.");
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while scanning files.", e);
+        }
+        finally {
+            sorter.close();
+        }
+    }
+
+    /**
+     * @param relativePath
+     *            a relative path using the platform's separator
+     * @return the path using <code>/</code> as separator
+     */
+    private static String toIndexPath(final String relativePath) {
+        return relativePath.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Writes the index to a temporary file first which then replaces
+     * {@link #getFile()}, so that an interrupted write does not leave a
+     * truncated index.
+     *
+     * @param basePath
+     *            absolute path of the directory indexed
+     * @param scanned
+     *            when scanning started
+     * @param directories
+     *            modification times of the directories by relative path
+     * @param paths
+     *            the relative paths of the files in ascending order
+     * @return number of paths written
+     * @throws BuildException
+     *             if writing failed
+     */
+    private int writeIndex(final String basePath, final long scanned, final Map<String, Long> directories,
+            final Iterable<String> paths) throws BuildException {
+        final File target = getFile().getAbsoluteFile();
+        final int[] count = new int[1];
+        try {
+            new FileReplacement("index") {
+                @Override
+                protected void write(final OutputStream out) throws IOException {
+                    final PathIndexWriter writer = new PathIndexWriter(out, basePath, scanned, directories);
+                    try {
+                        for (final String path : paths) {
+                            writer.write(path);
+                        }
+                    }
+                    finally {
+                        writer.close();
+                    }
+                    count[0] = writer.getCount();
+                }
+            }.replace(target);
+        }
+        catch (final IOException e) {
+            throw new BuildException("Unable to write index \"" + target.getAbsolutePath() + "\": "
+                    + e.getMessage(), e);
+        }
+        return count[0];
+    }
+
+    /**
+     * Ensure we have a consistent and legal set of attributes.
+     *
+     * @throws BuildException
+     *             if an error occurs.
+     */
+    protected final void validate() throws BuildException {
+        if (getDir() == null) {
+            throw new BuildException("Specify a directory to index.");
+        }
+        if (!getDir().isDirectory()) {
+            throw new BuildException("Directory \"" + getDir().getAbsolutePath() + "\" does not exist.");
+        }
+        if (getFile() == null) {
+            throw new BuildException("Specify a file to write the index to.");
+        }
+        if (getSortMemory() < 1) {
+            throw new BuildException("Sort memory must be at least 1 byte.");
+        }
+    }
+}
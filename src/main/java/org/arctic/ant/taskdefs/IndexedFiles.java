@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.arctic.io.PathIndexReader;
+
+/**
+ * The files of a file set as found in a path index written by
+ * {@link IndexFiles}, instead of walking the directory tree.
+ * <p>
+ * The literal prefix shared by all include patterns, such as
+ * <code>org/arctic/</code> of <code>org/arctic/**&#47;*.jar</code>, limits
+ * the paths to check to a range found by binary search. Within that range
+ * paths not ending with the literal suffix shared by all include patterns,
+ * such as <code>.jar</code>, are skipped by comparing bytes of the index;
+ * only the remaining paths are decoded and matched against the patterns of
+ * the file set. Case insensitive file sets are matched against all paths.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+final class IndexedFiles implements ResourceCollection {
+    /**
+     * The index.
+     */
+    private final PathIndexReader index;
+    /**
+     * Evaluates the patterns of the file set.
+     */
+    private final FileSetWalker walker;
+    /**
+     * Path of the base directory of the file set relative to the one of the
+     * index, using <code>/</code> as separator and ending with it; empty if
+     * both are the same.
+     */
+    private final String basePrefix;
+    /**
+     * Literal prefix of all matching paths relative to the index.
+     */
+    private final String prefix;
+    /**
+     * UTF-8 bytes of the literal suffix of all matching paths.
+     */
+    private final byte[] suffix;
+
+    /**
+     * Constructor.
+     *
+     * @param index
+     *            the index
+     * @param walker
+     *            walker of the file set
+     * @param basePrefix
+     *            path of the base directory of the file set relative to the
+     *            one of the index, ending with <code>/</code> unless empty
+     */
+    private IndexedFiles(final PathIndexReader index, final FileSetWalker walker, final String basePrefix) {
+        this.index = index;
+        this.walker = walker;
+        this.basePrefix = basePrefix;
+        final String[] includes = walker.getIncludes();
+        String commonPrefix = null;
+        String commonSuffix = null;
+        for (final String include : includes) {
+            final String pattern = include.replace(File.separatorChar, '/');
+            final int firstWildcard = indexOfWildcard(pattern, true);
+            final int lastWildcard = indexOfWildcard(pattern, false);
+            final String literalPrefix = firstWildcard < 0 ? pattern : pattern.substring(0, firstWildcard);
+            String literalSuffix = lastWildcard < 0 ? pattern : pattern.substring(lastWildcard + 1);
+            // "**/" also matches nothing, so the separator is not required
+            if (literalSuffix.startsWith("/")) {
+                literalSuffix = literalSuffix.substring(1);
+            }
+            commonPrefix =
+                    commonPrefix == null ? literalPrefix : getCommonPrefix(commonPrefix, literalPrefix);
+            commonSuffix =
+                    commonSuffix == null ? literalSuffix : getCommonSuffix(commonSuffix, literalSuffix);
+        }
+        if (!walker.isCaseSensitive() || commonPrefix == null) {
+            commonPrefix = "";
+            commonSuffix = "";
+        }
+        prefix = basePrefix + commonPrefix;
+        try {
+            suffix = commonSuffix.getBytes("UTF-8");
+        }
+        catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates the files of a file set as found in an index.
+     *
+     * @param index
+     *            the index
+     * @param walker
+     *            walker of the file set
+     * @return the files; <code>null</code> if the index does not cover the
+     *         base directory of the file set or does not handle symbolic
+     *         links as the file set does
+     */
+    static IndexedFiles create(final PathIndexReader index, final FileSetWalker walker) {
+        if (!walker.isFollowSymlinks()) {
+            return null;
+        }
+        final String indexBase = index.getBaseDir();
+        final String base = walker.getBaseDir().getAbsolutePath();
+        if (base.equals(indexBase)) {
+            return new IndexedFiles(index, walker, "");
+        }
+        final String indexBaseDir =
+                indexBase.endsWith(File.separator) ? indexBase : indexBase + File.separator;
+        if (!base.startsWith(indexBaseDir)) {
+            return null;
+        }
+        final String relativeBase = base.substring(indexBaseDir.length()).replace(File.separatorChar, '/');
+        return new IndexedFiles(index, walker, relativeBase + "/");
+    }
+
+    /**
+     * @param pattern
+     *            a pattern
+     * @param first
+     *            <code>true</code> to search the first wildcard;
+     *            <code>false</code> for the last
+     * @return index of the wildcard; -1 if there is none
+     */
+    private static int indexOfWildcard(final String pattern, final boolean first) {
+        final int star = first ? pattern.indexOf('*') : pattern.lastIndexOf('*');
+        final int question = first ? pattern.indexOf('?') : pattern.lastIndexOf('?');
+        if (star < 0 || question < 0) {
+            return Math.max(star, question);
+        }
+        return first ? Math.min(star, question) : Math.max(star, question);
+    }
+
+    /**
+     * @param a
+     *            a string
+     * @param b
+     *            another string
+     * @return the longest prefix of both
+     */
+    private static String getCommonPrefix(final String a, final String b) {
+        int length = 0;
+        while (length < a.length() && length < b.length() && a.charAt(length) == b.charAt(length)) {
+            length++;
+        }
+        return a.substring(0, length);
+    }
+
+    /**
+     * @param a
+     *            a string
+     * @param b
+     *            another string
+     * @return the longest suffix of both
+     */
+    private static String getCommonSuffix(final String a, final String b) {
+        int length = 0;
+        while (length < a.length() && length < b.length()
+                && a.charAt(a.length() - 1 - length) == b.charAt(b.length() - 1 - length)) {
+            length++;
+        }
+        return a.substring(a.length() - length);
+    }
+
+    /**
+     * Checks that the index is fresh for all files the file set may
+     * contain, i.&nbsp;e. the directory of the literal prefix.
+     *
+     * @return <code>true</code> if the index may be used
+     */
+    boolean isFresh() {
+        final int separator = prefix.lastIndexOf('/');
+        return index.isFresh(separator < 0 ? "" : prefix.substring(0, separator));
+    }
+
+    /**
+     * @return the files in the order of the index
+     */
+    public Iterator<Resource> iterator() {
+        return new FileIterator();
+    }
+
+    /**
+     * Counts the files, which iterates them.
+     *
+     * @return number of files
+     */
+    public int size() {
+        int size = 0;
+        for (final Iterator<Resource> files = iterator(); files.hasNext(); files.next()) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return <code>true</code>
+     */
+    public boolean isFilesystemOnly() {
+        return true;
+    }
+
+    /**
+     * Iterates the files matching the file set, searching the next one only
+     * when requested.
+     */
+    private class FileIterator implements Iterator<Resource> {
+        /**
+         * Index of the next path to check.
+         */
+        private int next = index.getStart(prefix);
+        /**
+         * Index after the last path to check.
+         */
+        private final int end = index.getEnd(prefix);
+        /**
+         * The next file; <code>null</code> if not searched yet or there is
+         * none.
+         */
+        private Resource pending = null;
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            while (pending == null && next < end) {
+                if (suffix.length > 0) {
+                    next = index.findEndingWith(next, end, suffix);
+                    if (next == end) {
+                        break;
+                    }
+                }
+                final String relativePath =
+                        index.getPath(next++).substring(basePrefix.length()).replace('/', File.separatorChar);
+                if (walker.isIncluded(relativePath)) {
+                    pending = new FileResource(walker.getBaseDir(), relativePath);
+                }
+            }
+            return pending != null;
+        }
+
+        /** {@inheritDoc} */
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Resource resource = pending;
+            pending = null;
+            return resource;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
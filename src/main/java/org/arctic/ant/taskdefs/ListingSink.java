@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Receives the resources {@link EchoFiles} lists, with their details
+ * already computed: a single {@link ListingWriter}, the chunks of a
+ * {@link ChunkWriter} or the outputs and shards of a {@link FanOut}.
+ *
+ * @author Mark Michaelis
+ */
+interface ListingSink {
+    /**
+     * Writes the resources.
+     *
+     * @param entries
+     *            the resources with their details; iterated once
+     * @throws BuildException
+     *             if writing failed
+     */
+    void write(Iterable<ResourceEntry> entries) throws BuildException;
+}
@@ -0,0 +1,613 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.arctic.ant.jaxb.MarshallerPool;
+import org.arctic.io.BinaryListingWriter;
+import org.arctic.io.ChannelWriter;
+import org.arctic.io.JsonLinesWriter;
+import org.arctic.io.PathTreeWriter;
+
+/**
+ * Writes the resources listed by {@link EchoFiles} to one
+ * {@link OutputTarget} in one of its output types. The details of the
+ * resources have been computed before, so that several writers can share
+ * them.
+ *
+ * @author Mark Michaelis
+ */
+class ListingWriter implements ListingSink {
+    /**
+     * Line Separator to output text files.
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    /**
+     * Package of the JAXB model generated from <code>resources.xsd</code>.
+     */
+    private static final String JAXB_CONTEXT_PATH = "org.arctic.ant.jaxb.model";
+    /**
+     * XML declaration as written by the JAXB marshaller for complete
+     * documents. As the resources are marshalled as fragments it has to be
+     * written separately.
+     */
+    private static final String XML_DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    /**
+     * Name of the root element of the XML output.
+     */
+    private static final String RESOURCES_ELEMENT = "resources";
+    /**
+     * Name of the element for one resource within the XML output.
+     */
+    private static final QName RESOURCE_QNAME = new QName("resource");
+    /**
+     * Name of the XML attribute holding the checksum.
+     */
+    private static final String CHECKSUM_ATTRIBUTE = "checksum";
+    /**
+     * Name of the JSON field holding the resource name.
+     */
+    private static final String NAME_FIELD = "name";
+    /**
+     * Name of the JSON field holding the section in incremental mode.
+     */
+    private static final String CHANGE_FIELD = "change";
+    /**
+     * Shared factory for XML stream writers, see
+     * {@link #getXmlOutputFactory()}.
+     */
+    private static XMLOutputFactory xmlOutputFactory = null;
+
+    /**
+     * The task to log with.
+     */
+    private final Task owner;
+    /**
+     * Where to write to.
+     */
+    private final OutputTarget target;
+    /**
+     * The type of output, one of the types of {@link EchoFiles}.
+     */
+    private final String type;
+    /**
+     * Delimiter of the columns in text output.
+     */
+    private final String delimiter;
+    /**
+     * The metadata columns to write.
+     */
+    private final List<String> metadataColumns;
+    /**
+     * The writer of the text output, to tell its size; <code>null</code> if
+     * not opened yet or of unknown size.
+     */
+    private ChannelWriter channelWriter = null;
+    /**
+     * The writer of the binary output, to tell its size; <code>null</code>
+     * if not opened yet.
+     */
+    private BinaryListingWriter binaryWriter = null;
+
+    /**
+     * Constructor.
+     *
+     * @param owner
+     *            the task to log with
+     * @param target
+     *            where to write to
+     * @param type
+     *            the type of output
+     * @param delimiter
+     *            delimiter of the columns in text output
+     * @param metadataColumns
+     *            the metadata columns to write
+     */
+    ListingWriter(final Task owner, final OutputTarget target, final String type, final String delimiter,
+            final List<String> metadataColumns) {
+        this.owner = owner;
+        this.target = target;
+        this.type = type;
+        this.delimiter = delimiter;
+        this.metadataColumns = metadataColumns;
+    }
+
+    /**
+     * Creates a writer with the same settings for another file and type.
+     *
+     * @param file
+     *            the file to write to
+     * @param otherType
+     *            the type of output
+     * @return the writer
+     */
+    ListingWriter derive(final String file, final String otherType) {
+        return new ListingWriter(owner, target.derive(file), otherType, delimiter, metadataColumns);
+    }
+
+    /**
+     * @return where to write to
+     */
+    OutputTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the type of output
+     */
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return <code>true</code> if the type requires sorted output
+     */
+    boolean isSortedType() {
+        return EchoFiles.TYPE_BINARY.equals(type) || EchoFiles.TYPE_XML_TREE.equals(type);
+    }
+
+    /**
+     * Factory for the XML stream writers. Looking up the implementation is
+     * expensive, so the factory is shared by all writers.
+     *
+     * @return the factory to create XML stream writers with
+     */
+    private static synchronized XMLOutputFactory getXmlOutputFactory() {
+        if (xmlOutputFactory == null) {
+            xmlOutputFactory = XMLOutputFactory.newInstance();
+        }
+        return xmlOutputFactory;
+    }
+
+    /**
+     * Writes the resources in the type of this writer.
+     *
+     * @param entries
+     *            the resources to write
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    public void write(final Iterable<ResourceEntry> entries) throws BuildException {
+        if (EchoFiles.TYPE_TEXT.equals(type)) {
+            writeText(Collections.singletonMap((String) null, entries));
+        }
+        else if (EchoFiles.TYPE_XML.equals(type)) {
+            writeXml(null, Collections.singletonMap(RESOURCES_ELEMENT, entries));
+        }
+        else if (EchoFiles.TYPE_XML_TREE.equals(type)) {
+            writeXmlTree(entries);
+        }
+        else if (EchoFiles.TYPE_JSONL.equals(type)) {
+            writeJsonLines(Collections.singletonMap((String) null, entries));
+        }
+        else if (EchoFiles.TYPE_BINARY.equals(type)) {
+            writeBinary(entries);
+        }
+    }
+
+    /**
+     * Writes sections of resources in the type of this writer, which has to
+     * be text, XML or JSON Lines. As text each section starts with a line
+     * containing its name in square brackets, as XML each section is an
+     * element containing the resource elements of the section and as JSON
+     * the name of the section is the field <code>change</code> of each
+     * object.
+     *
+     * @param rootElement
+     *            name of the XML element enclosing the sections
+     * @param sections
+     *            the resources by section name
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    void writeSections(final String rootElement,
+            final Map<String, ? extends Iterable<ResourceEntry>> sections) throws BuildException {
+        if (EchoFiles.TYPE_TEXT.equals(type)) {
+            writeText(sections);
+        }
+        else if (EchoFiles.TYPE_XML.equals(type)) {
+            writeXml(rootElement, sections);
+        }
+        else if (EchoFiles.TYPE_JSONL.equals(type)) {
+            writeJsonLines(sections);
+        }
+    }
+
+    /**
+     * @return number of bytes written so far, before compression; 0 if
+     *         unknown
+     * @throws IOException
+     *             if the size cannot be determined
+     */
+    long getBytesWritten() throws IOException {
+        if (binaryWriter != null) {
+            return binaryWriter.getBytesWritten();
+        }
+        if (channelWriter != null) {
+            return channelWriter.getBytesWritten();
+        }
+        return 0;
+    }
+
+    /**
+     * Opens the writer for text output.
+     *
+     * @param format
+     *            name of the format for the message if opening failed
+     * @return the writer
+     * @throws BuildException
+     *             if the writer cannot be opened
+     */
+    private Writer openWriter(final String format) throws BuildException {
+        final Writer writer;
+        try {
+            writer = target.getWriter();
+        }
+        catch (final Exception e) {
+            throw new BuildException("Error while opening stream to \"" + target.getDescription()
+                    + "\" for writing " + format + " output.", e);
+        }
+        if (writer instanceof ChannelWriter) {
+            channelWriter = (ChannelWriter) writer;
+        }
+        return writer;
+    }
+
+    /**
+     * Closes a writer after writing failed.
+     *
+     * @param writer
+     *            the writer to close
+     */
+    private void closeQuietly(final Writer writer) {
+        try {
+            writer.close();
+        }
+        catch (final IOException e1) {
+            owner.log("Ignoring error during closing writer bound to \"" + target.getDescription() + "\".",
+                    e1, Project.MSG_DEBUG);
+        }
+    }
+
+    /**
+     * Writes sections of files found as text format. Each section starts with
+     * a line containing its name in square brackets.
+     *
+     * @param sections
+     *            the files found by section name; the files of a section
+     *            with name <code>null</code> are written without header
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    private void writeText(final Map<String, ? extends Iterable<ResourceEntry>> sections)
+            throws BuildException {
+        final Writer writer = openWriter("text");
+        try {
+            for (final Map.Entry<String, ? extends Iterable<ResourceEntry>> section : sections.entrySet()) {
+                if (section.getKey() != null) {
+                    writer.write("[" + section.getKey() + "]");
+                    writer.write(LINE_SEPARATOR);
+                }
+                for (final ResourceEntry resource : section.getValue()) {
+                    writer.write(resource.getName());
+                    if (resource.getChecksum() != null) {
+                        writer.write(delimiter);
+                        writer.write(resource.getChecksum());
+                    }
+                    for (final String column : metadataColumns) {
+                        writer.write(delimiter);
+                        writer.write(getMetadataValue(resource, column));
+                    }
+                    writer.write(LINE_SEPARATOR);
+                }
+            }
+            writer.close();
+        }
+        catch (final Exception e) {
+            closeQuietly(writer);
+            throw new BuildException("Error while writing text to \"" + target.getDescription() + "\".", e);
+        }
+    }
+
+    /**
+     * Writes sections of files found as JSON Lines, one object per file. The
+     * name of the section is written as field <code>change</code> of each
+     * object. Unknown metadata is left out.
+     *
+     * @param sections
+     *            the files found by section name; the files of a section
+     *            with name <code>null</code> are written without section
+     *            field
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    private void writeJsonLines(final Map<String, ? extends Iterable<ResourceEntry>> sections)
+            throws BuildException {
+        final Writer out = openWriter("JSON");
+        final JsonLinesWriter writer = new JsonLinesWriter(out);
+        try {
+            for (final Map.Entry<String, ? extends Iterable<ResourceEntry>> section : sections.entrySet()) {
+                for (final ResourceEntry resource : section.getValue()) {
+                    writer.startObject();
+                    writer.writeField(NAME_FIELD, resource.getName());
+                    if (section.getKey() != null) {
+                        writer.writeField(CHANGE_FIELD, section.getKey());
+                    }
+                    if (resource.getChecksum() != null) {
+                        writer.writeField(CHECKSUM_ATTRIBUTE, resource.getChecksum());
+                    }
+                    for (final String column : metadataColumns) {
+                        writeJsonMetadata(writer, resource, column);
+                    }
+                    writer.endObject();
+                }
+            }
+            writer.close();
+        }
+        catch (final Exception e) {
+            closeQuietly(out);
+            throw new BuildException("Error while writing JSON to \"" + target.getDescription() + "\".", e);
+        }
+    }
+
+    /**
+     * Writes a metadata field of a resource, size and modification time as
+     * numbers. Unknown metadata is left out.
+     *
+     * @param writer
+     *            where to write to
+     * @param entry
+     *            the resource
+     * @param column
+     *            the metadata column
+     * @throws IOException
+     *             if writing failed
+     */
+    private static void writeJsonMetadata(final JsonLinesWriter writer, final ResourceEntry entry,
+            final String column) throws IOException {
+        if (EchoFiles.METADATA_SIZE.equals(column) && entry.getSize().longValue() >= 0) {
+            writer.writeField(column, entry.getSize().longValue());
+        }
+        else if (EchoFiles.METADATA_MTIME.equals(column) && entry.getLastModified().longValue() != 0) {
+            writer.writeField(column, entry.getLastModified().longValue());
+        }
+        else if (EchoFiles.METADATA_PERMISSIONS.equals(column) && entry.getPermissions().length() > 0) {
+            writer.writeField(column, entry.getPermissions());
+        }
+    }
+
+    /**
+     * Writes sections of files found as XML format. Each section is an
+     * element containing the resource elements of the section. The resource
+     * elements are streamed one by one to the output so that the list of
+     * resources never has to be held completely in memory.
+     *
+     * @param rootElement
+     *            name of the element enclosing the sections;
+     *            <code>null</code> for a single section as root element
+     * @param sections
+     *            the files found by section element name
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    private void writeXml(final String rootElement,
+            final Map<String, ? extends Iterable<ResourceEntry>> sections) throws BuildException {
+        final Writer writer = openWriter("text");
+        final MarshallerPool marshallerPool = MarshallerPool.getInstance(JAXB_CONTEXT_PATH);
+        Marshaller marshaller = null;
+        try {
+            marshaller = marshallerPool.acquire();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            writer.write(XML_DECLARATION);
+            final XMLStreamWriter xmlWriter = getXmlOutputFactory().createXMLStreamWriter(writer);
+            if (rootElement != null) {
+                xmlWriter.writeStartElement(rootElement);
+            }
+            for (final Map.Entry<String, ? extends Iterable<ResourceEntry>> section : sections.entrySet()) {
+                final Iterator<ResourceEntry> entries = section.getValue().iterator();
+                if (entries.hasNext()) {
+                    xmlWriter.writeStartElement(section.getKey());
+                    while (entries.hasNext()) {
+                        final ResourceEntry entry = entries.next();
+                        if (entry.hasDetails()) {
+                            writeXmlResource(xmlWriter, entry);
+                        }
+                        else {
+                            final JAXBElement<String> resource =
+                                    new JAXBElement<String>(RESOURCE_QNAME, String.class, entry.getName());
+                            marshaller.marshal(resource, xmlWriter);
+                        }
+                    }
+                    xmlWriter.writeEndElement();
+                }
+                else {
+                    xmlWriter.writeEmptyElement(section.getKey());
+                }
+            }
+            xmlWriter.writeEndDocument();
+            xmlWriter.flush();
+            writer.close();
+        }
+        catch (final Exception e) {
+            closeQuietly(writer);
+            throw new BuildException("Unable to marshal XML output.", e);
+        }
+        finally {
+            marshallerPool.release(marshaller);
+        }
+    }
+
+    /**
+     * Writes a resource element with its details as attributes. Unknown
+     * metadata is left out.
+     *
+     * @param xmlWriter
+     *            where to write to
+     * @param entry
+     *            the resource
+     * @throws XMLStreamException
+     *             if writing failed
+     */
+    private void writeXmlResource(final XMLStreamWriter xmlWriter, final ResourceEntry entry)
+            throws XMLStreamException {
+        xmlWriter.writeStartElement(RESOURCE_QNAME.getLocalPart());
+        writeXmlDetails(xmlWriter, entry);
+        xmlWriter.writeCharacters(entry.getName());
+        xmlWriter.writeEndElement();
+    }
+
+    /**
+     * Writes the details of a resource as attributes of the current element.
+     * Unknown metadata is left out.
+     *
+     * @param xmlWriter
+     *            where to write to
+     * @param entry
+     *            the resource
+     * @throws XMLStreamException
+     *             if writing failed
+     */
+    private void writeXmlDetails(final XMLStreamWriter xmlWriter, final ResourceEntry entry)
+            throws XMLStreamException {
+        if (entry.getChecksum() != null) {
+            xmlWriter.writeAttribute(CHECKSUM_ATTRIBUTE, entry.getChecksum());
+        }
+        for (final String column : metadataColumns) {
+            final String value = getMetadataValue(entry, column);
+            if (value.length() > 0) {
+                xmlWriter.writeAttribute(column, value);
+            }
+        }
+    }
+
+    /**
+     * Writes the files found in XML format as tree of nested directories.
+     *
+     * @param entries
+     *            the files found to be written to the output, sorted and
+     *            without duplicates
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    private void writeXmlTree(final Iterable<ResourceEntry> entries) throws BuildException {
+        final Writer writer = openWriter("XML");
+        try {
+            writer.write(XML_DECLARATION);
+            final XMLStreamWriter xmlWriter = getXmlOutputFactory().createXMLStreamWriter(writer);
+            final PathTreeWriter treeWriter = new PathTreeWriter(xmlWriter, File.separatorChar);
+            for (final ResourceEntry entry : entries) {
+                treeWriter.writeFile(entry.getName());
+                writeXmlDetails(xmlWriter, entry);
+            }
+            treeWriter.close();
+            xmlWriter.writeEndDocument();
+            xmlWriter.flush();
+            writer.close();
+        }
+        catch (final Exception e) {
+            closeQuietly(writer);
+            throw new BuildException("Unable to write XML tree output.", e);
+        }
+    }
+
+    /**
+     * Formats a metadata value of a resource.
+     *
+     * @param entry
+     *            the resource
+     * @param column
+     *            the metadata column
+     * @return the value; empty if unknown
+     */
+    private static String getMetadataValue(final ResourceEntry entry, final String column) {
+        if (EchoFiles.METADATA_SIZE.equals(column) && entry.getSize().longValue() >= 0) {
+            return entry.getSize().toString();
+        }
+        if (EchoFiles.METADATA_MTIME.equals(column) && entry.getLastModified().longValue() != 0) {
+            return entry.getLastModified().toString();
+        }
+        if (EchoFiles.METADATA_PERMISSIONS.equals(column)) {
+            return entry.getPermissions();
+        }
+        return "";
+    }
+
+    /**
+     * Writes the files found in binary format.
+     *
+     * @param entries
+     *            the files found to be written to the output, sorted and
+     *            without duplicates
+     * @throws BuildException
+     *             in case an error occurs during writing - cause will be
+     *             embedded into the exception.
+     */
+    private void writeBinary(final Iterable<ResourceEntry> entries) throws BuildException {
+        final OutputStream out;
+        try {
+            out = target.getOutputStream();
+        }
+        catch (final Exception e) {
+            throw new BuildException("Error while opening stream to \"" + target.getDescription()
+                    + "\" for writing binary output.", e);
+        }
+
+        try {
+            final BinaryListingWriter writer = new BinaryListingWriter(out);
+            binaryWriter = writer;
+            for (final ResourceEntry entry : entries) {
+                writer.write(entry.getName());
+            }
+            writer.close();
+        }
+        catch (final Exception e) {
+            try {
+                out.close();
+            }
+            catch (final IOException e1) {
+                owner.log("Ignoring error during closing stream bound to \""
+                        + target.getDescription() + "\".", e1, Project.MSG_DEBUG);
+            }
+            throw new BuildException("Error while writing binary output to \"" + target.getDescription()
+                    + "\".", e);
+        }
+    }
+}
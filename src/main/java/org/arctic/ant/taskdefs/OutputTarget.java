@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.arctic.io.ChannelWriter;
+import org.arctic.io.CompressingChannel;
+import org.arctic.text.Strings;
+
+/**
+ * Where {@link EchoFiles} writes one output to: a file or
+ * {@link System#out}, optionally compressed.
+ *
+ * @author Mark Michaelis
+ */
+class OutputTarget {
+    /**
+     * (Standard-)Encoding for file outputs.
+     */
+    private static final String FILE_ENCODING = "UTF-8";
+    /**
+     * Description for default output target.
+     */
+    private static final String DEFAULT_FILE_DESC = "System.out";
+
+    /**
+     * The file to write to; <code>null</code> for {@link System#out}.
+     */
+    private final String file;
+    /**
+     * How to compress the output; <code>null</code> for no compression.
+     */
+    private final String compress;
+    /**
+     * The compression level.
+     */
+    private final int compressLevel;
+    /**
+     * Size of the buffers used for compression.
+     */
+    private final int compressBufferSize;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            the file to write to; <code>null</code> or empty for
+     *            {@link System#out}
+     * @param compress
+     *            how to compress the output, see
+     *            {@link EchoFiles#setCompress(String)}; <code>null</code> for
+     *            no compression
+     * @param compressLevel
+     *            the compression level
+     * @param compressBufferSize
+     *            size of the buffers used for compression
+     */
+    OutputTarget(final String file, final String compress, final int compressLevel,
+            final int compressBufferSize) {
+        this.file = Strings.getInstance().isEmpty(file) ? null : file;
+        this.compress = compress;
+        this.compressLevel = compressLevel;
+        this.compressBufferSize = compressBufferSize;
+    }
+
+    /**
+     * Creates a target with the same compression for another file.
+     *
+     * @param otherFile
+     *            the file to write to
+     * @return the target
+     */
+    OutputTarget derive(final String otherFile) {
+        return new OutputTarget(otherFile, compress, compressLevel, compressBufferSize);
+    }
+
+    /**
+     * @return the file to write to; <code>null</code> for {@link System#out}
+     */
+    String getFile() {
+        return file;
+    }
+
+    /**
+     * @return description of the target for messages
+     */
+    String getDescription() {
+        if (file == null) {
+            return DEFAULT_FILE_DESC;
+        }
+        return new File(file).getAbsolutePath();
+    }
+
+    /**
+     * Opens the stream to write binary output to, uncompressed.
+     *
+     * @return the stream
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    OutputStream getOutputStream() throws IOException {
+        if (file == null) {
+            return System.out;
+        }
+        return new FileOutputStream(file);
+    }
+
+    /**
+     * Opens the writer to write text output to.
+     *
+     * @return the writer
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    Writer getWriter() throws IOException {
+        return createWriter(getOutputStream());
+    }
+
+    /**
+     * Creates the writer for text output to a stream. The writer encodes into
+     * a large buffer which is written to the channel of the stream in big
+     * chunks, compressed as requested.
+     *
+     * @param out
+     *            the stream to write to; closed if the writer cannot be
+     *            created
+     * @return the writer
+     * @throws IOException
+     *             if the writer cannot be created
+     */
+    Writer createWriter(final OutputStream out) throws IOException {
+        final String encoding;
+        if (file == null) {
+            encoding = System.getProperty("file.encoding");
+        }
+        else {
+            encoding = FILE_ENCODING;
+        }
+        final WritableByteChannel channel;
+        try {
+            if (EchoFiles.COMPRESS_GZIP.equals(compress)) {
+                channel = new CompressingChannel(out, CompressingChannel.Format.GZIP, compressLevel,
+                        compressBufferSize);
+            }
+            else if (EchoFiles.COMPRESS_DEFLATE.equals(compress)) {
+                channel = new CompressingChannel(out, CompressingChannel.Format.DEFLATE, compressLevel,
+                        compressBufferSize);
+            }
+            else if (out instanceof FileOutputStream) {
+                channel = ((FileOutputStream) out).getChannel();
+            }
+            else {
+                channel = Channels.newChannel(out);
+            }
+        }
+        catch (final IOException e) {
+            out.close();
+            throw e;
+        }
+        return new ChannelWriter(channel, encoding);
+    }
+
+    /**
+     * Evaluates the file of a shard or chunk: the file with the given number
+     * inserted before its extension, e.&nbsp;g. <code>files-3.txt</code> for
+     * shard 3 of <code>files.txt</code>.
+     *
+     * @param file
+     *            the output file
+     * @param number
+     *            the number of the shard or chunk
+     * @return the file to write the shard or chunk to
+     */
+    static String getNumberedFile(final String file, final int number) {
+        final File fileHandle = new File(file);
+        final String name = fileHandle.getName();
+        final int extension = name.lastIndexOf('.');
+        final String numberedName;
+        if (extension > 0) {
+            numberedName = name.substring(0, extension) + "-" + number + name.substring(extension);
+        }
+        else {
+            numberedName = name + "-" + number;
+        }
+        return new File(fileHandle.getParentFile(), numberedName).getPath();
+    }
+}
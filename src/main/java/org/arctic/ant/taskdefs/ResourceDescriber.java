@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.tools.ant.types.Resource;
+import org.arctic.io.FileDigester;
+import org.arctic.util.ParallelMapper;
+
+/**
+ * Computes the checksums and metadata of the resources listed by
+ * {@link EchoFiles}. The details are computed by several threads ahead of the
+ * consumer, once per resource, no matter how many outputs the resource is
+ * written to.
+ *
+ * @author Mark Michaelis
+ */
+class ResourceDescriber {
+    /**
+     * Number of resources whose details are computed ahead of writing, per
+     * thread.
+     */
+    private static final int LOOKAHEAD_PER_THREAD = 16;
+
+    /**
+     * Computes the checksums; <code>null</code> if no checksums are
+     * requested.
+     */
+    private final FileDigester digester;
+    /**
+     * The metadata columns requested.
+     */
+    private final List<String> metadataColumns;
+    /**
+     * Number of threads computing the details.
+     */
+    private final int threads;
+    /**
+     * Computes the details; <code>null</code> if no details are requested.
+     */
+    private final ExecutorService detailService;
+    /**
+     * Resources found which are no files, by name, so that their content and
+     * metadata can be read.
+     */
+    private final Map<String, Resource> streamResources = new ConcurrentHashMap<String, Resource>();
+
+    /**
+     * Constructor.
+     *
+     * @param digester
+     *            computes the checksums; <code>null</code> for no checksums
+     * @param metadataColumns
+     *            the metadata columns requested
+     * @param threads
+     *            number of threads computing the details
+     */
+    ResourceDescriber(final FileDigester digester, final List<String> metadataColumns, final int threads) {
+        this.digester = digester;
+        this.metadataColumns = metadataColumns;
+        this.threads = threads;
+        if (isEnabled()) {
+            detailService = Executors.newFixedThreadPool(threads);
+        }
+        else {
+            detailService = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if any details are requested
+     */
+    boolean isEnabled() {
+        return digester != null || !metadataColumns.isEmpty();
+    }
+
+    /**
+     * @return the metadata columns requested
+     */
+    List<String> getMetadataColumns() {
+        return metadataColumns;
+    }
+
+    /**
+     * Remembers a resource which is no file, so that its details are read
+     * from the resource instead of from the file system.
+     *
+     * @param resourceName
+     *            the name of the resource
+     * @param resource
+     *            the resource
+     */
+    void remember(final String resourceName, final Resource resource) {
+        streamResources.put(resourceName, resource);
+    }
+
+    /**
+     * Adds the requested details to the resource names. The details are
+     * computed in parallel ahead of the consumer, if any are requested.
+     *
+     * @param resourceNames
+     *            the names of the resources
+     * @return the resources with their details, in the order of the names
+     */
+    Iterable<ResourceEntry> describe(final Iterable<String> resourceNames) {
+        if (!isEnabled()) {
+            return new Iterable<ResourceEntry>() {
+                public Iterator<ResourceEntry> iterator() {
+                    final Iterator<String> names = resourceNames.iterator();
+                    return new Iterator<ResourceEntry>() {
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        public ResourceEntry next() {
+                            return new ResourceEntry(names.next());
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+        final ParallelMapper.Function<String, ResourceEntry> details =
+                new ParallelMapper.Function<String, ResourceEntry>() {
+                    public ResourceEntry apply(final String resourceName) throws IOException {
+                        return computeDetails(resourceName);
+                    }
+                };
+        final int lookahead = threads * LOOKAHEAD_PER_THREAD;
+        return new ParallelMapper<String, ResourceEntry>(detailService, lookahead, details)
+                .map(resourceNames);
+    }
+
+    /**
+     * Reads the requested details of a resource found. Only the metadata
+     * requested is read, so that no file is examined twice.
+     *
+     * @param resourceName
+     *            the name of the resource
+     * @return the resource with its details
+     * @throws IOException
+     *             if the checksum cannot be computed
+     */
+    private ResourceEntry computeDetails(final String resourceName) throws IOException {
+        final ResourceEntry entry = new ResourceEntry(resourceName);
+        if (digester != null) {
+            entry.setChecksum(computeChecksum(resourceName));
+        }
+        if (metadataColumns.isEmpty()) {
+            return entry;
+        }
+        final Resource resource = streamResources.get(resourceName);
+        final File file;
+        if (resource == null) {
+            file = new File(resourceName);
+        }
+        else {
+            file = null;
+        }
+        for (final String column : metadataColumns) {
+            if (EchoFiles.METADATA_SIZE.equals(column)) {
+                entry.setSize(Long.valueOf(file == null ? resource.getSize() : file.length()));
+            }
+            else if (EchoFiles.METADATA_MTIME.equals(column)) {
+                entry.setLastModified(Long.valueOf(file == null ? resource.getLastModified() : file
+                        .lastModified()));
+            }
+            else if (EchoFiles.METADATA_PERMISSIONS.equals(column)) {
+                if (file == null) {
+                    entry.setPermissions("");
+                }
+                else {
+                    entry.setPermissions((file.canRead() ? "r" : "-") + (file.canWrite() ? "w" : "-"));
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Computes the checksum of a resource found.
+     *
+     * @param resourceName
+     *            the name of the resource
+     * @return the checksum
+     * @throws IOException
+     *             if the resource cannot be read
+     */
+    private String computeChecksum(final String resourceName) throws IOException {
+        final Resource resource = streamResources.get(resourceName);
+        if (resource == null) {
+            return digester.digest(new File(resourceName));
+        }
+        return digester.digest(resource.getInputStream());
+    }
+
+    /**
+     * Stops the threads computing the details and forgets the resources.
+     */
+    void close() {
+        if (detailService != null) {
+            detailService.shutdownNow();
+        }
+        streamResources.clear();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+/**
+ * A resource as written by {@link EchoFiles}: its name and the optional
+ * details requested for it. Details which have not been requested are
+ * <code>null</code>.
+ *
+ * @author Mark Michaelis
+ */
+public class ResourceEntry {
+    /**
+     * The name of the resource.
+     */
+    private final String name;
+    /**
+     * The checksum of the content.
+     */
+    private String checksum = null;
+    /**
+     * The size in bytes.
+     */
+    private Long size = null;
+    /**
+     * The modification time in milliseconds since the epoch.
+     */
+    private Long lastModified = null;
+    /**
+     * The permissions of the current user.
+     */
+    private String permissions = null;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            the name of the resource
+     */
+    public ResourceEntry(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the resource
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return <code>true</code> if any details have been set
+     */
+    public boolean hasDetails() {
+        return checksum != null || size != null || lastModified != null || permissions != null;
+    }
+
+    /**
+     * @return the checksum of the content as lower case hex string
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param checksum
+     *            the checksum to set
+     */
+    public void setChecksum(final String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the size in bytes; -1 if unknown
+     */
+    public Long getSize() {
+        return size;
+    }
+
+    /**
+     * @param size
+     *            the size to set
+     */
+    public void setSize(final Long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the modification time in milliseconds since the epoch; 0 if
+     *         unknown
+     */
+    public Long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @param lastModified
+     *            the lastModified to set
+     */
+    public void setLastModified(final Long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the permissions of the current user: <code>r</code> or
+     *         <code>-</code> followed by <code>w</code> or <code>-</code>;
+     *         empty if unknown
+     */
+    public String getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * @param permissions
+     *            the permissions to set
+     */
+    public void setPermissions(final String permissions) {
+        this.permissions = permissions;
+    }
+}
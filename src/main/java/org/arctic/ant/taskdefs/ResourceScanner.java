@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.AbstractFileSet;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.URLResource;
+import org.arctic.util.Pipe;
+
+/**
+ * Iterates the existing resources of several resource collections. The
+ * collections are either iterated one after another or &ndash; if more than
+ * one thread is configured &ndash; concurrently.
+ * <p>
+ * In both cases the {@link Handler} is called on the calling thread only and
+ * receives the resources in the order of the collections, so the result does
+ * not depend on the number of threads. With more than one thread every
+ * collection is iterated on its own worker, which streams the existing
+ * resources found through a bounded pipe and waits while the pipe is full
+ * until all previous collections have been handed over.
+ * </p>
+ * <p>
+ * The files of file sets and directory sets have just been found by their
+ * directory scanner. By default their existence is therefore not checked
+ * again, which saves one file system access per file; see
+ * {@link #setTrustScanner(boolean)}.
+ * </p>
+ * <p>
+ * File sets are iterated via their directory scanner by default, which scans
+ * the complete tree before returning the first file. Callers which stop
+ * early, e.&nbsp;g. because of {@link #setLimit(int)}, should walk them
+ * lazily instead, see {@link #setWalkFileSets(Project)}.
+ * </p>
+ * 
+ * @author Mark Michaelis
+ */
+public class ResourceScanner {
+    /**
+     * Number of resources a worker may find ahead of the calling thread.
+     */
+    private static final int PIPE_CAPACITY = 1024;
+
+    /**
+     * Receives the existing resources found.
+     */
+    public interface Handler {
+        /**
+         * Handle one existing resource.
+         * 
+         * @param resource
+         *            the resource
+         * @return <code>true</code> to continue scanning; <code>false</code>
+         *         to stop scanning
+         * @throws InterruptedException
+         *             if interrupted while handling the resource
+         */
+        boolean handle(Resource resource) throws InterruptedException;
+    }
+
+    /**
+     * Number of threads to scan with.
+     */
+    private final int threads;
+    /**
+     * Maximum number of resources to find; 0 for no limit.
+     */
+    private int limit = 0;
+    /**
+     * If set, files found by a directory scanner are not checked for
+     * existence again.
+     */
+    private boolean trustScanner = true;
+    /**
+     * The project to walk file sets in; <code>null</code> to iterate them.
+     */
+    private Project walkProject = null;
+    /**
+     * Lists the directories of walked file sets; <code>null</code> to read
+     * them directly.
+     */
+    private FileSetWalker.Lister lister = null;
+
+    /**
+     * Constructor.
+     * 
+     * @param threads
+     *            number of threads to scan with; 1 for scanning on the calling
+     *            thread only; 0 for one thread per available processor
+     */
+    public ResourceScanner(final int threads) {
+        if (threads == 0) {
+            this.threads = Runtime.getRuntime().availableProcessors();
+        }
+        else {
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Sets the number of resources after which scanning stops. The handler
+     * receives the first resources in the order of the collections, up to
+     * this number, also when scanning concurrently.
+     * 
+     * @param limit
+     *            maximum number of resources to find; 0 for no limit
+     */
+    public void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Sets whether files found by the directory scanner of a file set or
+     * directory set are trusted to exist. If set to <code>false</code> the
+     * existence of every resource is checked, so that files deleted while
+     * scanning are left out. Defaults to <code>true</code>.
+     * 
+     * @param trustScanner
+     *            the trustScanner to set
+     */
+    public void setTrustScanner(final boolean trustScanner) {
+        this.trustScanner = trustScanner;
+    }
+
+    /**
+     * Sets whether file sets are walked lazily by a {@link FileSetWalker},
+     * which stops listing directories as soon as scanning stops and does not
+     * list any directory for literal include patterns. File sets not
+     * supported by the walker are still iterated.
+     * 
+     * @param project
+     *            the project to resolve the file sets in; <code>null</code>
+     *            (the default) to iterate all file sets via their directory
+     *            scanner
+     */
+    public void setWalkFileSets(final Project project) {
+        this.walkProject = project;
+    }
+
+    /**
+     * Sets the lister to list the directories of walked file sets with, see
+     * {@link #setWalkFileSets(Project)}. As the lister is to see every
+     * directory, literal include patterns are then walked as well instead of
+     * being looked up. When scanning concurrently the lister is called by
+     * several threads.
+     * 
+     * @param lister
+     *            the lister; <code>null</code> (the default) to read the
+     *            directories directly
+     */
+    public void setLister(final FileSetWalker.Lister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * @param rc
+     *            a resource collection
+     * @return <code>true</code> if the collection is to be walked
+     */
+    private boolean isWalked(final ResourceCollection rc) {
+        return walkProject != null && FileSetWalker.isSupported(rc, walkProject);
+    }
+
+    /**
+     * Walks a file set lazily, handing over each file found as long as the
+     * receiver wants more.
+     * 
+     * @param fileSet
+     *            the file set to walk
+     * @param receiver
+     *            receives the existing files as resources; returns
+     *            <code>false</code> to stop walking
+     * @return <code>false</code> if the receiver stopped walking
+     * @throws InterruptedException
+     *             if interrupted while walking
+     */
+    private boolean walk(final FileSet fileSet, final Handler receiver) throws InterruptedException {
+        final FileSetWalker walker = new FileSetWalker(fileSet, walkProject);
+        if (lister == null) {
+            walker.setLiteralLookup(true);
+        }
+        else {
+            walker.setLister(lister);
+        }
+        return walker.walk(new FileSetWalker.Visitor() {
+            public boolean visit(final File file, final String relativePath) throws InterruptedException {
+                final Resource resource = new FileResource(walker.getBaseDir(), relativePath);
+                return !trustScanner && !resource.isExists() || receiver.handle(resource);
+            }
+        });
+    }
+
+    /**
+     * Checks if a resource of a collection exists.
+     * 
+     * @param rc
+     *            the collection the resource belongs to
+     * @param resource
+     *            the resource
+     * @return <code>true</code> if the resource exists or has been found by
+     *         a trusted directory scanner
+     */
+    private boolean exists(final ResourceCollection rc, final Resource resource) {
+        if (trustScanner && rc instanceof AbstractFileSet && resource instanceof FileResource) {
+            return true;
+        }
+        return resource.isExists();
+    }
+
+    /**
+     * Evaluates the name to report for a resource: the absolute path for
+     * files, the URL for URL resources and the name otherwise.
+     * 
+     * @param resource
+     *            the resource
+     * @return name of the resource
+     */
+    public static String getName(final Resource resource) {
+        if (resource instanceof FileResource) {
+            final FileResource fileResource = (FileResource) resource;
+            return fileResource.getFile().getAbsolutePath();
+        }
+        if (resource instanceof URLResource) {
+            final URLResource urlResource = (URLResource) resource;
+            return urlResource.getURL().toExternalForm();
+        }
+        return resource.getName();
+    }
+
+    /**
+     * Scans the given resource collections.
+     * 
+     * @param rcs
+     *            the collections to scan
+     * @param handler
+     *            receives the existing resources
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     * @throws BuildException
+     *             if iterating a collection failed
+     */
+    public void scan(final Collection<ResourceCollection> rcs, final Handler handler)
+            throws InterruptedException, BuildException {
+        if (threads <= 1 || rcs.size() <= 1) {
+            scanSequential(rcs, handler);
+        }
+        else {
+            scanParallel(rcs, handler);
+        }
+    }
+
+    /**
+     * Scans the collections one after another on the calling thread.
+     * 
+     * @param rcs
+     *            the collections to scan
+     * @param handler
+     *            receives the existing resources
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     */
+    @SuppressWarnings("unchecked")
+    private void scanSequential(final Collection<ResourceCollection> rcs, final Handler handler)
+            throws InterruptedException {
+        final int[] found = {0 };
+        for (final ResourceCollection rc : rcs) {
+            if (isWalked(rc)) {
+                final boolean completed = walk((FileSet) rc, new Handler() {
+                    public boolean handle(final Resource resource) throws InterruptedException {
+                        found[0]++;
+                        return handler.handle(resource) && found[0] != limit;
+                    }
+                });
+                if (!completed) {
+                    return;
+                }
+                continue;
+            }
+            final Iterator<Resource> resources = rc.iterator();
+            while (resources.hasNext()) {
+                final Resource resource = resources.next();
+                if (!exists(rc, resource)) {
+                    continue;
+                }
+                found[0]++;
+                if (!handler.handle(resource) || found[0] == limit) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the collections concurrently and hands over the results in the
+     * order of the collections.
+     * <p>
+     * Every worker streams the existing resources of its collection through
+     * a bounded pipe, which the calling thread drains in the order of the
+     * collections. The limit is applied only there, so the resources handed
+     * over are the same as when scanning sequentially. Workers never stop on
+     * their own; they are cancelled once the calling thread stopped, i.&nbsp;e.
+     * after all collections before theirs have been handled completely.
+     * </p>
+     * 
+     * @param rcs
+     *            the collections to scan
+     * @param handler
+     *            receives the existing resources
+     * @throws InterruptedException
+     *             if interrupted while scanning
+     */
+    private void scanParallel(final Collection<ResourceCollection> rcs, final Handler handler)
+            throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, rcs.size()));
+        final List<Pipe<Resource>> pipes = new ArrayList<Pipe<Resource>>(rcs.size());
+        try {
+            // the pool starts the workers in the order of the collections, so
+            // the collection drained next always has a running worker
+            for (final ResourceCollection rc : rcs) {
+                final Pipe<Resource> pipe = new Pipe<Resource>(PIPE_CAPACITY);
+                pipes.add(pipe);
+                workers.execute(new Collector(rc, pipe));
+            }
+            int handled = 0;
+            for (final Pipe<Resource> pipe : pipes) {
+                final Iterator<Resource> resources = pipe.iterator();
+                while (hasNext(resources)) {
+                    handled++;
+                    if (!handler.handle(resources.next()) || handled == limit) {
+                        return;
+                    }
+                }
+            }
+        }
+        finally {
+            for (final Pipe<Resource> pipe : pipes) {
+                pipe.cancel();
+            }
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the next resource of a worker.
+     * 
+     * @param resources
+     *            the resources handed over by the worker
+     * @return <code>true</code> if there is another resource
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static boolean hasNext(final Iterator<Resource> resources) throws InterruptedException {
+        try {
+            return resources.hasNext();
+        }
+        catch (final IllegalStateException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new BuildException(cause);
+        }
+    }
+
+    /**
+     * Worker streaming the existing resources of one collection into a pipe.
+     */
+    private class Collector implements Runnable {
+        /**
+         * The collection to scan.
+         */
+        private final ResourceCollection rc;
+        /**
+         * Receives the existing resources.
+         */
+        private final Pipe<Resource> pipe;
+
+        /**
+         * Constructor.
+         * 
+         * @param rc
+         *            the collection to scan
+         * @param pipe
+         *            receives the existing resources
+         */
+        Collector(final ResourceCollection rc, final Pipe<Resource> pipe) {
+            this.rc = rc;
+            this.pipe = pipe;
+        }
+
+        /**
+         * Hands over the existing resources of the collection until all are
+         * found or the pipe got cancelled.
+         */
+        public void run() {
+            try {
+                collect();
+                pipe.close();
+            }
+            catch (final InterruptedException e) {
+                // cancelled, nobody is waiting for the resources anymore
+                return;
+            }
+            catch (final RuntimeException e) {
+                fail(e);
+            }
+            catch (final Error e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Hands over the existing resources of the collection.
+         * 
+         * @throws InterruptedException
+         *             if interrupted while waiting for space in the pipe
+         */
+        @SuppressWarnings("unchecked")
+        private void collect() throws InterruptedException {
+            if (isWalked(rc)) {
+                walk((FileSet) rc, new Handler() {
+                    public boolean handle(final Resource resource) throws InterruptedException {
+                        return pipe.put(resource);
+                    }
+                });
+                return;
+            }
+            final Iterator<Resource> resources = rc.iterator();
+            while (resources.hasNext() && !pipe.isCancelled()) {
+                final Resource resource = resources.next();
+                if (exists(rc, resource) && !pipe.put(resource)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Signals a failure to the calling thread.
+         * 
+         * @param cause
+         *            the failure
+         */
+        private void fail(final Throwable cause) {
+            try {
+                pipe.fail(cause);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import org.apache.tools.ant.types.Resource;
+import org.arctic.util.Version;
+
+/**
+ * Selects one of several matching resources while they are found, keeping
+ * only the best resource so far and the value it has been selected by. Ties
+ * are resolved in favour of the resource found first.
+ *
+ * @author Mark Michaelis
+ */
+final class Selection {
+    /**
+     * Select the most recently modified resource.
+     */
+    static final String NEWEST = "newest";
+    /**
+     * Select the least recently modified resource.
+     */
+    static final String OLDEST = "oldest";
+    /**
+     * Select the largest resource.
+     */
+    static final String LARGEST = "largest";
+    /**
+     * Select the resource whose name contains the highest version.
+     */
+    static final String HIGHEST_VERSION = "highest-version";
+    /**
+     * Select the first resource found.
+     */
+    static final String FIRST = "first";
+
+    /**
+     * The policy, one of the constants above.
+     */
+    private final String policy;
+    /**
+     * Name of the selected resource; <code>null</code> if none yet.
+     */
+    private String selected = null;
+    /**
+     * Modification time or size of the selected resource.
+     */
+    private long selectedValue = 0;
+    /**
+     * Version of the selected resource.
+     */
+    private Version selectedVersion = null;
+
+    /**
+     * Constructor.
+     *
+     * @param policy
+     *            the policy, see {@link #isPolicy(String)}
+     */
+    Selection(final String policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @param policy
+     *            a policy
+     * @return <code>true</code> if the policy is known
+     */
+    static boolean isPolicy(final String policy) {
+        return NEWEST.equals(policy) || OLDEST.equals(policy) || LARGEST.equals(policy)
+                || HIGHEST_VERSION.equals(policy) || FIRST.equals(policy);
+    }
+
+    /**
+     * @param policy
+     *            a known policy
+     * @return <code>true</code> if the policy only depends on the names of
+     *         the resources and the order they are found in
+     */
+    static boolean isByName(final String policy) {
+        return HIGHEST_VERSION.equals(policy) || FIRST.equals(policy);
+    }
+
+    /**
+     * Offers a matching resource.
+     *
+     * @param resource
+     *            the resource
+     * @param name
+     *            the name to report for the resource
+     * @return <code>true</code> if the resource is selected now
+     */
+    boolean offer(final Resource resource, final String name) {
+        if (FIRST.equals(policy)) {
+            return select(selected == null, name);
+        }
+        if (HIGHEST_VERSION.equals(policy)) {
+            final Version version = Version.parse(getBaseName(resource.getName()));
+            if (selected == null || version.compareTo(selectedVersion) > 0) {
+                selectedVersion = version;
+                return select(true, name);
+            }
+            return false;
+        }
+        final long value = LARGEST.equals(policy) ? resource.getSize() : resource.getLastModified();
+        final boolean better;
+        if (selected == null) {
+            better = true;
+        }
+        else if (OLDEST.equals(policy)) {
+            better = value < selectedValue;
+        }
+        else {
+            better = value > selectedValue;
+        }
+        if (better) {
+            selectedValue = value;
+        }
+        return select(better, name);
+    }
+
+    /**
+     * Selects a resource if it is better.
+     *
+     * @param better
+     *            <code>true</code> if the resource is better than the
+     *            selected one
+     * @param name
+     *            name of the resource
+     * @return <code>better</code>
+     */
+    private boolean select(final boolean better, final String name) {
+        if (better) {
+            selected = name;
+        }
+        return better;
+    }
+
+    /**
+     * @param name
+     *            name of a resource, possibly with directories
+     * @return the name without directories
+     */
+    private static String getBaseName(final String name) {
+        return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * @return <code>true</code> if no other resource can be selected anymore
+     */
+    boolean isComplete() {
+        return FIRST.equals(policy) && selected != null;
+    }
+
+    /**
+     * @return name of the selected resource; <code>null</code> if none
+     */
+    String getSelected() {
+        return selected;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a listing written by {@link BinaryListingWriter}.
+ * <p>
+ * Opening a listing only reads the block index. The paths can be streamed in
+ * ascending order via {@link #iterator()}, or starting at a given path via
+ * {@link #iterator(String)}, which binary searches the block index and
+ * decodes a single block to find the start. Iterators read via positional
+ * reads of the shared file channel, so several iterators may be used at the
+ * same time, also by different threads. {@link #close()} closes the channel;
+ * iterators cannot be used afterwards.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class BinaryListingReader implements Iterable<String>, Closeable {
+    /**
+     * Buffer size for reading.
+     */
+    private static final int IO_BUFFER_SIZE = 16 * 1024;
+    /**
+     * Size of the header in bytes, at least.
+     */
+    private static final int MIN_HEADER_SIZE = 5;
+    /**
+     * Initial size of the buffer for decoding entries.
+     */
+    private static final int ENTRY_BUFFER_SIZE = 256;
+    /**
+     * Mask to convert a byte into an unsigned value.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * The file read.
+     */
+    private final RandomAccessFile file;
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+    /**
+     * Number of paths per block.
+     */
+    private final int blockSize;
+    /**
+     * Number of paths.
+     */
+    private final long count;
+    /**
+     * The first path of every block.
+     */
+    private final String[] blockKeys;
+    /**
+     * The offset of every block.
+     */
+    private final long[] blockOffsets;
+
+    /**
+     * Opens a listing and reads its index.
+     *
+     * @param listing
+     *            the listing to read
+     * @throws IOException
+     *             if reading failed or the file is no binary listing
+     */
+    public BinaryListingReader(final File listing) throws IOException {
+        file = new RandomAccessFile(listing, "r");
+        channel = file.getChannel();
+        boolean success = false;
+        try {
+            final long length = channel.size();
+            if (length < MIN_HEADER_SIZE + BinaryListingWriter.FOOTER_SIZE) {
+                throw new IOException("No binary listing: " + listing.getAbsolutePath());
+            }
+            final DataInputStream footer =
+                    new DataInputStream(new ChannelInputStream(length - BinaryListingWriter.FOOTER_SIZE));
+            final long indexOffset = footer.readLong();
+            count = footer.readLong();
+            final int blockCount = footer.readInt();
+            final DataInputStream header = new DataInputStream(new ChannelInputStream(0));
+            if (footer.readInt() != BinaryListingWriter.MAGIC
+                    || header.readInt() != BinaryListingWriter.MAGIC) {
+                throw new IOException("No binary listing: " + listing.getAbsolutePath());
+            }
+            blockSize = VarInt.read(header);
+            blockKeys = new String[blockCount];
+            blockOffsets = new long[blockCount];
+            final DataInputStream index = new DataInputStream(new ChannelInputStream(indexOffset));
+            final EntryDecoder indexDecoder = new EntryDecoder(index);
+            for (int i = 0; i < blockCount; i++) {
+                blockOffsets[i] = index.readLong();
+                blockKeys[i] = indexDecoder.next();
+            }
+            success = true;
+        }
+        finally {
+            if (!success) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of paths in the listing
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Streams all paths in ascending order.
+     *
+     * @return iterator over all paths
+     */
+    public Iterator<String> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Streams the paths in ascending order, starting at the given path.
+     *
+     * @param from
+     *            the first path to return if contained in the listing;
+     *            otherwise iteration starts at the next greater path;
+     *            <code>null</code> to start at the first path
+     * @return iterator over all paths greater than or equal to
+     *         <code>from</code>
+     */
+    public Iterator<String> iterator(final String from) {
+        return new PathIterator(from == null ? 0 : findBlock(from), from);
+    }
+
+    /**
+     * Checks if a path is contained in the listing.
+     *
+     * @param path
+     *            the path to search for
+     * @return <code>true</code> if the listing contains the path
+     */
+    public boolean contains(final String path) {
+        final Iterator<String> iterator = iterator(path);
+        return iterator.hasNext() && iterator.next().equals(path);
+    }
+
+    /**
+     * Searches the block which may contain the given path.
+     *
+     * @param path
+     *            the path to search for
+     * @return index of the last block whose first path is not greater than
+     *         the given path; 0 if there is none
+     */
+    private int findBlock(final String path) {
+        int low = 0;
+        int high = blockKeys.length - 1;
+        int result = 0;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (blockKeys[mid].compareTo(path) <= 0) {
+                result = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Closes the listing.
+     *
+     * @throws IOException
+     *             if closing failed
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Decodes front-coded entries.
+     */
+    private static class EntryDecoder {
+        /**
+         * The stream to read from.
+         */
+        private final DataInputStream in;
+        /**
+         * The entry decoded last.
+         */
+        private byte[] bytes = new byte[ENTRY_BUFFER_SIZE];
+
+        /**
+         * Constructor.
+         *
+         * @param in
+         *            the stream to read from
+         */
+        EntryDecoder(final DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Decodes the next entry.
+         *
+         * @return the entry
+         * @throws IOException
+         *             if reading failed
+         */
+        String next() throws IOException {
+            final int shared = VarInt.read(in);
+            final int suffix = VarInt.read(in);
+            final int length = shared + suffix;
+            if (length > bytes.length) {
+                final byte[] grown = new byte[Math.max(length, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, shared);
+                bytes = grown;
+            }
+            in.readFully(bytes, shared, suffix);
+            return new String(bytes, 0, length, BinaryListingWriter.ENCODING);
+        }
+    }
+
+    /**
+     * Iterator decoding the paths block by block.
+     */
+    private class PathIterator implements Iterator<String> {
+        /**
+         * Decodes the entries.
+         */
+        private final EntryDecoder decoder;
+        /**
+         * Number of paths not read yet.
+         */
+        private long remaining;
+        /**
+         * The next path to return; <code>null</code> if exhausted.
+         */
+        private String next;
+
+        /**
+         * Constructor.
+         *
+         * @param block
+         *            the block to start at
+         * @param from
+         *            paths less than this are skipped; <code>null</code>
+         *            to skip none
+         */
+        PathIterator(final int block, final String from) {
+            if (blockOffsets.length == 0) {
+                decoder = null;
+                remaining = 0;
+                return;
+            }
+            decoder = new EntryDecoder(new DataInputStream(new ChannelInputStream(blockOffsets[block])));
+            remaining = count - (long) block * blockSize;
+            advance();
+            while (from != null && next != null && next.compareTo(from) < 0) {
+                advance();
+            }
+        }
+
+        /**
+         * Reads the next path.
+         */
+        private void advance() {
+            if (remaining == 0) {
+                next = null;
+                return;
+            }
+            try {
+                next = decoder.next();
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException("Unable to read binary listing.", e);
+            }
+            remaining--;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        /** {@inheritDoc} */
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final String result = next;
+            advance();
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Stream reading the file channel from a given position on via
+     * positional reads, which leave the position of the channel untouched.
+     */
+    private class ChannelInputStream extends InputStream {
+        /**
+         * Buffer of bytes read but not consumed yet.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        /**
+         * Position of the next read from the channel.
+         */
+        private long position;
+
+        /**
+         * Constructor.
+         *
+         * @param position
+         *            position to start reading at
+         */
+        ChannelInputStream(final long position) {
+            this.position = position;
+            buffer.flip();
+        }
+
+        /**
+         * Refills the buffer if it is empty.
+         *
+         * @return <code>false</code> at the end of the file
+         * @throws IOException
+         *             if reading failed
+         */
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            buffer.flip();
+            if (read <= 0) {
+                return false;
+            }
+            position += read;
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & BYTE_MASK;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+    }
+}
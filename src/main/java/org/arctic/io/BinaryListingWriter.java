@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes sorted paths in a compact binary format which can be read by
+ * {@link BinaryListingReader}.
+ * <p>
+ * Paths are grouped into blocks of a fixed number of paths. Within a block
+ * every path is front-coded: only the number of leading bytes shared with
+ * the previous path and the remaining bytes are stored. The first path of
+ * each block is stored completely, so every block can be decoded on its own.
+ * An index of the first path and the offset of every block follows the
+ * blocks, so that a reader can binary search the blocks.
+ * </p>
+ *
+ * <pre>
+ *   file   := magic:int blockSize:varint block* index footer
+ *   block  := entry*
+ *   entry  := shared:varint suffixLength:varint suffix:byte[]
+ *   index  := (offset:long entry)*
+ *   footer := indexOffset:long count:long blockCount:int magic:int
+ * </pre>
+ * <p>
+ * Paths are encoded as UTF-8. Entries of the index are front-coded relative
+ * to the first path of the previous block. Paths have to be written in
+ * strictly ascending order according to {@link String#compareTo(String)}.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class BinaryListingWriter implements Closeable {
+    /**
+     * Default number of paths per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    /**
+     * Identifies the format, at the start and at the end of the file.
+     */
+    static final int MAGIC = 0x45464231;
+    /**
+     * Size of the footer in bytes.
+     */
+    static final int FOOTER_SIZE = 24;
+    /**
+     * Encoding of the paths.
+     */
+    static final String ENCODING = "UTF-8";
+    /**
+     * Buffer size for writing.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Counts the bytes written.
+     */
+    private final CountingOutputStream counter;
+    /**
+     * The stream to write to.
+     */
+    private final DataOutputStream out;
+    /**
+     * Number of paths per block.
+     */
+    private final int blockSize;
+    /**
+     * The first path of every block.
+     */
+    private final List<byte[]> blockKeys = new ArrayList<byte[]>();
+    /**
+     * The offset of every block.
+     */
+    private long[] blockOffsets = new long[DEFAULT_BLOCK_SIZE];
+    /**
+     * Number of paths written.
+     */
+    private long count = 0;
+    /**
+     * The path written last.
+     */
+    private String previous = null;
+    /**
+     * The encoded path written last.
+     */
+    private byte[] previousBytes = null;
+    /**
+     * Set when closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor using the default block size.
+     *
+     * @param out
+     *            the stream to write to; will be closed on {@link #close()}
+     * @throws IOException
+     *             if writing the header failed
+     */
+    public BinaryListingWriter(final OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *            the stream to write to; will be closed on {@link #close()}
+     * @param blockSize
+     *            number of paths per block
+     * @throws IOException
+     *             if writing the header failed
+     */
+    public BinaryListingWriter(final OutputStream out, final int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1.");
+        }
+        this.blockSize = blockSize;
+        counter = new CountingOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+        this.out = new DataOutputStream(counter);
+        this.out.writeInt(MAGIC);
+        VarInt.write(this.out, blockSize);
+    }
+
+    /**
+     * @return number of bytes written so far, not counting the index and
+     *         footer written on {@link #close()}
+     */
+    public long getBytesWritten() {
+        return counter.getCount();
+    }
+
+    /**
+     * Writes a path.
+     *
+     * @param path
+     *            the path to write; must be greater than the path written
+     *            before
+     * @throws IOException
+     *             if writing failed
+     */
+    public void write(final String path) throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed.");
+        }
+        if (previous != null && path.compareTo(previous) <= 0) {
+            throw new IllegalArgumentException("Paths must be written in strictly ascending order: \"" + path
+                    + "\" after \"" + previous + "\".");
+        }
+        final byte[] bytes = path.getBytes(ENCODING);
+        if (count % blockSize == 0) {
+            final int block = blockKeys.size();
+            if (block == blockOffsets.length) {
+                final long[] grown = new long[block * 2];
+                System.arraycopy(blockOffsets, 0, grown, 0, block);
+                blockOffsets = grown;
+            }
+            blockOffsets[block] = counter.getCount();
+            blockKeys.add(bytes);
+            writeEntry(null, bytes);
+        }
+        else {
+            writeEntry(previousBytes, bytes);
+        }
+        previous = path;
+        previousBytes = bytes;
+        count++;
+    }
+
+    /**
+     * Writes an entry front-coded relative to the previous entry.
+     *
+     * @param before
+     *            the previous entry; <code>null</code> to write the entry
+     *            completely
+     * @param bytes
+     *            the entry to write
+     * @throws IOException
+     *             if writing failed
+     */
+    private void writeEntry(final byte[] before, final byte[] bytes) throws IOException {
+        int shared = 0;
+        if (before != null) {
+            final int max = Math.min(before.length, bytes.length);
+            while (shared < max && before[shared] == bytes[shared]) {
+                shared++;
+            }
+        }
+        VarInt.write(out, shared);
+        VarInt.write(out, bytes.length - shared);
+        out.write(bytes, shared, bytes.length - shared);
+    }
+
+    /**
+     * @return number of paths written so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the index and closes the stream.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            final long indexOffset = counter.getCount();
+            byte[] before = null;
+            for (int i = 0; i < blockKeys.size(); i++) {
+                out.writeLong(blockOffsets[i]);
+                writeEntry(before, blockKeys.get(i));
+                before = blockKeys.get(i);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(count);
+            out.writeInt(blockKeys.size());
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Stream counting the bytes written, as {@link DataOutputStream#size()}
+     * is limited to <code>int</code>.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /**
+         * Number of bytes written.
+         */
+        private long count = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param out
+         *            the stream to write to
+         */
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        long getCount() {
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer encoding chars into a large buffer which is written to a channel in
+ * big chunks.
+ * <p>
+ * Written chars are only copied into a small char array. Whenever it is full
+ * all of its chars are encoded at once by one reusable {@link CharsetEncoder}
+ * into the byte buffer, which is written to the channel when full. Both
+ * buffers are array-backed on purpose: the encoders only take their fast
+ * array loops (such as the ASCII fast path of UTF-8) for array-backed
+ * buffers, so encoding into a direct buffer is considerably slower.
+ * </p>
+ * <p>
+ * Malformed input and unmappable chars are replaced, just as
+ * {@link java.io.OutputStreamWriter} does. The output is identical to that of
+ * an {@link java.io.OutputStreamWriter} with the same charset. In contrast to
+ * other writers this writer does not synchronize its operations; it must not
+ * be used by several threads concurrently.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class ChannelWriter extends Writer {
+    /**
+     * Default size of the buffer in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    /**
+     * Size of the array for chars not encoded yet.
+     */
+    private static final int PENDING_SIZE = 8 * 1024;
+
+    /**
+     * The channel to write to.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * The buffer collecting the encoded bytes.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The encoder.
+     */
+    private final CharsetEncoder encoder;
+    /**
+     * Chars written but not encoded yet.
+     */
+    private final char[] pending = new char[PENDING_SIZE];
+    /**
+     * View of {@link #pending} handed to the encoder.
+     */
+    private final CharBuffer pendingBuffer = CharBuffer.wrap(pending);
+    /**
+     * Number of bytes written to the channel.
+     */
+    private long flushedBytes = 0;
+    /**
+     * Number of chars in {@link #pending}.
+     */
+    private int pendingCount = 0;
+    /**
+     * Set when closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor using the default buffer size.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param charsetName
+     *            name of the charset to encode chars with
+     */
+    public ChannelWriter(final WritableByteChannel channel, final String charsetName) {
+        this(channel, charsetName, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param charsetName
+     *            name of the charset to encode chars with
+     * @param bufferSize
+     *            size of the buffer in bytes
+     */
+    public ChannelWriter(final WritableByteChannel channel, final String charsetName, final int bufferSize) {
+        super();
+        this.channel = channel;
+        encoder = Charset.forName(charsetName).newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        buffer = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar()) * 2));
+    }
+
+    /**
+     * Writes a single char.
+     *
+     * @param c
+     *            the char to write
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    @Override
+    public void write(final int c) throws IOException {
+        ensureOpen();
+        if (pendingCount == pending.length) {
+            encodePending(false);
+        }
+        pending[pendingCount++] = (char) c;
+    }
+
+    /**
+     * Writes a portion of a string.
+     *
+     * @param str
+     *            the string to write
+     * @param off
+     *            offset of the first char to write
+     * @param len
+     *            number of chars to write
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        ensureOpen();
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (pendingCount == pending.length) {
+                encodePending(false);
+            }
+            final int count = Math.min(end - i, pending.length - pendingCount);
+            str.getChars(i, i + count, pending, pendingCount);
+            pendingCount += count;
+            i += count;
+        }
+    }
+
+    /**
+     * Writes a portion of a char array.
+     *
+     * @param cbuf
+     *            the chars to write
+     * @param off
+     *            offset of the first char to write
+     * @param len
+     *            number of chars to write
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        ensureOpen();
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (pendingCount == pending.length) {
+                encodePending(false);
+            }
+            final int count = Math.min(end - i, pending.length - pendingCount);
+            System.arraycopy(cbuf, i, pending, pendingCount, count);
+            pendingCount += count;
+            i += count;
+        }
+    }
+
+    /**
+     * Encodes the pending chars into the buffer, writing the buffer to the
+     * channel whenever it is full. Unless this is the end of input a trailing
+     * high surrogate stays pending until its low surrogate is written.
+     *
+     * @param endOfInput
+     *            <code>true</code> if no more chars will follow
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    private void encodePending(final boolean endOfInput) throws IOException {
+        pendingBuffer.clear();
+        pendingBuffer.limit(pendingCount);
+        while (true) {
+            final CoderResult result = encoder.encode(pendingBuffer, buffer, endOfInput);
+            if (result.isOverflow()) {
+                flushBuffer();
+            }
+            else if (result.isUnderflow()) {
+                break;
+            }
+            else {
+                result.throwException();
+            }
+        }
+        pendingCount = pendingBuffer.remaining();
+        pendingBuffer.get(pending, 0, pendingCount);
+    }
+
+    /**
+     * Writes the buffer to the channel.
+     *
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        flushedBytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Tells the number of bytes written so far, including the bytes still
+     * buffered. To do so the pending chars are encoded, so calling this after
+     * every small write slows down writing somewhat.
+     *
+     * @return number of bytes encoded so far, except for a trailing high
+     *         surrogate still missing its low surrogate
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    public long getBytesWritten() throws IOException {
+        ensureOpen();
+        encodePending(false);
+        return flushedBytes + buffer.position();
+    }
+
+    /**
+     * Writes all chars written so far to the channel, except for a trailing
+     * high surrogate still missing its low surrogate.
+     *
+     * @throws IOException
+     *             if writing to the channel failed
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encodePending(false);
+        flushBuffer();
+    }
+
+    /**
+     * Writes all chars written so far (replacing an unpaired high surrogate)
+     * and closes the channel.
+     *
+     * @throws IOException
+     *             if writing to or closing the channel failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            encodePending(true);
+            CoderResult result = encoder.flush(buffer);
+            while (result.isOverflow()) {
+                flushBuffer();
+                result = encoder.flush(buffer);
+            }
+            flushBuffer();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @throws IOException
+     *             if the writer has been closed already
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed.");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Channel compressing the bytes written to it on a separate thread.
+ * <p>
+ * The bytes written are copied into one of two buffers which are handed over
+ * to a compressor thread. While the compressor deflates one buffer and
+ * writes the result to the target stream, the next buffer is filled, so that
+ * producing, compressing and writing the output overlap. {@link #close()}
+ * waits until all bytes have been compressed and written and closes the
+ * target stream.
+ * </p>
+ * <p>
+ * If compressing or writing fails, the failure is rethrown by the next call
+ * of {@link #write(ByteBuffer)} or by {@link #close()}. The channel must not
+ * be used by several threads concurrently.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class CompressingChannel implements WritableByteChannel {
+    /**
+     * Default size of the buffers in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    /**
+     * Number of buffers handed between writer and compressor.
+     */
+    private static final int BUFFERS = 2;
+
+    /**
+     * The compressed formats.
+     */
+    public static enum Format {
+        /**
+         * GZIP file format (RFC 1952).
+         */
+        GZIP,
+        /**
+         * ZLIB format (RFC 1950), as used by {@link DeflaterOutputStream}.
+         */
+        DEFLATE
+    }
+
+    /**
+     * The deflater; ended when closed.
+     */
+    private final Deflater deflater;
+    /**
+     * The compressing stream writing to the target stream.
+     */
+    private final DeflaterOutputStream out;
+    /**
+     * Buffers which can be filled.
+     */
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    /**
+     * Buffers filled and waiting to be compressed.
+     */
+    private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+    /**
+     * Marks the end of the input in {@link #filled}.
+     */
+    private final ByteBuffer endOfInput = ByteBuffer.allocate(0);
+    /**
+     * The thread compressing the filled buffers.
+     */
+    private final Thread compressor;
+    /**
+     * The first failure of the compressor; <code>null</code> if none.
+     */
+    private volatile IOException failure = null;
+    /**
+     * Set when closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor using the default buffer size.
+     *
+     * @param target
+     *            the stream to write the compressed bytes to; will be closed
+     *            on {@link #close()}
+     * @param format
+     *            the compressed format
+     * @param level
+     *            the compression level from 0 to 9, or
+     *            {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException
+     *             if writing the header failed
+     */
+    public CompressingChannel(final OutputStream target, final Format format, final int level)
+            throws IOException {
+        this(target, format, level, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param target
+     *            the stream to write the compressed bytes to; will be closed
+     *            on {@link #close()}
+     * @param format
+     *            the compressed format
+     * @param level
+     *            the compression level from 0 to 9, or
+     *            {@link Deflater#DEFAULT_COMPRESSION}
+     * @param bufferSize
+     *            size of the buffers in bytes
+     * @throws IOException
+     *             if writing the header failed
+     */
+    public CompressingChannel(final OutputStream target, final Format format, final int level,
+            final int bufferSize) throws IOException {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1.");
+        }
+        if (format == Format.GZIP) {
+            deflater = new Deflater(level, true);
+            out = new GZIPOutputStream(target, bufferSize) {
+                {
+                    def.end();
+                    def = deflater;
+                }
+            };
+        }
+        else {
+            deflater = new Deflater(level);
+            out = new DeflaterOutputStream(target, deflater, bufferSize);
+        }
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocate(bufferSize));
+        }
+        compressor = new Thread(new Runnable() {
+            public void run() {
+                compress();
+            }
+        }, "CompressingChannel");
+        compressor.setDaemon(true);
+        compressor.start();
+    }
+
+    /**
+     * Compresses the filled buffers until the end of the input. After a
+     * failure the buffers are only recycled, so that the writing thread never
+     * blocks.
+     */
+    private void compress() {
+        try {
+            ByteBuffer buffer = filled.take();
+            while (buffer != endOfInput) {
+                if (failure == null) {
+                    try {
+                        out.write(buffer.array(), buffer.position(), buffer.remaining());
+                    }
+                    catch (final IOException e) {
+                        failure = e;
+                    }
+                }
+                free.put(buffer);
+                buffer = filled.take();
+            }
+            out.finish();
+        }
+        catch (final InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted while compressing.");
+        }
+        catch (final IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        finally {
+            try {
+                out.close();
+            }
+            catch (final IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            deflater.end();
+        }
+    }
+
+    /**
+     * Copies the bytes into the buffers handed over to the compressor.
+     *
+     * @param src
+     *            the bytes to write
+     * @return number of bytes written, which is all remaining bytes
+     * @throws IOException
+     *             if the channel is closed or compressing failed
+     */
+    public int write(final ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        checkFailure();
+        final int written = src.remaining();
+        try {
+            while (src.hasRemaining()) {
+                final ByteBuffer buffer = free.take();
+                buffer.clear();
+                if (src.remaining() > buffer.remaining()) {
+                    final ByteBuffer chunk = src.duplicate();
+                    chunk.limit(chunk.position() + buffer.remaining());
+                    buffer.put(chunk);
+                    src.position(chunk.position());
+                }
+                else {
+                    buffer.put(src);
+                }
+                buffer.flip();
+                filled.put(buffer);
+            }
+        }
+        catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while handing over bytes to compress.");
+        }
+        return written;
+    }
+
+    /**
+     * @throws IOException
+     *             the failure of the compressor, if any
+     */
+    private void checkFailure() throws IOException {
+        final IOException e = failure;
+        if (e != null) {
+            final IOException rethrown = new IOException("Compressing failed: " + e.getMessage());
+            rethrown.initCause(e);
+            throw rethrown;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Waits until all bytes have been compressed and written and closes the
+     * target stream.
+     *
+     * @throws IOException
+     *             if compressing, writing or closing failed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            filled.put(endOfInput);
+            compressor.join();
+        }
+        catch (final InterruptedException e) {
+            compressor.interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compressor.");
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The entries of a directory together with the modification time of the
+ * directory at the time of listing.
+ * <p>
+ * Creating, deleting or renaming an entry updates the modification time of
+ * the directory, so as long as the modification time did not change a listing
+ * can be reused instead of listing the directory again.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class DirectoryListing {
+    /**
+     * Coarsest granularity of directory modification times to expect, in
+     * milliseconds. A modification within this time after listing a
+     * directory might not change its modification time.
+     */
+    public static final long MODIFICATION_GRANULARITY = 2000L;
+
+    /**
+     * Modification time of the directory.
+     */
+    private final long lastModified;
+    /**
+     * Names of the entries.
+     */
+    private final String[] names;
+    /**
+     * For every entry whether it is a directory.
+     */
+    private final boolean[] directories;
+
+    /**
+     * Constructor.
+     *
+     * @param lastModified
+     *            modification time of the directory
+     * @param names
+     *            names of the entries
+     * @param directories
+     *            for every entry whether it is a directory
+     */
+    public DirectoryListing(final long lastModified, final String[] names, final boolean[] directories) {
+        if (names.length != directories.length) {
+            throw new IllegalArgumentException("Names and directory flags must be of same length.");
+        }
+        this.lastModified = lastModified;
+        this.names = names;
+        this.directories = directories;
+    }
+
+    /**
+     * Lists a directory. The modification time is read before listing, so
+     * that a modification during listing results in a new modification time
+     * afterwards.
+     *
+     * @param dir
+     *            the directory to list
+     * @return the listing
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    public static DirectoryListing read(final File dir) throws IOException {
+        final long lastModified = dir.lastModified();
+        final String[] names = dir.list();
+        if (names == null) {
+            if (!dir.exists()) {
+                throw new IOException(dir.getAbsolutePath() + " does not exist.");
+            }
+            if (!dir.isDirectory()) {
+                throw new IOException(dir.getAbsolutePath() + " is not a directory.");
+            }
+            throw new IOException("IO error scanning directory " + dir.getAbsolutePath());
+        }
+        final boolean[] directories = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            directories[i] = new File(dir, names[i]).isDirectory();
+        }
+        return new DirectoryListing(lastModified, names, directories);
+    }
+
+    /**
+     * @return modification time of the directory at the time of listing
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param index
+     *            index of the entry
+     * @return name of the entry
+     */
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index
+     *            index of the entry
+     * @return <code>true</code> if the entry is a directory
+     */
+    public boolean isDirectory(final int index) {
+        return directories[index];
+    }
+}
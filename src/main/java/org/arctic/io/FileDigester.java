@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Computes checksums of file contents as lower case hex strings.
+ * <p>
+ * Supported are all algorithms of {@link MessageDigest}, such as
+ * <code>SHA-256</code> or <code>MD5</code>, and <code>CRC32</code>. Files are
+ * read via their channel into a large buffer. A digester may be used by
+ * several threads concurrently; each thread uses its own buffer and digest.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class FileDigester {
+    /**
+     * Name of the CRC-32 checksum.
+     */
+    public static final String CRC32 = "CRC32";
+    /**
+     * Size of the read buffer of each thread.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * Bits per hex digit.
+     */
+    private static final int HEX_BITS = 4;
+    /**
+     * Mask of a hex digit.
+     */
+    private static final int HEX_MASK = 0xf;
+    /**
+     * Number of hex digits of a CRC-32 checksum.
+     */
+    private static final int CRC32_DIGITS = 8;
+
+    /**
+     * The algorithm.
+     */
+    private final String algorithm;
+    /**
+     * The read buffer of each thread.
+     */
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    };
+    /**
+     * The message digest of each thread; unused for CRC-32.
+     */
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            }
+            catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Algorithm vanished: " + algorithm, e);
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param algorithm
+     *            <code>CRC32</code> or the name of a {@link MessageDigest}
+     *            algorithm
+     * @throws NoSuchAlgorithmException
+     *             if the algorithm is not supported
+     */
+    public FileDigester(final String algorithm) throws NoSuchAlgorithmException {
+        if (!CRC32.equalsIgnoreCase(algorithm)) {
+            MessageDigest.getInstance(algorithm);
+        }
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return the algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Computes the checksum of a file.
+     *
+     * @param file
+     *            the file to read
+     * @return the checksum as lower case hex string
+     * @throws IOException
+     *             if reading failed
+     */
+    public String digest(final File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = buffers.get();
+            final Updater updater = createUpdater();
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                updater.update(buffer.array(), buffer.arrayOffset(), buffer.position());
+                buffer.clear();
+            }
+            return updater.finish();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Computes the checksum of a stream.
+     *
+     * @param in
+     *            the stream to read; will be closed
+     * @return the checksum as lower case hex string
+     * @throws IOException
+     *             if reading failed
+     */
+    public String digest(final InputStream in) throws IOException {
+        try {
+            final byte[] buffer = buffers.get().array();
+            final Updater updater = createUpdater();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                updater.update(buffer, 0, read);
+            }
+            return updater.finish();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return updater for the algorithm
+     */
+    private Updater createUpdater() {
+        if (CRC32.equalsIgnoreCase(algorithm)) {
+            final CRC32 crc = new CRC32();
+            return new Updater() {
+                public void update(final byte[] bytes, final int offset, final int length) {
+                    crc.update(bytes, offset, length);
+                }
+
+                public String finish() {
+                    final long value = crc.getValue();
+                    final char[] hex = new char[CRC32_DIGITS];
+                    for (int i = 0; i < CRC32_DIGITS; i++) {
+                        hex[i] = HEX[(int) (value >>> ((CRC32_DIGITS - 1 - i) * HEX_BITS)) & HEX_MASK];
+                    }
+                    return new String(hex);
+                }
+            };
+        }
+        final MessageDigest digest = digests.get();
+        digest.reset();
+        return new Updater() {
+            public void update(final byte[] bytes, final int offset, final int length) {
+                digest.update(bytes, offset, length);
+            }
+
+            public String finish() {
+                final byte[] value = digest.digest();
+                final char[] hex = new char[value.length * 2];
+                for (int i = 0; i < value.length; i++) {
+                    hex[2 * i] = HEX[value[i] >>> HEX_BITS & HEX_MASK];
+                    hex[2 * i + 1] = HEX[value[i] & HEX_MASK];
+                }
+                return new String(hex);
+            }
+        };
+    }
+
+    /**
+     * Feeds bytes into a checksum.
+     */
+    private interface Updater {
+        /**
+         * @param bytes
+         *            the bytes read
+         * @param offset
+         *            offset of the first byte
+         * @param length
+         *            number of bytes
+         */
+        void update(byte[] bytes, int offset, int length);
+
+        /**
+         * @return the checksum as lower case hex string
+         */
+        String finish();
+    }
+}
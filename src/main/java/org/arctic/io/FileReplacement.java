@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a file completely before it replaces the previous version. The
+ * content is written to a temporary file in the same directory first, which
+ * then takes the place of the file, so that an interrupted write does not
+ * leave a truncated file.
+ *
+ * @author Mark Michaelis
+ */
+public abstract class FileReplacement {
+    /**
+     * Prefix of the name of the temporary file.
+     */
+    private final String prefix;
+
+    /**
+     * Constructor.
+     *
+     * @param prefix
+     *            prefix of the name of the temporary file; at least three
+     *            characters long
+     */
+    protected FileReplacement(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Writes the content to a temporary file and replaces the given file by
+     * it. The temporary file is removed if writing fails.
+     *
+     * @param file
+     *            the file to replace
+     * @throws IOException
+     *             if writing or replacing failed
+     */
+    public final void replace(final File file) throws IOException {
+        final File target = file.getAbsoluteFile();
+        final File tempFile = File.createTempFile(prefix, ".tmp", target.getParentFile());
+        try {
+            final OutputStream out = new FileOutputStream(tempFile);
+            try {
+                write(out);
+            }
+            finally {
+                out.close();
+            }
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Unable to replace " + target.getAbsolutePath());
+            }
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to "
+                        + target.getAbsolutePath());
+            }
+        }
+        finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Writes the content. Streams wrapping the given stream have to be
+     * flushed or closed before returning.
+     *
+     * @param out
+     *            the stream to the temporary file
+     * @throws IOException
+     *             if writing failed
+     */
+    protected abstract void write(OutputStream out) throws IOException;
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams flat JSON objects in JSON Lines format: one object per line,
+ * separated by <code>\n</code>.
+ *
+ * <pre>
+ *   {"name":"/home/a.txt","size":42}
+ *   {"name":"/home/b.txt","size":7}
+ * </pre>
+ * <p>
+ * Each line is collected in a reused char array and handed to the underlying
+ * writer at once. Strings are copied into that array in bulk and then
+ * checked for chars to escape by loops the compiler can vectorize; only if
+ * there are quotes, backslashes or control chars the string is copied again
+ * char by char. Numbers are
+ * formatted directly into the array. Thus writing a line does not allocate
+ * any objects once the array has grown to the longest line.
+ * </p>
+ * <p>
+ * The writer does not check that fields are only written within an object
+ * or that field names are unique.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class JsonLinesWriter {
+    /**
+     * Escape sequences of all chars up to the backslash; <code>null</code>
+     * for chars which need no escaping.
+     */
+    private static final String[] ESCAPES = new String['\\' + 1];
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * Bits per hex digit.
+     */
+    private static final int HEX_BITS = 4;
+    /**
+     * Mask of a hex digit.
+     */
+    private static final int HEX_MASK = 0xf;
+    /**
+     * Maximum number of chars of a formatted long.
+     */
+    private static final int MAX_LONG_CHARS = 20;
+    /**
+     * Radix of formatted numbers.
+     */
+    private static final int RADIX = 10;
+    /**
+     * Initial size of the line buffer.
+     */
+    private static final int INITIAL_LINE_SIZE = 1024;
+    /**
+     * Maximum number of chars of an escape sequence.
+     */
+    private static final int MAX_ESCAPE_CHARS = 6;
+
+    static {
+        for (char c = 0; c < ' '; c++) {
+            ESCAPES[c] = "\\u00" + HEX[c >>> HEX_BITS] + HEX[c & HEX_MASK];
+        }
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+    }
+
+    /**
+     * The writer to write to.
+     */
+    private final Writer out;
+    /**
+     * The current line.
+     */
+    private char[] line = new char[INITIAL_LINE_SIZE];
+    /**
+     * Number of chars in {@link #line}.
+     */
+    private int length = 0;
+    /**
+     * <code>true</code> if no field has been written to the current object
+     * yet.
+     */
+    private boolean firstField;
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *            the writer to write to
+     */
+    public JsonLinesWriter(final Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a new object.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void startObject() throws IOException {
+        length = 0;
+        append('{');
+        firstField = true;
+    }
+
+    /**
+     * Ends the current object and its line.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void endObject() throws IOException {
+        append('}');
+        append('\n');
+        out.write(line, 0, length);
+        length = 0;
+    }
+
+    /**
+     * Writes a string field.
+     *
+     * @param name
+     *            name of the field
+     * @param value
+     *            value of the field
+     * @throws IOException
+     *             if writing failed
+     */
+    public void writeField(final String name, final String value) throws IOException {
+        writeName(name);
+        writeString(value);
+    }
+
+    /**
+     * Writes a number field.
+     *
+     * @param name
+     *            name of the field
+     * @param value
+     *            value of the field
+     * @throws IOException
+     *             if writing failed
+     */
+    public void writeField(final String name, final long value) throws IOException {
+        writeName(name);
+        ensureCapacity(MAX_LONG_CHARS);
+        if (value < 0) {
+            line[length++] = '-';
+        }
+        long remaining = value;
+        int end = length;
+        do {
+            line[end++] = (char) ('0' + Math.abs(remaining % RADIX));
+            remaining /= RADIX;
+        }
+        while (remaining != 0);
+        for (int i = length, j = end - 1; i < j; i++, j--) {
+            final char digit = line[i];
+            line[i] = line[j];
+            line[j] = digit;
+        }
+        length = end;
+    }
+
+    /**
+     * Writes the separator to the previous field if required and the name of
+     * the next field.
+     *
+     * @param name
+     *            name of the field
+     */
+    private void writeName(final String name) {
+        if (firstField) {
+            firstField = false;
+        }
+        else {
+            append(',');
+        }
+        writeString(name);
+        append(':');
+    }
+
+    /**
+     * Writes a quoted and escaped string.
+     *
+     * @param value
+     *            the string to write
+     */
+    private void writeString(final String value) {
+        append('"');
+        final int valueLength = value.length();
+        ensureCapacity(valueLength + 1);
+        value.getChars(0, valueLength, line, length);
+        if (value.indexOf('"') < 0 && value.indexOf('\\') < 0
+                && !hasControlChars(line, length, length + valueLength)) {
+            length += valueLength;
+        }
+        else {
+            escape(value);
+        }
+        append('"');
+    }
+
+    /**
+     * Checks chars for control chars. The loop does not exit early on
+     * purpose: as it has no branches the compiler can vectorize it.
+     *
+     * @param chars
+     *            the chars to check
+     * @param start
+     *            index of the first char to check
+     * @param end
+     *            index after the last char to check
+     * @return <code>true</code> if there is any control char
+     */
+    private static boolean hasControlChars(final char[] chars, final int start, final int end) {
+        int negativeIfControl = 0;
+        for (int i = start; i < end; i++) {
+            negativeIfControl |= chars[i] - ' ';
+        }
+        return negativeIfControl < 0;
+    }
+
+    /**
+     * Appends a string char by char, escaping as required.
+     *
+     * @param value
+     *            the string
+     */
+    private void escape(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            ensureCapacity(MAX_ESCAPE_CHARS + 1);
+            if (c <= '\\' && ESCAPES[c] != null) {
+                final String escaped = ESCAPES[c];
+                escaped.getChars(0, escaped.length(), line, length);
+                length += escaped.length();
+            }
+            else {
+                line[length++] = c;
+            }
+        }
+    }
+
+    /**
+     * Appends a char.
+     *
+     * @param c
+     *            the char to append
+     */
+    private void append(final char c) {
+        ensureCapacity(1);
+        line[length++] = c;
+    }
+
+    /**
+     * Grows the line buffer if required.
+     *
+     * @param additional
+     *            number of chars to be appended
+     */
+    private void ensureCapacity(final int additional) {
+        if (length + additional > line.length) {
+            final char[] grown = new char[Math.max(2 * line.length, length + additional)];
+            System.arraycopy(line, 0, grown, 0, length);
+            line = grown;
+        }
+    }
+
+    /**
+     * Flushes the underlying writer.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the underlying writer.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * State of a listing of files: the modification time and size of every file
+ * and the directory listings which may be reused by the next listing.
+ * <p>
+ * The state is stored in a compact binary format. Names are sorted and
+ * front-coded, i.&nbsp;e. only the length of the prefix shared with the
+ * previous name and the remaining suffix are stored, which removes most of
+ * the redundancy of absolute paths.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class ListingState {
+    /**
+     * Identifies the format of state files.
+     */
+    private static final int MAGIC = 0x45465331;
+    /**
+     * Buffer size for reading and writing state files.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The files by name.
+     */
+    private final Map<String, Entry> files = new TreeMap<String, Entry>();
+    /**
+     * The directory listings by absolute path of the directory.
+     */
+    private final Map<String, DirectoryListing> directories = new TreeMap<String, DirectoryListing>();
+
+    /**
+     * Adds or replaces a file.
+     *
+     * @param name
+     *            name of the file
+     * @param lastModified
+     *            modification time of the file
+     * @param size
+     *            size of the file
+     */
+    public void putFile(final String name, final long lastModified, final long size) {
+        files.put(name, new Entry(lastModified, size));
+    }
+
+    /**
+     * @param name
+     *            name of the file
+     * @return the file; <code>null</code> if unknown
+     */
+    public Entry getFile(final String name) {
+        return files.get(name);
+    }
+
+    /**
+     * @return the names of all files in ascending order
+     */
+    public Set<String> getFileNames() {
+        return files.keySet();
+    }
+
+    /**
+     * Adds or replaces a directory listing.
+     *
+     * @param path
+     *            absolute path of the directory
+     * @param listing
+     *            the listing
+     */
+    public void putDirectory(final String path, final DirectoryListing listing) {
+        directories.put(path, listing);
+    }
+
+    /**
+     * @param path
+     *            absolute path of the directory
+     * @return the listing; <code>null</code> if unknown
+     */
+    public DirectoryListing getDirectory(final String path) {
+        return directories.get(path);
+    }
+
+    /**
+     * @return number of directory listings
+     */
+    public int getDirectoryCount() {
+        return directories.size();
+    }
+
+    /**
+     * Reads a state file.
+     *
+     * @param stateFile
+     *            the file to read
+     * @return the state
+     * @throws IOException
+     *             if reading failed or the file is no state file
+     */
+    public static ListingState read(final File stateFile) throws IOException {
+        final ListingState state = new ListingState();
+        final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile), IO_BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown format of state file " + stateFile.getAbsolutePath());
+            }
+            String name = "";
+            final int fileCount = VarInt.read(in);
+            for (int i = 0; i < fileCount; i++) {
+                name = readName(in, name);
+                state.putFile(name, in.readLong(), in.readLong());
+            }
+            name = "";
+            final int directoryCount = VarInt.read(in);
+            for (int i = 0; i < directoryCount; i++) {
+                name = readName(in, name);
+                final long lastModified = in.readLong();
+                final int size = VarInt.read(in);
+                final String[] names = new String[size];
+                final boolean[] flags = new boolean[size];
+                for (int j = 0; j < size; j++) {
+                    names[j] = VarInt.readString(in);
+                    flags[j] = in.readBoolean();
+                }
+                state.putDirectory(name, new DirectoryListing(lastModified, names, flags));
+            }
+        }
+        finally {
+            in.close();
+        }
+        return state;
+    }
+
+    /**
+     * Writes the state to a file. The state is written to a temporary file
+     * first which then replaces the given file, so that an interrupted write
+     * does not leave a truncated state file.
+     *
+     * @param stateFile
+     *            the file to write
+     * @throws IOException
+     *             if writing failed
+     */
+    public void write(final File stateFile) throws IOException {
+        new FileReplacement("state") {
+            @Override
+            protected void write(final OutputStream stream) throws IOException {
+                final DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(stream, IO_BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                String previous = "";
+                VarInt.write(out, files.size());
+                for (final Map.Entry<String, Entry> file : files.entrySet()) {
+                    writeName(out, previous, file.getKey());
+                    out.writeLong(file.getValue().getLastModified());
+                    out.writeLong(file.getValue().getSize());
+                    previous = file.getKey();
+                }
+                previous = "";
+                VarInt.write(out, directories.size());
+                for (final Map.Entry<String, DirectoryListing> directory : directories.entrySet()) {
+                    final DirectoryListing listing = directory.getValue();
+                    writeName(out, previous, directory.getKey());
+                    out.writeLong(listing.getLastModified());
+                    VarInt.write(out, listing.size());
+                    for (int i = 0; i < listing.size(); i++) {
+                        VarInt.writeString(out, listing.getName(i));
+                        out.writeBoolean(listing.isDirectory(i));
+                    }
+                    previous = directory.getKey();
+                }
+                out.flush();
+            }
+        }.replace(stateFile);
+    }
+
+    /**
+     * Writes a name front-coded relative to the previous name.
+     *
+     * @param out
+     *            the stream to write to
+     * @param previous
+     *            the previous name
+     * @param name
+     *            the name to write
+     * @throws IOException
+     *             if writing failed
+     */
+    private static void writeName(final DataOutputStream out, final String previous, final String name)
+            throws IOException {
+        final int max = Math.min(previous.length(), name.length());
+        int shared = 0;
+        while (shared < max && previous.charAt(shared) == name.charAt(shared)) {
+            shared++;
+        }
+        VarInt.write(out, shared);
+        VarInt.writeString(out, name.substring(shared));
+    }
+
+    /**
+     * Reads a front-coded name.
+     *
+     * @param in
+     *            the stream to read from
+     * @param previous
+     *            the previous name
+     * @return the name
+     * @throws IOException
+     *             if reading failed
+     */
+    private static String readName(final DataInputStream in, final String previous) throws IOException {
+        final int shared = VarInt.read(in);
+        if (shared > previous.length()) {
+            throw new IOException("Corrupt state file: invalid name prefix.");
+        }
+        return previous.substring(0, shared) + VarInt.readString(in);
+    }
+
+    /**
+     * Modification time and size of a file.
+     */
+    public static final class Entry {
+        /**
+         * Modification time.
+         */
+        private final long lastModified;
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Constructor.
+         *
+         * @param lastModified
+         *            modification time
+         * @param size
+         *            size in bytes
+         */
+        public Entry(final long lastModified, final long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * @return modification time
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            final Entry other = (Entry) obj;
+            return lastModified == other.lastModified && size == other.size;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            final long bits = lastModified ^ size;
+            return (int) (bits ^ bits >>> Integer.SIZE);
+        }
+    }
+}
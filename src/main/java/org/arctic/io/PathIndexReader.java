@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an index written by {@link PathIndexWriter} via a memory mapping, so
+ * that opening even a large index only reads its header and a lookup only
+ * touches the pages it needs.
+ * <p>
+ * The paths are sorted, so all paths starting with a given prefix form a
+ * range which is found by binary search, see {@link #getStart(String)} and
+ * {@link #getEnd(String)}. Within a range {@link #findEndingWith(int, int,
+ * byte[])} compares raw bytes of the mapping without decoding any path.
+ * </p>
+ * <p>
+ * The index may be read by several threads at the same time. The mapping
+ * stays valid until it is garbage collected, also after {@link #close()}.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class PathIndexReader implements Closeable {
+    /**
+     * Size of the header in bytes, at least.
+     */
+    private static final int MIN_HEADER_SIZE = 20;
+
+    /**
+     * The file read.
+     */
+    private final RandomAccessFile file;
+    /**
+     * The mapped index; only accessed via absolute methods.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * When the files have been scanned.
+     */
+    private final long scanned;
+    /**
+     * Absolute path of the base directory.
+     */
+    private final String baseDir;
+    /**
+     * Relative paths of the directories scanned, in ascending order.
+     */
+    private final String[] directories;
+    /**
+     * Modification times of {@link #directories}.
+     */
+    private final long[] directoryModified;
+    /**
+     * Offset of the paths.
+     */
+    private final int pathsOffset;
+    /**
+     * Offset of the path offsets.
+     */
+    private final int offsetsOffset;
+    /**
+     * Number of paths.
+     */
+    private final int count;
+
+    /**
+     * Opens and maps an index and reads its header.
+     *
+     * @param index
+     *            the index to read
+     * @throws IOException
+     *             if reading failed or the file is no index
+     */
+    public PathIndexReader(final File index) throws IOException {
+        file = new RandomAccessFile(index, "r");
+        boolean success = false;
+        try {
+            final FileChannel channel = file.getChannel();
+            final long length = channel.size();
+            if (length < MIN_HEADER_SIZE + PathIndexWriter.FOOTER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("No path index: " + index.getAbsolutePath());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final int footer = (int) length - PathIndexWriter.FOOTER_SIZE;
+            final long paths = buffer.getLong(footer);
+            final long offsets = buffer.getLong(footer + Long.SIZE / Byte.SIZE);
+            count = buffer.getInt(footer + 2 * Long.SIZE / Byte.SIZE);
+            if (buffer.getInt(0) != PathIndexWriter.MAGIC
+                    || buffer.getInt(footer + PathIndexWriter.FOOTER_SIZE - PathIndexWriter.OFFSET_SIZE)
+                        != PathIndexWriter.MAGIC
+                    || paths > offsets || offsets + (count + 1L) * PathIndexWriter.OFFSET_SIZE != footer) {
+                throw new IOException("No path index: " + index.getAbsolutePath());
+            }
+            pathsOffset = (int) paths;
+            offsetsOffset = (int) offsets;
+            final ByteBuffer header = buffer.duplicate();
+            header.position(Integer.SIZE / Byte.SIZE);
+            scanned = header.getLong();
+            baseDir = readString(header);
+            directories = new String[header.getInt()];
+            directoryModified = new long[directories.length];
+            for (int i = 0; i < directories.length; i++) {
+                directories[i] = readString(header);
+                directoryModified[i] = header.getLong();
+            }
+            success = true;
+        }
+        finally {
+            if (!success) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     *
+     * @param in
+     *            the buffer to read from at its position
+     * @return the string
+     * @throws IOException
+     *             if the string is invalid
+     */
+    private static String readString(final ByteBuffer in) throws IOException {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Corrupt path index: invalid string length.");
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, PathIndexWriter.ENCODING);
+    }
+
+    /**
+     * @return absolute path of the base directory
+     */
+    public String getBaseDir() {
+        return baseDir;
+    }
+
+    /**
+     * @return number of paths
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return number of directories scanned
+     */
+    public int getDirectoryCount() {
+        return directories.length;
+    }
+
+    /**
+     * @param index
+     *            index of the path
+     * @return offset of the path within the mapping
+     */
+    private int getOffset(final int index) {
+        return pathsOffset + buffer.getInt(offsetsOffset + index * PathIndexWriter.OFFSET_SIZE);
+    }
+
+    /**
+     * Decodes a path.
+     *
+     * @param index
+     *            index of the path
+     * @return the relative path of the file
+     */
+    public String getPath(final int index) {
+        final int start = getOffset(index);
+        final byte[] bytes = new byte[getOffset(index + 1) - start];
+        final ByteBuffer path = buffer.duplicate();
+        path.position(start);
+        path.get(bytes);
+        try {
+            return new String(bytes, PathIndexWriter.ENCODING);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Searches the first path not less than a prefix.
+     *
+     * @param prefix
+     *            the prefix
+     * @return index of the first path starting with the prefix, if any
+     */
+    public int getStart(final String prefix) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getPath(mid).compareTo(prefix) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Searches the end of the paths starting with a prefix.
+     *
+     * @param prefix
+     *            the prefix
+     * @return index after the last path starting with the prefix
+     */
+    public int getEnd(final String prefix) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final String path = getPath(mid);
+            if (path.compareTo(prefix) < 0 || path.startsWith(prefix)) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Searches the next path ending with the given bytes, comparing the
+     * bytes in place.
+     *
+     * @param from
+     *            index of the first path to check
+     * @param to
+     *            index after the last path to check
+     * @param suffix
+     *            UTF-8 bytes the path has to end with
+     * @return index of the first path in range ending with the suffix;
+     *         <code>to</code> if there is none
+     */
+    public int findEndingWith(final int from, final int to, final byte[] suffix) {
+        int end = getOffset(from);
+        for (int i = from; i < to; i++) {
+            final int start = end;
+            end = getOffset(i + 1);
+            final int suffixStart = end - suffix.length;
+            if (suffixStart < start) {
+                continue;
+            }
+            int different = 0;
+            for (int j = 0; j < suffix.length; j++) {
+                different |= buffer.get(suffixStart + j) ^ suffix[j];
+            }
+            if (different == 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Checks that no file below a directory has been created, deleted or
+     * renamed since the index has been written: neither the directory, nor
+     * any directory below it or any of its parents have been modified. The
+     * directories have to be unmodified for a while before scanning, as a
+     * modification within the granularity of the file system's timestamps
+     * might go unnoticed otherwise.
+     *
+     * @param directory
+     *            relative path of the directory using <code>/</code> as
+     *            separator; the empty string for the base directory
+     * @return <code>true</code> if the index is fresh for all files below
+     *         the directory
+     */
+    public boolean isFresh(final String directory) {
+        // the parents, which change if the directory is created or deleted
+        for (int separator = directory.lastIndexOf('/'); separator >= 0; separator =
+                directory.lastIndexOf('/', separator - 1)) {
+            if (!isFresh(directory.substring(0, separator), false)) {
+                return false;
+            }
+        }
+        if (directory.length() > 0 && !isFresh("", false)) {
+            return false;
+        }
+        return isFresh(directory, true);
+    }
+
+    /**
+     * Checks directories for modifications.
+     *
+     * @param directory
+     *            relative path of the directory
+     * @param below
+     *            <code>true</code> to check all directories below as well
+     * @return <code>true</code> if none of the directories recorded has been
+     *         modified
+     */
+    private boolean isFresh(final String directory, final boolean below) {
+        final int index = search(directory);
+        if (index < directories.length && directories[index].equals(directory) && isModified(index)) {
+            return false;
+        }
+        if (below) {
+            final String prefix = directory.length() == 0 ? "" : directory + "/";
+            for (int i = search(prefix); i < directories.length && directories[i].startsWith(prefix); i++) {
+                if (isModified(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index
+     *            index of a directory
+     * @return <code>true</code> if the directory has been modified since
+     *         scanning or shortly before
+     */
+    private boolean isModified(final int index) {
+        final long lastModified = directoryModified[index];
+        return lastModified >= scanned - DirectoryListing.MODIFICATION_GRANULARITY
+                || new File(baseDir, directories[index]).lastModified() != lastModified;
+    }
+
+    /**
+     * @param directory
+     *            relative path of a directory
+     * @return index of the first directory not less than the given one
+     */
+    private int search(final String directory) {
+        int low = 0;
+        int high = directories.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (directories[mid].compareTo(directory) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Closes the file. The mapping stays valid.
+     *
+     * @throws IOException
+     *             if closing failed
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes an index of the files below a base directory, to be memory-mapped
+ * and searched by {@link PathIndexReader}.
+ * <p>
+ * The index starts with a header holding the base directory, the time the
+ * files were scanned and the modification times of all directories
+ * scanned, so that readers can check whether the index is still fresh.
+ * The paths follow as plain UTF-8 without separators, in ascending order;
+ * after them an array of fixed size offsets allows to access the
+ * <var>n</var>th path directly. All numbers are stored as fixed size big
+ * endian values.
+ * </p>
+ *
+ * <pre>
+ *   header:  magic, scan time, base dir, directory count,
+ *            (directory, modification time)*
+ *   paths:   UTF-8 bytes of all paths
+ *   offsets: (offset of path relative to the paths)*, end of paths
+ *   footer:  offset of paths, offset of offsets, path count, magic
+ * </pre>
+ * <p>
+ * Paths and directories are relative to the base directory and use
+ * <code>/</code> as separator. The base directory itself is the empty
+ * directory path.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class PathIndexWriter implements Closeable {
+    /**
+     * Identifies the format of index files.
+     */
+    static final int MAGIC = 0x45464931;
+    /**
+     * Encoding of the paths.
+     */
+    static final String ENCODING = "UTF-8";
+    /**
+     * Size of the footer in bytes.
+     */
+    static final int FOOTER_SIZE = 24;
+    /**
+     * Size of an offset in bytes.
+     */
+    static final int OFFSET_SIZE = 4;
+    /**
+     * Buffer size for writing.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Initial size of the offset array.
+     */
+    private static final int INITIAL_OFFSETS = 1024;
+
+    /**
+     * The stream to write to.
+     */
+    private final DataOutputStream out;
+    /**
+     * Offset of the paths.
+     */
+    private final long pathsOffset;
+    /**
+     * Offsets of the paths written so far relative to {@link #pathsOffset}.
+     */
+    private int[] offsets = new int[INITIAL_OFFSETS];
+    /**
+     * Number of paths written.
+     */
+    private int count = 0;
+    /**
+     * Number of bytes of all paths written.
+     */
+    private long pathBytes = 0;
+    /**
+     * The path written last; <code>null</code> if none yet.
+     */
+    private String previous = null;
+
+    /**
+     * Constructor. Writes the header.
+     *
+     * @param out
+     *            the stream to write to
+     * @param baseDir
+     *            absolute path of the base directory
+     * @param scanned
+     *            the time scanning started
+     * @param directories
+     *            modification times of all directories scanned by their
+     *            relative path; in ascending order
+     * @throws IOException
+     *             if writing failed
+     */
+    public PathIndexWriter(final OutputStream out, final String baseDir, final long scanned,
+            final Map<String, Long> directories) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+        this.out.writeInt(MAGIC);
+        this.out.writeLong(scanned);
+        writeString(baseDir);
+        this.out.writeInt(directories.size());
+        String previousDirectory = null;
+        for (final Map.Entry<String, Long> directory : directories.entrySet()) {
+            if (previousDirectory != null && previousDirectory.compareTo(directory.getKey()) >= 0) {
+                throw new IllegalArgumentException("Directories must be in ascending order.");
+            }
+            writeString(directory.getKey());
+            this.out.writeLong(directory.getValue());
+            previousDirectory = directory.getKey();
+        }
+        pathsOffset = this.out.size();
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string.
+     *
+     * @param value
+     *            the string to write
+     * @throws IOException
+     *             if writing failed
+     */
+    private void writeString(final String value) throws IOException {
+        final byte[] bytes = value.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a path. Paths have to be written in ascending order according
+     * to {@link String#compareTo(String)}, without duplicates.
+     *
+     * @param path
+     *            the relative path of a file
+     * @throws IOException
+     *             if writing failed or the index would exceed 2 GB
+     */
+    public void write(final String path) throws IOException {
+        if (previous != null && previous.compareTo(path) >= 0) {
+            throw new IllegalArgumentException("Paths must be in ascending order: \"" + path
+                    + "\" after \"" + previous + "\"");
+        }
+        final byte[] bytes = path.getBytes(ENCODING);
+        if (count + 1 == offsets.length) {
+            final int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, count + 1);
+            offsets = grown;
+        }
+        final long indexSize =
+                pathsOffset + pathBytes + bytes.length + (long) (count + 2) * OFFSET_SIZE + FOOTER_SIZE;
+        if (indexSize > Integer.MAX_VALUE) {
+            throw new IOException("Index exceeds 2 GB.");
+        }
+        offsets[count] = (int) pathBytes;
+        out.write(bytes);
+        pathBytes += bytes.length;
+        count++;
+        previous = path;
+    }
+
+    /**
+     * @return number of paths written
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the offsets and the footer and closes the stream.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    public void close() throws IOException {
+        offsets[count] = (int) pathBytes;
+        final long offsetsOffset = pathsOffset + pathBytes;
+        for (int i = 0; i <= count; i++) {
+            out.writeInt(offsets[i]);
+        }
+        out.writeLong(pathsOffset);
+        out.writeLong(offsetsOffset);
+        out.writeInt(count);
+        out.writeInt(MAGIC);
+        out.close();
+    }
+}
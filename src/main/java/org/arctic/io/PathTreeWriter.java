@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streams sorted paths as XML tree of nested directories, as described by
+ * <code>org/arctic/io/resource-tree.xsd</code>:
+ *
+ * <pre>
+ *   &lt;tree separator="/"&gt;
+ *     &lt;dir name=""&gt;
+ *       &lt;dir name="home"&gt;
+ *         &lt;file name="a.txt"/&gt;
+ *         &lt;file name="b.txt"/&gt;
+ *       &lt;/dir&gt;
+ *     &lt;/dir&gt;
+ *   &lt;/tree&gt;
+ * </pre>
+ * <p>
+ * The path of a file is the names of all enclosing <code>dir</code> elements
+ * and the name of the file, joined by the separator. Thus the root directory
+ * of absolute Unix paths is the directory with the empty name.
+ * </p>
+ * <p>
+ * Paths must be written in ascending order, as all paths within a directory
+ * then follow each other: only the directories which differ from those of
+ * the previous path are closed and opened, so a directory is never written
+ * twice. Just the names of the currently open directories are kept in
+ * memory.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class PathTreeWriter {
+    /**
+     * Name of the root element.
+     */
+    public static final String TREE_ELEMENT = "tree";
+    /**
+     * Name of the directory elements.
+     */
+    public static final String DIR_ELEMENT = "dir";
+    /**
+     * Name of the file elements.
+     */
+    public static final String FILE_ELEMENT = "file";
+    /**
+     * Name of the attribute holding the name of a directory or file.
+     */
+    public static final String NAME_ATTRIBUTE = "name";
+    /**
+     * Name of the attribute of the root element holding the separator.
+     */
+    public static final String SEPARATOR_ATTRIBUTE = "separator";
+
+    /**
+     * The writer to write to.
+     */
+    private final XMLStreamWriter out;
+    /**
+     * Separator of the path components.
+     */
+    private final char separator;
+    /**
+     * Names of the currently open directories, outermost first.
+     */
+    private final List<String> openDirs = new ArrayList<String>();
+    /**
+     * Components of the path written, reused for each path.
+     */
+    private final List<String> components = new ArrayList<String>();
+
+    /**
+     * Constructor. Writes the start of the root element.
+     *
+     * @param out
+     *            the writer to write to
+     * @param separator
+     *            separator of the path components
+     * @throws XMLStreamException
+     *             if writing failed
+     */
+    public PathTreeWriter(final XMLStreamWriter out, final char separator) throws XMLStreamException {
+        this.out = out;
+        this.separator = separator;
+        out.writeStartElement(TREE_ELEMENT);
+        out.writeAttribute(SEPARATOR_ATTRIBUTE, String.valueOf(separator));
+    }
+
+    /**
+     * Writes a file element, opening and closing directory elements as
+     * required. The file element is written as empty element, so that
+     * further attributes can be added to it via the underlying writer.
+     *
+     * @param path
+     *            the path of the file; not less than the path written before
+     * @throws XMLStreamException
+     *             if writing failed
+     */
+    public void writeFile(final String path) throws XMLStreamException {
+        components.clear();
+        int start = 0;
+        int end = path.indexOf(separator);
+        while (end >= 0) {
+            components.add(path.substring(start, end));
+            start = end + 1;
+            end = path.indexOf(separator, start);
+        }
+        int common = 0;
+        while (common < openDirs.size() && common < components.size()
+                && openDirs.get(common).equals(components.get(common))) {
+            common++;
+        }
+        while (openDirs.size() > common) {
+            out.writeEndElement();
+            openDirs.remove(openDirs.size() - 1);
+        }
+        for (int i = common; i < components.size(); i++) {
+            out.writeStartElement(DIR_ELEMENT);
+            out.writeAttribute(NAME_ATTRIBUTE, components.get(i));
+            openDirs.add(components.get(i));
+        }
+        out.writeEmptyElement(FILE_ELEMENT);
+        out.writeAttribute(NAME_ATTRIBUTE, path.substring(start));
+    }
+
+    /**
+     * Closes all open directory elements and the root element.
+     *
+     * @throws XMLStreamException
+     *             if writing failed
+     */
+    public void close() throws XMLStreamException {
+        while (!openDirs.isEmpty()) {
+            out.writeEndElement();
+            openDirs.remove(openDirs.size() - 1);
+        }
+        out.writeEndElement();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Results of resolving resources, e.&nbsp;g. by finding files, kept across
+ * builds. Each entry is stored under a key describing what has been resolved
+ * and records the modification times of the directories the result depends
+ * on.
+ * <p>
+ * Creating, deleting or renaming an entry updates the modification time of
+ * its directory, so as long as none of these modification times changed an
+ * entry is still valid: checking it takes one file system access per
+ * directory instead of listing them again.
+ * </p>
+ * <p>
+ * The cache also counts how often a valid entry has been found and how often
+ * not since it has been read. It is stored in a compact binary format, which
+ * only needs to be written again if an entry has been added or removed.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class ResolutionCache {
+    /**
+     * Identifies the format of cache files; version 2 no longer stores the
+     * numbers of hits and misses.
+     */
+    private static final int MAGIC = 0x45465232;
+    /**
+     * Buffer size for reading and writing cache files.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The entries by key.
+     */
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    /**
+     * Number of lookups which found a valid entry.
+     */
+    private long hits = 0;
+    /**
+     * Number of lookups which found no valid entry.
+     */
+    private long misses = 0;
+    /**
+     * Whether entries have been added or removed since reading or writing.
+     */
+    private boolean modified = false;
+
+    /**
+     * Looks up a valid entry and counts the lookup as hit or miss. Entries
+     * whose directories changed are removed.
+     *
+     * @param key
+     *            the key of the entry
+     * @return the entry; <code>null</code> if there is no valid entry
+     */
+    public Entry lookUp(final String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.isValid()) {
+            hits++;
+            return entry;
+        }
+        if (entry != null) {
+            entries.remove(key);
+            modified = true;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param key
+     *            the key of the entry
+     * @param entry
+     *            the entry
+     */
+    public void put(final String key, final Entry entry) {
+        entries.put(key, entry);
+        modified = true;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups which found a valid entry
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups which found no valid entry
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return <code>true</code> if entries have been added or removed since
+     *         the cache has been read or written
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Reads a cache file.
+     *
+     * @param cacheFile
+     *            the file to read
+     * @return the cache
+     * @throws IOException
+     *             if reading failed or the file is no cache file
+     */
+    public static ResolutionCache read(final File cacheFile) throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), IO_BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown format of cache file " + cacheFile.getAbsolutePath());
+            }
+            final int entryCount = VarInt.read(in);
+            for (int i = 0; i < entryCount; i++) {
+                final String key = VarInt.readString(in);
+                final String[] results = new String[VarInt.read(in)];
+                for (int j = 0; j < results.length; j++) {
+                    results[j] = in.readBoolean() ? VarInt.readString(in) : null;
+                }
+                final Map<String, Long> directories = new TreeMap<String, Long>();
+                final int directoryCount = VarInt.read(in);
+                for (int j = 0; j < directoryCount; j++) {
+                    final String path = VarInt.readString(in);
+                    directories.put(path, in.readLong());
+                }
+                cache.put(key, new Entry(results, directories));
+            }
+        }
+        finally {
+            in.close();
+        }
+        cache.modified = false;
+        return cache;
+    }
+
+    /**
+     * Writes the cache to a file. The cache is written to a temporary file
+     * first which then replaces the given file, so that an interrupted write
+     * does not leave a truncated cache file.
+     *
+     * @param cacheFile
+     *            the file to write
+     * @throws IOException
+     *             if writing failed
+     */
+    public void write(final File cacheFile) throws IOException {
+        new FileReplacement("cache") {
+            @Override
+            protected void write(final OutputStream stream) throws IOException {
+                final DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(stream, IO_BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                VarInt.write(out, entries.size());
+                for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    VarInt.writeString(out, entry.getKey());
+                    final String[] results = entry.getValue().results;
+                    VarInt.write(out, results.length);
+                    for (final String result : results) {
+                        out.writeBoolean(result != null);
+                        if (result != null) {
+                            VarInt.writeString(out, result);
+                        }
+                    }
+                    final Map<String, Long> directories = entry.getValue().directories;
+                    VarInt.write(out, directories.size());
+                    for (final Map.Entry<String, Long> directory : directories.entrySet()) {
+                        VarInt.writeString(out, directory.getKey());
+                        out.writeLong(directory.getValue());
+                    }
+                }
+                out.flush();
+            }
+        }.replace(cacheFile);
+        modified = false;
+    }
+
+    /**
+     * The results of one resolution and the directories they depend on.
+     */
+    public static final class Entry {
+        /**
+         * The results; <code>null</code> elements for nothing found.
+         */
+        private final String[] results;
+        /**
+         * Modification times of the directories by absolute path.
+         */
+        private final Map<String, Long> directories;
+
+        /**
+         * Constructor.
+         *
+         * @param results
+         *            the results; <code>null</code> elements for nothing
+         *            found
+         * @param directories
+         *            modification times of the directories the results
+         *            depend on, by absolute path
+         */
+        public Entry(final String[] results, final Map<String, Long> directories) {
+            this.results = results.clone();
+            this.directories = new TreeMap<String, Long>(directories);
+        }
+
+        /**
+         * @return the results; <code>null</code> elements for nothing found
+         */
+        public String[] getResults() {
+            return results.clone();
+        }
+
+        /**
+         * @return modification times of the directories the results depend
+         *         on, by absolute path
+         */
+        public Map<String, Long> getDirectories() {
+            return Collections.unmodifiableMap(directories);
+        }
+
+        /**
+         * @return <code>true</code> if none of the directories has been
+         *         modified or deleted since the results were recorded
+         */
+        public boolean isValid() {
+            for (final Map.Entry<String, Long> directory : directories.entrySet()) {
+                if (new File(directory.getKey()).lastModified() != directory.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
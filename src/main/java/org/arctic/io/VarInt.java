@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes non-negative ints using as few bytes as possible: seven
+ * bits per byte, least significant first, the highest bit marking that more
+ * bytes follow. Strings are written as UTF-8, prefixed by their length in
+ * bytes as such an int.
+ *
+ * @author Mark Michaelis
+ */
+final class VarInt {
+    /**
+     * Encoding of strings.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * Bits of an int stored per byte.
+     */
+    private static final int BITS = 7;
+    /**
+     * Mask for the bits stored per byte.
+     */
+    private static final int MASK = 0x7f;
+    /**
+     * Flag marking that more bytes follow.
+     */
+    private static final int MORE = 0x80;
+
+    /**
+     * Utility class.
+     */
+    private VarInt() {
+        // nothing
+    }
+
+    /**
+     * Writes a non-negative int.
+     *
+     * @param out
+     *            where to write to
+     * @param value
+     *            the value to write
+     * @throws IOException
+     *             if writing failed
+     */
+    static void write(final DataOutput out, final int value) throws IOException {
+        int rest = value;
+        while ((rest & ~MASK) != 0) {
+            out.writeByte(rest & MASK | MORE);
+            rest >>>= BITS;
+        }
+        out.writeByte(rest);
+    }
+
+    /**
+     * Reads an int written by {@link #write(DataOutput, int)}.
+     *
+     * @param in
+     *            where to read from
+     * @return the value
+     * @throws IOException
+     *             if reading failed or the bytes do not denote an int
+     */
+    static int read(final DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift >= Integer.SIZE) {
+                throw new IOException("Invalid variable length int.");
+            }
+            b = in.readUnsignedByte();
+            value |= (b & MASK) << shift;
+            shift += BITS;
+        }
+        while ((b & MORE) != 0);
+        return value;
+    }
+
+    /**
+     * Writes a string as length prefixed UTF-8.
+     *
+     * @param out
+     *            where to write to
+     * @param value
+     *            the string to write
+     * @throws IOException
+     *             if writing failed
+     */
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(ENCODING);
+        write(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in
+     *            where to read from
+     * @return the string
+     * @throws IOException
+     *             if reading failed
+     */
+    static String readString(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[read(in)];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+}
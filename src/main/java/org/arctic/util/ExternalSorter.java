@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts and deduplicates strings within a bounded amount of memory.
+ * <p>
+ * Strings are collected in memory until the estimated memory usage exceeds
+ * the budget. Then they are sorted and written as a deduplicated run to a
+ * temporary file. Iterating the sorter merges all runs (and the strings still
+ * in memory) in one streaming pass, skipping duplicates. If there are more
+ * runs than can be merged at once, runs are merged in several passes.
+ * </p>
+ * <p>
+ * Strings are sorted by {@link String#compareTo(String)}. The sorter can only
+ * be iterated once; no strings may be added afterwards. {@link #close()}
+ * removes all temporary files and must be called in any case.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class ExternalSorter implements Iterable<String>, Closeable {
+    /**
+     * Estimated memory overhead of one string in the buffer besides its
+     * chars: object headers, fields, array header and list reference.
+     */
+    private static final int STRING_OVERHEAD = 64;
+    /**
+     * Maximum number of runs merged at once.
+     */
+    private static final int MAX_FAN_IN = 64;
+    /**
+     * Buffer size for reading and writing runs.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Encoding of the strings within runs.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Memory budget in bytes for the strings held in memory.
+     */
+    private final long memoryBudget;
+    /**
+     * Directory for the temporary files; <code>null</code> for the default.
+     */
+    private final File tempDir;
+    /**
+     * Strings not yet written to a run.
+     */
+    private final List<String> buffer = new ArrayList<String>();
+    /**
+     * Estimated memory used by {@link #buffer}.
+     */
+    private long bufferBytes = 0;
+    /**
+     * The runs written so far.
+     */
+    private final List<File> runs = new ArrayList<File>();
+    /**
+     * Readers opened for merging.
+     */
+    private final List<RunReader> readers = new ArrayList<RunReader>();
+    /**
+     * Set as soon as iteration started.
+     */
+    private boolean iterated = false;
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            memory in bytes to use for sorting in memory
+     * @param tempDir
+     *            directory for temporary files; <code>null</code> for the
+     *            default temporary directory
+     */
+    public ExternalSorter(final long memoryBudget, final File tempDir) {
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Adds a string to sort.
+     *
+     * @param value
+     *            the string to add
+     * @throws IOException
+     *             if writing a run failed
+     */
+    public void add(final String value) throws IOException {
+        if (iterated) {
+            throw new IllegalStateException("Sorter has already been iterated.");
+        }
+        buffer.add(value);
+        bufferBytes += STRING_OVERHEAD + 2L * value.length();
+        if (bufferBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * @return number of runs written to temporary files so far
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Sorts the buffer and writes it as run.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    private void spill() throws IOException {
+        Collections.sort(buffer);
+        runs.add(writeRun(buffer.iterator()));
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    /**
+     * Writes sorted strings to a new run, skipping duplicates.
+     *
+     * @param sorted
+     *            the sorted strings
+     * @return the run
+     * @throws IOException
+     *             if writing failed
+     */
+    private File writeRun(final Iterator<String> sorted) throws IOException {
+        final File run = File.createTempFile("sort", ".run", tempDir);
+        final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+        try {
+            String previous = null;
+            while (sorted.hasNext()) {
+                final String value = sorted.next();
+                if (!value.equals(previous)) {
+                    final byte[] bytes = value.getBytes(ENCODING);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    previous = value;
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        return run;
+    }
+
+    /**
+     * Returns the sorted, deduplicated strings. May only be called once.
+     *
+     * @return iterator over the strings
+     */
+    public Iterator<String> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Sorter can only be iterated once.");
+        }
+        iterated = true;
+        Collections.sort(buffer);
+        if (runs.isEmpty()) {
+            return new DistinctIterator(buffer.iterator());
+        }
+        try {
+            while (runs.size() > MAX_FAN_IN) {
+                final List<File> batch = new ArrayList<File>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                runs.add(writeRun(merge(batch, Collections.<String> emptyList().iterator())));
+                closeReaders();
+                for (final File run : batch) {
+                    run.delete();
+                }
+            }
+            return merge(runs, buffer.iterator());
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Unable to merge sorted runs.", e);
+        }
+    }
+
+    /**
+     * Merges the given runs and the sorted in-memory strings.
+     *
+     * @param toMerge
+     *            the runs to merge
+     * @param inMemory
+     *            sorted strings held in memory
+     * @return iterator over the merged, deduplicated strings
+     * @throws IOException
+     *             if opening a run failed
+     */
+    private Iterator<String> merge(final List<File> toMerge, final Iterator<String> inMemory)
+            throws IOException {
+        final PriorityQueue<Source> sources = new PriorityQueue<Source>();
+        for (final File run : toMerge) {
+            final RunReader reader = new RunReader(run);
+            readers.add(reader);
+            if (reader.advance()) {
+                sources.add(reader);
+            }
+        }
+        final Source memorySource = new IteratorSource(inMemory);
+        if (memorySource.advance()) {
+            sources.add(memorySource);
+        }
+        return new DistinctIterator(new MergeIterator(sources));
+    }
+
+    /**
+     * Closes all readers opened so far.
+     */
+    private void closeReaders() {
+        for (final RunReader reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+    }
+
+    /**
+     * Deletes all temporary files.
+     */
+    public void close() {
+        closeReaders();
+        for (final File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /**
+     * A sorted source of strings taking part in a merge.
+     */
+    private abstract static class Source implements Comparable<Source> {
+        /**
+         * The current string.
+         */
+        private String current = null;
+
+        /**
+         * @return the current string
+         */
+        String getCurrent() {
+            return current;
+        }
+
+        /**
+         * Moves to the next string.
+         *
+         * @return <code>false</code> if the source is exhausted
+         * @throws IOException
+         *             if reading failed
+         */
+        boolean advance() throws IOException {
+            current = read();
+            return current != null;
+        }
+
+        /**
+         * Reads the next string.
+         *
+         * @return the next string; <code>null</code> if exhausted
+         * @throws IOException
+         *             if reading failed
+         */
+        abstract String read() throws IOException;
+
+        /** {@inheritDoc} */
+        public int compareTo(final Source other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    /**
+     * Source reading a run.
+     */
+    private static class RunReader extends Source {
+        /**
+         * The stream to read from.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Constructor.
+         *
+         * @param run
+         *            the run to read
+         * @throws IOException
+         *             if the run cannot be opened
+         */
+        RunReader(final File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER_SIZE));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        String read() throws IOException {
+            final int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            final int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8
+                    | in.readUnsignedByte();
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, ENCODING);
+        }
+
+        /**
+         * Closes the stream, ignoring errors.
+         */
+        void close() {
+            try {
+                in.close();
+            }
+            catch (final IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+
+    /**
+     * Source reading from an iterator.
+     */
+    private static class IteratorSource extends Source {
+        /**
+         * The iterator.
+         */
+        private final Iterator<String> iterator;
+
+        /**
+         * Constructor.
+         *
+         * @param iterator
+         *            the iterator to read from
+         */
+        IteratorSource(final Iterator<String> iterator) {
+            this.iterator = iterator;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        String read() {
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Iterator merging several sources.
+     */
+    private static class MergeIterator implements Iterator<String> {
+        /**
+         * The sources which are not exhausted yet, ordered by their current
+         * string.
+         */
+        private final PriorityQueue<Source> sources;
+
+        /**
+         * Constructor.
+         *
+         * @param sources
+         *            the sources which have been advanced to their first
+         *            string
+         */
+        MergeIterator(final PriorityQueue<Source> sources) {
+            this.sources = sources;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            return !sources.isEmpty();
+        }
+
+        /** {@inheritDoc} */
+        public String next() {
+            final Source source = sources.poll();
+            if (source == null) {
+                throw new NoSuchElementException();
+            }
+            final String result = source.getCurrent();
+            try {
+                if (source.advance()) {
+                    sources.add(source);
+                }
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException("Unable to read sorted run.", e);
+            }
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Iterator skipping adjacent duplicates of a sorted iterator.
+     */
+    private static class DistinctIterator implements Iterator<String> {
+        /**
+         * The sorted iterator.
+         */
+        private final Iterator<String> sorted;
+        /**
+         * The next string to return; <code>null</code> if not fetched yet.
+         */
+        private String next = null;
+        /**
+         * The string returned last.
+         */
+        private String previous = null;
+
+        /**
+         * Constructor.
+         *
+         * @param sorted
+         *            the sorted iterator
+         */
+        DistinctIterator(final Iterator<String> sorted) {
+            this.sorted = sorted;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            while (next == null && sorted.hasNext()) {
+                final String candidate = sorted.next();
+                if (!candidate.equals(previous)) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        /** {@inheritDoc} */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            previous = next;
+            next = null;
+            return previous;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
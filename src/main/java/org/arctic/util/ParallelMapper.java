@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Maps the elements of an {@link Iterable} on several threads while keeping
+ * their order.
+ * <p>
+ * The iterator returned by {@link #map(Iterable)} submits the mapping of up to
+ * a given number of elements ahead to an executor and returns the results in
+ * the order of the source elements, waiting for each one as required. Thus
+ * at most that many results are held in memory, no matter how many elements
+ * the source provides.
+ * </p>
+ * <p>
+ * If a mapping fails, the iterator cancels the pending mappings and throws an
+ * {@link IllegalStateException} caused by the failure. Mappings pending when
+ * an iterator is abandoned are not cancelled but still run to completion.
+ * </p>
+ *
+ * @param <S>
+ *            type of the source elements
+ * @param <T>
+ *            type of the results
+ * @author Mark Michaelis
+ */
+public class ParallelMapper<S, T> {
+    /**
+     * The mapping applied to each element.
+     *
+     * @param <S>
+     *            type of the source elements
+     * @param <T>
+     *            type of the results
+     */
+    public interface Function<S, T> {
+        /**
+         * Maps one element. Called concurrently by several threads.
+         *
+         * @param element
+         *            the element to map
+         * @return the result; must not be <code>null</code>
+         * @throws Exception
+         *             if the element cannot be mapped
+         */
+        T apply(S element) throws Exception;
+    }
+
+    /**
+     * Runs the mappings.
+     */
+    private final ExecutorService executor;
+    /**
+     * Maximum number of elements mapped ahead of the consumer.
+     */
+    private final int lookahead;
+    /**
+     * The mapping.
+     */
+    private final Function<S, T> function;
+
+    /**
+     * Constructor.
+     *
+     * @param executor
+     *            runs the mappings; not shut down by this mapper
+     * @param lookahead
+     *            maximum number of elements mapped ahead of the consumer
+     * @param function
+     *            the mapping
+     */
+    public ParallelMapper(final ExecutorService executor, final int lookahead,
+            final Function<S, T> function) {
+        if (lookahead < 1) {
+            throw new IllegalArgumentException("Lookahead must be at least 1.");
+        }
+        this.executor = executor;
+        this.lookahead = lookahead;
+        this.function = function;
+    }
+
+    /**
+     * Maps the given elements.
+     *
+     * @param source
+     *            the elements to map
+     * @return the results in the order of the source elements
+     */
+    public Iterable<T> map(final Iterable<S> source) {
+        return new Iterable<T>() {
+            public Iterator<T> iterator() {
+                return new MappingIterator(source.iterator());
+            }
+        };
+    }
+
+    /**
+     * Iterator submitting the mappings ahead.
+     */
+    private class MappingIterator implements Iterator<T> {
+        /**
+         * The source elements not submitted yet.
+         */
+        private final Iterator<S> source;
+        /**
+         * The submitted mappings in source order.
+         */
+        private final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+
+        /**
+         * Constructor.
+         *
+         * @param source
+         *            the source elements
+         */
+        MappingIterator(final Iterator<S> source) {
+            this.source = source;
+            fill();
+        }
+
+        /**
+         * Submits source elements until the lookahead is reached.
+         */
+        private void fill() {
+            while (pending.size() < lookahead && source.hasNext()) {
+                final S element = source.next();
+                pending.add(executor.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        return function.apply(element);
+                    }
+                }));
+            }
+        }
+
+        /**
+         * Cancels all pending mappings.
+         */
+        private void cancel() {
+            for (final Future<T> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            return !pending.isEmpty();
+        }
+
+        /** {@inheritDoc} */
+        public T next() {
+            if (pending.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            final Future<T> head = pending.removeFirst();
+            final T result;
+            try {
+                result = head.get();
+            }
+            catch (final InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for mapping.", e);
+            }
+            catch (final ExecutionException e) {
+                cancel();
+                throw new IllegalStateException("Mapping failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            fill();
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compiles Ant-style path patterns such as <code>**&#47;*.java</code> into
+ * one regular expression, so that matching a path does not have to tokenize
+ * pattern and path again and again.
+ * <p>
+ * As in Ant, <code>*</code> matches any number of chars within a path
+ * component, <code>?</code> exactly one char within a path component and
+ * <code>**</code> any number of path components. A pattern ending with a
+ * separator is treated as if <code>**</code> had been appended. Slashes and
+ * backslashes are both accepted as separator, in the patterns as well as in
+ * the matched paths. A pattern has to match the complete path.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public final class PathPattern {
+    /**
+     * Separators accepted in patterns and paths.
+     */
+    private static final String SEPARATORS = "/\\";
+    /**
+     * Regular expression for one separator.
+     */
+    private static final String SEPARATOR_REGEX = "[/\\\\]";
+    /**
+     * Regular expression for any char except separators.
+     */
+    private static final String NON_SEPARATOR_REGEX = "[^/\\\\]";
+    /**
+     * Pattern component matching any number of path components.
+     */
+    private static final String ANY_COMPONENTS = "**";
+
+    /**
+     * Utility class.
+     */
+    private PathPattern() {
+    }
+
+    /**
+     * Compiles a list of patterns into one regular expression matching a path
+     * if any of the patterns matches it.
+     *
+     * @param patterns
+     *            the patterns, separated by commas or spaces
+     * @param caseSensitive
+     *            <code>false</code> to ignore case
+     * @return the compiled patterns
+     * @throws IllegalArgumentException
+     *             if no pattern is given
+     */
+    public static Pattern compile(final String patterns, final boolean caseSensitive) {
+        final StringBuilder regex = new StringBuilder();
+        for (final String pattern : patterns.split("[,\\s]+")) {
+            if (pattern.length() > 0) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append("(?:");
+                appendRegex(regex, pattern);
+                regex.append(')');
+            }
+        }
+        if (regex.length() == 0) {
+            throw new IllegalArgumentException("No pattern given: \"" + patterns + "\"");
+        }
+        return Pattern.compile(regex.toString(), caseSensitive ? 0 : Pattern.CASE_INSENSITIVE
+                | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Appends the regular expression of one pattern.
+     *
+     * @param regex
+     *            where to append to
+     * @param pattern
+     *            the pattern
+     */
+    private static void appendRegex(final StringBuilder regex, final String pattern) {
+        String normalized = pattern;
+        if (SEPARATORS.indexOf(normalized.charAt(normalized.length() - 1)) >= 0) {
+            normalized += ANY_COMPONENTS;
+        }
+        final String[] components = normalized.split(SEPARATOR_REGEX, -1);
+        // true if the previous component is ** and so already matched the separator
+        boolean separatorMatched = true;
+        for (int i = 0; i < components.length; i++) {
+            final String component = components[i];
+            final boolean last = i == components.length - 1;
+            if (ANY_COMPONENTS.equals(component)) {
+                if (last) {
+                    // "a/**" matches "a" and everything below
+                    regex.append(separatorMatched ? ".*" : "(?:" + SEPARATOR_REGEX + ".*)?");
+                }
+                else {
+                    regex.append(separatorMatched ? "" : SEPARATOR_REGEX).append("(?:.*").append(
+                            SEPARATOR_REGEX).append(")?");
+                }
+                separatorMatched = true;
+            }
+            else {
+                if (!separatorMatched) {
+                    regex.append(SEPARATOR_REGEX);
+                }
+                appendComponentRegex(regex, component);
+                separatorMatched = false;
+            }
+        }
+    }
+
+    /**
+     * Appends the regular expression of one pattern component.
+     *
+     * @param regex
+     *            where to append to
+     * @param component
+     *            the component, without separators
+     */
+    private static void appendComponentRegex(final StringBuilder regex, final String component) {
+        int literalStart = 0;
+        for (int i = 0; i < component.length(); i++) {
+            final char c = component.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(component.substring(literalStart, i)));
+                }
+                regex.append(NON_SEPARATOR_REGEX).append(c == '*' ? "*" : "");
+                literalStart = i + 1;
+            }
+        }
+        if (component.length() > literalStart) {
+            regex.append(Pattern.quote(component.substring(literalStart)));
+        }
+    }
+}
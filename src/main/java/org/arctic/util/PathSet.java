@@ -0,0 +1,681 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory compact set of paths which stores common prefixes only once.
+ * <p>
+ * Paths are split into segments after each <code>/</code> or <code>\</code>,
+ * the separator being part of the segment. Every distinct segment is stored
+ * once as UTF-8 bytes in an arena, and every distinct path prefix is a node of
+ * a trie which only consists of a reference to its parent node and to its
+ * last segment. All structures are primitive arrays with open addressing
+ * indexes, so there is no object per path or segment. The paths are rebuilt
+ * when iterating the set.
+ * </p>
+ * <p>
+ * The set does not support removal of single elements and is not
+ * thread-safe. The iteration order is the order in which the paths (or the
+ * longest of their prefixes being a path of its own) have been added.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public class PathSet extends AbstractSet<String> {
+    /**
+     * Initial capacity for nodes and segments.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * Initial capacity of the segment arena in bytes.
+     */
+    private static final int INITIAL_ARENA_CAPACITY = 1024;
+    /**
+     * Parent of the nodes representing the first segment of a path.
+     */
+    private static final int ROOT = -1;
+    /**
+     * Marks a free slot in the indexes.
+     */
+    private static final int FREE = 0;
+    /**
+     * Bits per int for the terminal node bit set.
+     */
+    private static final int BITS_PER_INT = 32;
+    /**
+     * Shift to get the int holding the bit of a node.
+     */
+    private static final int BIT_INDEX_SHIFT = 5;
+    /**
+     * Mask to get the bit of a node within an int.
+     */
+    private static final int BIT_MASK = 31;
+    /**
+     * Hash multiplier.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+    /**
+     * Golden ratio constant to spread hash codes.
+     */
+    private static final int HASH_SPREAD = 0x9E3779B9;
+    /**
+     * Upper bound of one byte UTF-8 encoded chars.
+     */
+    private static final int MAX_ONE_BYTE = 0x7F;
+    /**
+     * Upper bound of two byte UTF-8 encoded chars.
+     */
+    private static final int MAX_TWO_BYTES = 0x7FF;
+    /**
+     * Mask of the bits of a UTF-8 continuation byte.
+     */
+    private static final int CONTINUATION_MASK = 0x3F;
+    /**
+     * Prefix of a UTF-8 continuation byte.
+     */
+    private static final int CONTINUATION = 0x80;
+    /**
+     * Prefix of a UTF-8 two byte sequence.
+     */
+    private static final int TWO_BYTES = 0xC0;
+    /**
+     * Prefix of a UTF-8 three byte sequence.
+     */
+    private static final int THREE_BYTES = 0xE0;
+    /**
+     * Mask of the payload of the first byte of a two byte sequence.
+     */
+    private static final int TWO_BYTES_MASK = 0x1F;
+    /**
+     * Mask of the payload of the first byte of a three byte sequence.
+     */
+    private static final int THREE_BYTES_MASK = 0x0F;
+    /**
+     * Bits of payload per continuation byte.
+     */
+    private static final int CONTINUATION_BITS = 6;
+    /**
+     * Mask for a byte value.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Maximum number of bytes a char is encoded to.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Parent node of each node; {@link #ROOT} for first segments.
+     */
+    private int[] nodeParent = new int[INITIAL_CAPACITY];
+    /**
+     * Last segment of each node.
+     */
+    private int[] nodeSegment = new int[INITIAL_CAPACITY];
+    /**
+     * Bit set of nodes which are contained in the set as path of their own.
+     */
+    private int[] terminal = new int[INITIAL_CAPACITY / BITS_PER_INT];
+    /**
+     * Number of nodes.
+     */
+    private int nodeCount = 0;
+    /**
+     * Open addressing index from parent and segment to node id plus one.
+     */
+    private int[] nodeIndex = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * UTF-8 bytes of all segments.
+     */
+    private byte[] arena = new byte[INITIAL_ARENA_CAPACITY];
+    /**
+     * Number of bytes used in the arena.
+     */
+    private int arenaSize = 0;
+    /**
+     * Start of each segment in the arena; the end is the start of the next
+     * segment.
+     */
+    private int[] segmentOffset = new int[INITIAL_CAPACITY + 1];
+    /**
+     * Number of segments.
+     */
+    private int segmentCount = 0;
+    /**
+     * Open addressing index from segment bytes to segment id plus one.
+     */
+    private int[] segmentIndex = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Number of paths in this set.
+     */
+    private int size = 0;
+    /**
+     * Whether the empty path is contained, which does not have a node.
+     */
+    private boolean containsEmpty = false;
+    /**
+     * Buffer for encoding segments.
+     */
+    private byte[] scratch = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Constructor.
+     */
+    public PathSet() {
+        // nothing to do
+    }
+
+    /**
+     * Adds a path.
+     *
+     * @param path
+     *            the path to add
+     * @return <code>true</code> if the path has not been contained before
+     */
+    @Override
+    public boolean add(final String path) {
+        if (path.length() == 0) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int node = ROOT;
+        int start = 0;
+        while (start < path.length()) {
+            final int end = segmentEnd(path, start);
+            node = internNode(node, internSegment(encode(path, start, end)));
+            start = end;
+        }
+        if (isTerminal(node)) {
+            return false;
+        }
+        terminal[node >>> BIT_INDEX_SHIFT] |= 1 << (node & BIT_MASK);
+        size++;
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(final Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        final String path = (String) o;
+        if (path.length() == 0) {
+            return containsEmpty;
+        }
+        int node = ROOT;
+        int start = 0;
+        while (start < path.length()) {
+            final int end = segmentEnd(path, start);
+            final int length = encode(path, start, end);
+            final int segment = findSegment(length, hashSegment(scratch, 0, length));
+            if (segment < 0) {
+                return false;
+            }
+            node = findNode(node, segment, hashNode(node, segment));
+            if (node < 0) {
+                return false;
+            }
+            start = end;
+        }
+        return isTerminal(node);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        nodeParent = new int[INITIAL_CAPACITY];
+        nodeSegment = new int[INITIAL_CAPACITY];
+        terminal = new int[INITIAL_CAPACITY / BITS_PER_INT];
+        nodeCount = 0;
+        nodeIndex = new int[INITIAL_CAPACITY * 2];
+        arena = new byte[INITIAL_ARENA_CAPACITY];
+        arenaSize = 0;
+        segmentOffset = new int[INITIAL_CAPACITY + 1];
+        segmentCount = 0;
+        segmentIndex = new int[INITIAL_CAPACITY * 2];
+        size = 0;
+        containsEmpty = false;
+    }
+
+    /**
+     * Iterates the paths. Removal is not supported.
+     *
+     * @return iterator over all paths
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new PathIterator();
+    }
+
+    /**
+     * Number of bytes currently allocated by this set, for diagnostic
+     * purposes.
+     *
+     * @return approximate number of bytes allocated
+     */
+    public long getAllocatedBytes() {
+        final long ints =
+                (long) nodeParent.length + nodeSegment.length + terminal.length + nodeIndex.length
+                        + segmentOffset.length + segmentIndex.length;
+        return ints * (Integer.SIZE / Byte.SIZE) + arena.length + scratch.length;
+    }
+
+    /**
+     * Evaluates the end of the segment starting at the given index.
+     *
+     * @param path
+     *            the path
+     * @param start
+     *            start of the segment
+     * @return index after the segment including its separator
+     */
+    private static int segmentEnd(final String path, final int start) {
+        int end = start;
+        while (end < path.length()) {
+            final char c = path.charAt(end++);
+            if (c == '/' || c == '\\') {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @param node
+     *            the node
+     * @return <code>true</code> if the node is a path of this set
+     */
+    private boolean isTerminal(final int node) {
+        return (terminal[node >>> BIT_INDEX_SHIFT] & 1 << (node & BIT_MASK)) != 0;
+    }
+
+    /**
+     * Encodes the chars of the segment into {@link #scratch}. Every char is
+     * encoded separately, so unpaired surrogates survive the round trip.
+     *
+     * @param path
+     *            the path
+     * @param start
+     *            start of the segment
+     * @param end
+     *            end of the segment
+     * @return number of bytes written to {@link #scratch}
+     */
+    private int encode(final String path, final int start, final int end) {
+        final int maxLength = (end - start) * MAX_BYTES_PER_CHAR;
+        if (scratch.length < maxLength) {
+            scratch = new byte[Math.max(maxLength, scratch.length * 2)];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            final char c = path.charAt(i);
+            if (c <= MAX_ONE_BYTE) {
+                scratch[length++] = (byte) c;
+            }
+            else if (c <= MAX_TWO_BYTES) {
+                scratch[length++] = (byte) (TWO_BYTES | c >> CONTINUATION_BITS);
+                scratch[length++] = (byte) (CONTINUATION | c & CONTINUATION_MASK);
+            }
+            else {
+                scratch[length++] = (byte) (THREE_BYTES | c >> CONTINUATION_BITS * 2);
+                scratch[length++] = (byte) (CONTINUATION | c >> CONTINUATION_BITS & CONTINUATION_MASK);
+                scratch[length++] = (byte) (CONTINUATION | c & CONTINUATION_MASK);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Appends the segment with the given id to the builder.
+     *
+     * @param segment
+     *            the segment id
+     * @param builder
+     *            receives the decoded chars
+     */
+    private void decode(final int segment, final StringBuilder builder) {
+        final int end = segmentOffset[segment + 1];
+        int i = segmentOffset[segment];
+        while (i < end) {
+            final int b = arena[i++] & BYTE_MASK;
+            if (b <= MAX_ONE_BYTE) {
+                builder.append((char) b);
+            }
+            else if (b < THREE_BYTES) {
+                builder.append((char) ((b & TWO_BYTES_MASK) << CONTINUATION_BITS
+                        | arena[i++] & CONTINUATION_MASK));
+            }
+            else {
+                final int c = (b & THREE_BYTES_MASK) << CONTINUATION_BITS * 2
+                        | (arena[i++] & CONTINUATION_MASK) << CONTINUATION_BITS;
+                builder.append((char) (c | arena[i++] & CONTINUATION_MASK));
+            }
+        }
+    }
+
+    /**
+     * Hashes bytes.
+     *
+     * @param bytes
+     *            the bytes
+     * @param offset
+     *            start of the bytes to hash
+     * @param length
+     *            number of bytes to hash
+     * @return the hash
+     */
+    private static int hashSegment(final byte[] bytes, final int offset, final int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = HASH_MULTIPLIER * hash + bytes[i];
+        }
+        return hash * HASH_SPREAD;
+    }
+
+    /**
+     * Hashes a node key.
+     *
+     * @param parent
+     *            parent node
+     * @param segment
+     *            segment id
+     * @return the hash
+     */
+    private static int hashNode(final int parent, final int segment) {
+        return (HASH_MULTIPLIER * parent + segment) * HASH_SPREAD;
+    }
+
+    /**
+     * Looks up the segment currently held in {@link #scratch}.
+     *
+     * @param length
+     *            number of bytes of the segment
+     * @param hash
+     *            hash of the segment
+     * @return segment id; -1 if unknown
+     */
+    private int findSegment(final int length, final int hash) {
+        final int mask = segmentIndex.length - 1;
+        int slot = hash & mask;
+        while (segmentIndex[slot] != FREE) {
+            final int segment = segmentIndex[slot] - 1;
+            if (segmentEquals(segment, length)) {
+                return segment;
+            }
+            slot = slot + 1 & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares a stored segment with the segment in {@link #scratch}.
+     *
+     * @param segment
+     *            the stored segment
+     * @param length
+     *            length of the segment in {@link #scratch}
+     * @return <code>true</code> if equal
+     */
+    private boolean segmentEquals(final int segment, final int length) {
+        final int offset = segmentOffset[segment];
+        if (segmentOffset[segment + 1] - offset != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of the segment in {@link #scratch}, adding it if unknown.
+     *
+     * @param length
+     *            number of bytes of the segment
+     * @return segment id
+     */
+    private int internSegment(final int length) {
+        final int hash = hashSegment(scratch, 0, length);
+        final int existing = findSegment(length, hash);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (arenaSize + length > arena.length) {
+            arena = grow(arena, arenaSize + length);
+        }
+        System.arraycopy(scratch, 0, arena, arenaSize, length);
+        arenaSize += length;
+        if (segmentCount + 2 > segmentOffset.length) {
+            segmentOffset = grow(segmentOffset, segmentCount + 2);
+        }
+        final int segment = segmentCount++;
+        segmentOffset[segment + 1] = arenaSize;
+        if (segmentCount * 2 > segmentIndex.length) {
+            rehashSegments();
+        }
+        else {
+            insert(segmentIndex, hash, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Looks up a node.
+     *
+     * @param parent
+     *            parent node
+     * @param segment
+     *            last segment
+     * @param hash
+     *            hash of parent and segment
+     * @return node id; -1 if unknown
+     */
+    private int findNode(final int parent, final int segment, final int hash) {
+        final int mask = nodeIndex.length - 1;
+        int slot = hash & mask;
+        while (nodeIndex[slot] != FREE) {
+            final int node = nodeIndex[slot] - 1;
+            if (nodeParent[node] == parent && nodeSegment[node] == segment) {
+                return node;
+            }
+            slot = slot + 1 & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the node for the given parent and segment, adding it if
+     * unknown.
+     *
+     * @param parent
+     *            parent node
+     * @param segment
+     *            last segment
+     * @return node id
+     */
+    private int internNode(final int parent, final int segment) {
+        final int hash = hashNode(parent, segment);
+        final int existing = findNode(parent, segment, hash);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (nodeCount == nodeParent.length) {
+            nodeParent = grow(nodeParent, nodeCount + 1);
+            nodeSegment = grow(nodeSegment, nodeCount + 1);
+            terminal = grow(terminal, nodeParent.length / BITS_PER_INT + 1);
+        }
+        final int node = nodeCount++;
+        nodeParent[node] = parent;
+        nodeSegment[node] = segment;
+        if (nodeCount * 2 > nodeIndex.length) {
+            rehashNodes();
+        }
+        else {
+            insert(nodeIndex, hash, node);
+        }
+        return node;
+    }
+
+    /**
+     * Inserts an id into an index at the first free slot for the hash.
+     *
+     * @param index
+     *            the index
+     * @param hash
+     *            hash of the entry
+     * @param id
+     *            the id to insert
+     */
+    private static void insert(final int[] index, final int hash, final int id) {
+        final int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != FREE) {
+            slot = slot + 1 & mask;
+        }
+        index[slot] = id + 1;
+    }
+
+    /**
+     * Doubles the segment index and re-inserts all segments.
+     */
+    private void rehashSegments() {
+        segmentIndex = new int[segmentIndex.length * 2];
+        for (int segment = 0; segment < segmentCount; segment++) {
+            final int offset = segmentOffset[segment];
+            insert(segmentIndex, hashSegment(arena, offset, segmentOffset[segment + 1] - offset), segment);
+        }
+    }
+
+    /**
+     * Doubles the node index and re-inserts all nodes.
+     */
+    private void rehashNodes() {
+        nodeIndex = new int[nodeIndex.length * 2];
+        for (int node = 0; node < nodeCount; node++) {
+            insert(nodeIndex, hashNode(nodeParent[node], nodeSegment[node]), node);
+        }
+    }
+
+    /**
+     * Grows an array to at least the given size.
+     *
+     * @param array
+     *            the array to grow
+     * @param minSize
+     *            minimum size
+     * @return the new array containing the elements of the old one
+     */
+    private static int[] grow(final int[] array, final int minSize) {
+        final int[] result = new int[Math.max(minSize, array.length * 2)];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Grows an array to at least the given size.
+     *
+     * @param array
+     *            the array to grow
+     * @param minSize
+     *            minimum size
+     * @return the new array containing the elements of the old one
+     */
+    private static byte[] grow(final byte[] array, final int minSize) {
+        final byte[] result = new byte[Math.max(minSize, array.length * 2)];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Iterator rebuilding the paths from the terminal nodes.
+     */
+    private class PathIterator implements Iterator<String> {
+        /**
+         * Whether the empty path still has to be returned.
+         */
+        private boolean emptyPending = containsEmpty;
+        /**
+         * Next node to check.
+         */
+        private int node = 0;
+        /**
+         * Buffer for the chain of segments of a path.
+         */
+        private int[] chain = new int[INITIAL_CAPACITY];
+        /**
+         * Buffer for building paths.
+         */
+        private final StringBuilder builder = new StringBuilder();
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            if (emptyPending) {
+                return true;
+            }
+            while (node < nodeCount && !isTerminal(node)) {
+                node++;
+            }
+            return node < nodeCount;
+        }
+
+        /** {@inheritDoc} */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (emptyPending) {
+                emptyPending = false;
+                return "";
+            }
+            int depth = 0;
+            for (int current = node; current != ROOT; current = nodeParent[current]) {
+                if (depth == chain.length) {
+                    chain = grow(chain, depth + 1);
+                }
+                chain[depth++] = nodeSegment[current];
+            }
+            builder.setLength(0);
+            while (depth > 0) {
+                decode(chain[--depth], builder);
+            }
+            node++;
+            return builder.toString();
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException("Removal of paths is not supported.");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pipe handing over elements from one producer thread to one
+ * consumer thread.
+ * <p>
+ * The producer adds elements via {@link #put(Object)} which blocks as long as
+ * the pipe is full and signals the end of input via {@link #close()} or
+ * {@link #fail(Throwable)}. The consumer iterates the pipe exactly once; the
+ * iterator blocks until the next element is available and ends as soon as the
+ * producer closed the pipe. If the consumer gives up it calls
+ * {@link #cancel()} which releases a blocked producer.
+ * </p>
+ * 
+ * @param <E>
+ *            type of the elements
+ * @author Mark Michaelis
+ */
+public class Pipe<E> implements Iterable<E> {
+    /**
+     * Marker signalling the end of input.
+     */
+    private static final Object END = new Object();
+    /**
+     * Interval in milliseconds in which a blocked producer checks for
+     * cancellation.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100L;
+
+    /**
+     * The elements handed over.
+     */
+    private final BlockingQueue<Object> queue;
+    /**
+     * Set if the consumer is not interested in any more elements.
+     */
+    private volatile boolean cancelled = false;
+    /**
+     * Set if the producer failed.
+     */
+    private volatile Throwable failure = null;
+    /**
+     * Set if the iterator has been requested already.
+     */
+    private boolean iterated = false;
+
+    /**
+     * Constructor.
+     * 
+     * @param capacity
+     *            number of elements the pipe can hold before the producer
+     *            gets blocked
+     */
+    public Pipe(final int capacity) {
+        queue = new ArrayBlockingQueue<Object>(capacity);
+    }
+
+    /**
+     * Add an element, waiting as long as the pipe is full.
+     * 
+     * @param element
+     *            the element to add; must not be <code>null</code>
+     * @return <code>true</code> if the element has been added;
+     *         <code>false</code> if the consumer cancelled the pipe
+     * @throws InterruptedException
+     *             if the producer got interrupted while waiting
+     */
+    public boolean put(final E element) throws InterruptedException {
+        if (element == null) {
+            throw new IllegalArgumentException("Element must not be null.");
+        }
+        return offer(element);
+    }
+
+    /**
+     * Signals that the producer is done. The consumer will receive all
+     * elements added so far.
+     * 
+     * @throws InterruptedException
+     *             if the producer got interrupted while waiting for space in
+     *             the pipe
+     */
+    public void close() throws InterruptedException {
+        offer(END);
+    }
+
+    /**
+     * Signals that the producer failed. The consumer will receive all elements
+     * added so far; afterwards the iterator throws an
+     * {@link IllegalStateException} caused by the given failure.
+     * 
+     * @param cause
+     *            the reason of the failure
+     * @throws InterruptedException
+     *             if the producer got interrupted while waiting for space in
+     *             the pipe
+     */
+    public void fail(final Throwable cause) throws InterruptedException {
+        failure = cause;
+        close();
+    }
+
+    /**
+     * Signals that the consumer is not interested in any more elements. Any
+     * blocked or subsequent call to {@link #put(Object)} returns
+     * <code>false</code>.
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    /**
+     * @return <code>true</code> if the consumer cancelled the pipe
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits until the element could be added or the pipe got cancelled.
+     * 
+     * @param element
+     *            element to add
+     * @return <code>true</code> if the element got added
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private boolean offer(final Object element) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(element, CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                // cancel() may have freed the space we just used
+                return !cancelled;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the blocking iterator over the elements. May only be called
+     * once and only by the consumer thread.
+     * 
+     * @return iterator over the elements handed over by the producer
+     */
+    public synchronized Iterator<E> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Pipe can only be iterated once.");
+        }
+        iterated = true;
+        return new PipeIterator();
+    }
+
+    /**
+     * Iterator taking the elements from the queue.
+     */
+    private class PipeIterator implements Iterator<E> {
+        /**
+         * The element to return next; <code>null</code> if not fetched yet.
+         */
+        private Object next = null;
+
+        /**
+         * Fetches the next element if not done yet.
+         * 
+         * @return the next element or {@link Pipe#END}
+         */
+        private Object fetch() {
+            if (next == null) {
+                try {
+                    next = queue.take();
+                }
+                catch (final InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for next element.", e);
+                }
+            }
+            if (next == END && failure != null) {
+                throw new IllegalStateException("Producer failed.", failure);
+            }
+            return next;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasNext() {
+            return fetch() != END;
+        }
+
+        /** {@inheritDoc} */
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final E result = (E) next;
+            next = null;
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
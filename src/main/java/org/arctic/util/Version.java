@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A version parsed from a file name such as <code>foo-1.10.2.jar</code>, so
+ * that file names can be compared by the versions they contain.
+ * <p>
+ * The name is split into tokens of digits and tokens of letters; all other
+ * chars only separate tokens. A trailing extension without digits, such as
+ * <code>.jar</code>, is ignored. Versions are compared token by token:
+ * numbers by their value, words ignoring case, and a number is greater than
+ * a word. If one version has more tokens, it is greater if its next token is
+ * a number and less otherwise, so that
+ * <code>1.0-beta &lt; 1.0 &lt; 1.0.1</code>.
+ * </p>
+ * <p>
+ * Parsing is done once when creating the version; keep the version instead
+ * of the name to compare many times.
+ * </p>
+ *
+ * @author Mark Michaelis
+ */
+public final class Version implements Comparable<Version> {
+    /**
+     * The tokens; numbers without leading zeros, words in lower case.
+     */
+    private final String[] tokens;
+    /**
+     * For every token whether it is a number.
+     */
+    private final boolean[] numbers;
+
+    /**
+     * Constructor.
+     *
+     * @param tokens
+     *            the tokens
+     * @param numbers
+     *            for every token whether it is a number
+     */
+    private Version(final String[] tokens, final boolean[] numbers) {
+        this.tokens = tokens;
+        this.numbers = numbers;
+    }
+
+    /**
+     * Parses the version of a file name.
+     *
+     * @param name
+     *            the file name, without directories
+     * @return the version
+     */
+    public static Version parse(final String name) {
+        final List<String> tokens = new ArrayList<String>();
+        final List<Boolean> numbers = new ArrayList<Boolean>();
+        final int end = getEnd(name);
+        int start = 0;
+        while (start < end) {
+            final char first = name.charAt(start);
+            if (!Character.isLetterOrDigit(first)) {
+                start++;
+                continue;
+            }
+            final boolean number = Character.isDigit(first);
+            int tokenEnd = start + 1;
+            while (tokenEnd < end && Character.isLetterOrDigit(name.charAt(tokenEnd))
+                    && Character.isDigit(name.charAt(tokenEnd)) == number) {
+                tokenEnd++;
+            }
+            if (number) {
+                // strip leading zeros, so that the value compares by length first
+                int significant = start;
+                while (significant < tokenEnd - 1 && name.charAt(significant) == '0') {
+                    significant++;
+                }
+                tokens.add(name.substring(significant, tokenEnd));
+            }
+            else {
+                tokens.add(name.substring(start, tokenEnd).toLowerCase());
+            }
+            numbers.add(number);
+            start = tokenEnd;
+        }
+        final boolean[] numberFlags = new boolean[numbers.size()];
+        for (int i = 0; i < numberFlags.length; i++) {
+            numberFlags[i] = numbers.get(i);
+        }
+        return new Version(tokens.toArray(new String[tokens.size()]), numberFlags);
+    }
+
+    /**
+     * @param name
+     *            the file name
+     * @return the index after the last char to parse: before a trailing
+     *         extension without digits
+     */
+    private static int getEnd(final String name) {
+        final int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return name.length();
+        }
+        for (int i = dot + 1; i < name.length(); i++) {
+            if (Character.isDigit(name.charAt(i))) {
+                return name.length();
+            }
+        }
+        return dot;
+    }
+
+    /** {@inheritDoc} */
+    public int compareTo(final Version other) {
+        final int common = Math.min(tokens.length, other.tokens.length);
+        for (int i = 0; i < common; i++) {
+            final int result = compareToken(i, other);
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (tokens.length > common) {
+            return numbers[common] ? 1 : -1;
+        }
+        if (other.tokens.length > common) {
+            return other.numbers[common] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares a token to the token of another version at the same index.
+     *
+     * @param index
+     *            index of the tokens
+     * @param other
+     *            the other version
+     * @return negative, zero or positive as this token is less than, equal
+     *         to or greater than the other one
+     */
+    private int compareToken(final int index, final Version other) {
+        final String token = tokens[index];
+        final String otherToken = other.tokens[index];
+        if (numbers[index] != other.numbers[index]) {
+            return numbers[index] ? 1 : -1;
+        }
+        if (numbers[index] && token.length() != otherToken.length()) {
+            return token.length() < otherToken.length() ? -1 : 1;
+        }
+        return token.compareTo(otherToken);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof Version && compareTo((Version) obj) == 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (final String token : tokens) {
+            hash = 31 * hash + token.hashCode();
+        }
+        return hash;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0) {
+                result.append(numbers[i] == numbers[i - 1] ? "." : "-");
+            }
+            result.append(tokens[i]);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.jaxb;
+
+import javax.xml.bind.Marshaller;
+
+import junit.framework.TestCase;
+
+public class MarshallerPoolTest extends TestCase {
+    private static final String CONTEXT_PATH = "org.arctic.ant.jaxb.model";
+
+    public void testSameInstanceForSameContextPath() {
+        assertSame("Pool should be shared for the same context path.", MarshallerPool
+                .getInstance(CONTEXT_PATH), MarshallerPool.getInstance(CONTEXT_PATH));
+    }
+
+    public void testContextIsCached() throws Exception {
+        final MarshallerPool pool = MarshallerPool.getInstance(CONTEXT_PATH);
+        assertSame("Context should only be created once.", pool.getContext(), pool.getContext());
+    }
+
+    public void testReleasedMarshallerIsReused() throws Exception {
+        final MarshallerPool pool = MarshallerPool.getInstance(CONTEXT_PATH);
+        final Marshaller first = pool.acquire();
+        final Marshaller second = pool.acquire();
+        assertNotSame("Marshallers in use must not be handed out twice.", first, second);
+        pool.release(first);
+        assertSame("Released marshaller should be handed out again.", first, pool.acquire());
+        pool.release(first);
+        pool.release(second);
+    }
+
+    public void testReleaseNullIsIgnored() throws Exception {
+        final MarshallerPool pool = MarshallerPool.getInstance(CONTEXT_PATH);
+        pool.release(null);
+        assertNotNull("Pool should still create marshallers.", pool.acquire());
+    }
+}
@@ -0,0 +1,1050 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.Permission;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.arctic.io.BinaryListingReader;
+import org.arctic.io.BinaryListingWriter;
+import org.arctic.io.ChannelWriter;
+import org.arctic.io.CompressingChannel;
+import org.arctic.io.JsonLinesWriter;
+import org.arctic.io.PathTreeWriter;
+import org.arctic.util.PathSet;
+
+/**
+ * Simple benchmarks for {@link EchoFiles}. Not run as part of the test suite;
+ * start it via {@link #main(String[])} with the name of the scenario to run,
+ * e.&nbsp;g. <code>xml-latency</code>.
+ * 
+ * @author Mark Michaelis
+ */
+public final class EchoFilesBenchmark {
+    /**
+     * Number of task executions for latency measurements.
+     */
+    private static final int CALLS = 200;
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000d;
+    /**
+     * Bytes per megabyte.
+     */
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+    /**
+     * Line separator as used by {@link EchoFiles}.
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    /**
+     * Synthetic paths to write, so that creating them is not measured.
+     */
+    private static final String[] PATH_POOL = new String[64 * 1024];
+    /**
+     * Size of each file in bytes for the checksum scenario, see
+     * <code>benchmark.checksum.fileSize</code>.
+     */
+    private static final int CHECKSUM_FILE_SIZE = Integer.getInteger("benchmark.checksum.fileSize",
+            1024 * 1024).intValue();
+    /**
+     * Simulated bandwidth of a slow disk in bytes per second.
+     */
+    private static final long SLOW_DISK_BYTES_PER_SECOND = Long.getLong("benchmark.disk.bytesPerSecond",
+            50L * 1024L * 1024L).longValue();
+
+    static {
+        for (int i = 0; i < PATH_POOL.length; i++) {
+            PATH_POOL[i] = syntheticPath(i);
+        }
+    }
+
+    /**
+     * Directory containing the files to list.
+     */
+    private final File baseDir;
+    /**
+     * The project the benchmarked tasks belong to.
+     */
+    private final Project project;
+
+    /**
+     * Constructor.
+     * 
+     * @param baseDir
+     *            directory containing the files to list
+     */
+    private EchoFilesBenchmark(final File baseDir) {
+        this.baseDir = baseDir;
+        project = new Project();
+        project.init();
+    }
+
+    /**
+     * Runs the benchmark scenario given as first argument.
+     * 
+     * @param args
+     *            scenario name and the number of files (or paths) to create
+     * @throws Exception
+     *             in case of errors
+     */
+    public static void main(final String[] args) throws Exception {
+        final String scenario = args.length > 0 ? args[0] : "xml-latency";
+        final int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final boolean synthetic =
+                "dedup-memory".equals(scenario) || "dedup-overlap".equals(scenario)
+                        || "text-throughput".equals(scenario)
+                        || "binary-listing".equals(scenario) || "compress".equals(scenario)
+                        || "xml-tree".equals(scenario) || "jsonl-throughput".equals(scenario);
+        final File dir = createTree(synthetic ? 0 : files);
+        try {
+            final EchoFilesBenchmark benchmark = new EchoFilesBenchmark(dir);
+            if ("xml-latency".equals(scenario)) {
+                benchmark.xmlLatency();
+            }
+            else if ("dedup-memory".equals(scenario)) {
+                dedupMemory(files);
+            }
+            else if ("dedup-overlap".equals(scenario)) {
+                dedupOverlap(files);
+            }
+            else if ("text-throughput".equals(scenario)) {
+                textThroughput(files);
+            }
+            else if ("binary-listing".equals(scenario)) {
+                binaryListing(files);
+            }
+            else if ("compress".equals(scenario)) {
+                compress(files);
+            }
+            else if ("jsonl-throughput".equals(scenario)) {
+                jsonlThroughput(files);
+            }
+            else if ("xml-tree".equals(scenario)) {
+                xmlTree(files);
+            }
+            else if ("checksum".equals(scenario)) {
+                benchmark.checksum();
+            }
+            else if ("trust-scanner".equals(scenario)) {
+                benchmark.trustScanner();
+            }
+            else if ("fan-out".equals(scenario)) {
+                benchmark.fanOut();
+            }
+            else if ("shards".equals(scenario)) {
+                benchmark.shards();
+            }
+            else if ("find-file".equals(scenario)) {
+                benchmark.findFile();
+            }
+            else {
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+            }
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Measures the latency of the first (cold) and of subsequent (warm)
+     * executions with type xml. For comparison it also measures the cost of
+     * creating an uncached JAXB context as done before contexts were cached.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void xmlLatency() throws Exception {
+        final File out = File.createTempFile("EchoFilesBenchmark", ".xml");
+        try {
+            long start = System.nanoTime();
+            run(EchoFiles.TYPE_XML, out);
+            final long cold = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                run(EchoFiles.TYPE_XML, out);
+            }
+            final long warm = (System.nanoTime() - start) / CALLS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                JAXBContext.newInstance("org.arctic.ant.jaxb.model").createMarshaller();
+            }
+            final long uncached = (System.nanoTime() - start) / CALLS;
+
+            reportTime("cold call", cold);
+            reportTime("warm call (mean)", warm);
+            reportTime("uncached context creation (mean)", uncached);
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * Measures the throughput of listing the files with SHA-256 checksums
+     * using an increasing number of threads. Each file is filled with
+     * <code>benchmark.checksum.fileSize</code> bytes (default 1 MB) first; as
+     * they are written just before, they are read from the page cache.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void checksum() throws Exception {
+        final byte[] content = new byte[CHECKSUM_FILE_SIZE];
+        new Random(42).nextBytes(content);
+        long bytes = 0;
+        for (final File dir : baseDir.listFiles()) {
+            for (final File file : dir.listFiles()) {
+                final FileOutputStream out = new FileOutputStream(file);
+                out.write(content);
+                out.close();
+                bytes += content.length;
+            }
+        }
+        final File out = File.createTempFile("EchoFilesBenchmark", ".txt");
+        try {
+            final int processors = Runtime.getRuntime().availableProcessors();
+            for (int round = 0; round < 2; round++) {
+                for (int threads = 1; threads <= processors; threads *= 2) {
+                    final EchoFiles task = new EchoFiles();
+                    task.setProject(project);
+                    task.setFile(out.getAbsolutePath());
+                    task.setChecksum("SHA-256");
+                    task.setThreads(threads);
+                    final FileSet fileSet = new FileSet();
+                    fileSet.setProject(project);
+                    fileSet.setDir(baseDir);
+                    task.addFileset(fileSet);
+                    final long start = System.nanoTime();
+                    task.execute();
+                    reportThroughput("SHA-256, " + threads + " threads, round " + round, bytes, System
+                            .nanoTime()
+                            - start);
+                }
+            }
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * Counts the file system accesses and measures the time of listing the
+     * files with and without trusting the directory scanner. File system
+     * accesses are counted via {@link SecurityManager#checkRead(String)},
+     * which {@link File} calls for every query of the file system; on Java
+     * 18 or later run with <code>-Djava.security.manager=allow</code>.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void trustScanner() throws Exception {
+        final File out = File.createTempFile("EchoFilesBenchmark", ".txt");
+        final AtomicLong reads = new AtomicLong();
+        try {
+            for (int round = 0; round < 3; round++) {
+                for (final boolean trust : new boolean[] {false, true }) {
+                    final EchoFiles task = new EchoFiles();
+                    task.setProject(project);
+                    task.setFile(out.getAbsolutePath());
+                    task.setTrustScanner(trust);
+                    final FileSet fileSet = new FileSet();
+                    fileSet.setProject(project);
+                    fileSet.setDir(baseDir);
+                    task.addFileset(fileSet);
+                    reads.set(0);
+                    System.setSecurityManager(new SecurityManager() {
+                        @Override
+                        public void checkRead(final String file) {
+                            reads.incrementAndGet();
+                        }
+
+                        @Override
+                        public void checkPermission(final Permission perm) {
+                            // allow everything
+                        }
+
+                        @Override
+                        public void checkPermission(final Permission perm, final Object context) {
+                            // allow everything
+                        }
+                    });
+                    final long start = System.nanoTime();
+                    try {
+                        task.execute();
+                    }
+                    finally {
+                        System.setSecurityManager(null);
+                    }
+                    final long nanos = System.nanoTime() - start;
+                    final String label = "trustScanner=" + trust + ", round " + round;
+                    System.out.println(String.format("%-40s %10.3f ms %10d file system reads", label, nanos
+                            / NANOS_PER_MILLI, reads.get()));
+                }
+            }
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * Measures the heap retained by the deduplication sets after adding the
+     * given number of synthetic paths, for {@link HashSet} and
+     * {@link PathSet}. Run with a large heap, e.&nbsp;g.
+     * <code>-Xmx8g</code> for 10M paths.
+     * 
+     * @param paths
+     *            number of paths to add
+     */
+    private static void dedupMemory(final int paths) {
+        final Set<String> hashSet = new HashSet<String>();
+        final long hashSetBytes = retainedBytes(hashSet, paths);
+        report("HashSet, " + paths + " paths", hashSetBytes);
+        final Set<String> pathSet = new PathSet();
+        final long pathSetBytes = retainedBytes(pathSet, paths);
+        report("PathSet, " + paths + " paths", pathSetBytes);
+        System.out.println(String.format("%-40s %10.1f", "ratio", (double) hashSetBytes / pathSetBytes));
+    }
+
+    /**
+     * Measures the time to deduplicate the given number of synthetic paths
+     * from four overlapping collections, each holding half of the paths, for
+     * {@link HashSet} and {@link PathSet}.
+     * 
+     * @param paths
+     *            number of distinct paths
+     */
+    private static void dedupOverlap(final int paths) {
+        final String[] names = new String[paths];
+        for (int i = 0; i < paths; i++) {
+            names[i] = syntheticPath(i);
+        }
+        for (int round = 0; round < 3; round++) {
+            reportTime("HashSet, round " + round, overlapNanos(new HashSet<String>(), names));
+            reportTime("PathSet, round " + round, overlapNanos(new PathSet(), names));
+        }
+    }
+
+    /**
+     * Adds four overlapping quarters of the names to the set: collection
+     * <i>c</i> holds the quarters <i>c</i> and <i>c</i>+1.
+     * 
+     * @param set
+     *            the set to fill
+     * @param names
+     *            the names to add
+     * @return the time needed in nanoseconds
+     */
+    private static long overlapNanos(final Set<String> set, final String[] names) {
+        final int quarter = names.length / 4;
+        final long start = System.nanoTime();
+        for (int collection = 0; collection < 4; collection++) {
+            for (int i = collection * quarter; i < (collection + 2) * quarter; i++) {
+                set.add(names[i % names.length]);
+            }
+        }
+        final long nanos = System.nanoTime() - start;
+        if (set.size() != quarter * 4) {
+            throw new IllegalStateException("Unexpected size " + set.size());
+        }
+        return nanos;
+    }
+
+    /**
+     * Compares writing text, XML and a filtered text listing of the files by
+     * three separate tasks with writing them as nested outputs of a single
+     * task, which scans the files only once.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void fanOut() throws Exception {
+        final String[] types = {EchoFiles.TYPE_TEXT, EchoFiles.TYPE_XML, EchoFiles.TYPE_TEXT };
+        final String[] filters = {null, null, "**/dir1*/*" };
+        final File[] outs = new File[types.length];
+        for (int i = 0; i < outs.length; i++) {
+            outs[i] = File.createTempFile("EchoFilesBenchmark", ".out");
+        }
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < outs.length; i++) {
+                    final EchoFiles task = createTask(filters[i]);
+                    task.setFile(outs[i].getAbsolutePath());
+                    task.setType(types[i]);
+                    task.execute();
+                }
+                reportTime("separate tasks, round " + round, System.nanoTime() - start);
+                start = System.nanoTime();
+                final EchoFiles task = createTask(null);
+                for (int i = 0; i < outs.length; i++) {
+                    final EchoFiles.Output output = task.createOutput();
+                    output.setFile(outs[i].getAbsolutePath());
+                    output.setType(types[i]);
+                    output.setFilter(filters[i]);
+                }
+                task.execute();
+                reportTime("nested outputs, round " + round, System.nanoTime() - start);
+            }
+        }
+        finally {
+            for (final File out : outs) {
+                out.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares finding the first two matches of a literal path, a pattern
+     * with a literal directory and a pattern matching in all directories by
+     * iterating the file set with walking it lazily, as {@link FindFile}
+     * does.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void findFile() throws Exception {
+        final String[] includes = {"dir7/file7.txt", "dir7/**/file7*.txt", "**/file7.txt" };
+        for (int round = 0; round < 3; round++) {
+            for (final String include : includes) {
+                for (final boolean walk : new boolean[] {false, true }) {
+                    final FileSet fileSet = new FileSet();
+                    fileSet.setProject(project);
+                    fileSet.setDir(baseDir);
+                    fileSet.setIncludes(include);
+                    final ResourceScanner scanner = new ResourceScanner(1);
+                    scanner.setLimit(2);
+                    scanner.setWalkFileSets(walk ? project : null);
+                    final long start = System.nanoTime();
+                    scanner.scan(Collections.<ResourceCollection> singleton(fileSet), new ResourceScanner.Handler() {
+                        public boolean handle(final Resource resource) {
+                            return true;
+                        }
+                    });
+                    reportTime((walk ? "walk " : "iterate ") + include + ", round " + round, System.nanoTime()
+                            - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares writing the files to a single file with writing them into 32
+     * shards and reports the number of files in the smallest and largest
+     * shard.
+     * 
+     * @throws Exception
+     *             in case of errors
+     */
+    private void shards() throws Exception {
+        final int shards = 32;
+        final File dir = File.createTempFile("EchoFilesBenchmark", "");
+        dir.delete();
+        dir.mkdirs();
+        final File out = new File(dir, "files.txt");
+        try {
+            for (int round = 0; round < 3; round++) {
+                EchoFiles task = createTask(null);
+                task.setFile(out.getAbsolutePath());
+                long start = System.nanoTime();
+                task.execute();
+                reportTime("single file, round " + round, System.nanoTime() - start);
+                task = createTask(null);
+                task.setFile(out.getAbsolutePath());
+                task.setShards(shards);
+                start = System.nanoTime();
+                task.execute();
+                reportTime(shards + " shards, round " + round, System.nanoTime() - start);
+            }
+            int smallest = Integer.MAX_VALUE;
+            int largest = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                final int count = parseText(new File(dir, "files-" + shard + ".txt"));
+                smallest = Math.min(smallest, count);
+                largest = Math.max(largest, count);
+            }
+            System.out.println(String.format("%-40s %10d files", "smallest shard", smallest));
+            System.out.println(String.format("%-40s %10d files", "largest shard", largest));
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * @param includes
+     *            include patterns of the file set; <code>null</code> for all
+     *            files
+     * @return task listing the files of {@link #baseDir}
+     */
+    private EchoFiles createTask(final String includes) {
+        final EchoFiles task = new EchoFiles();
+        task.setProject(project);
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setDir(baseDir);
+        fileSet.setIncludes(includes);
+        task.addFileset(fileSet);
+        return task;
+    }
+
+    /**
+     * Measures the throughput of writing the given number of synthetic paths
+     * line by line with the former writer stack and with
+     * {@link ChannelWriter}.
+     * 
+     * @param lines
+     *            number of lines to write
+     * @throws IOException
+     *             in case of errors
+     */
+    private static void textThroughput(final int lines) throws IOException {
+        final File out = File.createTempFile("EchoFilesBenchmark", ".txt");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                writeLines(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8")),
+                        lines);
+                reportThroughput("BufferedWriter, round " + round, out.length(), System.nanoTime() - start);
+                start = System.nanoTime();
+                writeLines(new ChannelWriter(new FileOutputStream(out).getChannel(), "UTF-8"), lines);
+                reportThroughput("ChannelWriter, round " + round, out.length(), System.nanoTime() - start);
+            }
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * Measures the throughput of writing the given number of synthetic paths
+     * as text lines and as JSON Lines, both via {@link ChannelWriter}.
+     * 
+     * @param lines
+     *            number of lines to write
+     * @throws IOException
+     *             in case of errors
+     */
+    private static void jsonlThroughput(final int lines) throws IOException {
+        final File out = File.createTempFile("EchoFilesBenchmark", ".txt");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                writeLines(new ChannelWriter(new FileOutputStream(out).getChannel(), "UTF-8"), lines);
+                long nanos = System.nanoTime() - start;
+                reportThroughput("text, round " + round, out.length(), nanos);
+                reportTime("text, round " + round, nanos);
+                start = System.nanoTime();
+                final JsonLinesWriter writer =
+                        new JsonLinesWriter(new ChannelWriter(new FileOutputStream(out).getChannel(), "UTF-8"));
+                for (int i = 0; i < lines; i++) {
+                    writer.startObject();
+                    writer.writeField("name", PATH_POOL[i % PATH_POOL.length]);
+                    writer.endObject();
+                }
+                writer.close();
+                nanos = System.nanoTime() - start;
+                reportThroughput("jsonl, round " + round, out.length(), nanos);
+                reportTime("jsonl, round " + round, nanos);
+            }
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * Measures the end-to-end time of writing the given number of synthetic
+     * paths to a slow disk, simulated by throttling the output to
+     * <code>benchmark.disk.bytesPerSecond</code> (default 50 MB/s), without
+     * compression, with compression on the writing thread and with
+     * {@link CompressingChannel}.
+     * 
+     * @param lines
+     *            number of lines to write
+     * @throws IOException
+     *             in case of errors
+     */
+    private static void compress(final int lines) throws IOException {
+        final File out = File.createTempFile("EchoFilesBenchmark", ".out");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                writeLines(new ChannelWriter(Channels.newChannel(throttled(out)), "UTF-8"), lines);
+                reportCompressed("uncompressed, round " + round, out, System.nanoTime() - start);
+                start = System.nanoTime();
+                writeLines(new ChannelWriter(Channels.newChannel(new GZIPOutputStream(throttled(out),
+                        CompressingChannel.DEFAULT_BUFFER_SIZE)), "UTF-8"), lines);
+                reportCompressed("gzip inline, round " + round, out, System.nanoTime() - start);
+                for (final int level : new int[] {1, 6 }) {
+                    start = System.nanoTime();
+                    writeLines(new ChannelWriter(new CompressingChannel(throttled(out),
+                            CompressingChannel.Format.GZIP, level), "UTF-8"), lines);
+                    reportCompressed("gzip " + level + " threaded, round " + round, out,
+                            System.nanoTime() - start);
+                }
+            }
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @return stream writing to the file at the simulated slow disk
+     *         bandwidth
+     * @throws IOException
+     *             in case of errors
+     */
+    private static OutputStream throttled(final File file) throws IOException {
+        return new FilterOutputStream(new FileOutputStream(file)) {
+            private final long start = System.nanoTime();
+            private long written = 0;
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                written += len;
+                final long due = (long) (written * NANOS_PER_SECOND / SLOW_DISK_BYTES_PER_SECOND);
+                final long ahead = due - (System.nanoTime() - start);
+                if (ahead > 0) {
+                    try {
+                        Thread.sleep(ahead / 1000000L, (int) (ahead % 1000000L));
+                    }
+                    catch (final InterruptedException e) {
+                        throw new IOException("Interrupted.");
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Prints the time needed and the size of the output.
+     * 
+     * @param label
+     *            what has been measured
+     * @param file
+     *            the output
+     * @param nanos
+     *            the time needed
+     */
+    private static void reportCompressed(final String label, final File file, final long nanos) {
+        System.out.println(String.format("%-40s %10.3f ms %10.1f MB", label, nanos / NANOS_PER_MILLI, file
+                .length()
+                / BYTES_PER_MB));
+    }
+
+    /**
+     * Compares size and parse time of the given number of sorted synthetic
+     * paths written as text, XML and binary listing.
+     * 
+     * @param count
+     *            number of paths to write
+     * @throws Exception
+     *             in case of errors
+     */
+    private static void binaryListing(final int count) throws Exception {
+        final String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = syntheticPath(i);
+        }
+        Arrays.sort(paths);
+        final File text = File.createTempFile("EchoFilesBenchmark", ".txt");
+        final File xml = File.createTempFile("EchoFilesBenchmark", ".xml");
+        final File binary = File.createTempFile("EchoFilesBenchmark", ".bin");
+        try {
+            final Writer textWriter = new ChannelWriter(new FileOutputStream(text).getChannel(), "UTF-8");
+            for (final String path : paths) {
+                textWriter.write(path);
+                textWriter.write(LINE_SEPARATOR);
+            }
+            textWriter.close();
+            final Writer xmlWriter = new ChannelWriter(new FileOutputStream(xml).getChannel(), "UTF-8");
+            final XMLStreamWriter xmlStreamWriter =
+                    XMLOutputFactory.newInstance().createXMLStreamWriter(xmlWriter);
+            xmlStreamWriter.writeStartDocument();
+            xmlStreamWriter.writeStartElement("resources");
+            for (final String path : paths) {
+                xmlStreamWriter.writeStartElement("resource");
+                xmlStreamWriter.writeCharacters(path);
+                xmlStreamWriter.writeEndElement();
+            }
+            xmlStreamWriter.writeEndDocument();
+            xmlStreamWriter.close();
+            xmlWriter.close();
+            final BinaryListingWriter binaryWriter = new BinaryListingWriter(new FileOutputStream(binary));
+            for (final String path : paths) {
+                binaryWriter.write(path);
+            }
+            binaryWriter.close();
+
+            report("text size", text.length());
+            report("xml size", xml.length());
+            report("binary size", binary.length());
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                check(count, parseText(text));
+                reportTime("text parse, round " + round, System.nanoTime() - start);
+                start = System.nanoTime();
+                check(count, parseXml(xml, "resource"));
+                reportTime("xml parse, round " + round, System.nanoTime() - start);
+                start = System.nanoTime();
+                check(count, parseBinary(binary));
+                reportTime("binary parse, round " + round, System.nanoTime() - start);
+            }
+        }
+        finally {
+            text.delete();
+            xml.delete();
+            binary.delete();
+        }
+    }
+
+    /**
+     * Compares size and parse time of the flat XML listing with the XML tree
+     * grouping the files by directory.
+     * 
+     * @param count
+     *            number of paths to write
+     * @throws Exception
+     *             in case of errors
+     */
+    private static void xmlTree(final int count) throws Exception {
+        final String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = syntheticPath(i);
+        }
+        Arrays.sort(paths);
+        final File xml = File.createTempFile("EchoFilesBenchmark", ".xml");
+        final File tree = File.createTempFile("EchoFilesBenchmark", ".xml");
+        try {
+            final Writer xmlWriter = new ChannelWriter(new FileOutputStream(xml).getChannel(), "UTF-8");
+            final XMLStreamWriter xmlStreamWriter =
+                    XMLOutputFactory.newInstance().createXMLStreamWriter(xmlWriter);
+            xmlStreamWriter.writeStartDocument();
+            xmlStreamWriter.writeStartElement("resources");
+            for (final String path : paths) {
+                xmlStreamWriter.writeStartElement("resource");
+                xmlStreamWriter.writeCharacters(path);
+                xmlStreamWriter.writeEndElement();
+            }
+            xmlStreamWriter.writeEndDocument();
+            xmlStreamWriter.close();
+            xmlWriter.close();
+            final Writer treeWriter = new ChannelWriter(new FileOutputStream(tree).getChannel(), "UTF-8");
+            final XMLStreamWriter treeStreamWriter =
+                    XMLOutputFactory.newInstance().createXMLStreamWriter(treeWriter);
+            treeStreamWriter.writeStartDocument();
+            final PathTreeWriter pathTreeWriter = new PathTreeWriter(treeStreamWriter, '/');
+            for (final String path : paths) {
+                pathTreeWriter.writeFile(path);
+            }
+            pathTreeWriter.close();
+            treeStreamWriter.writeEndDocument();
+            treeStreamWriter.close();
+            treeWriter.close();
+
+            report("xml size", xml.length());
+            report("xml-tree size", tree.length());
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                check(count, parseXml(xml, "resource"));
+                reportTime("xml parse, round " + round, System.nanoTime() - start);
+                start = System.nanoTime();
+                check(count, parseXml(tree, PathTreeWriter.FILE_ELEMENT));
+                reportTime("xml-tree parse, round " + round, System.nanoTime() - start);
+            }
+        }
+        finally {
+            xml.delete();
+            tree.delete();
+        }
+    }
+
+    /**
+     * @param expected
+     *            expected number of paths
+     * @param actual
+     *            number of paths parsed
+     */
+    private static void check(final int expected, final int actual) {
+        if (expected != actual) {
+            throw new IllegalStateException("Parsed " + actual + " instead of " + expected + " paths.");
+        }
+    }
+
+    /**
+     * @param file
+     *            text listing to parse
+     * @return number of paths
+     * @throws IOException
+     *             in case of errors
+     */
+    private static int parseText(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        int count = 0;
+        while (reader.readLine() != null) {
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+
+    /**
+     * @param file
+     *            XML listing to parse
+     * @param element
+     *            name of the elements to count
+     * @return number of paths
+     * @throws IOException
+     *             in case of errors
+     * @throws XMLStreamException
+     *             in case of errors
+     */
+    private static int parseXml(final File file, final String element) throws IOException,
+            XMLStreamException {
+        final FileInputStream in = new FileInputStream(file);
+        final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+        int count = 0;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && element.equals(reader.getLocalName())) {
+                count++;
+            }
+        }
+        reader.close();
+        in.close();
+        return count;
+    }
+
+    /**
+     * @param file
+     *            binary listing to parse
+     * @return number of paths
+     * @throws IOException
+     *             in case of errors
+     */
+    private static int parseBinary(final File file) throws IOException {
+        final BinaryListingReader reader = new BinaryListingReader(file);
+        int count = 0;
+        for (final String path : reader) {
+            if (path != null) {
+                count++;
+            }
+        }
+        reader.close();
+        return count;
+    }
+
+    /**
+     * Writes synthetic paths line by line as {@link EchoFiles} does.
+     * 
+     * @param writer
+     *            the writer to write to; will be closed
+     * @param lines
+     *            number of lines to write
+     * @throws IOException
+     *             in case of errors
+     */
+    private static void writeLines(final Writer writer, final int lines) throws IOException {
+        for (int i = 0; i < lines; i++) {
+            writer.write(PATH_POOL[i % PATH_POOL.length]);
+            writer.write(LINE_SEPARATOR);
+        }
+        writer.close();
+    }
+
+    /**
+     * Prints a throughput.
+     * 
+     * @param label
+     *            what has been measured
+     * @param bytes
+     *            number of bytes processed
+     * @param nanos
+     *            the time needed
+     */
+    private static void reportThroughput(final String label, final long bytes, final long nanos) {
+        System.out.println(String.format("%-40s %10.1f MB/s", label, bytes / BYTES_PER_MB
+                / (nanos / NANOS_PER_SECOND)));
+    }
+
+    /**
+     * Fills the set and measures the growth of the used heap.
+     * 
+     * @param set
+     *            the set to fill
+     * @param paths
+     *            number of paths to add
+     * @return number of bytes retained by the set
+     */
+    private static long retainedBytes(final Set<String> set, final int paths) {
+        final long before = usedHeap();
+        for (int i = 0; i < paths; i++) {
+            set.add(syntheticPath(i));
+        }
+        final long after = usedHeap();
+        if (set.size() != paths) {
+            throw new IllegalStateException("Unexpected size " + set.size());
+        }
+        return after - before;
+    }
+
+    /**
+     * Creates a path typical for a source tree: few modules and packages with
+     * many files each.
+     * 
+     * @param i
+     *            number of the path
+     * @return the path
+     */
+    private static String syntheticPath(final int i) {
+        return "/home/build/workspace/monorepo/module" + i % 50 + "/src/main/java/org/example/package" + i
+                % 1000 + "/Class" + i + ".java";
+    }
+
+    /**
+     * @return heap in use after garbage collection
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Prints a size.
+     * 
+     * @param label
+     *            what has been measured
+     * @param bytes
+     *            the measured size
+     */
+    private static void report(final String label, final long bytes) {
+        System.out.println(String.format("%-40s %10.1f MB", label, bytes / BYTES_PER_MB));
+    }
+
+    /**
+     * Executes the task once.
+     * 
+     * @param type
+     *            output type
+     * @param out
+     *            output file
+     */
+    private void run(final String type, final File out) {
+        final EchoFiles task = new EchoFiles();
+        task.setProject(project);
+        task.setType(type);
+        task.setFile(out.getAbsolutePath());
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setDir(baseDir);
+        task.addFileset(fileSet);
+        task.execute();
+    }
+
+    /**
+     * Prints a measurement.
+     * 
+     * @param label
+     *            what has been measured
+     * @param nanos
+     *            the measured time in nanoseconds
+     */
+    private static void reportTime(final String label, final long nanos) {
+        System.out.println(String.format("%-40s %10.3f ms", label, nanos / NANOS_PER_MILLI));
+    }
+
+    /**
+     * Creates a temporary directory with the given number of empty files,
+     * spread over sub directories.
+     * 
+     * @param files
+     *            number of files to create
+     * @return the directory
+     * @throws IOException
+     *             if the files cannot be created
+     */
+    private static File createTree(final int files) throws IOException {
+        final File dir = File.createTempFile("EchoFilesBenchmark", "");
+        dir.delete();
+        for (int i = 0; i < files; i++) {
+            final File sub = new File(dir, "dir" + (i % 100));
+            sub.mkdirs();
+            new File(sub, "file" + i + ".txt").createNewFile();
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a file or directory recursively.
+     * 
+     * @param file
+     *            file to delete
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -20,20 +20,54 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.BuildFileTest;
+import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.arctic.io.BinaryListingReader;
+import org.arctic.io.FileDigester;
 
 public class EchoFilesTest extends BuildFileTest {
     private static final String ERROR_MSG = "Lorem Ipsum Dolor Sit Amet";
     private static final int READ_BUFFER_SIZE = 1024;
     private static final String BUILD_FILE = "build-echofiles.xml";
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+    private static final int SHARDS = 4;
+    // the entry of the deduplication set, with room for JVMs without compressed references
+    private static final long ALLOCATION_BUDGET = 100;
+
     private File outFile;
 
     public EchoFilesTest(String name) {
@@ -67,7 +101,9 @@ public class EchoFilesTest extends BuildFileTest {
         }
         catch (Exception e) {
             // exception expected
-            String expected = "Type \"" + invalidType + "\" is invalid. Choose either \"xml\" or \"text\".";
+            String expected =
+                    "Type \"" + invalidType + "\" is invalid."
+                            + " Choose either \"xml\", \"xml-tree\", \"text\", \"jsonl\" or \"binary\".";
             assertEquals("Wrong exception message.", expected, e.getMessage());
         }
     }
@@ -80,7 +116,9 @@ public class EchoFilesTest extends BuildFileTest {
         }
         catch (Exception e) {
             // exception expected
-            String expected = "Type \"" + invalidType + "\" is invalid. Choose either \"xml\" or \"text\".";
+            String expected =
+                    "Type \"" + invalidType + "\" is invalid."
+                            + " Choose either \"xml\", \"xml-tree\", \"text\", \"jsonl\" or \"binary\".";
             assertEquals("Wrong exception message.", expected, e.getMessage());
         }
     }
@@ -113,8 +151,8 @@ public class EchoFilesTest extends BuildFileTest {
         catch (Exception e) {
             // exception expected
             String expected =
-                    "Type \"" + String.valueOf(invalidType)
-                            + "\" is invalid. Choose either \"xml\" or \"text\".";
+                    "Type \"" + String.valueOf(invalidType) + "\" is invalid."
+                            + " Choose either \"xml\", \"xml-tree\", \"text\", \"jsonl\" or \"binary\".";
             assertEquals("Wrong exception message.", expected, e.getMessage());
         }
     }
@@ -160,6 +198,13 @@ public class EchoFilesTest extends BuildFileTest {
         assertOutputContaining(BUILD_FILE);
     }
 
+    public void testSelfZipTextChecksumStdout() throws IOException {
+        executeTarget("echofiles-self-zip-text-checksum-stdout");
+        final CRC32 crc = new CRC32();
+        crc.update(readBytes(new File(getProject().getProperty("ant.file.org.arctic.ant.taskdefs.EchoFilesTest"))));
+        assertOutputContaining(BUILD_FILE + "\t" + String.format("%08x", crc.getValue()));
+    }
+
     public void testNoneTextFile() {
         executeTarget("echofiles-none-text-file");
         assertTrue("The file \"" + outFile.getAbsolutePath() + " should have been created.", outFile.exists());
@@ -173,13 +218,17 @@ public class EchoFilesTest extends BuildFileTest {
     }
 
     private static String readTextFile(final File file) throws IOException {
+        return readText(new FileInputStream(file));
+    }
+
+    private static String readText(final InputStream in) throws IOException {
         final StringBuffer sb = new StringBuffer(READ_BUFFER_SIZE);
-        final BufferedReader reader =
-                new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
 
         char[] chars = new char[1024];
-        while (reader.read(chars) > -1) {
-            sb.append(String.valueOf(chars));
+        int read;
+        while ((read = reader.read(chars)) > -1) {
+            sb.append(chars, 0, read);
         }
 
         reader.close();
@@ -187,6 +236,37 @@ public class EchoFilesTest extends BuildFileTest {
         return sb.toString();
     }
 
+    private static byte[] readBytes(final File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static List<String> readLinesInOrder(final File file) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static Set<String> readLines(final File file) throws IOException {
+        return new HashSet<String>(readLinesInOrder(file));
+    }
+
     private void assertStringContains(final String expected, final String actual) {
         if (expected == null || actual == null) {
             assertEquals(expected, actual);
@@ -209,6 +289,932 @@ public class EchoFilesTest extends BuildFileTest {
         assertStringContains("</resource><resource>", fileContent);
     }
 
+    public void testNoneXmlFile() throws IOException {
+        executeTarget("echofiles-none-xml-file");
+        assertEquals("Empty resource collections should result in an empty root element.",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><resources/>",
+                readTextFile(outFile).trim());
+    }
+
+    public void testMultipleXmlFileValidatesAgainstSchema() throws Exception {
+        executeTarget("echofiles-multiple-xml-file");
+        final Schema schema =
+                SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                        getClass().getResource("/resources.xsd"));
+        schema.newValidator().validate(new StreamSource(outFile));
+    }
+
+    public void testMultipleTextFilePipeline() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final Set<String> expected = readLines(outFile);
+        executeTarget("echofiles-multiple-text-file-pipeline");
+        final List<String> actual = readLinesInOrder(outFile);
+        assertEquals("Pipeline mode should write the same resources.", expected, new HashSet<String>(actual));
+        assertEquals("Pipeline mode should remove duplicates.", expected.size(), actual.size());
+    }
+
+    public void testMultipleXmlFilePipeline() throws IOException {
+        executeTarget("echofiles-multiple-xml-file-pipeline");
+        final String fileContent = readTextFile(outFile);
+        assertStringContains(BUILD_FILE + "</resource>", fileContent);
+        assertStringContains("</resource></resources>", fileContent);
+    }
+
+    public void testMultipleTextFileParallel() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final Set<String> expected = readLines(outFile);
+        executeTarget("echofiles-multiple-text-file-parallel");
+        final List<String> actual = readLinesInOrder(outFile);
+        assertEquals("Parallel scanning should write the same resources.", expected, new HashSet<String>(actual));
+        assertEquals("Parallel scanning should remove duplicates.", expected.size(), actual.size());
+    }
+
+    public void testMultipleTextFileCompact() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final Set<String> expected = readLines(outFile);
+        executeTarget("echofiles-multiple-text-file-compact");
+        final List<String> actual = readLinesInOrder(outFile);
+        assertEquals("Compact deduplication should write the same resources.", expected, new HashSet<String>(
+                actual));
+        assertEquals("Compact deduplication should remove duplicates.", expected.size(), actual.size());
+    }
+
+    public void testMultipleTextFileSort() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> expected = new ArrayList<String>(new TreeSet<String>(readLines(outFile)));
+        executeTarget("echofiles-multiple-text-file-sort");
+        assertEquals("Sorting should write all resources sorted and without duplicates.", expected,
+                readLinesInOrder(outFile));
+    }
+
+    public void testMultipleBinaryFile() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> expected = new ArrayList<String>(new TreeSet<String>(readLines(outFile)));
+        executeTarget("echofiles-multiple-binary-file");
+        final BinaryListingReader reader = new BinaryListingReader(outFile);
+        try {
+            final List<String> actual = new ArrayList<String>();
+            for (final String path : reader) {
+                actual.add(path);
+            }
+            assertEquals("Binary output should contain all resources sorted and without duplicates.", expected,
+                    actual);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testMultipleTextFileGzip() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final String expected = readTextFile(outFile);
+        executeTarget("echofiles-multiple-text-file-gzip");
+        assertEquals("Decompressed output should match uncompressed output.", expected, readText(
+                new GZIPInputStream(new FileInputStream(outFile))));
+    }
+
+    public void testMultipleXmlFileDeflate() throws IOException {
+        executeTarget("echofiles-multiple-xml-file");
+        final String expected = readTextFile(outFile);
+        executeTarget("echofiles-multiple-xml-file-deflate");
+        assertEquals("Decompressed output should match uncompressed output.", expected, readText(
+                new InflaterInputStream(new FileInputStream(outFile))));
+    }
+
+    public void testCompressInvalid() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setCompress("zip");
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the compression is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Compression \"zip\" is invalid. Choose either \"gzip\" or \"deflate\".", e.getMessage());
+        }
+    }
+
+    public void testTooManyShards() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setFile(outFile.getAbsolutePath());
+        echofiles.setShards(65);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that there are too many shards.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Number of shards must be at most 64.", e.getMessage());
+        }
+    }
+
+    public void testCompressLevelInvalid() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setCompress(EchoFiles.COMPRESS_GZIP);
+        echofiles.setCompressLevel(10);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the compression level is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Compression level must be between 0 and 9, or -1 for the default level.", e.getMessage());
+        }
+    }
+
+    public void testBinaryWithCompress() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setType(EchoFiles.TYPE_BINARY);
+        echofiles.setCompress(EchoFiles.COMPRESS_DEFLATE);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that binary output cannot be compressed.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Type \"binary\" cannot be combined with \"compress\".",
+                    e.getMessage());
+        }
+    }
+
+    public void testMultipleTextFileChecksum() throws IOException, NoSuchAlgorithmException {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> names = readLinesInOrder(outFile);
+        executeTarget("echofiles-multiple-text-file-checksum");
+        final List<String> lines = readLinesInOrder(outFile);
+        assertEquals("Each resource should be written once.", names.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            final String[] columns = lines.get(i).split("\t");
+            assertEquals("Resources should be written in the same order.", names.get(i), columns[0]);
+            final StringBuilder expected = new StringBuilder();
+            for (final byte b : MessageDigest.getInstance("SHA-256").digest(readBytes(new File(columns[0])))) {
+                expected.append(String.format("%02x", b));
+            }
+            assertEquals("Wrong checksum of " + columns[0], expected.toString(), columns[1]);
+        }
+    }
+
+    public void testMultipleXmlFileChecksumValidatesAgainstSchema() throws Exception {
+        executeTarget("echofiles-multiple-xml-file-checksum");
+        assertStringContains("<resource checksum=\"", readTextFile(outFile));
+        final Schema schema =
+                SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                        getClass().getResource("/resources.xsd"));
+        schema.newValidator().validate(new StreamSource(outFile));
+    }
+
+    public void testMultipleTextFileMetadata() throws IOException {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> names = readLinesInOrder(outFile);
+        executeTarget("echofiles-multiple-text-file-metadata");
+        final List<String> lines = readLinesInOrder(outFile);
+        assertEquals("Each resource should be written once.", names.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            final String[] columns = lines.get(i).split("\\|");
+            final File file = new File(columns[0]);
+            assertEquals("Resources should be written in the same order.", names.get(i), columns[0]);
+            assertEquals("Wrong size of " + file, String.valueOf(file.length()), columns[1]);
+            assertEquals("Wrong modification time of " + file, String.valueOf(file.lastModified()), columns[2]);
+            assertEquals("Wrong permissions of " + file, (file.canRead() ? "r" : "-") + (file.canWrite() ? "w"
+                    : "-"), columns[3]);
+        }
+    }
+
+    public void testMultipleXmlFileMetadataValidatesAgainstSchema() throws Exception {
+        executeTarget("echofiles-multiple-xml-file-metadata");
+        final String fileContent = readTextFile(outFile);
+        final File buildFile = new File(getProject().getProperty("ant.file.org.arctic.ant.taskdefs.EchoFilesTest"));
+        assertStringContains(" size=\"" + buildFile.length() + "\" mtime=\"" + buildFile.lastModified() + "\"",
+                fileContent);
+        final Schema schema =
+                SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                        getClass().getResource("/resources.xsd"));
+        schema.newValidator().validate(new StreamSource(outFile));
+    }
+
+    public void testMultipleJsonlFileMetadata() throws IOException, NoSuchAlgorithmException {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> names = readLinesInOrder(outFile);
+        executeTarget("echofiles-multiple-jsonl-file-metadata");
+        final List<String> lines = readLinesInOrder(outFile);
+        final FileDigester digester = new FileDigester(FileDigester.CRC32);
+        assertEquals("Each resource should be written once.", names.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            final File file = new File(names.get(i));
+            assertEquals("Wrong object for " + file, "{\"name\":\"" + file.getPath().replace("\\", "\\\\")
+                    + "\",\"checksum\":\"" + digester.digest(file) + "\",\"size\":" + file.length()
+                    + ",\"mtime\":" + file.lastModified() + ",\"permissions\":\"" + (file.canRead() ? "r" : "-")
+                    + (file.canWrite() ? "w" : "-") + "\"}", lines.get(i));
+        }
+    }
+
+    public void testMetadataInvalid() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setMetadata("size,owner");
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the metadata is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Metadata \"owner\" is invalid. Choose from \"size\", \"mtime\" and \"permissions\".", e
+                            .getMessage());
+        }
+    }
+
+    public void testChecksumInvalid() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setChecksum("SHA-4711");
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the checksum algorithm is not supported.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Checksum algorithm \"SHA-4711\" is not supported.",
+                    e.getMessage());
+        }
+    }
+
+    public void testBinaryWithChecksum() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setType(EchoFiles.TYPE_BINARY);
+        echofiles.setChecksum("MD5");
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that binary output cannot hold checksums.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Type \"binary\" cannot be combined with \"checksum\".",
+                    e.getMessage());
+        }
+    }
+
+    public void testMultipleXmlTreeFile() throws Exception {
+        executeTarget("echofiles-multiple-text-file");
+        final List<String> expected = new ArrayList<String>(new TreeSet<String>(readLines(outFile)));
+        executeTarget("echofiles-multiple-xml-tree-file");
+        final Schema schema =
+                SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                        getClass().getResource("/org/arctic/io/resource-tree.xsd"));
+        schema.newValidator().validate(new StreamSource(outFile));
+
+        final List<String> actual = new ArrayList<String>();
+        final List<String> dirs = new ArrayList<String>();
+        final XMLStreamReader reader =
+                XMLInputFactory.newInstance().createXMLStreamReader(new FileInputStream(outFile));
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && "dir".equals(reader.getLocalName())) {
+                dirs.add(reader.getAttributeValue(null, "name"));
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT && "dir".equals(reader.getLocalName())) {
+                dirs.remove(dirs.size() - 1);
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT && "file".equals(reader.getLocalName())) {
+                final StringBuilder path = new StringBuilder();
+                for (final String dir : dirs) {
+                    path.append(dir).append(File.separatorChar);
+                }
+                actual.add(path.append(reader.getAttributeValue(null, "name")).toString());
+            }
+        }
+        reader.close();
+        assertEquals("XML tree should contain all resources sorted and without duplicates.", expected, actual);
+    }
+
+    public void testFanOut() throws IOException {
+        final File treeFile = new File(outFile.getPath() + ".xml-tree");
+        final File filteredFile = new File(outFile.getPath() + ".filtered");
+        try {
+            executeTarget("echofiles-multiple-text-file");
+            final Set<String> expected = readLines(outFile);
+            executeTarget("echofiles-multiple-xml-tree-file");
+            final String expectedTree = readTextFile(outFile);
+            assertTrue("Unable to delete " + outFile, outFile.delete());
+
+            executeTarget("echofiles-fanout");
+            assertEquals("Text output should contain all resources.", expected, readLines(outFile));
+            assertEquals("XML tree output should contain all resources sorted.", expectedTree,
+                    readTextFile(treeFile));
+            final Set<String> filtered = new HashSet<String>();
+            for (final String name : expected) {
+                final String fileName = new File(name).getName();
+                if (fileName.equals("build-echofiles.xml") || fileName.equals("build-findfile.xml")) {
+                    filtered.add(name);
+                }
+            }
+            assertEquals("Filtered output should contain the matching resources only.", filtered,
+                    readLines(filteredFile));
+        }
+        finally {
+            treeFile.delete();
+            filteredFile.delete();
+        }
+    }
+
+    public void testFanOutMetadata() throws IOException {
+        final File treeFile = new File(outFile.getPath() + ".xml-tree");
+        try {
+            executeTarget("echofiles-multiple-xml-tree-file-metadata");
+            final String expectedTree = readTextFile(outFile);
+            executeTarget("echofiles-multiple-text-file-metadata");
+            final Set<String> names = new HashSet<String>();
+            for (final String line : readLinesInOrder(outFile)) {
+                names.add(line.substring(0, line.indexOf('|')));
+            }
+            assertTrue("Unable to delete " + outFile, outFile.delete());
+
+            executeTarget("echofiles-fanout-metadata");
+            assertEquals("Sorted XML tree output should keep the details.", expectedTree, readTextFile(treeFile));
+            final Set<String> actual = new HashSet<String>();
+            for (final String line : readLinesInOrder(outFile)) {
+                final String[] columns = line.split("\\|");
+                assertEquals("Wrong number of columns: " + line, 5, columns.length);
+                assertEquals("Wrong size of " + columns[0], String.valueOf(new File(columns[0]).length()),
+                        columns[2]);
+                actual.add(columns[0]);
+            }
+            assertEquals("Text output should contain all resources.", names, actual);
+        }
+        finally {
+            treeFile.delete();
+        }
+    }
+
+    public void testSharded() throws IOException {
+        final String name = outFile.getName();
+        final String baseName = name.substring(0, name.lastIndexOf('.'));
+        final File[] shardFiles = new File[SHARDS];
+        for (int shard = 0; shard < SHARDS; shard++) {
+            shardFiles[shard] = new File(outFile.getParentFile(), baseName + "-" + shard + ".out");
+        }
+        try {
+            executeTarget("echofiles-multiple-text-file");
+            final Set<String> expected = readLines(outFile);
+            executeTarget("echofiles-sharded");
+            final Set<String> actual = new HashSet<String>();
+            for (int shard = 0; shard < SHARDS; shard++) {
+                for (final String resourceName : readLinesInOrder(shardFiles[shard])) {
+                    assertEquals("Wrong shard of " + resourceName, shard, FanOut.getShard(resourceName, SHARDS));
+                    assertTrue("Resource should be written only once: " + resourceName, actual.add(resourceName));
+                }
+            }
+            assertEquals("Shards should contain all resources.", expected, actual);
+        }
+        finally {
+            for (final File shardFile : shardFiles) {
+                shardFile.delete();
+            }
+        }
+    }
+
+    public void testShardedStdout() {
+        try {
+            executeTarget("echofiles-sharded-stdout");
+            fail("An exception should have been thrown that shards need a file.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Specify a file for sharded output.", e.getMessage());
+        }
+    }
+
+    public void testShardsAreStableAndBalanced() {
+        assertEquals("Shards must not change between releases.", 3, FanOut.getShard(
+                "/home/build/src/A.java", 32));
+        final int[] counts = new int[32];
+        final int resources = 320000;
+        for (int i = 0; i < resources; i++) {
+            counts[FanOut.getShard("/home/build/module" + i % 50 + "/src/Class" + i + ".java", counts.length)]++;
+        }
+        for (final int count : counts) {
+            assertTrue("Shards should be balanced: " + count, Math.abs(count - resources / counts.length) < 500);
+        }
+    }
+
+    private File[] getChunkFiles() {
+        final String name = outFile.getName();
+        final String baseName = name.substring(0, name.lastIndexOf('.'));
+        final List<File> chunkFiles = new ArrayList<File>();
+        File chunkFile = new File(outFile.getParentFile(), baseName + "-0.out");
+        while (chunkFile.exists()) {
+            chunkFiles.add(chunkFile);
+            chunkFile = new File(outFile.getParentFile(), baseName + "-" + chunkFiles.size() + ".out");
+        }
+        return chunkFiles.toArray(new File[chunkFiles.size()]);
+    }
+
+    private void deleteChunks() {
+        for (final File chunkFile : getChunkFiles()) {
+            chunkFile.delete();
+        }
+        new File(outFile.getPath() + ".index").delete();
+    }
+
+    public void testRollingLines() throws IOException {
+        try {
+            executeTarget("echofiles-multiple-text-file");
+            final Set<String> expected = readLines(outFile);
+            executeTarget("echofiles-rolling-lines");
+            final File[] chunkFiles = getChunkFiles();
+            assertEquals("Wrong number of chunks.", (expected.size() + 1) / 2, chunkFiles.length);
+            final List<String> actual = new ArrayList<String>();
+            final StringBuilder expectedIndex = new StringBuilder();
+            for (final File chunkFile : chunkFiles) {
+                final List<String> chunk = readLinesInOrder(chunkFile);
+                assertTrue("Chunks should hold at most 2 resources: " + chunk, chunk.size() <= 2);
+                actual.addAll(chunk);
+                expectedIndex.append("{\"file\":\"").append(chunkFile.getName()).append("\",\"entries\":").append(
+                        chunk.size()).append(",\"first\":\"").append(chunk.get(0)).append("\",\"last\":\"").append(
+                        chunk.get(chunk.size() - 1)).append("\"}\n");
+            }
+            assertEquals("Chunks should contain all resources in order.", new ArrayList<String>(
+                    new TreeSet<String>(expected)), actual);
+            assertEquals("Wrong chunk index.", expectedIndex.toString().replace("\\", "\\\\"),
+                    readTextFile(new File(outFile.getPath() + ".index")));
+        }
+        finally {
+            deleteChunks();
+        }
+    }
+
+    public void testRollingXmlValidatesAgainstSchema() throws Exception {
+        try {
+            executeTarget("echofiles-rolling-xml");
+            final Schema schema =
+                    SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                            getClass().getResource("/resources.xsd"));
+            final File[] chunkFiles = getChunkFiles();
+            assertTrue("Output should be rolled into several chunks.", chunkFiles.length > 1);
+            for (final File chunkFile : chunkFiles) {
+                schema.newValidator().validate(new StreamSource(chunkFile));
+            }
+        }
+        finally {
+            deleteChunks();
+        }
+    }
+
+    public void testRollingBytes() throws IOException {
+        try {
+            executeTarget("echofiles-multiple-text-file");
+            final Set<String> expected = readLines(outFile);
+            executeTarget("echofiles-rolling-bytes");
+            final Set<String> actual = new HashSet<String>();
+            final File[] chunkFiles = getChunkFiles();
+            assertTrue("Output should be rolled into several chunks.", chunkFiles.length > 1);
+            for (final File chunkFile : chunkFiles) {
+                final List<String> chunk = readLinesInOrder(chunkFile);
+                final String last = chunk.get(chunk.size() - 1);
+                assertTrue("Chunk should only exceed its size by the last resource: " + chunkFile,
+                        chunkFile.length() - last.getBytes("UTF-8").length - 1 < 100);
+                actual.addAll(chunk);
+            }
+            assertEquals("Chunks should contain all resources.", expected, actual);
+        }
+        finally {
+            deleteChunks();
+        }
+    }
+
+    public void testRollingStdout() {
+        try {
+            executeTarget("echofiles-rolling-stdout");
+            fail("An exception should have been thrown that rolling output needs a file.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Specify a file for rolling output.", e.getMessage());
+        }
+    }
+
+    public void testRollingSharded() {
+        try {
+            executeTarget("echofiles-rolling-sharded");
+            fail("An exception should have been thrown that rolling output and shards cannot be combined.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Rolling output cannot be combined with \"shards\".",
+                    e.getMessage());
+        }
+    }
+
+    // files which pretend to exist, so that no files need to be created
+    private static ResourceCollection createFileResources(final int count) {
+        final List<Resource> resources = new ArrayList<Resource>(count);
+        for (int i = 0; i < count; i++) {
+            final File file = new File("/allocation/dir" + i % 100 + "/file" + i + ".txt").getAbsoluteFile();
+            resources.add(new FileResource(file) {
+                @Override
+                public boolean isExists() {
+                    return true;
+                }
+            });
+        }
+        return new ResourceCollection() {
+            public Iterator<Resource> iterator() {
+                return resources.iterator();
+            }
+
+            public int size() {
+                return resources.size();
+            }
+
+            public boolean isFilesystemOnly() {
+                return true;
+            }
+        };
+    }
+
+    // bytes allocated by the current thread at info level; -1 if the JVM does not count them
+    private long allocatedBytes(final ResourceCollection resources) throws Exception {
+        final Project project = new Project();
+        project.init();
+        final DefaultLogger logger = new DefaultLogger();
+        logger.setMessageOutputLevel(Project.MSG_INFO);
+        logger.setOutputPrintStream(System.out);
+        logger.setErrorPrintStream(System.err);
+        project.addBuildListener(logger);
+        final EchoFiles echofiles = new EchoFiles();
+        echofiles.setProject(project);
+        echofiles.setFile(outFile.getAbsolutePath());
+        echofiles.add(resources);
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final Method allocatedBytes;
+        try {
+            allocatedBytes =
+                    Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes",
+                            long.class);
+        }
+        catch (final ClassNotFoundException e) {
+            return -1;
+        }
+        final long thread = Thread.currentThread().getId();
+        final long before = (Long) allocatedBytes.invoke(threads, thread);
+        echofiles.execute();
+        final long after = (Long) allocatedBytes.invoke(threads, thread);
+        return before < 0 ? -1 : after - before;
+    }
+
+    public void testLogResources() {
+        executeTarget("echofiles-multiple-text-file");
+        assertFalse("Resources should not be logged by default.", getFullLog().contains("Added resource \""));
+        executeTarget("echofiles-log-resources");
+        assertStringContains("Added resource \"", getFullLog());
+    }
+
+    public void testAllocationPerResource() throws Exception {
+        final int few = 10000;
+        final int many = 110000;
+        final ResourceCollection fewResources = createFileResources(few);
+        final ResourceCollection manyResources = createFileResources(many);
+        // warm up, so that class loading and compilation do not count
+        for (int i = 0; i < 3; i++) {
+            allocatedBytes(fewResources);
+            allocatedBytes(manyResources);
+        }
+        final long fewBytes = allocatedBytes(fewResources);
+        final long manyBytes = allocatedBytes(manyResources);
+        // nothing to measure if the JVM does not count allocations
+        if (fewBytes < 0 || manyBytes < 0) {
+            return;
+        }
+        final long perResource = (manyBytes - fewBytes) / (many - few);
+        assertTrue("Too many bytes allocated per resource: " + perResource, perResource <= ALLOCATION_BUDGET);
+    }
+
+    public void testFanOutWithFile() {
+        try {
+            executeTarget("echofiles-fanout-with-file");
+            fail("An exception should have been thrown that file and outputs cannot be combined.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Attribute \"file\" cannot be combined with nested outputs.", e.getMessage());
+        }
+    }
+
+    public void testFanOutSameFile() {
+        try {
+            executeTarget("echofiles-fanout-same-file");
+            fail("An exception should have been thrown that outputs must not share a file.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "File \"" + outFile.getAbsolutePath()
+                    + "\" is used by several outputs.", e.getMessage());
+        }
+    }
+
+    public void testFanOutBinaryWithChecksum() {
+        try {
+            executeTarget("echofiles-fanout-binary-with-checksum");
+            fail("An exception should have been thrown that binary output cannot hold checksums.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Type \"binary\" cannot be combined with \"checksum\".",
+                    e.getMessage());
+        }
+    }
+
+    public void testBinaryWithPipeline() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setType(EchoFiles.TYPE_BINARY);
+        echofiles.setPipeline(true);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that binary output and pipeline cannot be combined.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Type \"binary\" cannot be combined with \"pipeline\".",
+                    e.getMessage());
+        }
+    }
+
+    public void testSortWithPipeline() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setSort(true);
+        echofiles.setPipeline(true);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that sort and pipeline cannot be combined.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Attribute \"sort\" cannot be combined with \"pipeline\".", e.getMessage());
+        }
+    }
+
+    public void testInvalidDedup() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setDedup("lorem");
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the deduplication is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Deduplication \"lorem\" is invalid. Choose either \"hash\" or \"compact\".", e.getMessage());
+        }
+    }
+
+    public void testInvalidThreads() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setThreads(-1);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the number of threads is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Number of threads must not be negative.", e.getMessage());
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("EchoFilesTest", ".dir");
+        assertTrue("Unable to delete " + dir, dir.delete());
+        assertTrue("Unable to create " + dir, dir.mkdir());
+        return dir;
+    }
+
+    private static File createFile(final File dir, final String name, final String content) throws IOException {
+        final File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        final Writer writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        return file;
+    }
+
+    private static void deleteTree(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File prepareIncremental(final File dir) throws IOException {
+        final File stateFile = new File(dir.getParentFile(), dir.getName() + ".state");
+        getProject().setNewProperty("incremental.dir", dir.getAbsolutePath());
+        getProject().setNewProperty("statefile", stateFile.getAbsolutePath());
+        return stateFile;
+    }
+
+    public void testIncrementalTextFile() throws IOException {
+        final File dir = createTempDir();
+        final File stateFile = prepareIncremental(dir);
+        try {
+            final long past = System.currentTimeMillis() - ONE_HOUR;
+            final File fileA = createFile(dir, "a.txt", "a");
+            final File fileB = createFile(dir, "sub" + File.separator + "b.txt", "b");
+            fileA.setLastModified(past);
+            fileB.setLastModified(past);
+            fileB.getParentFile().setLastModified(past);
+            dir.setLastModified(past);
+
+            executeTarget("echofiles-incremental-text-file");
+            final List<String> expected = new ArrayList<String>();
+            expected.add("[added]");
+            expected.add(fileA.getAbsolutePath());
+            expected.add(fileB.getAbsolutePath());
+            expected.add("[removed]");
+            expected.add("[changed]");
+            assertEquals("First run should report all resources as added.", expected, readLinesInOrder(outFile));
+            assertTrue("State file should have been written.", stateFile.isFile());
+
+            executeTarget("echofiles-incremental-text-file");
+            expected.clear();
+            expected.add("[added]");
+            expected.add("[removed]");
+            expected.add("[changed]");
+            assertEquals("Second run should report no changes.", expected, readLinesInOrder(outFile));
+            assertStringContains("Reused 2 unchanged directory listings, listed 0 directories.", getFullLog());
+
+            final File fileC = createFile(dir, "c.txt", "c");
+            createFile(dir, "a.txt", "longer");
+            assertTrue("Unable to delete " + fileB, fileB.delete());
+            executeTarget("echofiles-incremental-text-file");
+            expected.clear();
+            expected.add("[added]");
+            expected.add(fileC.getAbsolutePath());
+            expected.add("[removed]");
+            expected.add(fileB.getAbsolutePath());
+            expected.add("[changed]");
+            expected.add(fileA.getAbsolutePath());
+            assertEquals("Third run should report the changes.", expected, readLinesInOrder(outFile));
+        }
+        finally {
+            deleteTree(dir);
+            stateFile.delete();
+        }
+    }
+
+    public void testIncrementalXmlFileValidatesAgainstSchema() throws Exception {
+        final File dir = createTempDir();
+        final File stateFile = prepareIncremental(dir);
+        try {
+            final File fileA = createFile(dir, "a.txt", "a");
+            executeTarget("echofiles-incremental-xml-file");
+            assertEquals("First run should report all resources as added.",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><delta><added><resource>"
+                            + fileA.getAbsolutePath() + "</resource></added><removed/><changed/></delta>",
+                    readTextFile(outFile).trim());
+
+            assertTrue("Unable to delete " + fileA, fileA.delete());
+            executeTarget("echofiles-incremental-xml-file");
+            assertStringContains("<added/><removed><resource>" + fileA.getAbsolutePath() + "</resource></removed>",
+                    readTextFile(outFile));
+            final Schema schema =
+                    SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                            getClass().getResource("/resources.xsd"));
+            schema.newValidator().validate(new StreamSource(outFile));
+        }
+        finally {
+            deleteTree(dir);
+            stateFile.delete();
+        }
+    }
+
+    public void testIncrementalJsonlFile() throws IOException {
+        final File dir = createTempDir();
+        final File stateFile = prepareIncremental(dir);
+        try {
+            final File fileA = createFile(dir, "a.txt", "a");
+            executeTarget("echofiles-incremental-jsonl-file");
+            assertEquals("First run should report all resources as added.", "{\"name\":\""
+                    + fileA.getAbsolutePath().replace("\\", "\\\\") + "\",\"change\":\"added\"}",
+                    readTextFile(outFile).trim());
+
+            assertTrue("Unable to delete " + fileA, fileA.delete());
+            executeTarget("echofiles-incremental-jsonl-file");
+            assertEquals("Second run should report the resource as removed.", "{\"name\":\""
+                    + fileA.getAbsolutePath().replace("\\", "\\\\") + "\",\"change\":\"removed\"}",
+                    readTextFile(outFile).trim());
+        }
+        finally {
+            deleteTree(dir);
+            stateFile.delete();
+        }
+    }
+
+    public void testIncrementalIgnoresCorruptStateFile() throws IOException {
+        final File dir = createTempDir();
+        final File stateFile = prepareIncremental(dir);
+        try {
+            final File fileA = createFile(dir, "a.txt", "a");
+            createFile(dir.getParentFile(), stateFile.getName(), "lorem ipsum");
+            executeTarget("echofiles-incremental-text-file");
+            assertTrue("All resources should be reported as added.", readLines(outFile).contains(
+                    fileA.getAbsolutePath()));
+            assertLogContaining("Ignoring unreadable state file");
+        }
+        finally {
+            deleteTree(dir);
+            stateFile.delete();
+        }
+    }
+
+    public void testIncrementalWithPipeline() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setIncremental(true);
+        echofiles.setPipeline(true);
+        echofiles.setFile(outFile.getAbsolutePath());
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that incremental and pipeline cannot be combined.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.",
+                    "Attribute \"incremental\" cannot be combined with \"pipeline\".", e.getMessage());
+        }
+    }
+
+    public void testIncrementalStdoutWithoutStateFile() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setIncremental(true);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that a state file is required.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Specify a state file for incremental output to System.out.",
+                    e.getMessage());
+        }
+    }
+
+    private void assertIncrementalRejected(final String target, final String expected) {
+        try {
+            executeTarget(target);
+            fail("An exception should have been thrown that " + target + " is not supported.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+    }
+
+    public void testIncrementalUnsupportedCombinations() {
+        getProject().setNewProperty("statefile", outFile.getAbsolutePath() + ".state");
+        assertIncrementalRejected("echofiles-incremental-sort",
+                "Attribute \"sort\" cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-dedup",
+                "Deduplication \"compact\" cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-parallel",
+                "Attribute \"parallel\" cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-untrusted",
+                "Attribute \"trustscanner\" cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-maxlines",
+                "Rolling output cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-shards",
+                "Attribute \"shards\" cannot be combined with \"incremental\".");
+        assertIncrementalRejected("echofiles-incremental-outputs",
+                "Attribute \"incremental\" cannot be combined with nested outputs.");
+        assertFalse("No state file should be written.", new File(outFile.getAbsolutePath() + ".state").exists());
+    }
+
+    public void testGetWriterThrowsExceptionPipeline() {
+        EchoFiles echofiles = new EchoFiles() {
+            @Override
+            protected Writer getWriter() throws IOException {
+                throw new UnsupportedEncodingException(ERROR_MSG);
+            }
+        };
+        echofiles.setPipeline(true);
+        echofiles.setQueueSize(1);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-multiple"));
+        try {
+            echofiles.execute();
+            fail("A build exception should have been thrown because the writer caused a problem.");
+        }
+        catch (BuildException e) {
+            assertTrue("Error message should start with \"Error while opening\" but is \"" + e.getMessage()
+                    + "\"", e.getMessage().startsWith("Error while opening"));
+        }
+    }
+
+    public void testInvalidQueueSize() {
+        EchoFiles echofiles = new EchoFiles();
+        echofiles.setQueueSize(0);
+        echofiles.addFileset((FileSet) getProject().getReference("fileset-self"));
+        try {
+            echofiles.execute();
+            fail("An exception should have been thrown that the queue size is invalid.");
+        }
+        catch (BuildException e) {
+            assertEquals("Wrong exception message.", "Queue size must be at least 1.", e.getMessage());
+        }
+    }
+
     public void testGetWriterThrowsException() {
         final String errorMessage = ERROR_MSG;
         EchoFiles echofiles = new EchoFiles() {
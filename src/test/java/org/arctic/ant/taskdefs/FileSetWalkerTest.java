@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.ZipFileSet;
+import org.apache.tools.ant.types.resources.StringResource;
+import org.apache.tools.ant.types.selectors.FilenameSelector;
+import org.arctic.io.DirectoryListing;
+
+public class FileSetWalkerTest extends TestCase {
+    private static final String[] FILES = {"a.txt", "b.java", "sub/c.txt", "sub/d.java", "sub/deep/e.txt",
+            "other/f.TXT", "CVS/Entries", "sub/CVS/Root" };
+
+    private Project project;
+    private File baseDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        project = new Project();
+        project.init();
+        baseDir = File.createTempFile("FileSetWalkerTest", ".dir");
+        assertTrue(baseDir.delete());
+        assertTrue(baseDir.mkdir());
+        for (final String name : FILES) {
+            final File file = new File(baseDir, name.replace('/', File.separatorChar));
+            file.getParentFile().mkdirs();
+            assertTrue(file.createNewFile());
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(baseDir);
+        super.tearDown();
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private FileSet createFileSet() {
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setDir(baseDir);
+        return fileSet;
+    }
+
+    private static Set<String> walk(final FileSetWalker walker) throws InterruptedException {
+        final Set<String> found = new TreeSet<String>();
+        walker.walk(new FileSetWalker.Visitor() {
+            public boolean visit(final File file, final String relativePath) {
+                assertEquals("Relative path should denote the file.", new File(walker.getBaseDir(), relativePath),
+                        file);
+                found.add(relativePath);
+                return true;
+            }
+        });
+        return found;
+    }
+
+    private void assertSameAsScanner(final FileSet fileSet) throws InterruptedException {
+        assertTrue("File set should be supported.", FileSetWalker.isSupported(fileSet, project));
+        final Set<String> expected =
+                new TreeSet<String>(Arrays.asList(fileSet.getDirectoryScanner(project).getIncludedFiles()));
+        assertEquals("Walker should find the same files as the directory scanner.", expected, walk(new FileSetWalker(
+                fileSet, project)));
+    }
+
+    public void testAll() throws Exception {
+        assertSameAsScanner(createFileSet());
+    }
+
+    public void testIncludes() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("**/*.txt");
+        assertSameAsScanner(fileSet);
+    }
+
+    public void testIncludesAndExcludes() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("sub/**,*.java");
+        fileSet.setExcludes("sub/deep/");
+        assertSameAsScanner(fileSet);
+    }
+
+    public void testNoDefaultExcludes() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setDefaultexcludes(false);
+        assertSameAsScanner(fileSet);
+    }
+
+    public void testCaseInsensitive() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("**/*.txt");
+        fileSet.setCaseSensitive(false);
+        assertSameAsScanner(fileSet);
+    }
+
+    public void testSingleFile() throws Exception {
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setFile(new File(baseDir, "a.txt"));
+        assertSameAsScanner(fileSet);
+    }
+
+    private static Set<String> lookUp(final FileSetWalker walker) throws InterruptedException {
+        walker.setLiteralLookup(true);
+        walker.setLister(new FileSetWalker.Lister() {
+            public DirectoryListing list(final File dir) throws IOException {
+                throw new IOException("Literal paths should not be walked: " + dir);
+            }
+        });
+        return walk(walker);
+    }
+
+    public void testLiteralLookup() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("a.txt,sub/deep/e.txt,missing.txt,sub,CVS/Entries");
+        final Set<String> expected =
+                new TreeSet<String>(Arrays.asList(fileSet.getDirectoryScanner(project).getIncludedFiles()));
+        assertEquals("Lookup should find the same files as the directory scanner.", expected, lookUp(new FileSetWalker(
+                fileSet, project)));
+    }
+
+    public void testLiteralLookupExcludes() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("a.txt,sub/c.txt");
+        fileSet.setExcludes("sub/");
+        assertEquals("Lookup should respect excludes.", Collections.singleton("a.txt"), lookUp(new FileSetWalker(
+                fileSet, project)));
+    }
+
+    public void testLiteralLookupSingleFile() throws Exception {
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setFile(new File(baseDir, "a.txt"));
+        assertEquals("Lookup should find the file.", Collections.singleton("a.txt"), lookUp(new FileSetWalker(
+                fileSet, project)));
+    }
+
+    public void testLiteralLookupNeedsLiteralPatterns() throws Exception {
+        final FileSet fileSet = createFileSet();
+        fileSet.setIncludes("a.txt,sub/*.txt");
+        try {
+            lookUp(new FileSetWalker(fileSet, project));
+            fail("File sets with wildcards should be walked.");
+        }
+        catch (final BuildException e) {
+            assertTrue("Wrong exception message: " + e.getMessage(), e.getMessage().startsWith(
+                    "Literal paths should not be walked"));
+        }
+    }
+
+    public void testVisitorStopsWalking() throws Exception {
+        final List<File> visited = new ArrayList<File>();
+        final boolean completed = new FileSetWalker(createFileSet(), project).walk(new FileSetWalker.Visitor() {
+            public boolean visit(final File file, final String relativePath) {
+                visited.add(file);
+                return false;
+            }
+        });
+        assertFalse("Walking should report that it has been stopped.", completed);
+        assertEquals("Walking should stop when the visitor requests it.", 1, visited.size());
+    }
+
+    public void testUnsupported() throws IOException {
+        final FileSet withSelector = createFileSet();
+        withSelector.addFilename(new FilenameSelector());
+        assertFalse("File sets with selectors should not be supported.", FileSetWalker.isSupported(withSelector,
+                project));
+        final FileSet missingDir = new FileSet();
+        missingDir.setProject(project);
+        missingDir.setDir(new File(baseDir, "missing"));
+        assertFalse("File sets without existing directory should not be supported.", FileSetWalker.isSupported(
+                missingDir, project));
+        final ZipFileSet zipFileSet = new ZipFileSet();
+        zipFileSet.setProject(project);
+        zipFileSet.setSrc(new File(baseDir, "a.zip"));
+        assertFalse("Archive file sets should not be supported.", FileSetWalker.isSupported(zipFileSet, project));
+        assertFalse("Other resource collections should not be supported.", FileSetWalker.isSupported(
+                new StringResource("lorem"), project));
+    }
+}
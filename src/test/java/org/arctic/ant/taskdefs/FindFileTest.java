@@ -16,6 +16,9 @@
 package org.arctic.ant.taskdefs;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 
 import org.apache.tools.ant.BuildFileTest;
@@ -108,9 +111,336 @@ public class FindFileTest extends BuildFileTest {
         }
     }
 
+    public void testFilePresentParallel() {
+        executeTarget("findfile-self-parallel");
+        final String result = getProject().getProperty("findfile.self.parallel");
+        assertNotNull("Property not set.", result);
+        assertTrue("Wrong file found.", result.endsWith("build-findfile.xml"));
+    }
+
+    public void testMultipleFilesParallel() {
+        try {
+            executeTarget("findfile-multiple-parallel");
+            fail("An exception should have been thrown that the resource pattern is ambiguous.");
+        }
+        catch (Exception e) {
+            final String expected = "Ambiguous resource pattern: Matches more than one resource. Run in debug mode for more details.";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+        assertNull("Property set.", getProject().getProperty("findfile.multiple.parallel"));
+    }
+
     public void testNoFiles() {
         executeTarget("findfile-none");
         final String result = getProject().getProperty("findfile.none");
         assertNull("Property set.", result);
     }
+
+    public void testBatch() {
+        executeTarget("findfile-batch");
+        final String self = getProject().getProperty("findfile.batch.self");
+        assertNotNull("Property not set.", self);
+        assertTrue("Wrong file found.", self.endsWith("build-findfile.xml"));
+        final String identity = getProject().getProperty("findfile.batch.identity");
+        assertNotNull("Property not set.", identity);
+        assertTrue("Wrong file found.", identity.endsWith("build-identity.xml"));
+        assertNull("Property set.", getProject().getProperty("findfile.batch.none"));
+    }
+
+    public void testBatchMultipleFiles() {
+        try {
+            executeTarget("findfile-batch-multiple");
+            fail("An exception should have been thrown that the resource pattern is ambiguous.");
+        }
+        catch (Exception e) {
+            final String expected = "Ambiguous resource pattern for property findfile.batch.multiple: "
+                    + "Matches more than one resource. Run in debug mode for more details.";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+        assertNull("Property set.", getProject().getProperty("findfile.batch.multiple.self"));
+    }
+
+    public void testBatchWithProperty() {
+        try {
+            executeTarget("findfile-batch-property");
+            fail("An exception should have been thrown that the property cannot be combined with finds.");
+        }
+        catch (Exception e) {
+            final String expected = "Attribute \"property\" cannot be combined with nested finds.";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+    }
+
+    public void testBatchMissingPattern() {
+        try {
+            executeTarget("findfile-batch-missing-pattern");
+            fail("An exception should have been thrown that the pattern is not set.");
+        }
+        catch (Exception e) {
+            final String expected = "Specify a property and a pattern for each nested find.";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("FindFileTest", ".dir");
+        assertTrue("Unable to delete " + dir, dir.delete());
+        assertTrue("Unable to create " + dir, dir.mkdir());
+        return dir;
+    }
+
+    private static void deleteTree(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void assertLogContains(final String expected, final String log) {
+        assertTrue("Log should contain \"" + expected + "\" but was: " + log, log.contains(expected));
+    }
+
+    private String executeCached(final File dir, final File cacheFile) throws Exception {
+        // properties cannot be overwritten, so every build gets a new project
+        setUp();
+        getProject().setNewProperty("findfile.cache.dir", dir.getAbsolutePath());
+        getProject().setNewProperty("findfile.cache.file", cacheFile.getAbsolutePath());
+        executeTarget("findfile-cache");
+        return getProject().getProperty("findfile.cache");
+    }
+
+    public void testCache() throws Exception {
+        final File dir = createTempDir();
+        final File cacheFile = new File(dir.getParentFile(), dir.getName() + ".cache");
+        try {
+            final long past = System.currentTimeMillis() - 60L * 60L * 1000L;
+            final File lib = new File(dir, "lib");
+            final File other = new File(dir, "other");
+            assertTrue(lib.mkdir() && other.mkdir());
+            final File jar = new File(lib, "foo-1.jar");
+            assertTrue(jar.createNewFile());
+            assertTrue(new File(other, "bar-1.jar").createNewFile());
+            lib.setLastModified(past);
+            other.setLastModified(past);
+            dir.setLastModified(past);
+
+            assertEquals("Wrong file found.", jar.getAbsolutePath(), executeCached(dir, cacheFile));
+            assertLogContains("Resolution cache miss (0 hits, 1 misses).", getFullLog());
+            assertTrue("Cache file should have been written.", cacheFile.isFile());
+
+            assertTrue(cacheFile.setLastModified(past));
+            assertEquals("Wrong file taken from cache.", jar.getAbsolutePath(), executeCached(dir, cacheFile));
+            assertLogContains("Resolution cache hit (1 hits, 0 misses).", getFullLog());
+            assertEquals("Cache file should not be written on a hit.", past, cacheFile.lastModified());
+
+            final File renamed = new File(lib, "foo-2.jar");
+            assertTrue(jar.renameTo(renamed));
+            assertEquals("Change not detected.", renamed.getAbsolutePath(), executeCached(dir, cacheFile));
+            assertLogContains("Resolution cache miss (0 hits, 1 misses).", getFullLog());
+        }
+        finally {
+            deleteTree(dir);
+            cacheFile.delete();
+        }
+    }
+
+    public void testCacheSharedWithinBuild() throws Exception {
+        final File dir = createTempDir();
+        final File cacheFile = new File(dir.getParentFile(), dir.getName() + ".cache");
+        try {
+            final long past = System.currentTimeMillis() - 60L * 60L * 1000L;
+            final File jar = new File(dir, "foo-1.jar");
+            assertTrue(jar.createNewFile());
+            dir.setLastModified(past);
+
+            setUp();
+            getProject().setNewProperty("findfile.cache.dir", dir.getAbsolutePath());
+            getProject().setNewProperty("findfile.cache.file", cacheFile.getAbsolutePath());
+            executeTarget("findfile-cache-twice");
+            assertLogContains("Resolution cache miss (0 hits, 1 misses).", getFullLog());
+            assertLogContains("Resolution cache hit (1 hits, 1 misses).", getFullLog());
+            assertEquals("Wrong file taken from cache.", jar.getAbsolutePath(),
+                    getProject().getProperty("findfile.cache.again"));
+        }
+        finally {
+            deleteTree(dir);
+            cacheFile.delete();
+        }
+    }
+
+    private String executeIndexed(final String target, final File dir, final File indexFile)
+            throws Exception {
+        setUp();
+        getProject().setNewProperty("findfile.index.dir", dir.getAbsolutePath());
+        getProject().setNewProperty("findfile.index.file", indexFile.getAbsolutePath());
+        executeTarget(target);
+        return getProject().getProperty("findfile.index");
+    }
+
+    public void testIndex() throws Exception {
+        final File dir = createTempDir();
+        final File indexFile = new File(dir.getParentFile(), dir.getName() + ".index");
+        try {
+            final long past = System.currentTimeMillis() - 60L * 60L * 1000L;
+            final File lib = new File(dir, "lib");
+            final File sub = new File(lib, "sub");
+            final File other = new File(dir, "other");
+            assertTrue(sub.mkdirs() && other.mkdir());
+            final File jar = new File(sub, "foo-1.jar");
+            assertTrue(jar.createNewFile());
+            assertTrue(new File(lib, "foo-1.txt").createNewFile());
+            assertTrue(new File(other, "foo-2.jar").createNewFile());
+            for (final File directory : new File[] {dir, lib, sub, other }) {
+                assertTrue(directory.setLastModified(past));
+            }
+
+            executeIndexed("indexfiles", dir, indexFile);
+            assertLogContains("Indexed 3 files in 4 directories.", getLog());
+
+            assertEquals("Wrong file found.", jar.getAbsolutePath(), executeIndexed("findfile-index", dir, indexFile));
+            assertLogContains("Searching index for", getFullLog());
+
+            assertTrue("Changes outside the searched directories should be ignored.",
+                    new File(other, "foo-3.jar").createNewFile());
+            assertEquals("Wrong file found.", jar.getAbsolutePath(), executeIndexed("findfile-index", dir, indexFile));
+            assertLogContains("Searching index for", getFullLog());
+
+            final File added = new File(lib, "foo-2.jar");
+            assertTrue(added.createNewFile());
+            try {
+                executeIndexed("findfile-index", dir, indexFile);
+                fail("An exception should have been thrown that the resource pattern is ambiguous.");
+            }
+            catch (Exception e) {
+                assertLogContains("Ambiguous resource pattern", e.getMessage());
+            }
+            assertLogContains("Index is stale for", getFullLog());
+        }
+        finally {
+            deleteTree(dir);
+            indexFile.delete();
+        }
+    }
+
+    public void testIndexWithCache() {
+        try {
+            executeTarget("findfile-index-cache");
+            fail("An exception should have been thrown that index and cache cannot be combined.");
+        }
+        catch (Exception e) {
+            final String expected = "Attribute \"index\" cannot be combined with \"cache\".";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+    }
+
+    private static File createJar(final File dir, final String name, final int size, final long lastModified)
+            throws IOException {
+        final File file = new File(dir, name);
+        final Writer writer = new FileWriter(file);
+        for (int i = 0; i < size; i++) {
+            writer.write('x');
+        }
+        writer.close();
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private String executeSelect(final File dir, final String policy) throws Exception {
+        setUp();
+        getProject().setNewProperty("findfile.select.dir", dir.getAbsolutePath());
+        getProject().setNewProperty("findfile.select.policy", policy);
+        executeTarget("findfile-select");
+        return getProject().getProperty("findfile.select");
+    }
+
+    private static int count(final String text, final String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    public void testSelect() throws Exception {
+        final File dir = createTempDir();
+        try {
+            final long now = System.currentTimeMillis() / 1000L * 1000L;
+            final File sub = new File(dir, "sub");
+            assertTrue(sub.mkdir());
+            final File old = createJar(dir, "foo-1.9.jar", 1, now - 30000L);
+            final File large = createJar(sub, "foo-1.10-beta.jar", 3, now - 20000L);
+            final File recent = createJar(dir, "foo-1.10.jar", 2, now - 10000L);
+            createJar(dir, "bar-2.0.jar", 4, now);
+
+            assertEquals("Wrong newest file.", recent.getAbsolutePath(), executeSelect(dir, "newest"));
+            assertEquals("Wrong oldest file.", old.getAbsolutePath(), executeSelect(dir, "oldest"));
+            assertEquals("Wrong largest file.", large.getAbsolutePath(), executeSelect(dir, "largest"));
+            assertEquals("Wrong highest version.", recent.getAbsolutePath(),
+                    executeSelect(dir, "highest-version"));
+            assertNotNull("No first file.", executeSelect(dir, "first"));
+            assertEquals("First should stop scanning.", 1, count(getFullLog(), "Found resource"));
+        }
+        finally {
+            deleteTree(dir);
+        }
+    }
+
+    public void testSelectBatch() throws Exception {
+        final File dir = createTempDir();
+        try {
+            final long now = System.currentTimeMillis();
+            final File highest = createJar(dir, "foo-2.0.jar", 1, now);
+            createJar(dir, "foo-1.0.jar", 1, now);
+            getProject().setNewProperty("findfile.select.dir", dir.getAbsolutePath());
+            executeTarget("findfile-select-batch");
+            assertEquals("Wrong highest version.", highest.getAbsolutePath(),
+                    getProject().getProperty("findfile.select.batch.version"));
+            assertNotNull("No first file.", getProject().getProperty("findfile.select.batch.first"));
+        }
+        finally {
+            deleteTree(dir);
+        }
+    }
+
+    public void testSelectFirstParallel() throws Exception {
+        final File dir = createTempDir();
+        try {
+            final long now = System.currentTimeMillis();
+            // the first file set takes much longer to scan than the second one
+            final File slow = new File(dir, "slow");
+            for (int i = 0; i < 200; i++) {
+                final File sub = new File(slow, "sub" + i);
+                assertTrue(sub.mkdirs());
+                for (int j = 0; j < 10; j++) {
+                    createJar(sub, "bar-" + j + ".txt", 1, now);
+                }
+            }
+            final File first = createJar(new File(slow, "sub199"), "foo-1.0.jar", 1, now);
+            final File fast = new File(dir, "fast");
+            assertTrue(fast.mkdir());
+            createJar(fast, "foo-2.0.jar", 1, now);
+            getProject().setNewProperty("findfile.select.dir", dir.getAbsolutePath());
+            executeTarget("findfile-select-first-parallel");
+            assertEquals("The first file set should win.", first.getAbsolutePath(),
+                    getProject().getProperty("findfile.select.first.parallel"));
+        }
+        finally {
+            deleteTree(dir);
+        }
+    }
+
+    public void testSelectUnknown() {
+        try {
+            executeTarget("findfile-select-unknown");
+            fail("An exception should have been thrown that the selection is unknown.");
+        }
+        catch (Exception e) {
+            final String expected = "Unknown selection \"best\": Choose either \"newest\", \"oldest\", "
+                    + "\"largest\", \"highest-version\" or \"first\".";
+            assertEquals("Wrong exception message.", expected, e.getMessage());
+        }
+    }
 }
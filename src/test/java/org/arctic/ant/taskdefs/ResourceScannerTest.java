@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.ant.taskdefs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.StringResource;
+
+public class ResourceScannerTest extends TestCase {
+    private static final int COLLECTIONS = 20;
+
+    private List<ResourceCollection> rcs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        rcs = new ArrayList<ResourceCollection>();
+        for (int i = 0; i < COLLECTIONS; i++) {
+            rcs.add(new StringResource("resource" + i));
+        }
+    }
+
+    private List<String> scan(final ResourceScanner scanner) throws InterruptedException {
+        final List<String> names = new ArrayList<String>();
+        scanner.scan(rcs, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) {
+                names.add(ResourceScanner.getName(resource));
+                return true;
+            }
+        });
+        return names;
+    }
+
+    public void testParallelKeepsOrder() throws Exception {
+        assertEquals("Parallel scanning should hand over resources in collection order.",
+                scan(new ResourceScanner(1)), scan(new ResourceScanner(4)));
+    }
+
+    public void testLimitSequential() throws Exception {
+        final ResourceScanner scanner = new ResourceScanner(1);
+        scanner.setLimit(2);
+        assertEquals("Scanning should stop at the limit.", 2, scan(scanner).size());
+    }
+
+    public void testLimitParallel() throws Exception {
+        final ResourceScanner scanner = new ResourceScanner(4);
+        scanner.setLimit(2);
+        assertEquals("Scanning should stop at the limit.", 2, scan(scanner).size());
+    }
+
+    public void testHandlerStopsScanning() throws Exception {
+        final List<Resource> handled = new ArrayList<Resource>();
+        new ResourceScanner(4).scan(rcs, new ResourceScanner.Handler() {
+            public boolean handle(final Resource resource) {
+                handled.add(resource);
+                return false;
+            }
+        });
+        assertEquals("Scanning should stop when the handler requests it.", 1, handled.size());
+    }
+
+    private static FileSet scannedFileSet(final File file) {
+        return new FileSet() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator iterator() {
+                return Collections.singletonList(new FileResource(file)).iterator();
+            }
+        };
+    }
+
+    private static FileSet slowFileSet(final File file, final long delay) {
+        return new FileSet() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator iterator() {
+                try {
+                    Thread.sleep(delay);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.singletonList(new FileResource(file)).iterator();
+            }
+        };
+    }
+
+    public void testLimitParallelKeepsOrder() throws Exception {
+        final File first = new File("first.jar");
+        rcs.clear();
+        rcs.add(slowFileSet(first, 300L));
+        rcs.add(scannedFileSet(new File("second.jar")));
+        final ResourceScanner scanner = new ResourceScanner(2);
+        scanner.setLimit(1);
+        assertEquals("The resources of the slow first collection should be handed over.", Collections
+                .singletonList(first.getAbsolutePath()), scan(scanner));
+    }
+
+    public void testParallelStreamsResources() throws Exception {
+        final int count = 5000;
+        final List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < count; i++) {
+            resources.add(new StringResource("streamed" + i));
+        }
+        rcs.clear();
+        rcs.add(new FileSet() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator iterator() {
+                return resources.iterator();
+            }
+        });
+        rcs.add(new StringResource("last"));
+        final List<String> names = scan(new ResourceScanner(2));
+        assertEquals(count + 1, names.size());
+        assertEquals("streamed0", names.get(0));
+        assertEquals("last", names.get(count));
+    }
+
+    public void testTrustScanner() throws Exception {
+        final File missing = new File("NoWhereMan.hidden");
+        rcs.clear();
+        rcs.add(scannedFileSet(missing));
+        assertEquals("Files of a file set should not be checked for existence.", Collections
+                .singletonList(missing.getAbsolutePath()), scan(new ResourceScanner(1)));
+        final ResourceScanner checking = new ResourceScanner(1);
+        checking.setTrustScanner(false);
+        assertTrue("Files of a file set should be checked for existence if the scanner is not trusted.", scan(
+                checking).isEmpty());
+        rcs.clear();
+        rcs.add(new FileResource(missing));
+        assertTrue("Files of other collections should be checked for existence.", scan(new ResourceScanner(1))
+                .isEmpty());
+    }
+
+    public void testWalkFileSets() throws Exception {
+        final Project project = new Project();
+        project.init();
+        final FileSet fileSet = new FileSet();
+        fileSet.setProject(project);
+        fileSet.setDir(new File(getClass().getResource("build-findfile.xml").toURI()).getParentFile());
+        rcs.clear();
+        rcs.add(fileSet);
+        final ResourceScanner walking = new ResourceScanner(1);
+        walking.setWalkFileSets(project);
+        assertEquals("Walking should find the same files as iterating.", new TreeSet<String>(scan(
+                new ResourceScanner(1))), new TreeSet<String>(scan(walking)));
+        walking.setLimit(2);
+        assertEquals("Walking should stop at the limit.", 2, scan(walking).size());
+        final ResourceScanner walkingParallel = new ResourceScanner(4);
+        walkingParallel.setWalkFileSets(project);
+        walkingParallel.setLimit(2);
+        rcs.add(fileSet);
+        assertEquals("Walking concurrently should stop at the limit.", 2, scan(walkingParallel).size());
+    }
+}
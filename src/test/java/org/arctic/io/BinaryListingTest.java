@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class BinaryListingTest extends TestCase {
+    private static final int MANY = 1000;
+    private static final int[] BLOCK_SIZES = {1, 3, BinaryListingWriter.DEFAULT_BLOCK_SIZE };
+
+    private File listing;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        listing = File.createTempFile("BinaryListingTest", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        listing.delete();
+        super.tearDown();
+    }
+
+    private static List<String> paths(final int count) {
+        final TreeSet<String> paths = new TreeSet<String>();
+        for (int i = 0; i < count; i++) {
+            paths.add("/home/user/project" + i % 7 + "/src/ümlaut/File" + i + ".java");
+        }
+        return new ArrayList<String>(paths);
+    }
+
+    private void write(final List<String> paths, final int blockSize) throws IOException {
+        final BinaryListingWriter writer = new BinaryListingWriter(new FileOutputStream(listing), blockSize);
+        for (final String path : paths) {
+            writer.write(path);
+        }
+        assertEquals(paths.size(), writer.getCount());
+        writer.close();
+    }
+
+    private static List<String> toList(final Iterator<String> iterator) {
+        final List<String> result = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    public void testRoundTrip() throws IOException {
+        for (final int count : new int[] {0, 1, 3, 64, 65, MANY }) {
+            final List<String> paths = paths(count);
+            for (final int blockSize : BLOCK_SIZES) {
+                write(paths, blockSize);
+                final BinaryListingReader reader = new BinaryListingReader(listing);
+                try {
+                    assertEquals("Size should match for " + count + " paths.", count, reader.size());
+                    assertEquals("Paths should be read in order for " + count + " paths and block size "
+                            + blockSize + ".", paths, toList(reader.iterator()));
+                }
+                finally {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    public void testSearch() throws IOException {
+        final List<String> paths = paths(MANY);
+        for (final int blockSize : BLOCK_SIZES) {
+            write(paths, blockSize);
+            final BinaryListingReader reader = new BinaryListingReader(listing);
+            try {
+                for (int i = 0; i < paths.size(); i += 37) {
+                    final String path = paths.get(i);
+                    assertTrue("Listing should contain " + path, reader.contains(path));
+                    assertFalse("Listing should not contain " + path + "x", reader.contains(path + "x"));
+                    assertEquals("Iteration should start at the path.", paths.subList(i, paths.size()),
+                            toList(reader.iterator(path)));
+                    assertEquals("Iteration should start after a missing path.", paths.subList(i + 1, paths
+                            .size()), toList(reader.iterator(path + "\u0000")));
+                }
+                assertEquals("Iteration should start at the first path.", paths, toList(reader.iterator("")));
+                assertFalse("Iteration should be empty after the last path.", reader.iterator("\uffff")
+                        .hasNext());
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testCompact() throws IOException {
+        final List<String> paths = paths(MANY);
+        long textBytes = 0;
+        for (final String path : paths) {
+            textBytes += path.getBytes("UTF-8").length + 1;
+        }
+        write(paths, BinaryListingWriter.DEFAULT_BLOCK_SIZE);
+        assertTrue("Front coding should shrink the listing considerably.", listing.length() * 3 < textBytes);
+    }
+
+    public void testUnsorted() throws IOException {
+        final BinaryListingWriter writer = new BinaryListingWriter(new FileOutputStream(listing));
+        writer.write("b");
+        try {
+            writer.write("a");
+            fail("Writing paths out of order should fail.");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            writer.write("b");
+            fail("Writing duplicate paths should fail.");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+        writer.close();
+    }
+
+    public void testNoListing() throws IOException {
+        final FileOutputStream out = new FileOutputStream(listing);
+        out.write("Lorem ipsum dolor sit amet, consectetur adipisici elit".getBytes("UTF-8"));
+        out.close();
+        try {
+            new BinaryListingReader(listing);
+            fail("Reading a file which is no binary listing should fail.");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+    }
+}
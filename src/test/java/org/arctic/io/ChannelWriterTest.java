@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ChannelWriterTest extends TestCase {
+    private static final int SMALL_BUFFER = 128;
+    private static final int LONG_STRING = 1000;
+    private static final int VERY_LONG_STRING = 20000;
+
+    private static final String[] CHUNKS = {"/usr/local/lib/a.jar", "\n", "/home/ümlaut/€.txt",
+            "\ud83d", "\ude00", "/a", "\ud800", "x", "\udc00", "", "éééabcé", "\ud83d" };
+
+    private static byte[] expected(final String charset, final String[] chunks) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes, charset);
+        for (final String chunk : chunks) {
+            writer.write(chunk);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] actual(final String charset, final String[] chunks, final int bufferSize)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new ChannelWriter(Channels.newChannel(bytes), charset, bufferSize);
+        for (final String chunk : chunks) {
+            writer.write(chunk);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameOutput(final String charset, final String[] chunks) throws IOException {
+        final byte[] expected = expected(charset, chunks);
+        assertTrue("Output for " + charset + " should match OutputStreamWriter.", Arrays.equals(expected,
+                actual(charset, chunks, ChannelWriter.DEFAULT_BUFFER_SIZE)));
+        assertTrue("Output for " + charset + " with small buffer should match OutputStreamWriter.", Arrays
+                .equals(expected, actual(charset, chunks, SMALL_BUFFER)));
+    }
+
+    public void testUtf8() throws IOException {
+        assertSameOutput("UTF-8", CHUNKS);
+    }
+
+    public void testIso88591() throws IOException {
+        assertSameOutput("ISO-8859-1", CHUNKS);
+    }
+
+    public void testUtf16() throws IOException {
+        assertSameOutput("UTF-16", CHUNKS);
+    }
+
+    public void testLongStrings() throws IOException {
+        final StringBuilder ascii = new StringBuilder();
+        final StringBuilder mixed = new StringBuilder();
+        for (int i = 0; i < LONG_STRING; i++) {
+            ascii.append((char) ('a' + i % 26));
+            mixed.append(i % 3 == 0 ? '€' : 'b');
+        }
+        final String[] chunks = {ascii.toString(), mixed.toString(), ascii.toString() };
+        assertSameOutput("UTF-8", chunks);
+        assertSameOutput("US-ASCII", chunks);
+    }
+
+    public void testSurrogatesAcrossBatches() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < VERY_LONG_STRING; i++) {
+            text.append(i % 7 == 0 ? "\ud83d\ude00" : "a");
+        }
+        final String[] chunks = {"a", text.toString(), text.toString() };
+        assertSameOutput("UTF-8", chunks);
+        assertSameOutput("UTF-16", chunks);
+    }
+
+    public void testSingleChars() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < VERY_LONG_STRING; i++) {
+            text.append(i % 7 == 0 ? "\ud83d\ude00" : "a");
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new ChannelWriter(Channels.newChannel(bytes), "UTF-8", SMALL_BUFFER);
+        for (int i = 0; i < text.length(); i++) {
+            writer.write(text.charAt(i));
+        }
+        writer.close();
+        assertTrue("Output of single chars should match OutputStreamWriter.", Arrays.equals(expected("UTF-8",
+                new String[] {text.toString() }), bytes.toByteArray()));
+    }
+
+    public void testWriteAfterClose() throws IOException {
+        final Writer writer = new ChannelWriter(Channels.newChannel(new ByteArrayOutputStream()), "UTF-8");
+        writer.close();
+        writer.close();
+        try {
+            writer.write("lorem");
+            fail("Writing to a closed writer should fail.");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+public class CompressingChannelTest extends TestCase {
+    private static final int SMALL_BUFFER = 100;
+    private static final int CHUNKS = 500;
+    private static final int MAX_CHUNK = 777;
+
+    private static byte[] input() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; bytes.size() < CHUNKS * MAX_CHUNK / 2; i++) {
+            bytes.write(("/home/user/project" + i % 7 + "/src/File" + i + ".java\n").getBytes("UTF-8"));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] compress(final byte[] input, final CompressingChannel.Format format,
+            final int level, final int bufferSize) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CompressingChannel channel = new CompressingChannel(bytes, format, level, bufferSize);
+        final Random random = new Random(7);
+        int offset = 0;
+        while (offset < input.length) {
+            final int length = Math.min(input.length - offset, random.nextInt(MAX_CHUNK));
+            assertEquals("All bytes should be written.", length, channel.write(ByteBuffer.wrap(input, offset,
+                    length)));
+            offset += length;
+        }
+        channel.close();
+        assertFalse("Channel should be closed.", channel.isOpen());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[SMALL_BUFFER];
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    public void testGzip() throws IOException {
+        final byte[] input = input();
+        for (final int bufferSize : new int[] {SMALL_BUFFER, CompressingChannel.DEFAULT_BUFFER_SIZE }) {
+            final byte[] compressed = compress(input, CompressingChannel.Format.GZIP, 1, bufferSize);
+            assertTrue("Output should be compressed.", compressed.length < input.length / 2);
+            assertTrue("Decompressed output should match input.", Arrays.equals(input, readFully(
+                    new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+        }
+    }
+
+    public void testDeflate() throws IOException {
+        final byte[] input = input();
+        for (final int level : new int[] {Deflater.DEFAULT_COMPRESSION, 0, Deflater.BEST_COMPRESSION }) {
+            final byte[] compressed = compress(input, CompressingChannel.Format.DEFLATE, level, SMALL_BUFFER);
+            assertTrue("Decompressed output should match input.", Arrays.equals(input, readFully(
+                    new InflaterInputStream(new ByteArrayInputStream(compressed)))));
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        final byte[] compressed = compress(new byte[0], CompressingChannel.Format.GZIP, 1, SMALL_BUFFER);
+        assertEquals("Decompressed output should be empty.", 0, readFully(
+                new GZIPInputStream(new ByteArrayInputStream(compressed))).length);
+    }
+
+    public void testFailure() throws IOException {
+        final CompressingChannel channel = new CompressingChannel(new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("Disk full.");
+            }
+        }, CompressingChannel.Format.DEFLATE, 0, SMALL_BUFFER);
+        final byte[] input = input();
+        try {
+            for (int i = 0; i < CHUNKS; i++) {
+                channel.write(ByteBuffer.wrap(input, 0, MAX_CHUNK));
+            }
+            channel.close();
+            fail("The failure of the target stream should be rethrown.");
+        }
+        catch (final IOException e) {
+            assertEquals("Wrong cause.", "Disk full.", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+import junit.framework.TestCase;
+
+public class FileDigesterTest extends TestCase {
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final String ABC_MD5 = "900150983cd24fb0d6963f7d28e17f72";
+    private static final String ABC_CRC32 = "352441c2";
+    private static final String EMPTY_CRC32 = "00000000";
+    private static final int LARGE = 1024 * 1024 + 17;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("FileDigesterTest", ".txt");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private void write(final byte[] content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+
+    public void testKnownValues() throws Exception {
+        write("abc".getBytes("US-ASCII"));
+        assertEquals("Wrong SHA-256.", ABC_SHA256, new FileDigester("SHA-256").digest(file));
+        assertEquals("Wrong MD5.", ABC_MD5, new FileDigester("MD5").digest(file));
+        assertEquals("Wrong CRC32.", ABC_CRC32, new FileDigester(FileDigester.CRC32).digest(file));
+        assertEquals("Wrong CRC32 of stream.", ABC_CRC32, new FileDigester(FileDigester.CRC32)
+                .digest(new ByteArrayInputStream("abc".getBytes("US-ASCII"))));
+    }
+
+    public void testEmpty() throws Exception {
+        write(new byte[0]);
+        assertEquals("Wrong CRC32 of empty file.", EMPTY_CRC32, new FileDigester(FileDigester.CRC32)
+                .digest(file));
+    }
+
+    public void testFileMatchesStream() throws Exception {
+        final byte[] content = new byte[LARGE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + i / 7);
+        }
+        write(content);
+        final FileDigester digester = new FileDigester("SHA-256");
+        assertEquals("File and stream should have the same checksum.", digester
+                .digest(new ByteArrayInputStream(content)), digester.digest(file));
+        assertEquals("Reusing the digest should not change the checksum.", digester.digest(file), digester
+                .digest(file));
+    }
+
+    public void testUnsupported() {
+        try {
+            new FileDigester("SHA-4711");
+            fail("Unsupported algorithms should be rejected.");
+        }
+        catch (final NoSuchAlgorithmException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class JsonLinesWriterTest extends TestCase {
+    public void testObjects() throws IOException {
+        final StringWriter out = new StringWriter();
+        final JsonLinesWriter writer = new JsonLinesWriter(out);
+        writer.startObject();
+        writer.writeField("name", "/home/a.txt");
+        writer.writeField("size", 42);
+        writer.endObject();
+        writer.startObject();
+        writer.endObject();
+        writer.startObject();
+        writer.writeField("name", "");
+        writer.endObject();
+        writer.close();
+        assertEquals("Wrong output.", "{\"name\":\"/home/a.txt\",\"size\":42}\n{}\n{\"name\":\"\"}\n", out
+                .toString());
+    }
+
+    public void testEscaping() throws IOException {
+        final StringWriter out = new StringWriter();
+        final JsonLinesWriter writer = new JsonLinesWriter(out);
+        writer.startObject();
+        writer.writeField("a\"b", "C:\\dir\\\"quoted\"\t\r\n\b\f\u0000\u001f/ü€\ud83d\ude00");
+        writer.endObject();
+        writer.close();
+        assertEquals("Wrong escaping.",
+                "{\"a\\\"b\":\"C:\\\\dir\\\\\\\"quoted\\\"\\t\\r\\n\\b\\f\\u0000\\u001f/ü€\ud83d\ude00\"}\n", out
+                        .toString());
+    }
+
+    public void testNumbers() throws IOException {
+        final long[] values = {0, 1, -1, 9, 10, 1234567890123L, -987654321L, Long.MAX_VALUE, Long.MIN_VALUE };
+        final StringWriter out = new StringWriter();
+        final JsonLinesWriter writer = new JsonLinesWriter(out);
+        final StringBuilder expected = new StringBuilder();
+        for (final long value : values) {
+            writer.startObject();
+            writer.writeField("n", value);
+            writer.endObject();
+            expected.append("{\"n\":").append(value).append("}\n");
+        }
+        writer.close();
+        assertEquals("Wrong numbers.", expected.toString(), out.toString());
+    }
+}
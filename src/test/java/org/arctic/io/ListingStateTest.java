@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ListingStateTest extends TestCase {
+    private static final int MANY = 1000;
+
+    private File stateFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        stateFile = File.createTempFile("ListingStateTest", ".state");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        stateFile.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws IOException {
+        final ListingState state = new ListingState();
+        for (int i = 0; i < MANY; i++) {
+            state.putFile("/home/user/project/src/dir" + i % 10 + "/File" + i + ".java", i, MANY - i);
+        }
+        state.putFile("/home/ümlaut/€.txt", Long.MAX_VALUE, 0);
+        state.putFile("relative", -1, Long.MAX_VALUE);
+        state.putDirectory("/home/user", new DirectoryListing(42, new String[] {"project", "a.txt" },
+                new boolean[] {true, false }));
+        state.putDirectory("/home/user/project", new DirectoryListing(43, new String[0], new boolean[0]));
+        state.write(stateFile);
+
+        final ListingState read = ListingState.read(stateFile);
+        assertEquals("All files should be read.", new ArrayList<String>(state.getFileNames()),
+                new ArrayList<String>(read.getFileNames()));
+        for (final String name : state.getFileNames()) {
+            assertEquals("Entry of " + name + " should be read.", state.getFile(name), read.getFile(name));
+        }
+        assertEquals("All directories should be read.", 2, read.getDirectoryCount());
+        final DirectoryListing listing = read.getDirectory("/home/user");
+        assertEquals(42, listing.getLastModified());
+        assertEquals(2, listing.size());
+        assertEquals("project", listing.getName(0));
+        assertTrue(listing.isDirectory(0));
+        assertEquals("a.txt", listing.getName(1));
+        assertFalse(listing.isDirectory(1));
+        assertEquals(0, read.getDirectory("/home/user/project").size());
+    }
+
+    public void testFrontCodingIsCompact() throws IOException {
+        final ListingState state = new ListingState();
+        int plainBytes = 0;
+        for (int i = 0; i < MANY; i++) {
+            final String name = "/home/user/project/src/main/java/org/arctic/File" + i + ".java";
+            plainBytes += name.length();
+            state.putFile(name, 0, 0);
+        }
+        state.write(stateFile);
+        assertTrue("Front coding should store shared prefixes only once.", stateFile.length() < plainBytes / 2);
+    }
+
+    public void testReadDirectory() throws IOException {
+        final File dir = File.createTempFile("ListingStateTest", ".dir");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        try {
+            assertTrue(new File(dir, "sub").mkdir());
+            assertTrue(new File(dir, "file").createNewFile());
+            final DirectoryListing listing = DirectoryListing.read(dir);
+            assertEquals(2, listing.size());
+            for (int i = 0; i < listing.size(); i++) {
+                assertEquals("Directory flag of " + listing.getName(i), "sub".equals(listing.getName(i)), listing
+                        .isDirectory(i));
+            }
+        }
+        finally {
+            new File(dir, "sub").delete();
+            new File(dir, "file").delete();
+            dir.delete();
+        }
+        try {
+            DirectoryListing.read(dir);
+            fail("Listing a missing directory should fail.");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownFormat() throws IOException {
+        final FileOutputStream out = new FileOutputStream(stateFile);
+        out.write(Arrays.asList("lorem", "ipsum").toString().getBytes("UTF-8"));
+        out.close();
+        try {
+            ListingState.read(stateFile);
+            fail("Reading a file of unknown format should fail.");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+    }
+}
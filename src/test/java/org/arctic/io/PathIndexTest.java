@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class PathIndexTest extends TestCase {
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+    private File indexFile;
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        indexFile = File.createTempFile("PathIndexTest", ".index");
+        dir = File.createTempFile("PathIndexTest", ".dir");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        indexFile.delete();
+        new File(new File(dir, "a"), "b").delete();
+        new File(dir, "a").delete();
+        new File(dir, "c").delete();
+        dir.delete();
+        super.tearDown();
+    }
+
+    private PathIndexReader write(final Map<String, Long> directories, final long scanned, final String... paths)
+            throws IOException {
+        final PathIndexWriter writer =
+                new PathIndexWriter(new FileOutputStream(indexFile), dir.getAbsolutePath(), scanned, directories);
+        for (final String path : paths) {
+            writer.write(path);
+        }
+        writer.close();
+        assertEquals(paths.length, writer.getCount());
+        return new PathIndexReader(indexFile);
+    }
+
+    public void testRoundTrip() throws IOException {
+        final PathIndexReader reader =
+                write(new TreeMap<String, Long>(), 0, "a/b/x.jar", "a/b/y.txt", "a/c.jar", "d", "ä/€.jar");
+        try {
+            assertEquals(dir.getAbsolutePath(), reader.getBaseDir());
+            assertEquals(5, reader.size());
+            assertEquals("a/b/x.jar", reader.getPath(0));
+            assertEquals("d", reader.getPath(3));
+            assertEquals("ä/€.jar", reader.getPath(4));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        final PathIndexReader reader = write(new TreeMap<String, Long>(), 0);
+        assertEquals(0, reader.size());
+        assertEquals(0, reader.getStart("a"));
+        assertEquals(0, reader.getEnd("a"));
+        reader.close();
+    }
+
+    public void testPrefixRange() throws IOException {
+        final PathIndexReader reader =
+                write(new TreeMap<String, Long>(), 0, "a", "a-b/c", "a/b/x.jar", "a/b/y.txt", "a/c.jar", "b");
+        try {
+            assertEquals(2, reader.getStart("a/"));
+            assertEquals(5, reader.getEnd("a/"));
+            assertEquals(2, reader.getStart("a/b/"));
+            assertEquals(4, reader.getEnd("a/b/"));
+            assertEquals(0, reader.getStart(""));
+            assertEquals(6, reader.getEnd(""));
+            assertEquals("Missing prefix should give an empty range.", reader.getStart("a/d"), reader.getEnd("a/d"));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testFindEndingWith() throws IOException {
+        final PathIndexReader reader =
+                write(new TreeMap<String, Long>(), 0, "a/b/x.jar", "a/b/y.txt", "a/c.jar", "jar");
+        try {
+            final byte[] suffix = ".jar".getBytes("UTF-8");
+            assertEquals(0, reader.findEndingWith(0, 4, suffix));
+            assertEquals(2, reader.findEndingWith(1, 4, suffix));
+            assertEquals("Shorter paths should not match.", 4, reader.findEndingWith(3, 4, suffix));
+            assertEquals(2, reader.findEndingWith(1, 2, suffix));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testFreshness() throws IOException {
+        final File a = new File(dir, "a");
+        final File b = new File(a, "b");
+        final File c = new File(dir, "c");
+        assertTrue(b.mkdirs() && c.mkdir());
+        final long past = System.currentTimeMillis() - ONE_HOUR;
+        for (final File directory : new File[] {dir, a, b, c }) {
+            assertTrue(directory.setLastModified(past));
+        }
+        final Map<String, Long> directories = new TreeMap<String, Long>();
+        directories.put("", dir.lastModified());
+        directories.put("a", a.lastModified());
+        directories.put("a/b", b.lastModified());
+        directories.put("c", c.lastModified());
+        PathIndexReader reader = write(directories, System.currentTimeMillis());
+        assertEquals(4, reader.getDirectoryCount());
+        assertTrue(reader.isFresh(""));
+        assertTrue(reader.isFresh("a/b"));
+
+        assertTrue(c.setLastModified(past + 1000L));
+        assertFalse("Modification below should be detected.", reader.isFresh(""));
+        assertTrue("Modification of a sibling should be ignored.", reader.isFresh("a"));
+
+        assertTrue(dir.setLastModified(past + 1000L));
+        assertFalse("Modification of a parent should be detected.", reader.isFresh("a/b"));
+        reader.close();
+
+        reader = write(directories, past + 1000L);
+        assertFalse("Directories modified shortly before scanning should be stale.", reader.isFresh("a"));
+        reader.close();
+    }
+
+    public void testPathsMustBeAscending() throws IOException {
+        final PathIndexWriter writer =
+                new PathIndexWriter(new FileOutputStream(indexFile), "/", 0, new TreeMap<String, Long>());
+        writer.write("b");
+        try {
+            writer.write("a");
+            fail("An exception should have been thrown that the paths are not ascending.");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+        writer.close();
+    }
+
+    public void testNoIndex() throws IOException {
+        final FileOutputStream out = new FileOutputStream(indexFile);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            new PathIndexReader(indexFile);
+            fail("An exception should have been thrown that the file is no index.");
+        }
+        catch (final IOException e) {
+            assertTrue(e.getMessage().startsWith("No path index"));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import junit.framework.TestCase;
+
+public class PathTreeWriterTest extends TestCase {
+    private static String write(final String... paths) throws XMLStreamException {
+        final StringWriter out = new StringWriter();
+        final XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        final PathTreeWriter writer = new PathTreeWriter(xmlWriter, '/');
+        for (final String path : paths) {
+            writer.writeFile(path);
+        }
+        writer.close();
+        xmlWriter.close();
+        return out.toString();
+    }
+
+    public void testEmpty() throws XMLStreamException {
+        assertEquals("Wrong tree.", "<tree separator=\"/\"></tree>", write());
+    }
+
+    public void testNested() throws XMLStreamException {
+        assertEquals("Wrong tree.", "<tree separator=\"/\">"
+                + "<dir name=\"\"><dir name=\"a\">"
+                + "<dir name=\"b\"><file name=\"x\"/><file name=\"y\"/></dir>"
+                + "<file name=\"c\"/>"
+                + "<dir name=\"d\"><dir name=\"e\"><file name=\"f\"/></dir></dir>"
+                + "</dir><file name=\"g\"/></dir>"
+                + "<file name=\"h\"/>"
+                + "</tree>", write("/a/b/x", "/a/b/y", "/a/c", "/a/d/e/f", "/g", "h"));
+    }
+
+    public void testAttributes() throws XMLStreamException {
+        final StringWriter out = new StringWriter();
+        final XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        final PathTreeWriter writer = new PathTreeWriter(xmlWriter, '/');
+        writer.writeFile("a/b");
+        xmlWriter.writeAttribute("size", "1");
+        writer.close();
+        xmlWriter.close();
+        assertEquals("Wrong tree.", "<tree separator=\"/\"><dir name=\"a\"><file name=\"b\" size=\"1\"/></dir>"
+                + "</tree>", out.toString());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class ResolutionCacheTest extends TestCase {
+    private File cacheFile;
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cacheFile = File.createTempFile("ResolutionCacheTest", ".cache");
+        dir = File.createTempFile("ResolutionCacheTest", ".dir");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cacheFile.delete();
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        final Map<String, Long> directories = new TreeMap<String, Long>();
+        directories.put(dir.getAbsolutePath(), dir.lastModified());
+        directories.put("/home/ümlaut", 42L);
+        cache.put("key", new ResolutionCache.Entry(new String[] {"/home/a.jar", null }, directories));
+        cache.put("empty", new ResolutionCache.Entry(new String[0], Collections.<String, Long> emptyMap()));
+        assertNull(cache.lookUp("unknown"));
+        assertNotNull(cache.lookUp("empty"));
+        cache.write(cacheFile);
+
+        final ResolutionCache read = ResolutionCache.read(cacheFile);
+        assertEquals("All entries should be read.", 2, read.size());
+        assertEquals("Hits should be counted per instance.", 0, read.getHits());
+        assertEquals("Misses should be counted per instance.", 0, read.getMisses());
+        read.put("valid", new ResolutionCache.Entry(new String[] {"x" },
+                Collections.singletonMap(dir.getAbsolutePath(), dir.lastModified())));
+        final ResolutionCache.Entry valid = read.lookUp("valid");
+        assertEquals(Arrays.asList("x"), Arrays.asList(valid.getResults()));
+        // the entry read depends on a directory which does not exist
+        assertNull("Entry with changed directory should be invalid.", read.lookUp("key"));
+        assertEquals("Invalid entry should be removed.", 2, read.size());
+        assertEquals(1, read.getHits());
+        assertEquals(1, read.getMisses());
+    }
+
+    public void testModified() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        assertFalse(cache.isModified());
+        cache.put("key", new ResolutionCache.Entry(new String[] {"a" },
+                Collections.singletonMap(dir.getAbsolutePath(), dir.lastModified())));
+        assertTrue("Adding an entry should modify the cache.", cache.isModified());
+        cache.write(cacheFile);
+        assertFalse("Writing should reset the modification.", cache.isModified());
+
+        final ResolutionCache read = ResolutionCache.read(cacheFile);
+        assertFalse("A cache read should not be modified.", read.isModified());
+        assertNotNull(read.lookUp("key"));
+        assertNull(read.lookUp("unknown"));
+        assertFalse("Lookups should not modify the cache.", read.isModified());
+        assertTrue(dir.setLastModified(dir.lastModified() - 10000L));
+        assertNull(read.lookUp("key"));
+        assertTrue("Removing an invalid entry should modify the cache.", read.isModified());
+    }
+
+    public void testReadEntry() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        cache.put("key", new ResolutionCache.Entry(new String[] {"/home/a.jar", null },
+                Collections.singletonMap(dir.getAbsolutePath(), dir.lastModified())));
+        cache.write(cacheFile);
+
+        final ResolutionCache.Entry entry = ResolutionCache.read(cacheFile).lookUp("key");
+        assertNotNull("Entry should be valid.", entry);
+        assertEquals(Arrays.asList("/home/a.jar", null), Arrays.asList(entry.getResults()));
+        assertEquals(Collections.singletonMap(dir.getAbsolutePath(), dir.lastModified()), entry.getDirectories());
+    }
+
+    public void testModifiedDirectoryInvalidatesEntry() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        final long lastModified = dir.lastModified();
+        cache.put("key", new ResolutionCache.Entry(new String[] {"a" },
+                Collections.singletonMap(dir.getAbsolutePath(), lastModified)));
+        assertTrue(dir.setLastModified(lastModified - 10000L));
+        assertNull("Entry should be invalid.", cache.lookUp("key"));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testUnknownFormat() throws IOException {
+        final FileOutputStream out = new FileOutputStream(cacheFile);
+        out.write(new byte[] {1, 2, 3, 4 });
+        out.close();
+        try {
+            ResolutionCache.read(cacheFile);
+            fail("An exception should have been thrown that the format is unknown.");
+        }
+        catch (final IOException e) {
+            assertTrue(e.getMessage().startsWith("Unknown format of cache file"));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class ExternalSorterTest extends TestCase {
+    private static final int VALUES = 5000;
+    private static final long SEED = 42L;
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = File.createTempFile("ExternalSorterTest", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        tempDir.delete();
+        super.tearDown();
+    }
+
+    private void assertSorted(final long memoryBudget, final boolean expectRuns) throws Exception {
+        final Random random = new Random(SEED);
+        final TreeSet<String> expected = new TreeSet<String>();
+        final ExternalSorter sorter = new ExternalSorter(memoryBudget, tempDir);
+        try {
+            for (int i = 0; i < VALUES; i++) {
+                final String value = "/dir" + random.nextInt(VALUES / 2) + "/fäil€";
+                expected.add(value);
+                sorter.add(value);
+            }
+            assertEquals("Unexpected use of temporary runs.", expectRuns, sorter.getRunCount() > 0);
+            final List<String> actual = new ArrayList<String>();
+            for (final String value : sorter) {
+                actual.add(value);
+            }
+            assertEquals("Values should be sorted and distinct.", new ArrayList<String>(expected), actual);
+        }
+        finally {
+            sorter.close();
+        }
+        assertEquals("Temporary runs should have been deleted.", 0, tempDir.list().length);
+    }
+
+    public void testInMemory() throws Exception {
+        assertSorted(Long.MAX_VALUE, false);
+    }
+
+    public void testRuns() throws Exception {
+        assertSorted(10000L, true);
+    }
+
+    public void testMultiPassMerge() throws Exception {
+        // about 500 runs, more than can be merged at once
+        assertSorted(1000L, true);
+    }
+
+    public void testEmpty() {
+        final ExternalSorter sorter = new ExternalSorter(1L, tempDir);
+        assertFalse("Sorter should be empty.", sorter.iterator().hasNext());
+        sorter.close();
+    }
+
+    public void testIterateOnlyOnce() {
+        final ExternalSorter sorter = new ExternalSorter(1L, tempDir);
+        sorter.iterator();
+        try {
+            sorter.iterator();
+            fail("Sorter should only be iterated once.");
+        }
+        catch (final IllegalStateException e) {
+            // expected
+        }
+        finally {
+            sorter.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class ParallelMapperTest extends TestCase {
+    private static final int ELEMENTS = 1000;
+    private static final int THREADS = 4;
+    private static final int LOOKAHEAD = 8;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testOrderPreserved() {
+        final List<Integer> source = new ArrayList<Integer>();
+        for (int i = 0; i < ELEMENTS; i++) {
+            source.add(Integer.valueOf(i));
+        }
+        final Random random = new Random(42);
+        final ParallelMapper<Integer, String> mapper =
+                new ParallelMapper<Integer, String>(executor, LOOKAHEAD, new ParallelMapper.Function<Integer, String>() {
+                    public String apply(final Integer element) throws InterruptedException {
+                        synchronized (random) {
+                            if (random.nextInt(10) == 0) {
+                                Thread.sleep(1);
+                            }
+                        }
+                        return "#" + element;
+                    }
+                });
+        int expected = 0;
+        for (final String result : mapper.map(source)) {
+            assertEquals("Results should be returned in source order.", "#" + expected, result);
+            expected++;
+        }
+        assertEquals("All elements should have been mapped.", ELEMENTS, expected);
+    }
+
+    public void testEmpty() {
+        final ParallelMapper<String, String> mapper =
+                new ParallelMapper<String, String>(executor, 1, new ParallelMapper.Function<String, String>() {
+                    public String apply(final String element) {
+                        return element;
+                    }
+                });
+        assertFalse("There should be no results.", mapper.map(new ArrayList<String>()).iterator().hasNext());
+    }
+
+    public void testFailure() {
+        final List<String> source = new ArrayList<String>();
+        source.add("a");
+        source.add("b");
+        source.add("c");
+        final Exception failure = new Exception("Lorem");
+        final ParallelMapper<String, String> mapper =
+                new ParallelMapper<String, String>(executor, 2, new ParallelMapper.Function<String, String>() {
+                    public String apply(final String element) throws Exception {
+                        if ("b".equals(element)) {
+                            throw failure;
+                        }
+                        return element;
+                    }
+                });
+        final Iterator<String> iterator = mapper.map(source).iterator();
+        assertEquals("First result should be returned.", "a", iterator.next());
+        try {
+            iterator.next();
+            fail("The failure of the mapping should be rethrown.");
+        }
+        catch (final IllegalStateException e) {
+            assertSame("Wrong cause.", failure, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class PathPatternTest extends TestCase {
+    private static void assertMatches(final String patterns, final String path) {
+        assertTrue("\"" + patterns + "\" should match \"" + path + "\".", PathPattern.compile(patterns, true)
+                .matcher(path).matches());
+    }
+
+    private static void assertNotMatches(final String patterns, final String path) {
+        assertFalse("\"" + patterns + "\" should not match \"" + path + "\".", PathPattern.compile(patterns,
+                true).matcher(path).matches());
+    }
+
+    public void testSingleComponentWildcards() {
+        assertMatches("*.java", "A.java");
+        assertMatches("A?.java", "AB.java");
+        assertNotMatches("*.java", "src/A.java");
+        assertNotMatches("A?.java", "A.java");
+        assertNotMatches("A?.java", "A/.java");
+        assertNotMatches("*.java", "A.javax");
+    }
+
+    public void testAnyComponents() {
+        assertMatches("**/*.java", "A.java");
+        assertMatches("**/*.java", "/home/src/A.java");
+        assertMatches("**/*.java", "C:\\src\\A.java");
+        assertMatches("src/**/A.java", "src/A.java");
+        assertMatches("src/**/A.java", "src/a/b/A.java");
+        assertNotMatches("src/**/A.java", "src/a/b/BA.java");
+        assertMatches("src/**", "src");
+        assertMatches("src/**", "src/a/b");
+        assertNotMatches("src/**", "srcx/a");
+        assertMatches("src/", "src/a");
+        assertMatches("**", "/any/thing");
+    }
+
+    public void testLiterals() {
+        assertMatches("/home/a+b(1).txt", "/home/a+b(1).txt");
+        assertMatches("/home/a+b(1).txt", "\\home\\a+b(1).txt");
+        assertNotMatches("/home/a.txt", "/home/abtxt");
+        assertNotMatches("/home/a.txt", "/home/A.txt");
+    }
+
+    public void testSeveralPatterns() {
+        final Pattern pattern = PathPattern.compile("**/*.java, **/*.xml **/*.properties", true);
+        assertTrue("Should match first pattern.", pattern.matcher("/a/B.java").matches());
+        assertTrue("Should match second pattern.", pattern.matcher("/a/b.xml").matches());
+        assertTrue("Should match third pattern.", pattern.matcher("/a/c.properties").matches());
+        assertFalse("Should match no pattern.", pattern.matcher("/a/b.txt").matches());
+    }
+
+    public void testCaseInsensitive() {
+        assertTrue("Should ignore case.", PathPattern.compile("**/*.JAVA", false).matcher("/src/a.java")
+                .matches());
+    }
+
+    public void testNoPattern() {
+        try {
+            PathPattern.compile(" , ", true);
+            fail("An empty pattern list should be rejected.");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
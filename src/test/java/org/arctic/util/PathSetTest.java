@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class PathSetTest extends TestCase {
+    private static final int MANY = 10000;
+
+    private static final List<String> PATHS = Arrays.asList("/usr/local/lib/a.jar", "/usr/local/lib/b.jar",
+            "/usr/local/lib", "/usr/local/lib/", "C:\\Program Files\\Lorem\\ipsum.txt",
+            "http://example.org/dolor/sit.html", "relative/path", "/", "//double//slash", "",
+            "/home/\u00fcmlaut/\u20ac/\ud83d\ude00.txt", "/broken/\ud800surrogate");
+
+    public void testAddAndIterate() {
+        final PathSet set = new PathSet();
+        for (final String path : PATHS) {
+            assertTrue("Path should be new: " + path, set.add(path));
+        }
+        assertEquals("Size should match number of paths added.", PATHS.size(), set.size());
+        assertEquals("Iteration should return all paths unchanged.", new HashSet<String>(PATHS),
+                new HashSet<String>(set));
+    }
+
+    public void testDuplicates() {
+        final PathSet set = new PathSet();
+        for (final String path : PATHS) {
+            set.add(path);
+        }
+        for (final String path : PATHS) {
+            assertFalse("Path should be known already: " + path, set.add(path));
+        }
+        assertEquals("Duplicates must not change the size.", PATHS.size(), set.size());
+    }
+
+    public void testContains() {
+        final PathSet set = new PathSet();
+        set.add("/usr/local/lib/a.jar");
+        assertTrue("Added path should be contained.", set.contains("/usr/local/lib/a.jar"));
+        assertFalse("Prefix should not be contained.", set.contains("/usr/local/lib/"));
+        assertFalse("Prefix should not be contained.", set.contains("/usr/local/lib"));
+        assertFalse("Unknown path should not be contained.", set.contains("/usr/local/lib/b.jar"));
+        assertFalse("Empty path should not be contained.", set.contains(""));
+        assertFalse("Other types should not be contained.", set.contains(Integer.valueOf(1)));
+    }
+
+    public void testMany() {
+        final PathSet set = new PathSet();
+        final Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < MANY; i++) {
+            final String path = "/root/dir" + i % 97 + "/sub" + i % 13 + "/file" + i + ".txt";
+            expected.add(path);
+            assertTrue("Path should be new: " + path, set.add(path));
+        }
+        assertEquals("Iteration should return all paths.", expected, new HashSet<String>(set));
+        for (final String path : expected) {
+            assertTrue("Path should be contained: " + path, set.contains(path));
+        }
+    }
+
+    public void testClear() {
+        final PathSet set = new PathSet();
+        set.add("/a/b");
+        set.clear();
+        assertEquals("Set should be empty.", 0, set.size());
+        assertFalse("Set should be empty.", set.iterator().hasNext());
+        assertTrue("Path should be new after clear.", set.add("/a/b"));
+    }
+
+    public void testRemoveUnsupported() {
+        final PathSet set = new PathSet();
+        set.add("/a/b");
+        try {
+            set.remove("/a/b");
+            fail("Removal should not be supported.");
+        }
+        catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PipeTest extends TestCase {
+    private static final int ELEMENTS = 1000;
+
+    public void testHandOverInOrder() throws Exception {
+        final Pipe<Integer> pipe = new Pipe<Integer>(2);
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < ELEMENTS; i++) {
+                        pipe.put(Integer.valueOf(i));
+                    }
+                    pipe.close();
+                }
+                catch (final InterruptedException e) {
+                    // test will fail
+                }
+            }
+        };
+        producer.start();
+        final List<Integer> received = new ArrayList<Integer>();
+        for (final Integer element : pipe) {
+            received.add(element);
+        }
+        producer.join();
+        assertEquals("All elements should have been received.", ELEMENTS, received.size());
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertEquals("Elements should be received in order.", Integer.valueOf(i), received.get(i));
+        }
+    }
+
+    public void testProducerFailure() throws Exception {
+        final Pipe<String> pipe = new Pipe<String>(2);
+        final RuntimeException failure = new RuntimeException("Lorem");
+        pipe.put("a");
+        pipe.fail(failure);
+        final Iterator<String> iterator = pipe.iterator();
+        assertEquals("Elements before failure should be received.", "a", iterator.next());
+        try {
+            iterator.hasNext();
+            fail("Failure of producer should be reported to consumer.");
+        }
+        catch (final IllegalStateException e) {
+            assertSame("Cause should be the failure of the producer.", failure, e.getCause());
+        }
+    }
+
+    public void testCancelReleasesProducer() throws Exception {
+        final Pipe<String> pipe = new Pipe<String>(1);
+        assertTrue("Element should be accepted.", pipe.put("a"));
+        final Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                pipe.cancel();
+            }
+        };
+        consumer.start();
+        assertFalse("Blocked producer should be released on cancel.", pipe.put("b"));
+        consumer.join();
+        assertTrue("Pipe should be cancelled.", pipe.isCancelled());
+    }
+
+    public void testIterateOnlyOnce() {
+        final Pipe<String> pipe = new Pipe<String>(1);
+        pipe.iterator();
+        try {
+            pipe.iterator();
+            fail("Pipe should only be iterated once.");
+        }
+        catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+}
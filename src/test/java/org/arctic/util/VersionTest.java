@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009 Mark Michaelis <thragor_at_gmx.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arctic.util;
+
+import junit.framework.TestCase;
+
+public class VersionTest extends TestCase {
+    private static void assertLess(final String lower, final String higher) {
+        final Version lowerVersion = Version.parse(lower);
+        final Version higherVersion = Version.parse(higher);
+        assertTrue(lower + " should be less than " + higher, lowerVersion.compareTo(higherVersion) < 0);
+        assertTrue(higher + " should be greater than " + lower, higherVersion.compareTo(lowerVersion) > 0);
+    }
+
+    private static void assertSame(final String name, final String other) {
+        assertEquals(name + " should equal " + other, Version.parse(name), Version.parse(other));
+        assertEquals(0, Version.parse(name).compareTo(Version.parse(other)));
+        assertEquals(Version.parse(name).hashCode(), Version.parse(other).hashCode());
+    }
+
+    public void testNumbersCompareByValue() {
+        assertLess("foo-1.9.jar", "foo-1.10.jar");
+        assertLess("foo-2.jar", "foo-10.jar");
+        assertLess("foo-1.0.jar", "foo-1.0.1.jar");
+        assertLess("foo-99999999999999999999.jar", "foo-100000000000000000000.jar");
+    }
+
+    public void testQualifiersAreLessThanRelease() {
+        assertLess("foo-1.0-beta.jar", "foo-1.0.jar");
+        assertLess("foo-1.0-rc1.jar", "foo-1.0.jar");
+        assertLess("foo-1.0-alpha.jar", "foo-1.0-beta.jar");
+        assertLess("foo-1.0.jar", "foo-1.0.1-beta.jar");
+    }
+
+    public void testNormalization() {
+        assertSame("foo-1.01.jar", "foo-1.1.jar");
+        assertSame("Foo-1.0-RC.jar", "foo-1.0-rc.zip");
+        assertSame("foo_1_0", "foo-1.0.jar");
+    }
+
+    public void testExtensionWithDigitsIsParsed() {
+        assertLess("lib.so.1", "lib.so.2");
+        assertEquals("lib.so-1", Version.parse("lib.so.1").toString());
+    }
+
+    public void testToString() {
+        assertEquals("foo-1.10-beta", Version.parse("foo-1.10-beta.jar").toString());
+        assertEquals("", Version.parse(".jar").toString());
+    }
+}